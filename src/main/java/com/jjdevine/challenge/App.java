@@ -3,10 +3,25 @@ package com.jjdevine.challenge;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import org.bson.Document;
+
+import com.jjdevine.challenge.analysis.AnalysisRegistry;
 import com.jjdevine.challenge.controller.ControllerProcess;
 import com.jjdevine.challenge.dao.ChallengeDAO;
 import com.jjdevine.challenge.dao.ChallengeDAOImpl;
+import com.jjdevine.challenge.job.CountingMode;
+import com.jjdevine.challenge.job.ResultEncoding;
+import com.jjdevine.challenge.job.SplitMode;
+import com.jjdevine.challenge.worker.PoolWorker;
+import com.jjdevine.challenge.worker.TokenizerMode;
+import com.jjdevine.challenge.worker.WorkerMode;
+import com.jjdevine.challenge.worker.WorkerPoolManager;
 import com.jjdevine.challenge.worker.WorkerProcess;
 
 /**
@@ -17,9 +32,14 @@ import com.jjdevine.challenge.worker.WorkerProcess;
 public class App 
 {
 	/**
-	 * Number of worker threads to use.
+	 * Default number of virtual worker threads to use per core.
+	 */
+	private static final int VIRTUAL_WORKERS_PER_CORE = 4;
+	
+	/**
+	 * Pattern that a namespace must match, so that it can be used in collection names.
 	 */
-	private static final int NUM_THREADS = 3;
+	private static final String NAMESPACE_PATTERN = "[A-Za-z0-9_-]+";
 	
 	/**
 	 * Core configuration data for the application.
@@ -31,6 +51,12 @@ public class App
 	 */
 	private ChallengeDAO challengeDAO;
 	
+	/**
+	 * Fork/join pool on which the node's workers count sub-ranges of byte range jobs, or null if each job is counted
+	 * on a single thread.
+	 */
+	private ForkJoinPool parallelCountingPool;
+	
 	/**
 	 * Public constructor.
 	 * @param appData configuration data
@@ -46,40 +72,151 @@ public class App
 	 */
 	public void initialise() {
 		try {
-			if(shouldRunAsControlProcess()) {
-				challengeDAO.clearAllCollections(); //reset all collections
-				new ControllerProcess(appData, challengeDAO).process();
+			if(!appData.isPooled() && shouldRunAsControlProcess()) {
+				ControllerProcess controllerProcess = new ControllerProcess(appData, challengeDAO);
+				Document process = challengeDAO.getProcess();
+				if(controllerProcess.canAdopt(process)) {
+					//the previous controller failed part way through a run - carry on with it rather than starting again
+					controllerProcess.adopt(process);
+				} else {
+					if(RunMode.INCREMENTAL.equals(appData.getRunMode())) {
+						challengeDAO.clearRunCollections(); //reset all collections except the results being added to
+					} else {
+						challengeDAO.clearAllCollections(); //reset all collections
+					}
+					controllerProcess.process();
+				}
 			} else {
-				Logger.log("Creating " + NUM_THREADS + " worker threads.", "n/a");
-				//spawn a number of worker threads
+				if(appData.getCountThreads() > 1) {
+					parallelCountingPool = new ForkJoinPool(appData.getCountThreads());
+				}
+				runWorkers();
+			}
+		} finally {
+			if(parallelCountingPool != null) {
+				parallelCountingPool.shutdownNow();
+			}
+			Logger.log("closing connections", "n/a");
+			challengeDAO.closeConnections();
+		}
+	}
+	
+	/**
+	 * Run this node's worker processes.
+	 */
+	private void runWorkers() {
+		if(WorkerMode.VIRTUAL.equals(appData.getWorkerMode())) {
+			runVirtualWorkers();
+		} else if(appData.getWorkerCount() == 0) {
+			runAdaptiveWorkers();
+		} else {
+			int workerCount = appData.getWorkerCount();
+			Logger.log("Creating " + workerCount + " worker threads.", "n/a");
+			//spawn a number of worker threads
+			
+			List<Thread> threads = new ArrayList<>();
+			
+			for(int count=0; count < workerCount; count++) {
 				
-				List<Thread> threads = new ArrayList<>();
 				
-				for(int count=0; count < NUM_THREADS; count++) {
+				Thread t = new Thread(new Runnable() {
 					
-					
-					Thread t = new Thread(new Runnable() {
-						
-						@Override
-						public void run() {
-							new WorkerProcess(appData, challengeDAO).process();
+					@Override
+					public void run() {
+						if(appData.isPooled()) {
+							createPoolWorker(null).process();
+						} else {
+							createWorkerProcess(null).process();
 						}
-					});
-					threads.add(t);
-					t.start();
-				}
-				
-				for(Thread thread: threads) {
-					try {
-						thread.join();
-					} catch (InterruptedException e) {
-						throw new RuntimeException("Error joining thread", e);
 					}
+				});
+				threads.add(t);
+				t.start();
+			}
+			
+			for(Thread thread: threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					throw new RuntimeException("Error joining thread", e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Create a worker process that shares the node's resources.
+	 * @param countingExecutor Executor on which CPU bound counting is run, or null to count on the worker's own thread.
+	 * @return the worker process.
+	 */
+	private WorkerProcess createWorkerProcess(ExecutorService countingExecutor) {
+		WorkerProcess worker = new WorkerProcess(appData, challengeDAO, countingExecutor);
+		worker.shareParallelCountingPool(parallelCountingPool);
+		return worker;
+	}
+	
+	/**
+	 * Create a pooled worker that shares the node's resources.
+	 * @param countingExecutor Executor on which CPU bound counting is run, or null to count on the worker's own thread.
+	 * @return the pooled worker.
+	 */
+	private PoolWorker createPoolWorker(ExecutorService countingExecutor) {
+		PoolWorker worker = new PoolWorker(appData, challengeDAO, countingExecutor);
+		worker.shareParallelCountingPool(parallelCountingPool);
+		return worker;
+	}
+
+	/**
+	 * Run worker processes on a pool sized from the node's processors and memory, which grows and shrinks with the
+	 * load on the node and the backlog of jobs.
+	 */
+	private void runAdaptiveWorkers() {
+		WorkerPoolManager poolManager = new WorkerPoolManager(appData, challengeDAO);
+		poolManager.run(() -> {
+			if(appData.isPooled()) {
+				PoolWorker worker = createPoolWorker(null);
+				worker.retireWhenSurplus(poolManager);
+				worker.process();
+			} else {
+				WorkerProcess worker = createWorkerProcess(null);
+				worker.retireWhenSurplus(poolManager);
+				worker.process();
+			}
+		});
+	}
+
+	/**
+	 * Run worker processes on virtual threads. Workers spend most of their time polling or waiting on the persistent 
+	 * store, which no longer ties up a platform thread, so many more can be run than there are cores. The CPU bound
+	 * counting is confined to a pool with one platform thread per core.
+	 */
+	private void runVirtualWorkers() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int workerCount = appData.getWorkerCount() > 0 ? appData.getWorkerCount() : cores * VIRTUAL_WORKERS_PER_CORE;
+		Logger.log("Creating " + workerCount + " virtual worker threads sharing " + cores + " counting threads.", "n/a");
+		
+		ExecutorService countingExecutor = Executors.newFixedThreadPool(cores);
+		try (ExecutorService workerExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<?>> workers = new ArrayList<>();
+			for(int count=0; count < workerCount; count++) {
+				if(appData.isPooled()) {
+					workers.add(workerExecutor.submit(() -> createPoolWorker(countingExecutor).process()));
+				} else {
+					workers.add(workerExecutor.submit(() -> createWorkerProcess(countingExecutor).process()));
+				}
+			}
+			
+			for(Future<?> worker: workers) {
+				try {
+					worker.get();
+				} catch (InterruptedException e) {
+					throw new RuntimeException("Error joining worker", e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Worker failed", e.getCause());
 				}
 			}
 		} finally {
-			Logger.log("closing connections", "n/a");
-			challengeDAO.closeConnections();
+			countingExecutor.shutdown();
 		}
 	}
 
@@ -124,6 +261,124 @@ public class App
     			case "-mongo":
     				appData.setMongoHost(argValue);
     				break;
+    			case "-tokenizer":
+    				if (!TokenizerMode.STRING.equals(argValue) && !TokenizerMode.UTF8.equals(argValue)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid tokenizer");
+    				}
+    				appData.setTokenizerMode(argValue);
+    				break;
+    			case "-encoding":
+    				if (!ResultEncoding.WORDS.equals(argValue) && !ResultEncoding.DICTIONARY.equals(argValue)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid result encoding");
+    				}
+    				appData.setResultEncoding(argValue);
+    				break;
+    			case "-counting":
+    				if (!CountingMode.EXACT.equals(argValue) && !CountingMode.APPROXIMATE.equals(argValue) 
+    						&& !CountingMode.TARGETED.equals(argValue) && !CountingMode.ANALYSIS.equals(argValue)
+    						&& !CountingMode.INDEX.equals(argValue)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid counting mode");
+    				}
+    				appData.setCountingMode(argValue);
+    				break;
+    			case "-terms": //file listing the terms to count in targeted counting mode, one per line
+    				if (!(new File(argValue)).isFile()) {
+    					throw new IllegalStateException("File <" + argValue + "> does not exist");
+    				}
+    				appData.setTermListLocation(argValue);
+    				break;
+    			case "-analysis": //name of the analysis run in analysis counting mode
+    				AnalysisRegistry.get(argValue); //fail now if there is no such analysis
+    				appData.setAnalysisName(argValue);
+    				break;
+    			case "-indexDir": //directory in which the segments of the inverted index are written in index counting mode
+    				if (!(new File(argValue)).isDirectory()) {
+    					throw new IllegalStateException("Directory <" + argValue + "> does not exist");
+    				}
+    				appData.setIndexDirectory(argValue);
+    				break;
+    			case "-memoryBudget": //in megabytes
+    				appData.setMemoryBudget(parsePositiveLong(currentArgName, argValue) * 1024 * 1024);
+    				break;
+    			case "-spillDir":
+    				if (!(new File(argValue)).isDirectory()) {
+    					throw new IllegalStateException("Directory <" + argValue + "> does not exist");
+    				}
+    				appData.setSpillDirectory(argValue);
+    				break;
+    			case "-workerMode":
+    				if (!WorkerMode.PLATFORM.equals(argValue) && !WorkerMode.VIRTUAL.equals(argValue)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid worker mode");
+    				}
+    				appData.setWorkerMode(argValue);
+    				break;
+    			case "-workers":
+    				appData.setWorkerCount((int)parsePositiveLong(currentArgName, argValue));
+    				break;
+    			case "-writeBehind": //number of job results that may be queued for writing
+    				appData.setWriteQueueDepth((int)parsePositiveLong(currentArgName, argValue));
+    				break;
+    			case "-split":
+    				if (!SplitMode.LINES.equals(argValue) && !SplitMode.BYTES.equals(argValue)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid split mode");
+    				}
+    				appData.setSplitMode(argValue);
+    				break;
+    			case "-cache": //in megabytes
+    				appData.setChunkCacheSize(parsePositiveLong(currentArgName, argValue) * 1024 * 1024);
+    				break;
+    			case "-run":
+    				if (!RunMode.FULL.equals(argValue) && !RunMode.INCREMENTAL.equals(argValue)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid run mode");
+    				}
+    				appData.setRunMode(argValue);
+    				break;
+    			case "-prefetch": //number of text processing jobs each worker claims ahead
+    				appData.setPrefetchDepth((int)parsePositiveLong(currentArgName, argValue));
+    				break;
+    			case "-namespace": //keeps the collections of this run apart from those of other runs
+    				if (!argValue.matches(NAMESPACE_PATTERN)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid namespace");
+    				}
+    				appData.setNamespace(argValue);
+    				break;
+    			case "-priority": //runs with a higher priority are given pooled workers first
+    				try {
+    					appData.setRunPriority(Integer.parseInt(argValue));
+    				} catch (NumberFormatException e) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid value for " + currentArgName, e);
+    				}
+    				break;
+    			case "-weight": //share of pooled workers relative to other runs of the same priority
+    				appData.setRunWeight((int)parsePositiveLong(currentArgName, argValue));
+    				break;
+    			case "-pool":
+    				if (!"true".equals(argValue) && !"false".equals(argValue)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid value for " + currentArgName);
+    				}
+    				appData.setPooled(Boolean.parseBoolean(argValue));
+    				break;
+    			case "-ngram": //number of words in each n-gram counted, instead of single words
+    				appData.setNgramSize((int)parsePositiveLong(currentArgName, argValue));
+    				if(appData.getNgramSize() < 2) {
+    					throw new IllegalArgumentException(currentArgName + " must be at least 2");
+    				}
+    				break;
+    			case "-fanIn": //number of job results merged together before amalgamation
+    				appData.setMergeFanIn((int)parsePositiveLong(currentArgName, argValue));
+    				if(appData.getMergeFanIn() < 2) {
+    					throw new IllegalArgumentException(currentArgName + " must be at least 2");
+    				}
+    				break;
+    			case "-offHeap": //whether counted words are kept off the heap
+    				if (!"true".equals(argValue) && !"false".equals(argValue)) {
+    					throw new IllegalArgumentException("<" + argValue + "> is not a valid value for " + currentArgName);
+    				}
+    				appData.setOffHeapCounts(Boolean.parseBoolean(argValue));
+    				break;
+    			case "-countThreads": //threads sharing the counting of each byte range job (line range jobs use one thread)
+    				appData.setCountThreads((int)parsePositiveLong(currentArgName, argValue));
+    				break;
     			case "-id": //may be supplied but will be ignored
     				break;
     			default:
@@ -132,14 +387,112 @@ public class App
     		}	
     	}
     	
-    	if(appData.getSourceLocation() == null) {
+    	//pooled workers take the source of each run from the run registry
+    	if(appData.getSourceLocation() == null && !appData.isPooled()) {
     		throw new IllegalArgumentException("-source must be set");
     	}
     	
     	if(appData.getMongoHost() == null) {
     		throw new IllegalArgumentException("-mongo must be set");
     	}
+    	
+    	if(!CountingMode.EXACT.equals(appData.getCountingMode()) 
+    			&& ResultEncoding.DICTIONARY.equals(appData.getResultEncoding())) {
+    		throw new IllegalArgumentException("-encoding dictionary can only be used with exact counting");
+    	}
+    	
+    	//pooled workers take the term list of each run from the run registry
+    	if(CountingMode.TARGETED.equals(appData.getCountingMode()) && appData.getTermListLocation() == null 
+    			&& !appData.isPooled()) {
+    		throw new IllegalArgumentException("-terms must be set with -counting targeted");
+    	}
+    	
+    	if(appData.getTermListLocation() != null && !CountingMode.TARGETED.equals(appData.getCountingMode())) {
+    		throw new IllegalArgumentException("-terms can only be used with -counting targeted");
+    	}
+    	
+    	//pooled workers take the analysis of each run from the run registry
+    	if(CountingMode.ANALYSIS.equals(appData.getCountingMode()) && appData.getAnalysisName() == null 
+    			&& !appData.isPooled()) {
+    		throw new IllegalArgumentException("-analysis must be set with -counting analysis");
+    	}
+    	
+    	if(appData.getAnalysisName() != null && !CountingMode.ANALYSIS.equals(appData.getCountingMode())) {
+    		throw new IllegalArgumentException("-analysis can only be used with -counting analysis");
+    	}
+    	
+    	//pooled workers take the index directory of each run from the run registry
+    	if(CountingMode.INDEX.equals(appData.getCountingMode()) && appData.getIndexDirectory() == null 
+    			&& !appData.isPooled()) {
+    		throw new IllegalArgumentException("-indexDir must be set with -counting index");
+    	}
+    	
+    	if(appData.getIndexDirectory() != null && !CountingMode.INDEX.equals(appData.getCountingMode())) {
+    		throw new IllegalArgumentException("-indexDir can only be used with -counting index");
+    	}
+    	
+    	//postings identify each line by its byte offset, which is only known when the file is split by bytes
+    	if(CountingMode.INDEX.equals(appData.getCountingMode()) && !SplitMode.BYTES.equals(appData.getSplitMode())) {
+    		throw new IllegalArgumentException("-counting index can only be used with -split bytes");
+    	}
+    	
+    	if(appData.getMemoryBudget() > 0 && ResultEncoding.DICTIONARY.equals(appData.getResultEncoding())) {
+    		throw new IllegalArgumentException("-memoryBudget cannot be used with -encoding dictionary");
+    	}
+    	
+    	if(appData.getChunkCacheSize() > 0 && (ResultEncoding.DICTIONARY.equals(appData.getResultEncoding()) 
+    			|| !CountingMode.EXACT.equals(appData.getCountingMode()))) {
+    		throw new IllegalArgumentException("-cache can only be used with exact counting and -encoding words");
+    	}
+    	
+    	if(RunMode.INCREMENTAL.equals(appData.getRunMode()) && (ResultEncoding.DICTIONARY.equals(appData.getResultEncoding()) 
+    			|| !CountingMode.EXACT.equals(appData.getCountingMode()))) {
+    		throw new IllegalArgumentException("-run incremental can only be used with exact counting and -encoding words");
+    	}
+    	
+    	if(appData.getMergeFanIn() > 0 && (ResultEncoding.DICTIONARY.equals(appData.getResultEncoding()) 
+    			|| !CountingMode.EXACT.equals(appData.getCountingMode()))) {
+    		throw new IllegalArgumentException("-fanIn can only be used with exact counting and -encoding words");
+    	}
+    	
+    	if(appData.getCountThreads() > 1 && (ResultEncoding.DICTIONARY.equals(appData.getResultEncoding()) 
+    			|| !CountingMode.EXACT.equals(appData.getCountingMode()) || appData.getMemoryBudget() > 0)) {
+    		throw new IllegalArgumentException("-countThreads can only be used with exact counting and -encoding words, without -memoryBudget");
+    	}
+    	
+    	if(appData.getNgramSize() > 0 && (ResultEncoding.DICTIONARY.equals(appData.getResultEncoding()) 
+    			|| !CountingMode.EXACT.equals(appData.getCountingMode()) || RunMode.INCREMENTAL.equals(appData.getRunMode())
+    			|| appData.getCountThreads() > 1 || appData.getMemoryBudget() > 0)) {
+    		throw new IllegalArgumentException("-ngram can only be used with exact counting and -encoding words, without "
+    				+ "-run incremental, -countThreads or -memoryBudget");
+    	}
+    	
+    	//the off-heap table only replaces the table of exact word counts, which the other counters do not use
+    	if(appData.isOffHeapCounts() && (ResultEncoding.DICTIONARY.equals(appData.getResultEncoding()) 
+    			|| !CountingMode.EXACT.equals(appData.getCountingMode()) || appData.getNgramSize() > 0 
+    			|| appData.getCountThreads() > 1 || appData.getMemoryBudget() > 0)) {
+    		throw new IllegalArgumentException("-offHeap true can only be used with exact counting and -encoding words, without "
+    				+ "-ngram, -countThreads or -memoryBudget");
+    	}
     	return appData;
     }
+    
+    /**
+     * Parse the value of a numeric argument.
+     * @param argName the name of the argument.
+     * @param argValue the value to parse.
+     * @return the value, which will be greater than zero.
+     */
+    private static long parsePositiveLong(String argName, String argValue) {
+    	long value;
+    	try {
+    		value = Long.parseLong(argValue);
+    	} catch (NumberFormatException e) {
+    		throw new IllegalArgumentException("<" + argValue + "> is not a valid value for " + argName, e);
+    	}
+    	if(value <= 0) {
+    		throw new IllegalArgumentException(argName + " must be greater than zero");
+    	}
+    	return value;
+    }
 }
- 
\ No newline at end of file
@@ -1,5 +1,11 @@
 package com.jjdevine.challenge;
 
+import com.jjdevine.challenge.job.CountingMode;
+import com.jjdevine.challenge.job.ResultEncoding;
+import com.jjdevine.challenge.job.SplitMode;
+import com.jjdevine.challenge.worker.TokenizerMode;
+import com.jjdevine.challenge.worker.WorkerMode;
+
 public class AppData {
 	
 	/**
@@ -11,6 +17,121 @@ public class AppData {
 	 * The host string of the Mongo instance.
 	 */
 	private String mongoHost;
+	
+	/**
+	 * The way in which workers split text into words (see TokenizerMode class).
+	 */
+	private String tokenizerMode = TokenizerMode.STRING;
+	
+	/**
+	 * The way in which text processing job results are encoded (see ResultEncoding class).
+	 */
+	private String resultEncoding = ResultEncoding.WORDS;
+	
+	/**
+	 * The way in which words are counted (see CountingMode class).
+	 */
+	private String countingMode = CountingMode.EXACT;
+	
+	/**
+	 * Memory budget of each job's word count table in bytes, beyond which counts are spilled to disk (0 for no limit).
+	 */
+	private long memoryBudget = 0;
+	
+	/**
+	 * Directory in which workers spill word counts that exceed the memory budget.
+	 */
+	private String spillDirectory = System.getProperty("java.io.tmpdir");
+	
+	/**
+	 * The way in which worker processes are run (see WorkerMode class).
+	 */
+	private String workerMode = WorkerMode.PLATFORM;
+	
+	/**
+	 * Number of worker processes to run in this node (0 to use the default for the worker mode).
+	 */
+	private int workerCount = 0;
+	
+	/**
+	 * Number of completed text processing jobs whose results may be queued for writing in the background (0 to write them synchronously).
+	 */
+	private int writeQueueDepth = 0;
+	
+	/**
+	 * Number of text processing jobs each worker claims ahead of the one it is working on (0 for jobs to be assigned by the controller one at a time).
+	 */
+	private int prefetchDepth = 0;
+	
+	/**
+	 * How the source file is split into text processing jobs (see SplitMode class).
+	 */
+	private String splitMode = SplitMode.LINES;
+	
+	/**
+	 * Size limit of the cache of text processing results kept between runs, in bytes (0 for no cache).
+	 */
+	private long chunkCacheSize = 0;
+	
+	/**
+	 * Whether a run recounts the whole file or only the lines appended since the last run (see RunMode class).
+	 */
+	private String runMode = RunMode.FULL;
+	
+	/**
+	 * Namespace isolating the collections of this run from those of other runs (empty for the default namespace).
+	 */
+	private String namespace = "";
+	
+	/**
+	 * Priority of this run when sharing pooled workers with other runs - higher priority runs are served first.
+	 */
+	private int runPriority = 0;
+	
+	/**
+	 * Weight of this run when sharing pooled workers with other runs of the same priority.
+	 */
+	private int runWeight = 1;
+	
+	/**
+	 * True if this node's workers serve whichever registered runs have work waiting, rather than a single run.
+	 */
+	private boolean pooled = false;
+	
+	/**
+	 * Number of job results merged by each merge job, or 0 to amalgamate the results of every job directly.
+	 */
+	private int mergeFanIn = 0;
+	
+	/**
+	 * Number of threads counting each byte range text processing job into a shared table, or 0 to count each job on a single thread.
+	 */
+	private int countThreads = 0;
+	
+	/**
+	 * Whether workers keep the words they count in off-heap slabs instead of as Strings on the heap.
+	 */
+	private boolean offHeapCounts = false;
+	
+	/**
+	 * Location of the file listing the terms to count, one per line, in targeted counting mode.
+	 */
+	private String termListLocation = null;
+	
+	/**
+	 * Number of words in each n-gram counted, or 0 to count single words.
+	 */
+	private int ngramSize = 0;
+	
+	/**
+	 * Name of the analysis run in analysis counting mode.
+	 */
+	private String analysisName = null;
+	
+	/**
+	 * Directory in which the segments of the inverted index are written in index counting mode, one per word prefix.
+	 */
+	private String indexDirectory = null;
 
 	/**
 	 * @return the sourceLocation
@@ -40,11 +161,334 @@ public class AppData {
 		this.mongoHost = mongoHost;
 	}
 
+	/**
+	 * @return the tokenizerMode
+	 */
+	public String getTokenizerMode() {
+		return tokenizerMode;
+	}
+
+	/**
+	 * @param tokenizerMode the tokenizerMode to set
+	 */
+	public void setTokenizerMode(String tokenizerMode) {
+		this.tokenizerMode = tokenizerMode;
+	}
+
+	/**
+	 * @return the resultEncoding
+	 */
+	public String getResultEncoding() {
+		return resultEncoding;
+	}
+
+	/**
+	 * @param resultEncoding the resultEncoding to set
+	 */
+	public void setResultEncoding(String resultEncoding) {
+		this.resultEncoding = resultEncoding;
+	}
+
+	/**
+	 * @return the countingMode
+	 */
+	public String getCountingMode() {
+		return countingMode;
+	}
+
+	/**
+	 * @param countingMode the countingMode to set
+	 */
+	public void setCountingMode(String countingMode) {
+		this.countingMode = countingMode;
+	}
+
+	/**
+	 * @return the memoryBudget
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @param memoryBudget the memoryBudget to set
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @return the spillDirectory
+	 */
+	public String getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * @param spillDirectory the spillDirectory to set
+	 */
+	public void setSpillDirectory(String spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * @return the workerMode
+	 */
+	public String getWorkerMode() {
+		return workerMode;
+	}
+
+	/**
+	 * @param workerMode the workerMode to set
+	 */
+	public void setWorkerMode(String workerMode) {
+		this.workerMode = workerMode;
+	}
+
+	/**
+	 * @return the workerCount
+	 */
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	/**
+	 * @param workerCount the workerCount to set
+	 */
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+
+	/**
+	 * @return the writeQueueDepth
+	 */
+	public int getWriteQueueDepth() {
+		return writeQueueDepth;
+	}
+
+	/**
+	 * @param writeQueueDepth the writeQueueDepth to set
+	 */
+	public void setWriteQueueDepth(int writeQueueDepth) {
+		this.writeQueueDepth = writeQueueDepth;
+	}
+
+	/**
+	 * @return the prefetchDepth
+	 */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * @param prefetchDepth the prefetchDepth to set
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	/**
+	 * @return the splitMode
+	 */
+	public String getSplitMode() {
+		return splitMode;
+	}
+
+	/**
+	 * @param splitMode the splitMode to set
+	 */
+	public void setSplitMode(String splitMode) {
+		this.splitMode = splitMode;
+	}
+
+	/**
+	 * @return the chunkCacheSize
+	 */
+	public long getChunkCacheSize() {
+		return chunkCacheSize;
+	}
+
+	/**
+	 * @param chunkCacheSize the chunkCacheSize to set
+	 */
+	public void setChunkCacheSize(long chunkCacheSize) {
+		this.chunkCacheSize = chunkCacheSize;
+	}
+
+	/**
+	 * @return the runMode
+	 */
+	public String getRunMode() {
+		return runMode;
+	}
+
+	/**
+	 * @param runMode the runMode to set
+	 */
+	public void setRunMode(String runMode) {
+		this.runMode = runMode;
+	}
+
+	/**
+	 * @return the namespace
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * @param namespace the namespace to set
+	 */
+	public void setNamespace(String namespace) {
+		this.namespace = namespace;
+	}
+
+	/**
+	 * @return the runPriority
+	 */
+	public int getRunPriority() {
+		return runPriority;
+	}
+
+	/**
+	 * @param runPriority the runPriority to set
+	 */
+	public void setRunPriority(int runPriority) {
+		this.runPriority = runPriority;
+	}
+
+	/**
+	 * @return the runWeight
+	 */
+	public int getRunWeight() {
+		return runWeight;
+	}
+
+	/**
+	 * @param runWeight the runWeight to set
+	 */
+	public void setRunWeight(int runWeight) {
+		this.runWeight = runWeight;
+	}
+
+	/**
+	 * @return the pooled
+	 */
+	public boolean isPooled() {
+		return pooled;
+	}
+
+	/**
+	 * @param pooled the pooled to set
+	 */
+	public void setPooled(boolean pooled) {
+		this.pooled = pooled;
+	}
+
+	/**
+	 * @return the mergeFanIn
+	 */
+	public int getMergeFanIn() {
+		return mergeFanIn;
+	}
+
+	/**
+	 * @param mergeFanIn the mergeFanIn to set
+	 */
+	public void setMergeFanIn(int mergeFanIn) {
+		this.mergeFanIn = mergeFanIn;
+	}
+
+	/**
+	 * @return the countThreads
+	 */
+	public int getCountThreads() {
+		return countThreads;
+	}
+
+	/**
+	 * @param countThreads the countThreads to set
+	 */
+	public void setCountThreads(int countThreads) {
+		this.countThreads = countThreads;
+	}
+
+	/**
+	 * @return the offHeapCounts
+	 */
+	public boolean isOffHeapCounts() {
+		return offHeapCounts;
+	}
+
+	/**
+	 * @param offHeapCounts the offHeapCounts to set
+	 */
+	public void setOffHeapCounts(boolean offHeapCounts) {
+		this.offHeapCounts = offHeapCounts;
+	}
+
+	/**
+	 * @return the termListLocation
+	 */
+	public String getTermListLocation() {
+		return termListLocation;
+	}
+
+	/**
+	 * @param termListLocation the termListLocation to set
+	 */
+	public void setTermListLocation(String termListLocation) {
+		this.termListLocation = termListLocation;
+	}
+
+	/**
+	 * @return the ngramSize
+	 */
+	public int getNgramSize() {
+		return ngramSize;
+	}
+
+	/**
+	 * @param ngramSize the ngramSize to set
+	 */
+	public void setNgramSize(int ngramSize) {
+		this.ngramSize = ngramSize;
+	}
+
+	/**
+	 * @return the analysisName
+	 */
+	public String getAnalysisName() {
+		return analysisName;
+	}
+
+	/**
+	 * @param analysisName the analysisName to set
+	 */
+	public void setAnalysisName(String analysisName) {
+		this.analysisName = analysisName;
+	}
+
+	/**
+	 * @return the indexDirectory
+	 */
+	public String getIndexDirectory() {
+		return indexDirectory;
+	}
+
+	/**
+	 * @param indexDirectory the indexDirectory to set
+	 */
+	public void setIndexDirectory(String indexDirectory) {
+		this.indexDirectory = indexDirectory;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	@Override
 	public String toString() {
-		return "AppData [sourceLocation=" + sourceLocation + ", mongoHost=" + mongoHost + "]";
+		return "AppData [sourceLocation=" + sourceLocation + ", mongoHost=" + mongoHost + ", tokenizerMode="
+				+ tokenizerMode + ", resultEncoding=" + resultEncoding + ", countingMode=" + countingMode + ", memoryBudget=" + memoryBudget + ", spillDirectory=" + spillDirectory + ", workerMode=" + workerMode + ", workerCount=" + workerCount + ", writeQueueDepth=" + writeQueueDepth + ", prefetchDepth=" + prefetchDepth + ", splitMode=" + splitMode + ", chunkCacheSize=" + chunkCacheSize + ", runMode=" + runMode + ", namespace=" + namespace + ", runPriority=" + runPriority + ", runWeight=" + runWeight + ", pooled=" + pooled + ", mergeFanIn=" + mergeFanIn + ", countThreads=" + countThreads + ", offHeapCounts=" + offHeapCounts + ", termListLocation=" + termListLocation + ", ngramSize=" + ngramSize + ", analysisName=" + analysisName + ", indexDirectory=" + indexDirectory + "]";
 	}
 }
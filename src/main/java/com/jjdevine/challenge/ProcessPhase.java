@@ -0,0 +1,30 @@
+package com.jjdevine.challenge;
+
+/**
+ * Constant class containing the phases of the overall process, recorded so that a run can be adopted by a new
+ * controller if its controller fails.
+ * @author Jonathan
+ *
+ */
+public class ProcessPhase {
+	
+	/**
+	 * private constructor; constants class.
+	 */
+	private ProcessPhase() {}
+	
+	/**
+	 * The run has started but its text processing jobs may not all have been recorded yet.
+	 */
+	public static final String STARTING = "STARTING";
+	
+	/**
+	 * Text processing jobs are being created and processed.
+	 */
+	public static final String TEXT_PROCESSING = "TEXT_PROCESSING";
+	
+	/**
+	 * All text processing jobs are complete and the amalgamation jobs have been created.
+	 */
+	public static final String AMALGAMATION = "AMALGAMATION";
+}
@@ -0,0 +1,25 @@
+package com.jjdevine.challenge;
+
+/**
+ * Constant class containing the ways in which a run can treat the results of earlier runs.
+ * @author Jonathan
+ *
+ */
+public class RunMode {
+	
+	/**
+	 * private constructor; constants class.
+	 */
+	private RunMode() {}
+	
+	/**
+	 * All earlier results are discarded and the whole file is counted.
+	 */
+	public static final String FULL = "full";
+	
+	/**
+	 * Only the lines appended to the file since the last successful run are counted, and their counts are merged into
+	 * the existing final counts. The file is always split by bytes in this mode.
+	 */
+	public static final String INCREMENTAL = "incremental";
+}
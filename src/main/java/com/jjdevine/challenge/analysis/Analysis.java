@@ -0,0 +1,45 @@
+package com.jjdevine.challenge.analysis;
+
+/**
+ * A user defined analysis, run in place of word counting with -counting analysis. Each text processing job maps its
+ * words to key/value pairs and combines the values of each key as they are emitted; the keys are then partitioned by 
+ * prefix, and an analysis amalgamation job for each partition combines the values of every job and reduces each key to
+ * its final result.
+ * <p>
+ * Analyses are found by name (see AnalysisRegistry). Implementations are made available to the application by listing
+ * them in META-INF/services/com.jjdevine.challenge.analysis.Analysis in a jar on the classpath, and must have a public
+ * no argument constructor. Every node of a run must have the same implementation available.
+ * @author Jonathan
+ *
+ * @param <V> the type of the intermediate values.
+ */
+public interface Analysis<V> {
+
+	/**
+	 * @return the name by which the analysis is chosen with -analysis.
+	 */
+	String getName();
+	
+	/**
+	 * Create the mapper used by a single text processing job.
+	 * @return the mapper.
+	 */
+	Mapper<V> createMapper();
+	
+	/**
+	 * @return the combine function.
+	 */
+	Combiner<V> getCombiner();
+	
+	/**
+	 * @return the reduce function. By default the combined value of each key is the result.
+	 */
+	default Reducer<V> getReducer() {
+		return (key, value) -> value;
+	}
+	
+	/**
+	 * @return the codec used to store intermediate values.
+	 */
+	ValueCodec<V> getValueCodec();
+}
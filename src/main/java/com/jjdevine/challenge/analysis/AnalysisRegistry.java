@@ -0,0 +1,52 @@
+package com.jjdevine.challenge.analysis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Finds analyses by name, among the built in analyses and those made available with the ServiceLoader mechanism.
+ * @author Jonathan
+ *
+ */
+public final class AnalysisRegistry {
+
+	/**
+	 * private constructor; utility class.
+	 */
+	private AnalysisRegistry() {}
+	
+	/**
+	 * Get an analysis by name.
+	 * @param name the name of the analysis.
+	 * @return the analysis.
+	 * @throws IllegalArgumentException if there is no analysis with the name.
+	 */
+	public static Analysis<?> get(String name) {
+		Map<String, Analysis<?>> analyses = findAnalyses();
+		Analysis<?> analysis = analyses.get(name);
+		if(analysis == null) {
+			throw new IllegalArgumentException("<" + name + "> is not a known analysis (known analyses are " 
+					+ analyses.keySet() + ")");
+		}
+		return analysis;
+	}
+	
+	/**
+	 * Find every available analysis.
+	 * @return the analyses, by name.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static Map<String, Analysis<?>> findAnalyses() {
+		Map<String, Analysis<?>> analyses = new LinkedHashMap<>();
+		WordLengthAnalysis wordLengths = new WordLengthAnalysis();
+		analyses.put(wordLengths.getName(), wordLengths);
+		
+		for(Analysis analysis: ServiceLoader.load(Analysis.class)) {
+			if(analyses.putIfAbsent(analysis.getName(), analysis) != null) {
+				throw new IllegalStateException("More than one analysis is named <" + analysis.getName() + ">");
+			}
+		}
+		return analyses;
+	}
+}
@@ -0,0 +1,20 @@
+package com.jjdevine.challenge.analysis;
+
+/**
+ * The combine function of an analysis, which merges two intermediate values for the same key. It is applied as values
+ * are emitted, so a job stores one value per distinct key, and again when the results of all jobs are brought
+ * together. It must therefore be associative and commutative.
+ * @author Jonathan
+ *
+ * @param <V> the type of the intermediate values.
+ */
+public interface Combiner<V> {
+
+	/**
+	 * Merge two values for the same key.
+	 * @param first the first value.
+	 * @param second the second value.
+	 * @return the merged value.
+	 */
+	V combine(V first, V second);
+}
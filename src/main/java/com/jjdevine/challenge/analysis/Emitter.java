@@ -0,0 +1,17 @@
+package com.jjdevine.challenge.analysis;
+
+/**
+ * Receives the key/value pairs emitted by a Mapper.
+ * @author Jonathan
+ *
+ * @param <V> the type of the intermediate values.
+ */
+public interface Emitter<V> {
+
+	/**
+	 * Emit an intermediate value for a key.
+	 * @param key the key.
+	 * @param value the value.
+	 */
+	void emit(String key, V value);
+}
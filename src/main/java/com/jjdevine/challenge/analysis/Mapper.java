@@ -0,0 +1,26 @@
+package com.jjdevine.challenge.analysis;
+
+/**
+ * The map function of an analysis. A text processing job creates a mapper and passes it every word of its segment of
+ * text, in order, using the configured tokenizer. A mapper may keep state between words, but only within a line.
+ * @author Jonathan
+ *
+ * @param <V> the type of the intermediate values.
+ */
+public interface Mapper<V> {
+
+	/**
+	 * Map a word to any number of key/value pairs.
+	 * @param word the word, in lower case.
+	 * @param emitter receives the key/value pairs.
+	 */
+	void map(String word, Emitter<V> emitter);
+	
+	/**
+	 * Called at the end of each line, so that a mapper that looks at sequences of words can emit what it is holding
+	 * and start again. Nothing that spans lines may be emitted, as lines are split between jobs.
+	 * @param emitter receives the key/value pairs.
+	 */
+	default void endLine(Emitter<V> emitter) {
+	}
+}
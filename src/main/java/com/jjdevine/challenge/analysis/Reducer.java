@@ -0,0 +1,19 @@
+package com.jjdevine.challenge.analysis;
+
+/**
+ * The reduce function of an analysis, which turns the combined intermediate value of a key into its final result.
+ * @author Jonathan
+ *
+ * @param <V> the type of the intermediate values.
+ */
+public interface Reducer<V> {
+
+	/**
+	 * Produce the final result for a key.
+	 * @param key the key.
+	 * @param value the value combined from every job.
+	 * @return the result, which must be a value that can be stored in a BSON document (such as a Long, String or 
+	 * Document).
+	 */
+	Object reduce(String key, V value);
+}
@@ -0,0 +1,31 @@
+package com.jjdevine.challenge.analysis;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoding of the intermediate values of an analysis, used to store job results. The values of a job are 
+ * written one after another, so decode() must read back exactly the bytes that encode() wrote.
+ * @author Jonathan
+ *
+ * @param <V> the type of the intermediate values.
+ */
+public interface ValueCodec<V> {
+
+	/**
+	 * Write a value.
+	 * @param value the value.
+	 * @param out the output to write to.
+	 * @throws IOException if the value cannot be written.
+	 */
+	void encode(V value, DataOutput out) throws IOException;
+	
+	/**
+	 * Read a value.
+	 * @param in the input to read from.
+	 * @return the value.
+	 * @throws IOException if the value cannot be read.
+	 */
+	V decode(DataInput in) throws IOException;
+}
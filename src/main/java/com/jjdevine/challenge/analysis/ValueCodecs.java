@@ -0,0 +1,88 @@
+package com.jjdevine.challenge.analysis;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codecs for common intermediate value types.
+ * @author Jonathan
+ *
+ */
+public final class ValueCodecs {
+
+	/**
+	 * private constructor; utility class.
+	 */
+	private ValueCodecs() {}
+	
+	/**
+	 * Longs, as variable length integers (7 bits per byte, least significant first) after zig-zag encoding, so that
+	 * small values of either sign take a single byte.
+	 */
+	public static final ValueCodec<Long> LONG = new ValueCodec<Long>() {
+		
+		@Override
+		public void encode(Long value, DataOutput out) throws IOException {
+			writeVarLong(out, (value << 1) ^ (value >> 63));
+		}
+		
+		@Override
+		public Long decode(DataInput in) throws IOException {
+			long zigZag = readVarLong(in);
+			return (zigZag >>> 1) ^ -(zigZag & 1);
+		}
+	};
+	
+	/**
+	 * Strings, as their UTF-8 length followed by their UTF-8 bytes.
+	 */
+	public static final ValueCodec<String> STRING = new ValueCodec<String>() {
+		
+		@Override
+		public void encode(String value, DataOutput out) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(out, bytes.length);
+			out.write(bytes);
+		}
+		
+		@Override
+		public String decode(DataInput in) throws IOException {
+			byte[] bytes = new byte[(int)readVarLong(in)];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	};
+	
+	/**
+	 * Write an unsigned variable length integer.
+	 * @param out the output to write to.
+	 * @param value the value.
+	 * @throws IOException if the value cannot be written.
+	 */
+	private static void writeVarLong(DataOutput out, long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+	
+	/**
+	 * Read an unsigned variable length integer.
+	 * @param in the input to read from.
+	 * @return the value.
+	 * @throws IOException if the value cannot be read.
+	 */
+	private static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for(int shift = 0; ; shift += 7) {
+			byte b = in.readByte();
+			value |= (long)(b & 0x7F) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.jjdevine.challenge.analysis;
+
+/**
+ * Built in analysis counting the words of each length (in characters). Keys are zero padded so that the results are
+ * stored in length order.
+ * @author Jonathan
+ *
+ */
+public class WordLengthAnalysis implements Analysis<Long> {
+
+	/**
+	 * Name of the analysis.
+	 */
+	public static final String NAME = "wordLengths";
+	
+	@Override
+	public String getName() {
+		return NAME;
+	}
+	
+	@Override
+	public Mapper<Long> createMapper() {
+		return (word, emitter) -> emitter.emit(String.format("%05d", word.codePointCount(0, word.length())), 1L);
+	}
+	
+	@Override
+	public Combiner<Long> getCombiner() {
+		return Long::sum;
+	}
+	
+	@Override
+	public ValueCodec<Long> getValueCodec() {
+		return ValueCodecs.LONG;
+	}
+}
@@ -1,16 +1,33 @@
 package com.jjdevine.challenge.controller;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.bson.Document;
 
 import com.jjdevine.challenge.AppData;
 import com.jjdevine.challenge.Logger;
+import com.jjdevine.challenge.ProcessPhase;
 import com.jjdevine.challenge.ProcessStatus;
+import com.jjdevine.challenge.RunMode;
 import com.jjdevine.challenge.dao.ChallengeDAO;
+import com.jjdevine.challenge.index.IndexManifest;
+import com.jjdevine.challenge.job.CountingMode;
 import com.jjdevine.challenge.job.JobType;
-import com.jjdevine.challenge.worker.WorkerStatus;
-import com.mongodb.client.FindIterable;
+import com.jjdevine.challenge.job.SplitMode;
+import com.jjdevine.challenge.worker.ByteLineReader;
 
 /**
  * Process that is run when the application is used as a controller node.
@@ -24,6 +41,16 @@ public class ControllerProcess {
 	 */
 	private static final int TEXT_PROCESSING_JOB_SIZE = 2_000_000;
 	
+	/**
+	 * Number of bytes to process in each text processing job, when the file is split by bytes
+	 */
+	private static final long TEXT_PROCESSING_JOB_BYTES = 128L * 1024 * 1024;
+	
+	/**
+	 * Interval between controller heartbeats, which let other nodes see that the controller has not failed.
+	 */
+	private static final long HEARTBEAT_INTERVAL_SECONDS = 10;
+	
 	/**
 	 * Core application configuration data.
 	 */
@@ -39,6 +66,23 @@ public class ControllerProcess {
 	 */
 	private ControllerState controllerState;
 	
+	/**
+	 * Ids of text processing jobs that exist but are not yet assigned to a worker - byte range jobs created up front,
+	 * or jobs rescheduled from a run adopted from a failed controller.
+	 */
+	private Deque<String> unassignedJobIds = new ArrayDeque<>();
+	
+	/**
+	 * Ids of merge jobs not yet assigned to a worker.
+	 */
+	private Deque<String> unassignedMergeJobIds = new ArrayDeque<>();
+	
+	/**
+	 * In an incremental run, the number of bytes of the source file the final counts will include once the run is
+	 * complete.
+	 */
+	private long incrementalTargetBytes;
+	
 	/**
 	 * Public constructor.
 	 * @param appData core application configuration data.
@@ -54,22 +98,146 @@ public class ControllerProcess {
 	 * Main method for running the controller process.
 	 */
 	public void process() {
+		run(null);
+	}
+	
+	/**
+	 * Check whether a run left in flight by a failed controller can be adopted by this controller - it must still be
+	 * active, have recorded its jobs, and have been started with the same configuration.
+	 * @param process the process document of the run (see ChallengeDAO.getProcess()), or null if there is none.
+	 * @return true if the run can be adopted.
+	 */
+	public boolean canAdopt(Document process) {
+		return process != null
+				&& ProcessStatus.ACTIVE.equals(process.getString("status"))
+				&& (ProcessPhase.TEXT_PROCESSING.equals(process.getString("phase")) 
+						|| ProcessPhase.AMALGAMATION.equals(process.getString("phase")))
+				&& getRunConfiguration().equals(process.get("configuration"));
+	}
+	
+	/**
+	 * Run the controller process for a run left in flight by a failed controller, keeping the work already done and
+	 * rescheduling only the jobs that are incomplete and not held by a worker.
+	 * @param process the process document of the run (see ChallengeDAO.getProcess()).
+	 */
+	public void adopt(Document process) {
+		run(process);
+	}
+	
+	/**
+	 * Run the controller process.
+	 * @param adoptedProcess the process document of a run to adopt, or null to start a new run.
+	 */
+	private void run(Document adoptedProcess) {
 		String nodeId = challengeDAO.registerAsController();
 		controllerState.setNodeId(nodeId);
 		
-		//mark process as started
-		challengeDAO.startProcess();
+		boolean adopting = adoptedProcess != null;
+		String runId;
+		String phase;
+		if(adopting) {
+			runId = adoptedProcess.getString("runId");
+			phase = adoptedProcess.getString("phase");
+			Logger.log("Adopting run <" + runId + "> in phase <" + phase + "> from a failed controller", nodeId);
+		} else {
+			//mark process as started
+			runId = challengeDAO.startProcess(getRunConfiguration());
+			phase = ProcessPhase.STARTING;
+		}
+		
+		//make the run known to pooled workers
+		challengeDAO.registerRun(appData.getRunPriority(), appData.getRunWeight(), getRunConfiguration());
 		
-		Logger.log("Running as controller process. Awaiting available worker nodes.", nodeId);
-		Logger.log(appData, nodeId);
+		ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "controller-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		heartbeat.scheduleAtFixedRate(() -> challengeDAO.updateControllerHeartbeat(nodeId), 
+				HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
 		
-		/*
-		 *	Begin Line counter process 
-		 */
+		try {
+			Logger.log("Running as controller process for run <" + runId + ">. Awaiting available worker nodes.", nodeId);
+			Logger.log(appData, nodeId);
+			
+			if(!ProcessPhase.AMALGAMATION.equals(phase)) {
+				if(!runTextProcessingPhase(adopting)) {
+					return;
+				}
+			} else {
+				if(RunMode.INCREMENTAL.equals(appData.getRunMode())) {
+					incrementalTargetBytes = getAdoptedIncrementalTargetBytes();
+				}
+				adoptAmalgamationJobs();
+			}
+			
+			runAmalgamationPhase();
+		} finally {
+			heartbeat.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Create (or adopt) the text processing jobs and wait for them all to complete, then create the amalgamation jobs.
+	 * @param adopting true if the jobs of a failed controller's run are being adopted.
+	 * @return false if there was nothing to process and the run has been finished, otherwise true.
+	 */
+	private boolean runTextProcessingPhase(boolean adopting) {
+		String nodeId = controllerState.getNodeId();
+		boolean workersClaimJobs = appData.getPrefetchDepth() > 0;
+		boolean incremental = RunMode.INCREMENTAL.equals(appData.getRunMode());
+		boolean splitByBytes = incremental || SplitMode.BYTES.equals(appData.getSplitMode());
+		
+		if(adopting) {
+			if(incremental) {
+				incrementalTargetBytes = getAdoptedIncrementalTargetBytes();
+			}
+			adoptTextProcessingJobs(workersClaimJobs);
+			adoptMergeJobs();
+			if(!splitByBytes) {
+				//carry on creating jobs from where the failed controller stopped
+				controllerState.setLastLineAssignedToTextProcessingJob(challengeDAO.getLastLineOfTextProcessingJobs());
+			}
+		} else if(splitByBytes) {
+			/*
+			 * All jobs can be created straight away from the size of the file - no need to count lines
+			 */
+			
+			long firstByte = 0;
+			long lastByte;
+			if(incremental) {
+				firstByte = startIncrementalRun();
+				lastByte = incrementalTargetBytes;
+				if(lastByte <= firstByte) {
+					Logger.log("No lines have been added to the source file since the last run", nodeId);
+					challengeDAO.setProcessState(ProcessStatus.COMPLETE);
+					challengeDAO.setControllerStatus(nodeId, ControllerStatus.FINISHED);
+					challengeDAO.finishRun();
+					return false;
+				}
+			} else {
+				lastByte = getSourceFileSize();
+			}
+			
+			List<String> jobIds = createByteRangeTextProcessingJobs(firstByte, lastByte);
+			Logger.log("Created <" + jobIds.size() + "> byte range text processing jobs", nodeId);
+			if(!workersClaimJobs) {
+				unassignedJobIds.addAll(jobIds);
+			}
+		}
 		
-		Runnable lineCounterRunnable = new LineCounterRunnable(controllerState, appData);
-		Thread lineCounterThread = new Thread(lineCounterRunnable);
-		lineCounterThread.start();
+		//all jobs are now recorded (or, when splitting by lines, will be recorded as they are created)
+		challengeDAO.setProcessPhase(ProcessPhase.TEXT_PROCESSING);
+		
+		if(!splitByBytes) {
+			/*
+			 *	Begin Line counter process 
+			 */
+			
+			Runnable lineCounterRunnable = new LineCounterRunnable(controllerState, appData, TEXT_PROCESSING_JOB_SIZE);
+			Thread lineCounterThread = new Thread(lineCounterRunnable);
+			lineCounterThread.start();
+		}
 		
 		/*
 		 * Text processing jobs
@@ -77,40 +245,56 @@ public class ControllerProcess {
 		 */
 		
 		boolean workFinished = false;
+		boolean approximate = CountingMode.APPROXIMATE.equals(appData.getCountingMode());
+		boolean targeted = CountingMode.TARGETED.equals(appData.getCountingMode());
+		boolean analysis = CountingMode.ANALYSIS.equals(appData.getCountingMode());
+		boolean index = CountingMode.INDEX.equals(appData.getCountingMode());
+		String textProcessingJobType = approximate ? JobType.APPROXIMATE_TEXT_PROCESSING 
+				: targeted ? JobType.TARGETED_TEXT_PROCESSING 
+				: analysis ? JobType.ANALYSIS_TEXT_PROCESSING 
+				: index ? JobType.INDEX_TEXT_PROCESSING 
+				: appData.getNgramSize() > 0 ? JobType.NGRAM_TEXT_PROCESSING : JobType.TEXT_PROCESSING;
+		
+		int mergeFanIn = appData.getMergeFanIn();
 		
 		Logger.log("Beginning text processing phase", nodeId);
 		
 		while(!workFinished) {
 			//TODO - detect timeouts
-			FindIterable<Document> workers = challengeDAO.getWorkers();
-			Iterator<Document> workersIterator = workers.iterator();
+			if(mergeFanIn > 0) {
+				//merge groups of results as they complete, ahead of new text processing, to keep the results to read small
+				unassignedMergeJobIds.addAll(challengeDAO.createMergeJobs(mergeFanIn));
+				dispatchJobs(unassignedMergeJobIds::poll, unassignedMergeJobIds::add, JobType.MERGE);
+			}
 			
-			while (workersIterator.hasNext()) {
-				
-				Document doc = workersIterator.next();
-				String status = doc.getString("status");
-				
-				switch(status) {
-				case WorkerStatus.NEW:
-				case WorkerStatus.IDLE:
-					String jobId = getNextTextProcessingJob();
-					if(jobId == null) { //no more jobs
-						break;
-					}
-					String workerId = doc.get("_id").toString();
-					challengeDAO.assignJobToWorker(doc.get("_id").toString(), jobId, JobType.TEXT_PROCESSING);
-					Logger.log("Assigned job <" + jobId + "> to worker <" + workerId + ">", nodeId);
-					break;
+			List<String> failedJobIds = challengeDAO.takeFailedTextProcessingJobs();
+			if(!failedJobIds.isEmpty()) {
+				//a worker could not store the results of these jobs and has returned them
+				Logger.log("Rescheduling <" + failedJobIds.size() + "> text processing jobs whose results could not be stored", nodeId);
+				if(!workersClaimJobs) {
+					unassignedJobIds.addAll(failedJobIds);
 				}
 			}
 			
+			if(workersClaimJobs) {
+				//workers claim their own jobs - just keep enough of them queued up
+				if(!splitByBytes) {
+					createQueuedTextProcessingJobs();
+				}
+			} else {
+				dispatchJobs(this::getNextTextProcessingJob, unassignedJobIds::add, textProcessingJobType);
+			}
+			//pooled workers are only given jobs by assignment, so there is no demand for them when workers claim jobs
+			challengeDAO.updateRunDemand(unassignedMergeJobIds.size() + (workersClaimJobs ? 0 : countReadyTextProcessingJobs(splitByBytes)));
+			
 			/**
-			 * If the line count process is finished, all lines have been assigned to a job
-			 * and all jobs are marked as complete, the work is complete
+			 * If all jobs have been created (either up front, or because the line count process is finished and all
+			 * lines have been assigned to a job) and all jobs are marked as complete, the work is complete
 			 */
-			if(controllerState.isLineCountFinished() 
-					&& controllerState.getLastLineAssignedToTextProcessingJob() == controllerState.totalLines
-					&& challengeDAO.allTextProcessingJobsComplete()) {
+			boolean allJobsCreated = splitByBytes || (controllerState.isLineCountFinished() 
+					&& controllerState.getLastLineAssignedToTextProcessingJob() == controllerState.totalLines);
+			if(allJobsCreated && challengeDAO.allTextProcessingJobsComplete() 
+					&& (mergeFanIn == 0 || challengeDAO.allMergeJobsComplete())) {
 				workFinished = true;
 			}
 			
@@ -121,45 +305,58 @@ public class ControllerProcess {
 			} 
 		}
 		
+		if(mergeFanIn > 0) {
+			//a worker may have failed between completing a merge and removing the results it merged
+			challengeDAO.removeMergedResults();
+		}
+		
 		Logger.log("Creating amalgamation jobs", nodeId);
 		
 		/*
 		 * Now process Amalgamation jobs
 		 */
 		
-		challengeDAO.createAmalgamationJobs();
+		if(adopting) {
+			//the failed controller may have created some amalgamation jobs before recording the phase change
+			challengeDAO.clearAmalgamationJobs();
+		}
+		
+		if(approximate) {
+			challengeDAO.createSketchAmalgamationJob();
+		} else if(targeted) {
+			challengeDAO.createTargetedAmalgamationJob();
+		} else if(analysis) {
+			challengeDAO.createAnalysisAmalgamationJobs();
+		} else if(index) {
+			challengeDAO.createIndexAmalgamationJobs();
+		} else if(incremental) {
+			//only prefixes with new words need merging into the final counts
+			challengeDAO.createAmalgamationJobsForResultPrefixes();
+		} else {
+			challengeDAO.createAmalgamationJobs();
+		}
+		
+		challengeDAO.setProcessPhase(ProcessPhase.AMALGAMATION);
+		return true;
+	}
+	
+	/**
+	 * Assign the amalgamation jobs and wait for them all to complete, then finish the run.
+	 */
+	private void runAmalgamationPhase() {
+		String nodeId = controllerState.getNodeId();
+		String amalgamationJobType = CountingMode.APPROXIMATE.equals(appData.getCountingMode()) ? JobType.SKETCH_AMALGAMATION 
+				: CountingMode.TARGETED.equals(appData.getCountingMode()) ? JobType.TARGETED_AMALGAMATION 
+				: CountingMode.ANALYSIS.equals(appData.getCountingMode()) ? JobType.ANALYSIS_AMALGAMATION 
+				: CountingMode.INDEX.equals(appData.getCountingMode()) ? JobType.INDEX_AMALGAMATION : JobType.AMALGAMATION;
 		
 		boolean amalgamationFinished = false;
 		
 		Logger.log("Beginning amalgamation phase", nodeId);
 		
 		while(!amalgamationFinished) {
-			FindIterable<Document> workers = challengeDAO.getWorkers();
-			Iterator<Document> workersIterator = workers.iterator();
-			
-			while (workersIterator.hasNext()) {
-				
-				Document doc = workersIterator.next();
-				String status = doc.getString("status");
-				
-				switch(status) {
-				case WorkerStatus.NEW:
-				case WorkerStatus.IDLE:
-					//create next amalgamation job
-					String nextAmalgamationPrefix = getNextAmalgamationJob();
-					
-					if(nextAmalgamationPrefix == null) {
-						//no jobs to process;
-						break;
-					} else {
-						String workerId = doc.get("_id").toString();
-						String jobId = nextAmalgamationPrefix.toString();
-						challengeDAO.assignJobToWorker(doc.get("_id").toString(), nextAmalgamationPrefix.toString(), JobType.AMALGAMATION);
-						Logger.log("Assigned amalgamation job <" + jobId + "> to worker <" + workerId + ">", nodeId);
-					}
-					break;
-				}
-			}
+			dispatchJobs(this::getNextAmalgamationJob, challengeDAO::resetAmalgamationJob, amalgamationJobType);
+			challengeDAO.updateRunDemand(challengeDAO.countUnassignedAmalgamationJobs());
 			
 			amalgamationFinished = challengeDAO.allAmalgamationJobsComplete();
 			
@@ -170,66 +367,302 @@ public class ControllerProcess {
 			} 
 		}
 		
+		if(RunMode.INCREMENTAL.equals(appData.getRunMode())) {
+			challengeDAO.completeIncrementalRun(appData.getSourceLocation(), incrementalTargetBytes);
+		}
+		
+		if(CountingMode.INDEX.equals(appData.getCountingMode())) {
+			writeIndexManifest();
+		}
+		
 		challengeDAO.setProcessState(ProcessStatus.COMPLETE);
 		challengeDAO.setControllerStatus(nodeId, ControllerStatus.FINISHED);
+		challengeDAO.finishRun();
 		Logger.log("Work Finished", nodeId);
 	}
 	
 	/**
-	 * Get the id of the next text processing job - either a new job or a previously timed out job.
-	 * @return a job id, or null if no jobs remain
+	 * Write the manifest of the index segments to the index directory, so that the index can be read (and each word
+	 * routed to its segment) once the run's records are gone. Segments written on other hosts must be gathered into 
+	 * the index directory alongside it to be read.
+	 */
+	private void writeIndexManifest() {
+		String nodeId = controllerState.getNodeId();
+		IndexManifest manifest = new IndexManifest();
+		for(Document segment: challengeDAO.getIndexSegments()) {
+			manifest.add(segment.getString("prefix"), segment.getString("segment"), segment.getString("host"), 
+					segment.getString("path"), segment.getLong("termCount"));
+			Logger.log("Index segment <" + segment.getString("segment") + "> of <" + segment.getLong("termCount") 
+					+ "> words written by <" + segment.getString("node") + "> to <" + segment.getString("host") + ":" 
+					+ segment.getString("path") + ">", nodeId);
+		}
+		
+		try {
+			manifest.write(Paths.get(appData.getIndexDirectory()));
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write the index manifest", e);
+		}
+		Logger.log("Wrote index manifest of <" + manifest.getSegments().size() + "> segments to <" 
+				+ appData.getIndexDirectory() + ">", nodeId);
+	}
+	
+	/**
+	 * Get the configuration that affects the results of a run.
+	 * @return the configuration.
+	 */
+	private Document getRunConfiguration() {
+		return new Document("source", Paths.get(appData.getSourceLocation()).toAbsolutePath().normalize().toString())
+				.append("tokenizerMode", appData.getTokenizerMode())
+				.append("resultEncoding", appData.getResultEncoding())
+				.append("countingMode", appData.getCountingMode())
+				.append("splitMode", appData.getSplitMode())
+				.append("runMode", appData.getRunMode())
+				.append("ngramSize", appData.getNgramSize())
+				.append("analysis", appData.getAnalysisName())
+				.append("indexDir", appData.getIndexDirectory())
+				.append("claimJobs", appData.getPrefetchDepth() > 0)
+				.append("terms", appData.getTermListLocation() == null ? null 
+						: Paths.get(appData.getTermListLocation()).toAbsolutePath().normalize().toString());
+	}
+	
+	/**
+	 * Reschedule the text processing jobs of an adopted run that are incomplete and not held by a worker. Any results
+	 * they had partly written are removed.
+	 * @param workersClaimJobs true if workers claim their own jobs, false if the controller assigns them.
+	 */
+	private void adoptTextProcessingJobs(boolean workersClaimJobs) {
+		Set<String> assignedJobIds = challengeDAO.getJobIdsAssignedToWorkers();
+		int rescheduled = 0;
+		
+		for(Document job: challengeDAO.getIncompleteTextProcessingJobs()) {
+			String jobId = job.get("_id").toString();
+			if(assignedJobIds.contains(jobId) || job.getString("claimedBy") != null) {
+				//still held by a worker, which will complete it
+				continue;
+			}
+			
+			challengeDAO.resetTextProcessingJob(jobId);
+			if(!workersClaimJobs) {
+				unassignedJobIds.add(jobId);
+			}
+			rescheduled++;
+		}
+		
+		Logger.log("Rescheduled <" + rescheduled + "> incomplete text processing jobs", controllerState.getNodeId());
+	}
+	
+	/**
+	 * Reschedule the merge jobs of an adopted run that are incomplete and not held by a worker. Any results they had
+	 * partly written are removed.
+	 */
+	private void adoptMergeJobs() {
+		Set<String> assignedJobIds = challengeDAO.getJobIdsAssignedToWorkers();
+		int rescheduled = 0;
+		
+		for(String mergeJobId: challengeDAO.getIncompleteMergeJobIds()) {
+			if(!assignedJobIds.contains(mergeJobId)) {
+				challengeDAO.resetMergeJob(mergeJobId);
+				unassignedMergeJobIds.add(mergeJobId);
+				rescheduled++;
+			}
+		}
+		
+		Logger.log("Rescheduled <" + rescheduled + "> incomplete merge jobs", controllerState.getNodeId());
+	}
+	
+	/**
+	 * Reschedule the amalgamation jobs of an adopted run that were assigned but are incomplete and not held by a
+	 * worker.
+	 */
+	private void adoptAmalgamationJobs() {
+		Set<String> assignedPrefixes = challengeDAO.getJobIdsAssignedToWorkers();
+		int rescheduled = 0;
+		
+		for(String prefix: challengeDAO.getPendingAmalgamationJobPrefixes()) {
+			if(!assignedPrefixes.contains(prefix)) {
+				challengeDAO.resetAmalgamationJob(prefix);
+				rescheduled++;
+			}
+		}
+		
+		Logger.log("Rescheduled <" + rescheduled + "> incomplete amalgamation jobs", controllerState.getNodeId());
+	}
+	
+	/**
+	 * Get the byte offset an adopted incremental run is counting to.
+	 * @return the offset.
+	 */
+	private long getAdoptedIncrementalTargetBytes() {
+		Document runState = challengeDAO.getRunState(appData.getSourceLocation());
+		Long targetBytes = runState.getLong("targetBytes");
+		//if the run state has no target, the failed controller had recorded the run as complete
+		return targetBytes != null ? targetBytes : runState.getLong("processedBytes");
+	}
+	
+	/**
+	 * Assign jobs to all available workers, in a single batch.
+	 * @param nextJob supplies the id of the next job to assign, or null if there are none available.
+	 * @param requeue returns a job that could not be assigned (because its worker left) to be assigned again.
+	 * @param jobType the type of the jobs.
+	 */
+	private void dispatchJobs(Supplier<String> nextJob, Consumer<String> requeue, String jobType) {
+		Map<String, String> jobIdsByWorkerId = new LinkedHashMap<>();
+		
+		for(String workerId: challengeDAO.getAvailableWorkerIds()) {
+			String jobId = nextJob.get();
+			if(jobId == null) { //no more jobs
+				break;
+			}
+			jobIdsByWorkerId.put(workerId, jobId);
+		}
+		
+		Set<String> unassignedJobIds = challengeDAO.assignJobsToWorkers(jobIdsByWorkerId, jobType);
+		
+		for(Map.Entry<String, String> assignment: jobIdsByWorkerId.entrySet()) {
+			if(unassignedJobIds.contains(assignment.getValue())) {
+				requeue.accept(assignment.getValue());
+				continue;
+			}
+			Logger.log("Assigned " + jobType + " job <" + assignment.getValue() + "> to worker <" + assignment.getKey() + ">", 
+					controllerState.getNodeId());
+		}
+	}
+	
+	/**
+	 * Estimate the number of text processing jobs that could be assigned now if there were workers for them.
+	 * @param splitByBytes true if all jobs were created up front.
+	 * @return the number of jobs.
+	 */
+	private long countReadyTextProcessingJobs(boolean splitByBytes) {
+		long readyJobs = unassignedJobIds.size();
+		if(!splitByBytes) {
+			//jobs that could be created from lines already counted
+			long unassignedLines = controllerState.getTotalLines() - controllerState.getLastLineAssignedToTextProcessingJob();
+			readyJobs += unassignedLines / TEXT_PROCESSING_JOB_SIZE;
+			if(controllerState.isLineCountFinished() && unassignedLines % TEXT_PROCESSING_JOB_SIZE > 0) {
+				readyJobs++;
+			}
+		}
+		return readyJobs;
+	}
+	
+	/**
+	 * Get the id of the next text processing job. Never waits for the line counter - if there are not yet enough lines
+	 * counted for a full size job, no job is created.
+	 * @return a job id, or null if no job can be created at the moment
 	 */
 	private String getNextTextProcessingJob() {
+		String unassignedJobId = unassignedJobIds.poll();
+		if(unassignedJobId != null || SplitMode.BYTES.equals(appData.getSplitMode()) 
+				|| RunMode.INCREMENTAL.equals(appData.getRunMode())) {
+			//when splitting by bytes, jobs were all created up front
+			return unassignedJobId;
+		}
+		
 		if(controllerState.isLineCountError()) {
 			//TODO - throw better exception class
 			throw new RuntimeException("Unable to count lines of file.");
 		}
 		
+		//read the finished flag before the line count, so that a finished count is always complete
 		boolean lineCountFinished = controllerState.isLineCountFinished();
 		long lastLineProcessed = controllerState.getLastLineAssignedToTextProcessingJob();
-			
-		if(lineCountFinished && lastLineProcessed >= controllerState.totalLines) {
-			//all lines have already been assigned out to jobs - check if any old jobs have timed out and reassigned
-			//TODO - as per comment
-			return null;
-		}
+		long totalLines = controllerState.getTotalLines();
 		
-		if(lastLineProcessed + TEXT_PROCESSING_JOB_SIZE < controllerState.totalLines) {
-			//there are enough lines available to create a new job
+		if(lastLineProcessed + TEXT_PROCESSING_JOB_SIZE < totalLines) {
+			//there are enough lines available to create a new full size job
 			return createNewTextProcessingJob(lastLineProcessed + 1, lastLineProcessed + TEXT_PROCESSING_JOB_SIZE);
-		} else {
-			/*
-			 * There are not enough lines to create a new full-size job - this could be because:
-			 * a. We have reached the end of the file
-			 * b. We have not reached the end of the file but the line reader has not finished counting the lines.
-			 * 
-			 * in scenario (a) we should create a job anyway, in scenario (b) we should wait until either the line reader reads
-			 * enough lines to create a full size job or it finishes (hits EOF).
-			 */
-			
-			if(controllerState.isLineCountFinished()) {
-				//scenario (a)
-				return createNewTextProcessingJob(lastLineProcessed + 1, controllerState.getTotalLines());
-			} else {
-				//scenario (b)
-				//wait until either line count finishes or there are enough lines for a full size job, whichever happens first.
-				while(true) {
-					if(controllerState.isLineCountFinished() || lastLineProcessed + TEXT_PROCESSING_JOB_SIZE < controllerState.totalLines) {
-						if(lastLineProcessed + TEXT_PROCESSING_JOB_SIZE < controllerState.totalLines) {
-							return createNewTextProcessingJob(lastLineProcessed + 1, lastLineProcessed + TEXT_PROCESSING_JOB_SIZE);
-						} else {
-							//EOF was reached
-							return createNewTextProcessingJob(lastLineProcessed + 1, controllerState.totalLines);
-						}
-					} else {
-						try {
-							Thread.sleep(1500); //wait before trying again
-						} catch (InterruptedException e) {
-							throw new RuntimeException("Unable to wait for line counter to finish", e);
-						} 
-					}
-				}
-			}
+		} else if(lineCountFinished && lastLineProcessed < totalLines) {
+			//EOF was reached - create a job for the remaining lines
+			return createNewTextProcessingJob(lastLineProcessed + 1, totalLines);
+		}
+		
+		//either all lines have been assigned out to jobs, or the line counter has not yet counted enough lines
+		//TODO - check if any old jobs have timed out and reassign
+		return null;
+	}
+	
+	/**
+	 * Split part of the source file into byte ranges of TEXT_PROCESSING_JOB_BYTES and create a text processing job for
+	 * each.
+	 * @param firstByte the start of the part of the file to split.
+	 * @param lastByte the end of the part of the file to split (exclusive).
+	 * @return the ids of the jobs, in file order.
+	 */
+	private List<String> createByteRangeTextProcessingJobs(long firstByte, long lastByte) {
+		long size = lastByte - firstByte;
+		int jobCount = (int)Math.max(1, (size + TEXT_PROCESSING_JOB_BYTES - 1) / TEXT_PROCESSING_JOB_BYTES);
+		long[] boundaries = new long[jobCount + 1];
+		for(int i=0; i<jobCount; i++) {
+			boundaries[i] = firstByte + i * TEXT_PROCESSING_JOB_BYTES;
+		}
+		boundaries[jobCount] = lastByte;
+		
+		return challengeDAO.createByteRangeTextProcessingJobs(boundaries);
+	}
+	
+	/**
+	 * @return the size of the source file in bytes.
+	 */
+	private long getSourceFileSize() {
+		try {
+			return Files.size(Paths.get(appData.getSourceLocation()));
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to determine size of source file", e);
+		}
+	}
+	
+	/**
+	 * Work out which part of the source file an incremental run should count, and record it so that the run can be
+	 * resumed if it fails. The run counts from the end of the previous run to the end of the last complete line, so a
+	 * line that is still being appended is left for the next run. If the previous run did not complete, the same
+	 * range is counted again.
+	 * @return the byte offset at which to start counting. The offset at which to stop is set in incrementalTargetBytes.
+	 */
+	private long startIncrementalRun() {
+		String nodeId = controllerState.getNodeId();
+		Document runState = challengeDAO.getRunState(appData.getSourceLocation());
+		long processedBytes = runState != null ? runState.getLong("processedBytes") : 0;
+		
+		if(runState != null && runState.getLong("targetBytes") != null) {
+			incrementalTargetBytes = runState.getLong("targetBytes");
+			Logger.log("Resuming incomplete incremental run from byte <" + processedBytes + "> to byte <" + incrementalTargetBytes + ">", nodeId);
+			return processedBytes;
+		}
+		
+		if(runState == null) {
+			//any existing final counts were not made by an incremental run of this file, so cannot be added to
+			Logger.log("No record of an earlier incremental run - counting the source file from the start", nodeId);
+			challengeDAO.clearFinalCounts();
+		} else if(getSourceFileSize() < processedBytes) {
+			//the file has been replaced rather than appended to
+			Logger.log("Source file is smaller than when it was last counted - counting it from the start", nodeId);
+			challengeDAO.clearFinalCounts();
+			processedBytes = 0;
+		}
+		
+		try (ByteLineReader reader = new ByteLineReader(Paths.get(appData.getSourceLocation()))) {
+			incrementalTargetBytes = reader.findEndOfLastCompleteLine();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read source file", e);
+		}
+		
+		if(incrementalTargetBytes > processedBytes) {
+			Logger.log("Counting lines added from byte <" + processedBytes + "> to byte <" + incrementalTargetBytes + ">", nodeId);
+			challengeDAO.startIncrementalRun(appData.getSourceLocation(), processedBytes, incrementalTargetBytes);
+		}
+		return processedBytes;
+	}
+	
+	/**
+	 * Create text processing jobs until there are enough unclaimed jobs for every worker to fill its job queue.
+	 */
+	private void createQueuedTextProcessingJobs() {
+		long target = challengeDAO.countWorkers() * appData.getPrefetchDepth();
+		long unclaimed = challengeDAO.countUnclaimedTextProcessingJobs();
+		
+		while(unclaimed < target && getNextTextProcessingJob() != null) {
+			unclaimed++;
 		}
 	}
 	
@@ -240,7 +673,7 @@ public class ControllerProcess {
 	 * @return the job id.
 	 */
 	public String createNewTextProcessingJob(long firstLine, long lastLine) {
-		String jobId = challengeDAO.createTextProcessingJob(firstLine, lastLine);
+		String jobId = challengeDAO.createTextProcessingJob(firstLine, lastLine, controllerState.getLineOffset(firstLine));
 		controllerState.setLastLineAssignedToTextProcessingJob(lastLine);
 		return jobId;
 	}
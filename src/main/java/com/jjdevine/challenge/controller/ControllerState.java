@@ -1,5 +1,8 @@
 package com.jjdevine.challenge.controller;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Class modelling state pertinent to the controller process.
  * @author Jonathan
@@ -31,6 +34,12 @@ public class ControllerState {
 	 * The node id of the controller.
 	 */
 	private String nodeId;
+	
+	/**
+	 * Byte offsets of the lines at which text processing jobs may begin, keyed by line number 
+	 * (written by the line counter, read by the controller).
+	 */
+	private Map<Long, Long> lineOffsets = new ConcurrentHashMap<>();
 
 	/**
 	 * @return the totalLines
@@ -102,6 +111,24 @@ public class ControllerState {
 		this.nodeId = nodeId;
 	}
 
+	/**
+	 * Record the byte offset at which a line begins.
+	 * @param lineNumber the line number.
+	 * @param offset the byte offset.
+	 */
+	public void setLineOffset(long lineNumber, long offset) {
+		lineOffsets.put(lineNumber, offset);
+	}
+
+	/**
+	 * Get the byte offset at which a line begins.
+	 * @param lineNumber the line number.
+	 * @return the byte offset, or -1 if it was not recorded.
+	 */
+	public long getLineOffset(long lineNumber) {
+		return lineOffsets.getOrDefault(lineNumber, -1L);
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
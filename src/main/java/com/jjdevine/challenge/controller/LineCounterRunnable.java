@@ -1,11 +1,11 @@
 package com.jjdevine.challenge.controller;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 import com.jjdevine.challenge.AppData;
 import com.jjdevine.challenge.Logger;
+import com.jjdevine.challenge.worker.ByteLineReader;
 
 /**
  * Runnable class used to count the lines of the target text file.
@@ -24,30 +24,43 @@ public class LineCounterRunnable implements Runnable {
 	 */
 	private AppData appData;
 	
+	/**
+	 * The byte offset of every offsetInterval'th line (starting with line 1) is recorded in the controller state.
+	 */
+	private long offsetInterval;
+	
 	/**
 	 * public constructor.
 	 * @param state The controller state object.
 	 * @param appData The core application data object.
+	 * @param offsetInterval The interval (in lines) at which to record line offsets - ie the text processing job size.
 	 */
-	public LineCounterRunnable(ControllerState state, AppData appData) {
+	public LineCounterRunnable(ControllerState state, AppData appData, long offsetInterval) {
 		this.state = state;
 		this.appData = appData;
+		this.offsetInterval = offsetInterval;
 	}
 	
 	/**
 	 * Counts the lines of the target file and updates the controller state with the number of lines identified in real-time.
+	 * The lines are not decoded, only their terminators are found.
 	 */
 	@Override
 	public void run() {
 		
-		try (BufferedReader reader = new BufferedReader(new FileReader(appData.getSourceLocation()))) {
+		try (ByteLineReader reader = new ByteLineReader(Paths.get(appData.getSourceLocation()))) {
 
-			while(reader.readLine() != null) {
+			while(true) {
+				if(state.totalLines % offsetInterval == 0) {
+					//the next line is where a job may begin
+					state.setLineOffset(state.totalLines + 1, reader.getPosition());
+				}
+				if(!reader.skipLine()) {
+					break;
+				}
 				state.totalLines++; //use direct access for speed
 			}
 			
-			reader.close();
-			
 			state.setLineCountFinished(true);
 			Logger.log("Line count finished, total lines to process = " + state.totalLines, state.getNodeId());
 		} catch (IOException e) {
@@ -1,9 +1,17 @@
 package com.jjdevine.challenge.dao;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.ObjLongConsumer;
 
 import org.bson.Document;
 
+import com.jjdevine.challenge.sketch.WordSketch;
+import com.jjdevine.challenge.worker.IdCountTable;
+import com.jjdevine.challenge.worker.TermIndex;
 import com.mongodb.client.FindIterable;
 
 /**
@@ -20,7 +28,7 @@ public interface ChallengeDAO {
 	String registerAsController();
 	
 	/**
-	 * Check if the control process is still running.
+	 * Check if the control process is still running - it must be marked active and have sent a heartbeat recently.
 	 * @return true if the control process is active, otherwise false.
 	 */
 	boolean isControllerActive();
@@ -32,24 +40,86 @@ public interface ChallengeDAO {
 	 */
 	void setControllerStatus(String nodeId, String status);
 	
+	/**
+	 * Record that the controller with the designated id is still running.
+	 * @param nodeId The controller.
+	 */
+	void updateControllerHeartbeat(String nodeId);
+	
+	/**
+	 * Get a DAO for the collections of another run. It shares this DAO's connection, so should not be closed. The same
+	 * DAO is returned each time for a namespace.
+	 * @param namespace the namespace of the run (empty for the default namespace).
+	 * @return the DAO.
+	 */
+	ChallengeDAO forNamespace(String namespace);
+	
 	/**
 	 * Register this node as a worker.
 	 * @return the registered nodeId.
 	 */
 	String registerAsWorker();
 	
+	/**
+	 * Remove a worker's registration, provided it has not been given a job.
+	 * @param workerId The id of the worker.
+	 * @return true if the worker was removed, false if it has been given a job (which it must now process).
+	 */
+	boolean deregisterIdleWorker(String workerId);
+	
 	/**
 	 * Gets a list of all workers registered to accept jobs.
 	 * @return A FindIterable<Document> of all the registered workers. 
 	 */
 	FindIterable<Document> getWorkers();
 	
+	/**
+	 * Gets the ids of workers that are available for a job (new or idle), using the index on worker status.
+	 * @return the ids of the available workers.
+	 */
+	List<String> getAvailableWorkerIds();
+	
 	/**
 	 * Clear all collections associated with this process (and lose any data).
 	 * This should be run to reset the process ready to run anew.
 	 */
 	void clearAllCollections();
 	
+	/**
+	 * Clear the collections used during a run, but keep the final counts and the record of how much of each source
+	 * file they include, so that a run can add to them.
+	 */
+	void clearRunCollections();
+	
+	/**
+	 * Get the record of how much of a source file has been counted by incremental runs.
+	 * @param source the location of the source file.
+	 * @return A document with the number of bytes included in the final counts (processedBytes) and, while a run is
+	 * in progress, the number of bytes that run will take them to (targetBytes); or null if the file has not been
+	 * counted before.
+	 */
+	Document getRunState(String source);
+	
+	/**
+	 * Record that an incremental run is counting a source file from one byte offset to another.
+	 * @param source the location of the source file.
+	 * @param processedBytes the number of bytes already included in the final counts.
+	 * @param targetBytes the number of bytes the final counts will include once the run is complete.
+	 */
+	void startIncrementalRun(String source, long processedBytes, long targetBytes);
+	
+	/**
+	 * Record that an incremental run has completed, so the final counts now include its target bytes.
+	 * @param source the location of the source file.
+	 * @param targetBytes the number of bytes now included in the final counts.
+	 */
+	void completeIncrementalRun(String source, long targetBytes);
+	
+	/**
+	 * Remove all final counts, for when a source file has been replaced rather than appended to.
+	 */
+	void clearFinalCounts();
+	
 	/**
 	 * Create a text processing job.
 	 * @param firstLine The line number where the job should begin.
@@ -58,6 +128,61 @@ public interface ChallengeDAO {
 	 */
 	String createTextProcessingJob(long firstLine, long lastLine);
 	
+	/**
+	 * Create a text processing job whose first line is known to begin at a given byte offset.
+	 * @param firstLine The line number where the job should begin.
+	 * @param lastLine The line number where the job should terminate.
+	 * @param firstByte The byte offset at which firstLine begins, or -1 if not known.
+	 * @return The jobId of the created job.
+	 */
+	String createTextProcessingJob(long firstLine, long lastLine, long firstByte);
+	
+	/**
+	 * Create text processing jobs covering consecutive byte ranges of the source file, in a single batch. Each job
+	 * processes the lines that begin within its range.
+	 * @param boundaries the byte offsets at which the ranges begin, followed by the offset at which the last range ends
+	 * (exclusive).
+	 * @return The jobIds of the created jobs, in order.
+	 */
+	List<String> createByteRangeTextProcessingJobs(long[] boundaries);
+	
+	/**
+	 * Claim the earliest text processing job not yet claimed by (or assigned to) any worker.
+	 * @param workerId The id of the worker claiming the job.
+	 * @return The claimed job in the form of a Document, or null if there are no unclaimed jobs.
+	 */
+	Document claimNextTextProcessingJob(String workerId);
+	
+	/**
+	 * Count the text processing jobs not yet claimed by a worker.
+	 * @return the number of unclaimed jobs.
+	 */
+	long countUnclaimedTextProcessingJobs();
+	
+	/**
+	 * Count the workers registered to accept jobs.
+	 * @return the number of workers.
+	 */
+	long countWorkers();
+	
+	/**
+	 * Check whether any text processing jobs have been created for the run.
+	 * @return true if there is at least one text processing job.
+	 */
+	boolean hasTextProcessingJobs();
+	
+	/**
+	 * Count the jobs of the run that are not yet complete - text processing, merge and amalgamation jobs.
+	 * @return the number of outstanding jobs.
+	 */
+	long countOutstandingJobs();
+	
+	/**
+	 * Total the demand for workers of all live registered runs (see updateRunDemand()).
+	 * @return the number of jobs across all runs waiting for a pooled worker.
+	 */
+	long countRunDemand();
+	
 	/**
 	 * Get the text processing job with the provided id.
 	 * @param jobId the jobId to match.
@@ -72,6 +197,39 @@ public interface ChallengeDAO {
 	 */
 	void completeTextProcessingJob(String jobId, Map<String, Long> wordCounts);
 	
+	/**
+	 * Update a text processing job to be complete and store the results, read from an iterator sorted by word so that
+	 * the results need not be held in memory.
+	 * @param jobId The jobId to mark completed.
+	 * @param sortedWordCounts The results of the job to be stored, sorted by word.
+	 */
+	void completeTextProcessingJob(String jobId, Iterator<Map.Entry<String, Long>> sortedWordCounts);
+	
+	/**
+	 * Update a text processing job to be complete and store the results, encoded using word ids from the dictionary.
+	 * @param jobId The jobId to mark completed.
+	 * @param wordCounts The results of the job to be stored.
+	 * @param wordIds The dictionary id of every word in wordCounts.
+	 */
+	void completeEncodedTextProcessingJob(String jobId, Map<String, Long> wordCounts, Map<String, Integer> wordIds);
+	
+	/**
+	 * Get the word counts cached for a chunk of text with the given content hash, marking the chunk as recently used.
+	 * The chunk cache is kept across runs.
+	 * @param chunkHash hash of the content of the chunk.
+	 * @return the cached counts, or null if the chunk is not in the cache.
+	 */
+	Map<String, Long> getCachedChunkCounts(String chunkHash);
+	
+	/**
+	 * Store the word counts of a chunk of text in the chunk cache, then evict the least recently used cached chunks
+	 * until the cache is within its size limit. Nothing is stored if the chunk is already cached.
+	 * @param chunkHash hash of the content of the chunk.
+	 * @param wordCounts the counts of the chunk, in any order.
+	 * @param maxCacheBytes the size limit of the cache, in (estimated) bytes.
+	 */
+	void cacheChunkCounts(String chunkHash, Iterator<Map.Entry<String, Long>> wordCounts, long maxCacheBytes);
+	
 	/**
 	 * Update an amalgamation job to be complete and store the results.
 	 * @param prefix The prefix this job related to.
@@ -79,6 +237,199 @@ public interface ChallengeDAO {
 	 */
 	void completeAmalgamationJob(String prefix, Map<String, Long> wordCountTotals);
 	
+	/**
+	 * Update an amalgamation job to be complete and store the results, read from an iterator sorted by word.
+	 * @param prefix The prefix this job related to.
+	 * @param sortedWordCountTotals The results of the job to be stored, sorted by word.
+	 */
+	void completeAmalgamationJob(String prefix, Iterator<Map.Entry<String, Long>> sortedWordCountTotals);
+	
+	/**
+	 * Update an amalgamation job of an incremental run to be complete, replacing the existing final counts for the
+	 * prefix with merged totals.
+	 * @param prefix The prefix this job related to.
+	 * @param sortedWordCountTotals The merged totals, sorted by word, or null if totals including throughByte have
+	 * already been written (by an earlier attempt at the same run) and only the old counts need removing.
+	 * @param throughByte the number of source bytes included in the totals.
+	 */
+	void completeIncrementalAmalgamationJob(String prefix, Iterator<Map.Entry<String, Long>> sortedWordCountTotals, long throughByte);
+	
+	/**
+	 * Prepare to run an amalgamation job of an incremental run. Final counts may be split over several documents, so
+	 * an earlier attempt at the job may have failed after writing only some of its totals - these are removed.
+	 * @param prefix The prefix of the job.
+	 * @param throughByte the number of source bytes the totals will include.
+	 * @return true if an earlier attempt at the same run wrote a complete set of totals, and only the old counts need
+	 * removing (see completeIncrementalAmalgamationJob).
+	 */
+	boolean prepareIncrementalAmalgamationJob(String prefix, long throughByte);
+	
+	/**
+	 * Update an amalgamation job to be complete and store the results, resolving word ids back to words.
+	 * @param prefix The prefix this job related to.
+	 * @param idCountTotals The results of the job to be stored, keyed by word id.
+	 */
+	void completeEncodedAmalgamationJob(String prefix, IdCountTable idCountTotals);
+	
+	/**
+	 * Update an approximate text processing job to be complete and store its sketch.
+	 * @param jobId The jobId to mark completed.
+	 * @param sketch The sketch of the words in the job's text.
+	 */
+	void completeSketchTextProcessingJob(String jobId, WordSketch sketch);
+	
+	/**
+	 * Return the sketches stored by all approximate text processing jobs.
+	 * @return A FindIterable<Document> of the sketch results.
+	 */
+	FindIterable<Document> getSketchResults();
+	
+	/**
+	 * Create the single amalgamation job that merges all sketches, ready to be assigned.
+	 */
+	void createSketchAmalgamationJob();
+	
+	/**
+	 * Update the sketch amalgamation job to be complete and store the approximate counts and their error bounds.
+	 * @param mergedSketch The sketch of the whole text.
+	 */
+	void completeSketchAmalgamationJob(WordSketch mergedSketch);
+	
+	/**
+	 * Store the term counts of a targeted text processing job and mark the job as complete.
+	 * @param jobId the id of the job.
+	 * @param termsFingerprint the fingerprint of the term list the job counted (see TermIndex.getFingerprint()).
+	 * @param termCounts the count of each term, indexed by term.
+	 */
+	void completeTargetedTextProcessingJob(String jobId, String termsFingerprint, long[] termCounts);
+	
+	/**
+	 * Add the term counts of all targeted text processing jobs to a vector of totals.
+	 * @param termsFingerprint the fingerprint of the term list the totals are for - counts made against any other term
+	 * list are rejected.
+	 * @param termCountTotals the totals, indexed by term.
+	 */
+	void addTargetedJobCounts(String termsFingerprint, long[] termCountTotals);
+	
+	/**
+	 * Create the single amalgamation job used in targeted counting mode.
+	 */
+	void createTargetedAmalgamationJob();
+	
+	/**
+	 * Store the final count of every term and mark the targeted amalgamation job as complete.
+	 * @param termIndex the term list.
+	 * @param termCountTotals the total count of each term, indexed by term.
+	 */
+	void completeTargetedAmalgamationJob(TermIndex termIndex, long[] termCountTotals);
+	
+	/**
+	 * Store the combined values of an analysis text processing job and mark the job as complete. Results already 
+	 * stored for the job (by an earlier attempt at it) are replaced.
+	 * @param jobId the id of the job.
+	 * @param analysisName the name of the analysis.
+	 * @param results Iterator of keys and their encoded values, sorted by key.
+	 */
+	void completeAnalysisTextProcessingJob(String jobId, String analysisName, Iterator<Map.Entry<String, byte[]>> results);
+	
+	/**
+	 * Return the results stored by all analysis text processing jobs for the keys amalgamated by an analysis 
+	 * amalgamation job. Each document holds a list of keys sharing a prefix, and the encoded value of each key, in the
+	 * same order, one after another in a single binary field.
+	 * @param prefix the prefix of the analysis amalgamation job.
+	 * @return A FindIterable<Document> of the analysis results.
+	 */
+	FindIterable<Document> getAnalysisResultsByPrefix(String prefix);
+	
+	/**
+	 * Create the amalgamation jobs used in analysis counting mode, one for each key prefix found in the analysis
+	 * results, so that the results are reduced in parallel.
+	 */
+	void createAnalysisAmalgamationJobs();
+	
+	/**
+	 * Store the final result of every key amalgamated by an analysis amalgamation job, replacing any stored by an
+	 * earlier attempt at the job, and mark the job as complete.
+	 * @param prefix the prefix of the analysis amalgamation job.
+	 * @param analysisName the name of the analysis.
+	 * @param results Iterator of keys and their final results, sorted by key.
+	 */
+	void completeAnalysisAmalgamationJob(String prefix, String analysisName, Iterator<Map.Entry<String, Object>> results);
+	
+	/**
+	 * Store the postings built by an index text processing job and mark the job as complete. Postings already stored 
+	 * for the job (by an earlier attempt at it) are replaced.
+	 * @param jobId the id of the job.
+	 * @param firstByte the start of the byte range covered by the job.
+	 * @param postings Iterator of words and their encoded postings, sorted by word.
+	 */
+	void completeIndexTextProcessingJob(String jobId, long firstByte, Iterator<Map.Entry<String, byte[]>> postings);
+	
+	/**
+	 * Return the ids of the index text processing jobs that stored postings for the words merged by an index
+	 * amalgamation job, in the order of their byte ranges.
+	 * @param prefix the prefix of the index amalgamation job.
+	 * @return the job ids.
+	 */
+	List<String> getIndexPartitions(String prefix);
+	
+	/**
+	 * Return the postings stored by an index text processing job for the words merged by an index amalgamation job. 
+	 * Each document holds a list of words, and the encoded postings of each word, in the same order, one after another
+	 * in a single binary field.
+	 * @param jobId the id of the text processing job.
+	 * @param prefix the prefix of the index amalgamation job.
+	 * @return A FindIterable<Document> of the job's postings, in word order.
+	 */
+	FindIterable<Document> getIndexPostings(String jobId, String prefix);
+	
+	/**
+	 * Create the amalgamation jobs used in index counting mode, one for each word prefix found in the postings, so 
+	 * that the postings are merged in parallel. Each job writes its words to its own segment of the index, the 
+	 * segments being named so that they sort in word order.
+	 */
+	void createIndexAmalgamationJobs();
+	
+	/**
+	 * @param prefix the prefix of an index amalgamation job.
+	 * @return the name of the segment of the index (a directory within the index directory) written by the job.
+	 */
+	String getIndexSegmentName(String prefix);
+	
+	/**
+	 * Mark an index amalgamation job as complete, recording the worker and host that wrote its segment and where, as 
+	 * the segments of an index may be spread over several hosts.
+	 * @param prefix the prefix of the index amalgamation job.
+	 * @param nodeId the id of the worker that wrote the segment.
+	 * @param host the name of the host the worker runs on.
+	 * @param segmentPath the absolute path of the segment on the host.
+	 * @param termCount the number of words in the segment.
+	 */
+	void completeIndexAmalgamationJob(String prefix, String nodeId, String host, String segmentPath, long termCount);
+	
+	/**
+	 * Return the segments written by the completed index amalgamation jobs, in word order. Each document gives the
+	 * prefix of the words in the segment ("prefix"), the segment name ("segment"), the worker and host that wrote it 
+	 * ("node" and "host"), its path on that host ("path") and its number of words ("termCount").
+	 * @return the segments.
+	 */
+	List<Document> getIndexSegments();
+	
+	/**
+	 * Look up words in the shared word dictionary.
+	 * @param words The words to look up.
+	 * @return Map of the words that are in the dictionary to their ids (words not in the dictionary are omitted).
+	 */
+	Map<String, Integer> getWordIds(Collection<String> words);
+	
+	/**
+	 * Add new words to the shared word dictionary. If another node adds the same word concurrently, the id it was first 
+	 * given is kept.
+	 * @param words The words to add.
+	 * @return Map of the words to their ids.
+	 */
+	Map<String, Integer> addWordsToDictionary(Collection<String> words);
+	
 	/**
 	 * Check if all text processing jobs are completed.
 	 * @return true if all the jobs are complete, otherwise false.
@@ -99,15 +450,204 @@ public interface ChallengeDAO {
 	 */
 	void assignJobToWorker(String workerId, String jobId, String type);
 	
+	/**
+	 * Assign jobs to several worker nodes in a single batch. A job is only assigned to a worker that is still waiting
+	 * for one (new or idle).
+	 * @param jobIdsByWorkerId map of worker id to the id of the job assigned to it.
+	 * @param type The type of job (see JobType class)
+	 * @return the ids of the jobs that could not be assigned because their worker had left or was no longer waiting.
+	 */
+	Set<String> assignJobsToWorkers(Map<String, String> jobIdsByWorkerId, String type);
+	
+	/**
+	 * Add or update this DAO's run in the registry of runs shared by pooled workers.
+	 * @param priority the priority of the run - pooled workers serve runs of higher priority first.
+	 * @param weight the weight of the run - runs of the same priority receive pooled workers in proportion to weight.
+	 * @param runConfiguration the configuration pooled workers need to process the run's jobs.
+	 */
+	void registerRun(int priority, int weight, Document runConfiguration);
+	
+	/**
+	 * Record how many more workers this DAO's run could use at the moment, which also serves as its heartbeat.
+	 * @param demand the number of jobs waiting for a worker.
+	 */
+	void updateRunDemand(long demand);
+	
+	/**
+	 * Remove this DAO's run from the registry of runs, as it is finished.
+	 */
+	void finishRun();
+	
+	/**
+	 * Choose a run for a pooled worker to serve, and count the worker as serving it. Among the active runs with work
+	 * waiting, the highest priority runs are chosen first; among those, the run with the fewest pooled workers for its
+	 * weight.
+	 * @return the registry entry of the chosen run (namespace as _id, and configuration), or null if no run has work
+	 * waiting.
+	 */
+	Document joinRun();
+	
+	/**
+	 * Check whether a pooled worker serving a run should leave it for another: the run has finished, or another active
+	 * run with work waiting would be chosen ahead of it by joinRun() even without this worker counted against it.
+	 * @param namespace the namespace of the run served.
+	 * @return true if the worker should leave the run.
+	 */
+	boolean shouldLeaveRun(String namespace);
+	
+	/**
+	 * Record that a pooled worker has stopped serving a run.
+	 * @param namespace the namespace of the run.
+	 */
+	void leaveRun(String namespace);
+	
 	/**
 	 * Create all the necessary amalgamation jobs ready to be assigned.
 	 */
 	void createAmalgamationJobs();
 	
 	/**
-	 * Mark the overall process as having begun.
+	 * Create amalgamation jobs only for the prefixes that appear in the text processing job results - used when
+	 * adding to existing final counts, where other prefixes are unchanged.
+	 */
+	void createAmalgamationJobsForResultPrefixes();
+	
+	/**
+	 * Mark the overall process as having begun, in the STARTING phase.
+	 * @param runConfiguration the configuration that affects the results of the run, so that a controller adopting
+	 * the run can check it is configured the same way.
+	 * @return the id of the new run.
+	 */
+	String startProcess(Document runConfiguration);
+	
+	/**
+	 * Get the overall process document, including its status, run id, phase and run configuration.
+	 * @return the process document, or null if no process has been started.
+	 */
+	Document getProcess();
+	
+	/**
+	 * Update the phase of the overall process (see ProcessPhase class).
+	 * @param phase the phase to set.
+	 */
+	void setProcessPhase(String phase);
+	
+	/**
+	 * Get the text processing jobs that are not complete.
+	 * @return the jobs.
+	 */
+	List<Document> getIncompleteTextProcessingJobs();
+	
+	/**
+	 * Get the ids of the jobs currently assigned to workers that have not finished them.
+	 * @return the job ids (or prefixes, for amalgamation jobs).
 	 */
-	void startProcess();
+	Set<String> getJobIdsAssignedToWorkers();
+	
+	/**
+	 * Return a text processing job to its initial state so that it can be processed again, removing any results it
+	 * had partly written.
+	 * @param jobId the id of the job.
+	 */
+	void resetTextProcessingJob(String jobId);
+	
+	/**
+	 * Return a text processing job whose results could not be stored to its initial state (see 
+	 * resetTextProcessingJob()), and mark it failed so that a controller assigning jobs gives it out again.
+	 * @param jobId the id of the job.
+	 */
+	void failTextProcessingJob(String jobId);
+	
+	/**
+	 * Take the text processing jobs marked failed since the last call, clearing their mark.
+	 * @return the ids of the jobs.
+	 */
+	List<String> takeFailedTextProcessingJobs();
+	
+	/**
+	 * Get the last line covered by the text processing jobs created so far.
+	 * @return the line number, or 0 if there are no jobs.
+	 */
+	long getLastLineOfTextProcessingJobs();
+	
+	/**
+	 * Remove all amalgamation jobs.
+	 */
+	void clearAmalgamationJobs();
+	
+	/**
+	 * Group the results that are complete but not yet merged into merge jobs of fanIn inputs each - completed text
+	 * processing jobs into level 1 merge jobs, and completed merge jobs of each level into merge jobs of the level
+	 * above. Results that do not make up a full group are left for later calls, or are read directly by the
+	 * amalgamation jobs.
+	 * @param fanIn the number of inputs of each merge job.
+	 * @return the ids of the merge jobs created.
+	 */
+	List<String> createMergeJobs(int fanIn);
+	
+	/**
+	 * Get a merge job.
+	 * @param mergeJobId the id of the job.
+	 * @return the job document, including the ids of the jobs whose results it merges.
+	 */
+	Document getMergeJob(String mergeJobId);
+	
+	/**
+	 * Read the word counts of a set of text processing or merge jobs.
+	 * @param jobIds the ids of the jobs.
+	 * @param wordCounts receives each word and count in turn. A word appears once for each job that found it.
+	 */
+	void readJobWordCounts(List<String> jobIds, ObjLongConsumer<String> wordCounts);
+	
+	/**
+	 * Store the results of a merge job, mark it complete, then remove the results of the jobs it merged.
+	 * @param mergeJobId the id of the job.
+	 * @param sortedWordCounts the merged word counts, sorted by word.
+	 */
+	void completeMergeJob(String mergeJobId, Iterator<Map.Entry<String, Long>> sortedWordCounts);
+	
+	/**
+	 * Check if all merge jobs are completed.
+	 * @return true if all the merge jobs are complete, otherwise false.
+	 */
+	boolean allMergeJobsComplete();
+	
+	/**
+	 * Get the ids of the merge jobs that are not complete.
+	 * @return the ids.
+	 */
+	List<String> getIncompleteMergeJobIds();
+	
+	/**
+	 * Remove any results partly written by an incomplete merge job, so that it can be run again.
+	 * @param mergeJobId the id of the job.
+	 */
+	void resetMergeJob(String mergeJobId);
+	
+	/**
+	 * Remove any results of jobs that have been merged by a completed merge job but are still stored, because the
+	 * worker merging them failed before removing them.
+	 */
+	void removeMergedResults();
+	
+	/**
+	 * Count the amalgamation jobs not yet assigned to a worker.
+	 * @return the number of jobs.
+	 */
+	long countUnassignedAmalgamationJobs();
+	
+	/**
+	 * Get the prefixes of amalgamation jobs that have been assigned but are not complete.
+	 * @return the prefixes.
+	 */
+	List<String> getPendingAmalgamationJobPrefixes();
+	
+	/**
+	 * Return an amalgamation job to its unassigned state so that it can be processed again, removing any final
+	 * counts it had written without marking itself complete.
+	 * @param prefix the prefix of the job.
+	 */
+	void resetAmalgamationJob(String prefix);
 	
 	/**
 	 * Update the overall process state.
@@ -135,12 +675,42 @@ public interface ChallengeDAO {
 	 */
 	void updateWorkerStatus(String workerId, String status);
 	
+	/**
+	 * Mark a worker as working if it is available (new or idle), so that the controller does not assign it a job. It
+	 * fails if the controller has already assigned it one, which the worker must then process.
+	 * @param workerId the id of the worker.
+	 * @return true if the worker was marked as working, false if it was not available.
+	 */
+	boolean startWorkingIfAvailable(String workerId);
+	
 	/**
 	 * Return text processing job results relating to a given prefix.
 	 * @param prefix The prefix for which job results are required.
 	 * @return A FindIterable<Document> of the job results with a matching prefix.
 	 */
 	FindIterable<Document> getTextProcessingJobResultsByPrefix(String prefix);
+	
+	/**
+	 * Return the final counts relating to a given prefix.
+	 * @param prefix The prefix for which final counts are required.
+	 * @return A FindIterable<Document> of the final counts with a matching prefix.
+	 */
+	FindIterable<Document> getFinalCountsByPrefix(String prefix);
+	
+	/**
+	 * Read the word counts of the text processing job results relating to a given prefix, without building a
+	 * Document for each set of results.
+	 * @param prefix The prefix for which job results are required.
+	 * @param wordCounts receives each word and count in turn. A word appears once for each set of results containing it.
+	 */
+	void readTextProcessingJobWordCountsByPrefix(String prefix, ObjLongConsumer<String> wordCounts);
+	
+	/**
+	 * Read the final word counts relating to a given prefix, without building a Document for each set of counts.
+	 * @param prefix The prefix for which final counts are required.
+	 * @param wordCounts receives each word and count in turn.
+	 */
+	void readFinalWordCountsByPrefix(String prefix, ObjLongConsumer<String> wordCounts);
 
 	/**
 	 * Get the next unassigned amalgamation job and move it to 'pending' status.
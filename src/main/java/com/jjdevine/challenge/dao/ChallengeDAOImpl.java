@@ -2,23 +2,59 @@ package com.jjdevine.challenge.dao;
 
 import static com.mongodb.client.model.Filters.ne;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjLongConsumer;
 
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.types.Binary;
 import org.bson.types.ObjectId;
 
 import com.jjdevine.challenge.AppData;
+import com.jjdevine.challenge.ProcessPhase;
 import com.jjdevine.challenge.ProcessStatus;
 import com.jjdevine.challenge.controller.ControllerStatus;
 import com.jjdevine.challenge.job.JobStatus;
+import com.jjdevine.challenge.sketch.CountMinSketch;
+import com.jjdevine.challenge.sketch.HyperLogLog;
+import com.jjdevine.challenge.sketch.WordSketch;
+import com.jjdevine.challenge.worker.IdCountTable;
+import com.jjdevine.challenge.worker.TermIndex;
 import com.jjdevine.challenge.worker.WorkerStatus;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 
 /**
  * Implementation of the DAO interface, uses a MongoDB to store information.
@@ -37,6 +73,22 @@ public class ChallengeDAOImpl implements ChallengeDAO {
 	 */
 	private MongoDatabase db;
 	
+	/**
+	 * Prefix added to the names of the collections of this DAO's run, so that concurrent runs are isolated from one
+	 * another. Empty for the default namespace.
+	 */
+	private String collectionPrefix;
+	
+	/**
+	 * DAOs for the collections of each run, by namespace, shared by all DAOs using the same Mongo client.
+	 */
+	private Map<String, ChallengeDAO> namespaceDAOs;
+	
+	/**
+	 * True once this DAO has made sure the running total of the sizes of the cached chunks exists.
+	 */
+	private volatile boolean chunkCacheSizeCounted = false;
+	
 	/**
 	 * The collection of registered controller nodes.
 	 */
@@ -62,6 +114,11 @@ public class ChallengeDAOImpl implements ChallengeDAO {
 	 */
 	private static final String COLLECTION_AMALGAMATION_JOBS = "amalgamation_jobs";
 	
+	/**
+	 * Merge jobs collection.
+	 */
+	private static final String COLLECTION_MERGE_JOBS = "merge_jobs";
+	
 	/**
 	 * The collection of data related to the overall process.
 	 */
@@ -72,6 +129,166 @@ public class ChallengeDAOImpl implements ChallengeDAO {
 	 */
 	private static final String COLLECTION_FINAL_COUNTS = "final_word_counts";
 	
+	/**
+	 * The collection holding the shared word dictionary (word to id mapping).
+	 */
+	private static final String COLLECTION_DICTIONARY = "dictionary";
+	
+	/**
+	 * The collection holding the sequence used to allocate word ids.
+	 */
+	private static final String COLLECTION_SEQUENCES = "sequences";
+	
+	/**
+	 * The collection of approximate text processing job results (sketches).
+	 */
+	private static final String COLLECTION_SKETCH_RESULTS = "sketch_results";
+	
+	/**
+	 * The collection where the final approximate results are stored.
+	 */
+	private static final String COLLECTION_APPROXIMATE_COUNTS = "approximate_word_counts";
+	
+	/**
+	 * The collection of targeted text processing job results (term count vectors).
+	 */
+	private static final String COLLECTION_TERM_RESULTS = "term_results";
+	
+	/**
+	 * The collection where the final targeted results are stored.
+	 */
+	private static final String COLLECTION_TARGETED_COUNTS = "targeted_word_counts";
+	
+	/**
+	 * The collection of analysis text processing job results (keys and encoded values).
+	 */
+	private static final String COLLECTION_ANALYSIS_RESULTS = "analysis_results";
+	
+	/**
+	 * The collection where the final analysis results are stored.
+	 */
+	private static final String COLLECTION_ANALYSIS_OUTPUT = "analysis_output";
+	
+	/**
+	 * The collection of index text processing job results (words and encoded postings).
+	 */
+	private static final String COLLECTION_INDEX_POSTINGS = "index_postings";
+	
+	/**
+	 * The collection recording how much of each source file is included in the final counts, for incremental runs.
+	 */
+	private static final String COLLECTION_RUN_STATE = "run_state";
+	
+	/**
+	 * The collection holding the cached word counts of chunks of text, labelled with the hash of the chunk they were
+	 * counted from and the id of the attempt at caching the chunk that wrote them. Unlike the other collections it is
+	 * kept between runs.
+	 */
+	private static final String COLLECTION_CHUNK_CACHE = "chunk_cache";
+	
+	/**
+	 * The collection with one entry per cached chunk, recording the attempt whose counts are used, its size and when it
+	 * was last used. An entry is only written once all of the attempt's counts are in the cache.
+	 */
+	private static final String COLLECTION_CHUNK_CACHE_ENTRIES = "chunk_cache_entries";
+	
+	/**
+	 * The collection holding the running total of the sizes of the cached chunks, in a single document, so that the
+	 * entries need only be read when the cache is over its size limit.
+	 */
+	private static final String COLLECTION_CHUNK_CACHE_SIZE = "chunk_cache_size";
+	
+	/**
+	 * The id of the document holding the running total of the sizes of the cached chunks.
+	 */
+	private static final String CHUNK_CACHE_SIZE_ID = "total";
+	
+	/**
+	 * The registry of runs, shared by all namespaces.
+	 */
+	private static final String COLLECTION_RUNS = "runs";
+	
+	/**
+	 * Estimated storage used by each cached word count in addition to the characters of the word.
+	 */
+	private static final long CACHED_WORD_OVERHEAD_BYTES = 16;
+	
+	/**
+	 * The prefix used to identify the sketch amalgamation job in the amalgamation jobs collection.
+	 */
+	private static final String SKETCH_AMALGAMATION_PREFIX = "*";
+	
+	/**
+	 * The prefix used to identify the targeted amalgamation job in the amalgamation jobs collection.
+	 */
+	private static final String TARGETED_AMALGAMATION_PREFIX = "#";
+	
+	/**
+	 * The prefix used to identify analysis amalgamation jobs in the amalgamation jobs collection, followed in each job's
+	 * prefix by the key prefix of the results it amalgamates.
+	 */
+	private static final String ANALYSIS_AMALGAMATION_PREFIX = "%";
+	
+	/**
+	 * The prefix used to identify index amalgamation jobs in the amalgamation jobs collection, followed in each job's
+	 * prefix by the prefix of the words it merges.
+	 */
+	private static final String INDEX_AMALGAMATION_PREFIX = "&";
+	
+	/**
+	 * Format of the names of index segments, numbered so that they sort in word order.
+	 */
+	private static final String INDEX_SEGMENT_NAME_FORMAT = "segment-%05d";
+	
+	/**
+	 * Approximate number of bytes of keys and values in each analysis or index result document, keeping the document
+	 * well within the 16MB BSON limit.
+	 */
+	private static final int MAX_KEYED_RESULT_BYTES = 4 * 1024 * 1024;
+	
+	/**
+	 * Number of final analysis results written in a single insert.
+	 */
+	private static final int ANALYSIS_OUTPUT_BATCH_SIZE = 10_000;
+	
+	/**
+	 * Number of words to accumulate in text processing result documents before they are written.
+	 */
+	private static final int RESULT_INSERT_BATCH_WORDS = 100_000;
+	
+	/**
+	 * Maximum number of words to look up in the dictionary in a single query.
+	 */
+	private static final int DICTIONARY_LOOKUP_BATCH_SIZE = 10_000;
+	
+	/**
+	 * Maximum number of words in a dictionary encoded result document (about 30 bytes each), keeping the document
+	 * well within the 16MB BSON limit.
+	 */
+	private static final int MAX_ENCODED_WORDS_PER_DOCUMENT = 250_000;
+	
+	/**
+	 * Number of result documents requested from the server at a time when word counts are streamed. The server still
+	 * limits each batch to 16MB, so this only saves round trips when the documents are small.
+	 */
+	private static final int WORD_COUNT_BATCH_SIZE = 1000;
+	
+	/**
+	 * Projection that reads only the word counts of result documents.
+	 */
+	private static final Document WORD_COUNTS_PROJECTION = new Document("_id", 0).append("wordCounts", 1);
+	
+	/**
+	 * Collections shared by all namespaces rather than belonging to a single run.
+	 */
+	private static final Set<String> SHARED_COLLECTIONS = new HashSet<>(Arrays.asList(
+			COLLECTION_RUNS, COLLECTION_CHUNK_CACHE, COLLECTION_CHUNK_CACHE_ENTRIES, COLLECTION_CHUNK_CACHE_SIZE));
+	
+	/**
+	 * Time after its last heartbeat that a controller is assumed to have failed.
+	 */
+	private static final long CONTROLLER_HEARTBEAT_TIMEOUT_MILLIS = 60_000;
+	
 	/**
 	 * The Database to use
 	 */
@@ -82,241 +299,1641 @@ public class ChallengeDAOImpl implements ChallengeDAO {
 	 * @param appData Core application configuration data.
 	 */
 	public ChallengeDAOImpl(AppData appData) {
-		client = new MongoClient(appData.getMongoHost());
+		this(new MongoClient(appData.getMongoHost(), MongoClientOptions.builder()
+				.codecRegistry(CodecRegistries.fromRegistries(
+						MongoClient.getDefaultCodecRegistry(), 
+						CodecRegistries.fromCodecs(new WordCountsCodec())))
+				.build()), appData.getNamespace(), new ConcurrentHashMap<>());
+	}
+	
+	/**
+	 * Constructor for a DAO sharing a Mongo client.
+	 * @param client the Mongo client.
+	 * @param namespace the namespace of the run whose collections this DAO accesses (empty for the default namespace).
+	 * @param namespaceDAOs DAOs for the collections of each run, shared by all DAOs using the client.
+	 */
+	private ChallengeDAOImpl(MongoClient client, String namespace, Map<String, ChallengeDAO> namespaceDAOs) {
+		this.client = client;
+		this.namespaceDAOs = namespaceDAOs;
 		db = client.getDatabase(DATABASE);
+		collectionPrefix = namespace.isEmpty() ? "" : namespace + ".";
+		
+		collection(COLLECTION_DICTIONARY).createIndex(new Document("word", 1), new IndexOptions().unique(true));
+		collection(COLLECTION_DICTIONARY).createIndex(new Document("prefix", 1));
+		collection(COLLECTION_WORKERS).createIndex(new Document("status", 1));
+		collection(COLLECTION_CHUNK_CACHE).createIndex(new Document("attempt", 1));
+		collection(COLLECTION_CHUNK_CACHE_ENTRIES).createIndex(new Document("lastUsed", 1));
+		collection(COLLECTION_FINAL_COUNTS).createIndex(new Document("prefix", 1));
+		collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).createIndex(new Document("jobId", 1));
+		collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).createIndex(new Document("prefix", 1));
+		collection(COLLECTION_ANALYSIS_RESULTS).createIndex(new Document("prefix", 1));
+		collection(COLLECTION_INDEX_POSTINGS).createIndex(new Document("jobId", 1).append("prefix", 1).append("seq", 1));
+		collection(COLLECTION_INDEX_POSTINGS).createIndex(new Document("prefix", 1).append("firstByte", 1));
 	}
 
+	/**
+	 * Get a collection, qualified by this DAO's namespace unless it is shared by all namespaces.
+	 * @param name the unqualified name of the collection.
+	 * @return the collection.
+	 */
+	private MongoCollection<Document> collection(String name) {
+		if(SHARED_COLLECTIONS.contains(name)) {
+			return db.getCollection(name);
+		}
+		return db.getCollection(collectionPrefix + name);
+	}
+	
+	/**
+	 * Get a collection for writing word counts with WordCountsCodec, qualified in the same way as collection(name).
+	 * @param name the unqualified name of the collection.
+	 * @return the collection.
+	 */
+	private MongoCollection<WordCountsDocument> wordCountsCollection(String name) {
+		return collection(name).withDocumentClass(WordCountsDocument.class);
+	}
+	
+	@Override
+	public ChallengeDAO forNamespace(String namespace) {
+		//creating a DAO ensures the indexes of the run's collections exist, so only do it once per run
+		return namespaceDAOs.computeIfAbsent(namespace, key -> new ChallengeDAOImpl(client, key, namespaceDAOs));
+	}
+	
 	@Override
 	public String registerAsController() {
 		//clear down from previous runs
-		db.getCollection(COLLECTION_CONTROLLER).deleteMany(new Document());
+		collection(COLLECTION_CONTROLLER).deleteMany(new Document());
 		
 		Document doc = new Document()
 				.append("status", ControllerStatus.ACTIVE)
 				.append("timestamp", new Date());
 		
-		db.getCollection(COLLECTION_CONTROLLER).insertOne(doc);
+		collection(COLLECTION_CONTROLLER).insertOne(doc);
 		
 		return doc.get("_id").toString();
 	}
 	
 	@Override
 	public void clearAllCollections() {
-		db.getCollection(COLLECTION_CONTROLLER).deleteMany(new Document());
-		db.getCollection(COLLECTION_WORKERS).deleteMany(new Document());
-		db.getCollection(COLLECTION_TEXT_PROCESSING_JOBS).deleteMany(new Document());
-		db.getCollection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).deleteMany(new Document());
-		db.getCollection(COLLECTION_AMALGAMATION_JOBS).deleteMany(new Document());
-		db.getCollection(COLLECTION_PROCESS).deleteMany(new Document());
-		db.getCollection(COLLECTION_FINAL_COUNTS).deleteMany(new Document());
+		clearRunCollections();
+		collection(COLLECTION_FINAL_COUNTS).deleteMany(new Document());
+		collection(COLLECTION_RUN_STATE).deleteMany(new Document());
+	}
+	
+	@Override
+	public void clearRunCollections() {
+		collection(COLLECTION_CONTROLLER).deleteMany(new Document());
+		collection(COLLECTION_WORKERS).deleteMany(new Document());
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).deleteMany(new Document());
+		collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).deleteMany(new Document());
+		collection(COLLECTION_AMALGAMATION_JOBS).deleteMany(new Document());
+		collection(COLLECTION_MERGE_JOBS).deleteMany(new Document());
+		collection(COLLECTION_PROCESS).deleteMany(new Document());
+		collection(COLLECTION_DICTIONARY).deleteMany(new Document());
+		collection(COLLECTION_SEQUENCES).deleteMany(new Document());
+		collection(COLLECTION_SKETCH_RESULTS).deleteMany(new Document());
+		collection(COLLECTION_APPROXIMATE_COUNTS).deleteMany(new Document());
+		collection(COLLECTION_TERM_RESULTS).deleteMany(new Document());
+		collection(COLLECTION_TARGETED_COUNTS).deleteMany(new Document());
+		collection(COLLECTION_ANALYSIS_RESULTS).deleteMany(new Document());
+		collection(COLLECTION_ANALYSIS_OUTPUT).deleteMany(new Document());
+		collection(COLLECTION_INDEX_POSTINGS).deleteMany(new Document());
+	}
+	
+	@Override
+	public Document getRunState(String source) {
+		return collection(COLLECTION_RUN_STATE).find(new Document("_id", runStateKey(source))).first();
+	}
+	
+	@Override
+	public void startIncrementalRun(String source, long processedBytes, long targetBytes) {
+		collection(COLLECTION_RUN_STATE).updateOne(
+				new Document("_id", runStateKey(source)), 
+				new Document("$set", 
+						new Document("processedBytes", processedBytes)
+						.append("targetBytes", targetBytes)), 
+				new UpdateOptions().upsert(true));
+	}
+	
+	@Override
+	public void completeIncrementalRun(String source, long targetBytes) {
+		collection(COLLECTION_RUN_STATE).updateOne(
+				new Document("_id", runStateKey(source)), 
+				new Document("$set", 
+						new Document("processedBytes", targetBytes)
+						.append("completed", new Date()))
+				.append("$unset", 
+						new Document("targetBytes", "")));
+	}
+	
+	/**
+	 * Get the key of a source file in the run state collection.
+	 * @param source the location of the source file.
+	 * @return the key - the absolute, normalised path of the file.
+	 */
+	private String runStateKey(String source) {
+		return Paths.get(source).toAbsolutePath().normalize().toString();
+	}
+	
+	@Override
+	public void clearFinalCounts() {
+		collection(COLLECTION_FINAL_COUNTS).deleteMany(new Document());
 	}
 	
 	@Override
 	public boolean isControllerActive() {
-		FindIterable<Document> iterable = db.getCollection(COLLECTION_CONTROLLER).find(new Document("status", "active"));
+		Date heartbeatCutOff = new Date(System.currentTimeMillis() - CONTROLLER_HEARTBEAT_TIMEOUT_MILLIS);
+		FindIterable<Document> iterable = collection(COLLECTION_CONTROLLER).find(new Document("status", "active")
+				.append("timestamp", new Document("$gte", heartbeatCutOff)));
 		return iterable.first() != null;
 	}
 	
 	@Override
 	public void setControllerStatus(String nodeId, String status) {
-		db.getCollection(COLLECTION_CONTROLLER).updateOne(
+		collection(COLLECTION_CONTROLLER).updateOne(
 				new Document("_id", new ObjectId(nodeId)), 
 				new Document("$set", 
 						new Document("status", status)));
 	}
 	
+	@Override
+	public void updateControllerHeartbeat(String nodeId) {
+		collection(COLLECTION_CONTROLLER).updateOne(
+				new Document("_id", new ObjectId(nodeId)), 
+				new Document("$set", 
+						new Document("timestamp", new Date())));
+	}
+	
 	@Override
 	public String registerAsWorker() {
 		Document doc = new Document()
 				.append("status", WorkerStatus.NEW);
-		db.getCollection(COLLECTION_WORKERS).insertOne(doc);
+		collection(COLLECTION_WORKERS).insertOne(doc);
 		return doc.get("_id").toString();
 	}
 	
+	@Override
+	public boolean deregisterIdleWorker(String workerId) {
+		return collection(COLLECTION_WORKERS).deleteOne(
+				new Document("_id", new ObjectId(workerId))
+				.append("status", 
+						new Document("$in", Arrays.asList(WorkerStatus.NEW, WorkerStatus.IDLE))))
+				.getDeletedCount() > 0;
+	}
+	
 	@Override
 	public FindIterable<Document> getWorkers() {
-		return db.getCollection(COLLECTION_WORKERS).find();
+		return collection(COLLECTION_WORKERS).find();
+	}
+	
+	@Override
+	public List<String> getAvailableWorkerIds() {
+		List<String> workerIds = new ArrayList<>();
+		for(Document doc: collection(COLLECTION_WORKERS)
+				.find(new Document("status", 
+						new Document("$in", Arrays.asList(WorkerStatus.NEW, WorkerStatus.IDLE))))
+				.projection(new Document("_id", 1))) {
+			workerIds.add(doc.get("_id").toString());
+		}
+		return workerIds;
 	}
 	
 	@Override
 	public String createTextProcessingJob(long firstLine, long lastLine) {
+		return createTextProcessingJob(firstLine, lastLine, -1);
+	}
+	
+	@Override
+	public String createTextProcessingJob(long firstLine, long lastLine, long firstByte) {
 		Document doc = new Document()
 				.append("firstLine", firstLine)
 				.append("lastLine", lastLine)
 				.append("status", JobStatus.PENDING);
 		
-		db.getCollection(COLLECTION_TEXT_PROCESSING_JOBS).insertOne(doc);
+		if(firstByte >= 0) {
+			doc.append("firstByte", firstByte);
+		}
+		
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).insertOne(doc);
 		
 		return doc.get("_id").toString();
 	}
 	
 	@Override
-	public void assignJobToWorker(String workerId, String jobId, String type) {
-		db.getCollection(COLLECTION_WORKERS).updateOne(
-				new Document("_id", new ObjectId(workerId)), 
+	public List<String> createByteRangeTextProcessingJobs(long[] boundaries) {
+		List<Document> docs = new ArrayList<>();
+		for(int i=0; i<boundaries.length - 1; i++) {
+			docs.add(new Document()
+					.append("firstByte", boundaries[i])
+					.append("lastByte", boundaries[i + 1])
+					.append("status", JobStatus.PENDING));
+		}
+		
+		List<String> jobIds = new ArrayList<>();
+		if(!docs.isEmpty()) {
+			collection(COLLECTION_TEXT_PROCESSING_JOBS).insertMany(docs);
+			for(Document doc: docs) {
+				jobIds.add(doc.get("_id").toString());
+			}
+		}
+		return jobIds;
+	}
+	
+	@Override
+	public Document claimNextTextProcessingJob(String workerId) {
+		return collection(COLLECTION_TEXT_PROCESSING_JOBS).findOneAndUpdate(
+				new Document("status", JobStatus.PENDING)
+						.append("claimedBy", null), 
 				new Document("$set", 
-						new Document("jobId", jobId)
-						.append("status", WorkerStatus.JOB_PENDING)
-						.append("jobType", type)));
+						new Document("claimedBy", workerId)),
+				new FindOneAndUpdateOptions()
+						.sort(new Document("firstLine", 1).append("firstByte", 1))
+						.returnDocument(ReturnDocument.AFTER));
 	}
 	
 	@Override
-	public void startProcess() {
-		db.getCollection(COLLECTION_PROCESS).deleteMany(new Document()); //clear down any old processes
-		db.getCollection(COLLECTION_PROCESS).insertOne(new Document("status", ProcessStatus.ACTIVE));
+	public long countUnclaimedTextProcessingJobs() {
+		return collection(COLLECTION_TEXT_PROCESSING_JOBS).count(
+				new Document("status", JobStatus.PENDING)
+						.append("claimedBy", null));
 	}
 	
 	@Override
-	public void setProcessState(String processState) {
-		db.getCollection(COLLECTION_PROCESS).updateOne(new Document(), 
+	public long countWorkers() {
+		return collection(COLLECTION_WORKERS).count();
+	}
+	
+	@Override
+	public boolean hasTextProcessingJobs() {
+		return collection(COLLECTION_TEXT_PROCESSING_JOBS).find().first() != null;
+	}
+	
+	@Override
+	public long countOutstandingJobs() {
+		return collection(COLLECTION_TEXT_PROCESSING_JOBS).count(ne("status", JobStatus.COMPLETE))
+				+ collection(COLLECTION_MERGE_JOBS).count(ne("status", JobStatus.COMPLETE))
+				+ collection(COLLECTION_AMALGAMATION_JOBS).count(ne("status", JobStatus.COMPLETE));
+	}
+	
+	@Override
+	public long countRunDemand() {
+		Date heartbeatCutOff = new Date(System.currentTimeMillis() - CONTROLLER_HEARTBEAT_TIMEOUT_MILLIS);
+		
+		long demand = 0;
+		for(Document run: collection(COLLECTION_RUNS).find(new Document("demand", new Document("$gt", 0))
+				.append("heartbeat", new Document("$gte", heartbeatCutOff)))) {
+			demand += ((Number)run.get("demand")).longValue();
+		}
+		return demand;
+	}
+	
+	@Override
+	public void assignJobToWorker(String workerId, String jobId, String type) {
+		collection(COLLECTION_WORKERS).updateOne(
+				new Document("_id", new ObjectId(workerId)), 
 				new Document("$set", 
-						new Document("status", processState)));
+						new Document("jobId", jobId)
+						.append("status", WorkerStatus.JOB_PENDING)
+						.append("jobType", type)));
 	}
 	
 	@Override
-	public String queryProcessStatus() {
-		Document doc = db.getCollection(COLLECTION_PROCESS).find(new Document()).first();
-		if(doc != null) {
-			return doc.getString("status");
-		} else {
-			return null;
+	public Set<String> assignJobsToWorkers(Map<String, String> jobIdsByWorkerId, String type) {
+		Set<String> unassignedJobIds = new HashSet<>();
+		if(jobIdsByWorkerId.isEmpty()) {
+			return unassignedJobIds;
+		}
+		
+		List<WriteModel<Document>> updates = new ArrayList<>();
+		for(Map.Entry<String, String> assignment: jobIdsByWorkerId.entrySet()) {
+			updates.add(new UpdateOneModel<>(
+					new Document("_id", new ObjectId(assignment.getKey()))
+					.append("status", 
+							new Document("$in", Arrays.asList(WorkerStatus.NEW, WorkerStatus.IDLE))), 
+					new Document("$set", 
+							new Document("jobId", assignment.getValue())
+							.append("status", WorkerStatus.JOB_PENDING)
+							.append("jobType", type))));
 		}
+		BulkWriteResult result = collection(COLLECTION_WORKERS).bulkWrite(updates, new BulkWriteOptions().ordered(false));
 		
+		if(result.getMatchedCount() < updates.size()) {
+			//some workers left or started other work - find out which jobs were not taken
+			unassignedJobIds.addAll(jobIdsByWorkerId.values());
+			unassignedJobIds.removeAll(getJobIdsAssignedToWorkers());
+		}
+		return unassignedJobIds;
 	}
 	
 	@Override
-	public Document getWorker(String workerId) {
-		Document doc = db.getCollection(COLLECTION_WORKERS).find(
-				new Document("_id", new ObjectId(workerId))).first();
-		
-		return doc;
+	public void registerRun(int priority, int weight, Document runConfiguration) {
+		collection(COLLECTION_RUNS).updateOne(
+				new Document("_id", getNamespace()), 
+				new Document("$set", 
+						new Document("priority", priority)
+						.append("weight", weight)
+						.append("configuration", runConfiguration)
+						.append("demand", 0L)
+						.append("heartbeat", new Date()))
+				.append("$setOnInsert", 
+						new Document("pooledWorkers", 0)), 
+				new UpdateOptions().upsert(true));
 	}
 	
 	@Override
-	public void updateWorkerStatus(String workerId, String status) {
-		db.getCollection(COLLECTION_WORKERS).updateOne(
-				new Document("_id", new ObjectId(workerId)), 
+	public void updateRunDemand(long demand) {
+		collection(COLLECTION_RUNS).updateOne(
+				new Document("_id", getNamespace()), 
 				new Document("$set", 
-						new Document("status", status)));
+						new Document("demand", demand)
+						.append("heartbeat", new Date())));
 	}
-
+	
 	@Override
-	public Document getTextProcessingJob(String jobId) {
-		return db.getCollection(COLLECTION_TEXT_PROCESSING_JOBS).find(
-				new Document("_id", new ObjectId(jobId))).first();
+	public void finishRun() {
+		collection(COLLECTION_RUNS).deleteOne(new Document("_id", getNamespace()));
 	}
-
+	
 	@Override
-	public void completeTextProcessingJob(String jobId, Map<String, Long> wordCounts) {
-
-		if(wordCounts.size() > 0) {
-			/*
-			 * Split results based on first letters/prefix of words. Have a document for 'a' 'b' etc as well as 'aa', 'ab' 
-			 * (ie use all possible 1 and 2 letter prefixes
-			 */
-			
-			//sort keys alphabetically into an array
-			String[] keys = new String[wordCounts.keySet().size()];
-			wordCounts.keySet().toArray(keys);
-			Arrays.sort(keys);
-			
-			//list of result documents
-			List<Document> jobResultDocuments = new ArrayList<>();
+	public Document joinRun() {
+		Date heartbeatCutOff = new Date(System.currentTimeMillis() - CONTROLLER_HEARTBEAT_TIMEOUT_MILLIS);
+		
+		while(true) {
+			Document chosenRun = null;
+			for(Document run: collection(COLLECTION_RUNS).find(new Document("demand", new Document("$gt", 0))
+					.append("heartbeat", new Document("$gte", heartbeatCutOff)))) {
+				if(chosenRun == null || isBetterRunToJoin(run, chosenRun)) {
+					chosenRun = run;
+				}
+			}
 			
-			//the document currently being worked on
-			Document currentJobResultDocument = new Document()
-					.append("jobId", jobId);
-			jobResultDocuments.add(currentJobResultDocument);
-
-			//record the prefix (first letter) used in this document
-			String currentPrefix = getPrefix(keys[0]);
-			currentJobResultDocument.append("prefix", currentPrefix);
+			if(chosenRun == null) {
+				return null;
+			}
 			
-			//the word block of the document currently being worked on
-			Document currentWordBlock = new Document();
-			currentJobResultDocument.append("wordCounts", currentWordBlock);
-			for(String word: keys) {
-				if(!currentPrefix.equals(getPrefix(word))) {
-					/*
-					 * prefix has changed, create a new document for new start letter
-					 */
-					currentPrefix = getPrefix(word);
-					
-					currentJobResultDocument = new Document()
-							.append("jobId", jobId)
-							.append("prefix", currentPrefix);
-					jobResultDocuments.add(currentJobResultDocument);
-					
-					currentWordBlock = new Document();
-					currentJobResultDocument.append("wordCounts", currentWordBlock);
-				}
-				currentWordBlock.append(word, wordCounts.get(word));
+			//take one unit of the run's demand, unless another worker has taken the last of it first
+			Document joinedRun = collection(COLLECTION_RUNS).findOneAndUpdate(
+					new Document("_id", chosenRun.get("_id"))
+					.append("demand", new Document("$gt", 0)), 
+					new Document("$inc", 
+							new Document("demand", -1L)
+							.append("pooledWorkers", 1)));
+			if(joinedRun != null) {
+				return joinedRun;
 			}
-
-			db.getCollection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).insertMany(jobResultDocuments);
 		}
-
-		db.getCollection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
-				new Document("_id", new ObjectId(jobId)), 
-				new Document("$set", 
-						new Document("status", JobStatus.COMPLETE)));
 	}
 	
 	/**
-	 * Return the prefix for the string, using the first two characters. If the string has a length less than two, use the string as is.
-	 * @param str The string whose prefix is required.
-	 * @return The prefix
+	 * Compare two runs for a pooled worker to join.
+	 * @param run a run.
+	 * @param other another run.
+	 * @return true if run is of higher priority than other, or of the same priority and has fewer pooled workers per
+	 * unit of weight.
 	 */
-	private String getPrefix(String str) {
-		if(str.length() <= 1) {
-			return str;
-		} else {
-			return str.substring(0, 2);
+	private boolean isBetterRunToJoin(Document run, Document other) {
+		int priority = run.getInteger("priority");
+		int otherPriority = other.getInteger("priority");
+		if(priority != otherPriority) {
+			return priority > otherPriority;
 		}
+		//compare workers/weight without division
+		return (long)run.getInteger("pooledWorkers") * other.getInteger("weight") 
+				< (long)other.getInteger("pooledWorkers") * run.getInteger("weight");
 	}
 	
 	@Override
-	public void completeAmalgamationJob(String prefix, Map<String, Long> wordCountTotals) {
-		
-		//sort keys (words) alphabetically into an array
-		String[] keys = new String[wordCountTotals.keySet().size()];
-		wordCountTotals.keySet().toArray(keys);
-		Arrays.sort(keys);
-		
-		Document resultDoc = new Document()
-				.append("prefix", prefix);
-		
-		Document wordCounts = new Document();
-		resultDoc.append("wordCounts", wordCounts);
-		
-		for(String word: keys) {
-			wordCounts.append(word, wordCountTotals.get(word));
+	public boolean shouldLeaveRun(String namespace) {
+		Document servedRun = collection(COLLECTION_RUNS).find(new Document("_id", namespace)).first();
+		if(servedRun == null) {
+			return true;
 		}
+		//compare the run as it would be without this worker, so that workers do not swap back and forth between runs
+		servedRun.put("pooledWorkers", servedRun.getInteger("pooledWorkers") - 1);
 		
-		db.getCollection(COLLECTION_FINAL_COUNTS).insertOne(resultDoc);
-		
-		db.getCollection(COLLECTION_AMALGAMATION_JOBS).updateOne(
-				new Document("prefix", prefix),
+		Date heartbeatCutOff = new Date(System.currentTimeMillis() - CONTROLLER_HEARTBEAT_TIMEOUT_MILLIS);
+		for(Document run: collection(COLLECTION_RUNS).find(new Document("demand", new Document("$gt", 0))
+				.append("heartbeat", new Document("$gte", heartbeatCutOff))
+				.append("_id", new Document("$ne", namespace)))) {
+			if(isBetterRunToJoin(run, servedRun)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	@Override
+	public void leaveRun(String namespace) {
+		collection(COLLECTION_RUNS).updateOne(
+				new Document("_id", namespace), 
+				new Document("$inc", 
+						new Document("pooledWorkers", -1)));
+	}
+	
+	/**
+	 * @return the namespace of this DAO's run (empty for the default namespace).
+	 */
+	private String getNamespace() {
+		return collectionPrefix.isEmpty() ? "" : collectionPrefix.substring(0, collectionPrefix.length() - 1);
+	}
+	
+	@Override
+	public String startProcess(Document runConfiguration) {
+		String runId = new ObjectId().toString();
+		collection(COLLECTION_PROCESS).deleteMany(new Document()); //clear down any old processes
+		collection(COLLECTION_PROCESS).insertOne(new Document("status", ProcessStatus.ACTIVE)
+				.append("runId", runId)
+				.append("phase", ProcessPhase.STARTING)
+				.append("configuration", runConfiguration)
+				.append("started", new Date()));
+		return runId;
+	}
+	
+	@Override
+	public Document getProcess() {
+		return collection(COLLECTION_PROCESS).find(new Document()).first();
+	}
+	
+	@Override
+	public void setProcessPhase(String phase) {
+		collection(COLLECTION_PROCESS).updateOne(new Document(), 
+				new Document("$set", 
+						new Document("phase", phase)));
+	}
+	
+	@Override
+	public List<Document> getIncompleteTextProcessingJobs() {
+		return collection(COLLECTION_TEXT_PROCESSING_JOBS)
+				.find(ne("status", JobStatus.COMPLETE))
+				.into(new ArrayList<>());
+	}
+	
+	@Override
+	public Set<String> getJobIdsAssignedToWorkers() {
+		Set<String> jobIds = new HashSet<>();
+		for(Document doc: collection(COLLECTION_WORKERS)
+				.find(new Document("status", 
+						new Document("$in", Arrays.asList(WorkerStatus.JOB_PENDING, WorkerStatus.WORKING))))
+				.projection(new Document("jobId", 1))) {
+			if(doc.getString("jobId") != null) {
+				jobIds.add(doc.getString("jobId"));
+			}
+		}
+		return jobIds;
+	}
+	
+	@Override
+	public void resetTextProcessingJob(String jobId) {
+		collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).deleteMany(new Document("jobId", jobId));
+		collection(COLLECTION_SKETCH_RESULTS).deleteMany(new Document("jobId", jobId));
+		collection(COLLECTION_TERM_RESULTS).deleteMany(new Document("jobId", jobId));
+		collection(COLLECTION_ANALYSIS_RESULTS).deleteMany(new Document("jobId", jobId));
+		collection(COLLECTION_INDEX_POSTINGS).deleteMany(new Document("jobId", jobId));
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
+				new Document("_id", new ObjectId(jobId)), 
+				new Document("$set", 
+						new Document("status", JobStatus.PENDING)
+						.append("claimedBy", null)));
+	}
+	
+	@Override
+	public void failTextProcessingJob(String jobId) {
+		resetTextProcessingJob(jobId);
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
+				new Document("_id", new ObjectId(jobId)), 
+				new Document("$set", 
+						new Document("failed", true)));
+	}
+	
+	@Override
+	public List<String> takeFailedTextProcessingJobs() {
+		List<String> jobIds = new ArrayList<>();
+		Document job;
+		//take the jobs one at a time, so that a job failing again meanwhile is not lost
+		while((job = collection(COLLECTION_TEXT_PROCESSING_JOBS).findOneAndUpdate(
+				new Document("failed", true), 
+				new Document("$unset", new Document("failed", "")))) != null) {
+			jobIds.add(job.get("_id").toString());
+		}
+		return jobIds;
+	}
+	
+	@Override
+	public long getLastLineOfTextProcessingJobs() {
+		Document lastJob = collection(COLLECTION_TEXT_PROCESSING_JOBS)
+				.find(new Document("lastLine", new Document("$exists", true)))
+				.sort(new Document("lastLine", -1))
+				.first();
+		return lastJob != null ? lastJob.getLong("lastLine") : 0;
+	}
+	
+	@Override
+	public void clearAmalgamationJobs() {
+		collection(COLLECTION_AMALGAMATION_JOBS).deleteMany(new Document());
+	}
+	
+	@Override
+	public List<String> createMergeJobs(int fanIn) {
+		List<String> mergeJobIds = new ArrayList<>();
+		
+		//level 0 - completed text processing jobs, in file order so that merged results cover neighbouring text
+		List<String> inputs = new ArrayList<>();
+		for(Document job: collection(COLLECTION_TEXT_PROCESSING_JOBS)
+				.find(new Document("status", JobStatus.COMPLETE).append("mergedBy", null))
+				.sort(new Document("firstLine", 1).append("firstByte", 1))
+				.projection(new Document("_id", 1))) {
+			inputs.add(job.get("_id").toString());
+		}
+		mergeJobIds.addAll(createMergeJobs(COLLECTION_TEXT_PROCESSING_JOBS, inputs, 1, fanIn));
+		
+		//higher levels - completed merge jobs
+		Map<Integer, List<String>> inputsByLevel = new HashMap<>();
+		for(Document job: collection(COLLECTION_MERGE_JOBS)
+				.find(new Document("status", JobStatus.COMPLETE).append("mergedBy", null))
+				.projection(new Document("level", 1))) {
+			inputsByLevel.computeIfAbsent(job.getInteger("level"), level -> new ArrayList<>()).add(job.get("_id").toString());
+		}
+		for(Map.Entry<Integer, List<String>> levelInputs: inputsByLevel.entrySet()) {
+			mergeJobIds.addAll(createMergeJobs(COLLECTION_MERGE_JOBS, levelInputs.getValue(), levelInputs.getKey() + 1, fanIn));
+		}
+		
+		return mergeJobIds;
+	}
+	
+	/**
+	 * Create merge jobs for as many full groups of inputs as there are. Each input is marked with the id of its merge
+	 * job before the merge job is created - if the controller fails in between, the inputs are never merged and their
+	 * results are simply read by the amalgamation jobs, so nothing is counted twice.
+	 * @param inputCollection the collection of the input jobs.
+	 * @param inputs the ids of the input jobs.
+	 * @param level the level of the merge jobs.
+	 * @param fanIn the number of inputs of each merge job.
+	 * @return the ids of the merge jobs created.
+	 */
+	private List<String> createMergeJobs(String inputCollection, List<String> inputs, int level, int fanIn) {
+		List<String> mergeJobIds = new ArrayList<>();
+		for(int groupStart = 0; groupStart + fanIn <= inputs.size(); groupStart += fanIn) {
+			List<String> group = inputs.subList(groupStart, groupStart + fanIn);
+			List<ObjectId> groupIds = new ArrayList<>(fanIn);
+			for(String jobId: group) {
+				groupIds.add(new ObjectId(jobId));
+			}
+			
+			ObjectId mergeJobId = new ObjectId();
+			collection(inputCollection).updateMany(
+					new Document("_id", new Document("$in", groupIds)), 
+					new Document("$set", 
+							new Document("mergedBy", mergeJobId.toString())));
+			collection(COLLECTION_MERGE_JOBS).insertOne(new Document("_id", mergeJobId)
+					.append("level", level)
+					.append("inputs", new ArrayList<>(group))
+					.append("status", JobStatus.PENDING));
+			mergeJobIds.add(mergeJobId.toString());
+		}
+		return mergeJobIds;
+	}
+	
+	@Override
+	public Document getMergeJob(String mergeJobId) {
+		return collection(COLLECTION_MERGE_JOBS).find(new Document("_id", new ObjectId(mergeJobId))).first();
+	}
+	
+	@Override
+	public void readJobWordCounts(List<String> jobIds, ObjLongConsumer<String> wordCounts) {
+		readWordCounts(COLLECTION_TEXT_PROCESSING_JOB_RESULTS, new Document("jobId", new Document("$in", jobIds)), wordCounts);
+	}
+	
+	@Override
+	public void completeMergeJob(String mergeJobId, Iterator<Map.Entry<String, Long>> sortedWordCounts) {
+		insertJobResults(mergeJobId, sortedWordCounts);
+		
+		Document mergeJob = collection(COLLECTION_MERGE_JOBS).findOneAndUpdate(
+				new Document("_id", new ObjectId(mergeJobId)), 
+				new Document("$set", 
+						new Document("status", JobStatus.COMPLETE)));
+		
+		//the merged results now stand in for the inputs
+		collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).deleteMany(
+				new Document("jobId", new Document("$in", mergeJob.get("inputs"))));
+	}
+	
+	@Override
+	public boolean allMergeJobsComplete() {
+		return collection(COLLECTION_MERGE_JOBS).find(ne("status", JobStatus.COMPLETE)).first() == null;
+	}
+	
+	@Override
+	public List<String> getIncompleteMergeJobIds() {
+		List<String> mergeJobIds = new ArrayList<>();
+		for(Document job: collection(COLLECTION_MERGE_JOBS)
+				.find(ne("status", JobStatus.COMPLETE))
+				.projection(new Document("_id", 1))) {
+			mergeJobIds.add(job.get("_id").toString());
+		}
+		return mergeJobIds;
+	}
+	
+	@Override
+	public void resetMergeJob(String mergeJobId) {
+		collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).deleteMany(new Document("jobId", mergeJobId));
+	}
+	
+	@Override
+	public void removeMergedResults() {
+		for(Document mergeJob: collection(COLLECTION_MERGE_JOBS)
+				.find(new Document("status", JobStatus.COMPLETE))
+				.projection(new Document("inputs", 1))) {
+			collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).deleteMany(
+					new Document("jobId", new Document("$in", mergeJob.get("inputs"))));
+		}
+	}
+	
+	@Override
+	public long countUnassignedAmalgamationJobs() {
+		return collection(COLLECTION_AMALGAMATION_JOBS).count(new Document("status", JobStatus.UNASSIGNED));
+	}
+	
+	@Override
+	public List<String> getPendingAmalgamationJobPrefixes() {
+		List<String> prefixes = new ArrayList<>();
+		for(Document doc: collection(COLLECTION_AMALGAMATION_JOBS).find(new Document("status", JobStatus.PENDING))) {
+			prefixes.add(doc.getString("prefix"));
+		}
+		return prefixes;
+	}
+	
+	@Override
+	public void resetAmalgamationJob(String prefix) {
+		if(SKETCH_AMALGAMATION_PREFIX.equals(prefix)) {
+			collection(COLLECTION_APPROXIMATE_COUNTS).deleteMany(new Document());
+		} else if(TARGETED_AMALGAMATION_PREFIX.equals(prefix)) {
+			collection(COLLECTION_TARGETED_COUNTS).deleteMany(new Document());
+		} else if(prefix.startsWith(ANALYSIS_AMALGAMATION_PREFIX)) {
+			collection(COLLECTION_ANALYSIS_OUTPUT).deleteMany(
+					new Document("prefix", prefix.substring(ANALYSIS_AMALGAMATION_PREFIX.length())));
+		} else if(prefix.startsWith(INDEX_AMALGAMATION_PREFIX)) {
+			//the segment's files are replaced when the job is run again, perhaps on another node
+			collection(COLLECTION_AMALGAMATION_JOBS).updateOne(
+					new Document("prefix", prefix),
+					new Document("$unset",
+							new Document("node", "").append("host", "").append("path", "").append("termCount", "")));
+		} else {
+			//counts written by an incremental run are marked, and are replaced safely when the job is run again
+			collection(COLLECTION_FINAL_COUNTS).deleteMany(new Document("prefix", prefix)
+					.append("throughByte", new Document("$exists", false)));
+		}
+		collection(COLLECTION_AMALGAMATION_JOBS).updateOne(
+				new Document("prefix", prefix),
+				new Document("$set",
+						new Document("status", JobStatus.UNASSIGNED)));
+	}
+	
+	@Override
+	public void setProcessState(String processState) {
+		collection(COLLECTION_PROCESS).updateOne(new Document(), 
+				new Document("$set", 
+						new Document("status", processState)));
+	}
+	
+	@Override
+	public String queryProcessStatus() {
+		Document doc = collection(COLLECTION_PROCESS).find(new Document()).first();
+		if(doc != null) {
+			return doc.getString("status");
+		} else {
+			return null;
+		}
+		
+	}
+	
+	@Override
+	public Document getWorker(String workerId) {
+		Document doc = collection(COLLECTION_WORKERS).find(
+				new Document("_id", new ObjectId(workerId))).first();
+		
+		return doc;
+	}
+	
+	@Override
+	public void updateWorkerStatus(String workerId, String status) {
+		collection(COLLECTION_WORKERS).updateOne(
+				new Document("_id", new ObjectId(workerId)), 
+				new Document("$set", 
+						new Document("status", status)));
+	}
+	
+	@Override
+	public boolean startWorkingIfAvailable(String workerId) {
+		return collection(COLLECTION_WORKERS).updateOne(
+				new Document("_id", new ObjectId(workerId))
+				.append("status", 
+						new Document("$in", Arrays.asList(WorkerStatus.NEW, WorkerStatus.IDLE))), 
+				new Document("$set", 
+						new Document("status", WorkerStatus.WORKING))).getMatchedCount() > 0;
+	}
+
+	@Override
+	public Document getTextProcessingJob(String jobId) {
+		return collection(COLLECTION_TEXT_PROCESSING_JOBS).find(
+				new Document("_id", new ObjectId(jobId))).first();
+	}
+
+	@Override
+	public void completeTextProcessingJob(String jobId, Map<String, Long> wordCounts) {
+		completeTextProcessingJob(jobId, sortedEntries(wordCounts));
+	}
+	
+	@Override
+	public void completeTextProcessingJob(String jobId, Iterator<Map.Entry<String, Long>> sortedWordCounts) {
+		insertJobResults(jobId, sortedWordCounts);
+
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
+				new Document("_id", new ObjectId(jobId)), 
+				new Document("$set", 
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	/**
+	 * Store the results of a text processing or merge job.
+	 * @param jobId the id of the job.
+	 * @param sortedWordCounts the results, sorted by word.
+	 */
+	private void insertJobResults(String jobId, Iterator<Map.Entry<String, Long>> sortedWordCounts) {
+		if(sortedWordCounts.hasNext()) {
+			/*
+			 * Split results based on first letters/prefix of words. Have a document for 'a' 'b' etc as well as 'aa', 'ab' 
+			 * (ie use all possible 1 and 2 letter prefixes
+			 */
+			
+			//list of result documents not yet written
+			List<WordCountsDocument> jobResultDocuments = new ArrayList<>();
+			int bufferedWords = 0;
+			
+			Map.Entry<String, Long> entry = sortedWordCounts.next();
+			
+			//the document currently being worked on, recording the prefix (first letter) used in it
+			String currentPrefix = getPrefix(entry.getKey());
+			int currentSeq = 0;
+			WordCountsDocument currentJobResultDocument = createJobResultDocument(jobId, currentPrefix, currentSeq);
+			jobResultDocuments.add(currentJobResultDocument);
+			
+			while(true) {
+				String word = entry.getKey();
+				boolean prefixChanged = !currentPrefix.equals(getPrefix(word));
+				if(prefixChanged || currentJobResultDocument.isFull()) {
+					/*
+					 * prefix has changed, create a new document for new start letter - or the document is full, 
+					 * continue the prefix in a new document
+					 */
+					currentPrefix = getPrefix(word);
+					currentSeq = prefixChanged ? 0 : currentSeq + 1;
+					
+					if(bufferedWords >= RESULT_INSERT_BATCH_WORDS) {
+						//write completed documents so that memory use stays bounded
+						wordCountsCollection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).insertMany(jobResultDocuments);
+						jobResultDocuments.clear();
+						bufferedWords = 0;
+					}
+					
+					currentJobResultDocument = createJobResultDocument(jobId, currentPrefix, currentSeq);
+					jobResultDocuments.add(currentJobResultDocument);
+				}
+				currentJobResultDocument.add(word, entry.getValue());
+				bufferedWords++;
+				
+				if(!sortedWordCounts.hasNext()) {
+					break;
+				}
+				entry = sortedWordCounts.next();
+			}
+
+			wordCountsCollection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).insertMany(jobResultDocuments);
+		}
+	}
+	
+	/**
+	 * Create a document for (part of) the results of a job for a prefix.
+	 * @param jobId the id of the job.
+	 * @param prefix the prefix.
+	 * @param seq the position of the document among those holding the job's results for the prefix.
+	 * @return the document.
+	 */
+	private WordCountsDocument createJobResultDocument(String jobId, String prefix, int seq) {
+		return new WordCountsDocument(new Document()
+				.append("jobId", jobId)
+				.append("prefix", prefix)
+				.append("seq", seq));
+	}
+	
+	/**
+	 * Store the final counts for a prefix, split over as many documents as their size requires. The last document is
+	 * marked, and is written last, so that a complete set of counts can be recognised.
+	 * @param prefix the prefix.
+	 * @param sortedWordCountTotals the counts, sorted by word.
+	 * @param throughByte the number of source bytes included in the counts of an incremental run, or null.
+	 */
+	private void insertFinalCounts(String prefix, Iterator<Map.Entry<String, Long>> sortedWordCountTotals, Long throughByte) {
+		int seq = 0;
+		WordCountsDocument resultDoc = createFinalCountsDocument(prefix, seq, throughByte);
+		
+		while(sortedWordCountTotals.hasNext()) {
+			if(resultDoc.isFull()) {
+				wordCountsCollection(COLLECTION_FINAL_COUNTS).insertOne(resultDoc);
+				seq++;
+				resultDoc = createFinalCountsDocument(prefix, seq, throughByte);
+			}
+			Map.Entry<String, Long> entry = sortedWordCountTotals.next();
+			resultDoc.add(entry.getKey(), entry.getValue());
+		}
+		
+		resultDoc.getFields().append("lastChunk", true);
+		wordCountsCollection(COLLECTION_FINAL_COUNTS).insertOne(resultDoc);
+	}
+	
+	/**
+	 * Create a document for (part of) the final counts for a prefix.
+	 * @param prefix the prefix.
+	 * @param seq the position of the document among those holding the counts for the prefix.
+	 * @param throughByte the number of source bytes included in the counts of an incremental run, or null.
+	 * @return the document.
+	 */
+	private WordCountsDocument createFinalCountsDocument(String prefix, int seq, Long throughByte) {
+		Document fields = new Document()
+				.append("prefix", prefix)
+				.append("seq", seq);
+		if(throughByte != null) {
+			fields.append("throughByte", throughByte);
+		}
+		return new WordCountsDocument(fields);
+	}
+	
+	@Override
+	public Map<String, Long> getCachedChunkCounts(String chunkHash) {
+		Document entry = collection(COLLECTION_CHUNK_CACHE_ENTRIES).findOneAndUpdate(
+				new Document("_id", chunkHash), 
+				new Document("$set", 
+						new Document("lastUsed", new Date())));
+		if(entry == null || entry.getString("attempt") == null) {
+			//not cached, or cached before counts were labelled with the attempt that wrote them
+			return null;
+		}
+		
+		String attempt = entry.getString("attempt");
+		Map<String, Long> wordCounts = new HashMap<>();
+		for(Document doc: collection(COLLECTION_CHUNK_CACHE).find(new Document("attempt", attempt))) {
+			Document counts = (Document)doc.get("wordCounts");
+			for(Map.Entry<String, Object> count: counts.entrySet()) {
+				wordCounts.put(count.getKey(), ((Number)count.getValue()).longValue());
+			}
+		}
+		
+		if(collection(COLLECTION_CHUNK_CACHE_ENTRIES).count(new Document("_id", chunkHash).append("attempt", attempt)) == 0) {
+			//evicted while it was being read, so the counts read may be incomplete
+			return null;
+		}
+		return wordCounts;
+	}
+	
+	@Override
+	public void cacheChunkCounts(String chunkHash, Iterator<Map.Entry<String, Long>> wordCounts, long maxCacheBytes) {
+		if(collection(COLLECTION_CHUNK_CACHE_ENTRIES).count(new Document("_id", chunkHash)) > 0) {
+			//another worker counted the same content first
+			return;
+		}
+		
+		/*
+		 * label the counts with an id of their own, and only publish them (by inserting the entry naming that id) once
+		 * they are all written, so that attempts to cache the same chunk never read or delete each other's counts
+		 */
+		ensureChunkCacheSizeCounted();
+		String attempt = new ObjectId().toString();
+		long size = 0;
+		try {
+			WordCountsDocument cacheDocument = createChunkCacheDocument(chunkHash, attempt);
+			while(wordCounts.hasNext()) {
+				if(cacheDocument.isFull()) {
+					wordCountsCollection(COLLECTION_CHUNK_CACHE).insertOne(cacheDocument);
+					cacheDocument = createChunkCacheDocument(chunkHash, attempt);
+				}
+				Map.Entry<String, Long> wordCount = wordCounts.next();
+				cacheDocument.add(wordCount.getKey(), wordCount.getValue());
+				size += CACHED_WORD_OVERHEAD_BYTES + wordCount.getKey().length();
+			}
+			wordCountsCollection(COLLECTION_CHUNK_CACHE).insertOne(cacheDocument);
+			
+			collection(COLLECTION_CHUNK_CACHE_ENTRIES).insertOne(new Document("_id", chunkHash)
+					.append("attempt", attempt)
+					.append("size", size)
+					.append("lastUsed", new Date()));
+		} catch (MongoWriteException e) {
+			collection(COLLECTION_CHUNK_CACHE).deleteMany(new Document("attempt", attempt));
+			if(!ErrorCategory.DUPLICATE_KEY.equals(ErrorCategory.fromErrorCode(e.getError().getCode()))) {
+				throw e;
+			}
+			//another worker cached the same content concurrently - its entry stands, so nothing more to do
+			return;
+		} catch (RuntimeException e) {
+			//nothing refers to this attempt's counts, so they would never be read or evicted
+			collection(COLLECTION_CHUNK_CACHE).deleteMany(new Document("attempt", attempt));
+			throw e;
+		}
+		
+		long totalSize = addToChunkCacheSize(size);
+		if(totalSize > maxCacheBytes) {
+			evictFromChunkCache(totalSize, maxCacheBytes);
+		}
+	}
+	
+	/**
+	 * Create a document for (part of) the cached counts of a chunk.
+	 * @param chunkHash hash of the content of the chunk.
+	 * @param attempt id of the attempt at caching the chunk.
+	 * @return the document.
+	 */
+	private WordCountsDocument createChunkCacheDocument(String chunkHash, String attempt) {
+		return new WordCountsDocument(new Document()
+				.append("chunkHash", chunkHash)
+				.append("attempt", attempt));
+	}
+	
+	/**
+	 * Create the running total of the sizes of the cached chunks if it does not exist yet (as in a cache written before
+	 * it was kept), from the entries already in the cache. Done once by each DAO, before it first caches a chunk.
+	 */
+	private void ensureChunkCacheSizeCounted() {
+		if(chunkCacheSizeCounted) {
+			return;
+		}
+		
+		if(collection(COLLECTION_CHUNK_CACHE_SIZE).count(new Document("_id", CHUNK_CACHE_SIZE_ID)) == 0) {
+			long totalSize = 0;
+			for(Document entry: collection(COLLECTION_CHUNK_CACHE_ENTRIES).find().projection(new Document("size", 1))) {
+				totalSize += entry.getLong("size");
+			}
+			try {
+				collection(COLLECTION_CHUNK_CACHE_SIZE).insertOne(new Document("_id", CHUNK_CACHE_SIZE_ID)
+						.append("size", totalSize));
+			} catch (MongoWriteException e) {
+				if(!ErrorCategory.DUPLICATE_KEY.equals(ErrorCategory.fromErrorCode(e.getError().getCode()))) {
+					throw e;
+				}
+				//another worker created it first
+			}
+		}
+		chunkCacheSizeCounted = true;
+	}
+	
+	/**
+	 * Add to the running total of the sizes of the cached chunks.
+	 * @param size the size to add (negative when a chunk is evicted).
+	 * @return the new total.
+	 */
+	private long addToChunkCacheSize(long size) {
+		Document total = collection(COLLECTION_CHUNK_CACHE_SIZE).findOneAndUpdate(
+				new Document("_id", CHUNK_CACHE_SIZE_ID), 
+				new Document("$inc", 
+						new Document("size", size)),
+				new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+		return total.getLong("size");
+	}
+	
+	/**
+	 * Remove the least recently used chunks from the cache until its total size is within a limit.
+	 * @param totalSize the current total size of the cache.
+	 * @param maxCacheBytes the size limit.
+	 */
+	private void evictFromChunkCache(long totalSize, long maxCacheBytes) {
+		for(Document entry: collection(COLLECTION_CHUNK_CACHE_ENTRIES).find().sort(new Document("lastUsed", 1))) {
+			if(totalSize <= maxCacheBytes) {
+				break;
+			}
+			//remove the entry first, so that the chunk is never used while partly deleted, and then only the counts it
+			//named - the chunk may since have been cached again by another attempt
+			Document evicted = new Document("_id", entry.getString("_id")).append("attempt", entry.getString("attempt"));
+			if(collection(COLLECTION_CHUNK_CACHE_ENTRIES).deleteOne(evicted).getDeletedCount() > 0) {
+				collection(COLLECTION_CHUNK_CACHE).deleteMany(entry.getString("attempt") != null 
+						? new Document("attempt", entry.getString("attempt"))
+						: new Document("chunkHash", entry.getString("_id")).append("attempt", new Document("$exists", false)));
+				totalSize = addToChunkCacheSize(-entry.getLong("size"));
+			}
+		}
+	}
+	
+	@Override
+	public void completeEncodedTextProcessingJob(String jobId, Map<String, Long> wordCounts, Map<String, Integer> wordIds) {
+		
+		if(wordCounts.size() > 0) {
+			//sort keys alphabetically so that words sharing a prefix are adjacent
+			String[] keys = new String[wordCounts.keySet().size()];
+			wordCounts.keySet().toArray(keys);
+			Arrays.sort(keys);
+			
+			List<Document> jobResultDocuments = new ArrayList<>();
+			
+			int groupStart = 0;
+			int seq = 0;
+			while(groupStart < keys.length) {
+				String prefix = getPrefix(keys[groupStart]);
+				int groupEnd = groupStart + 1;
+				while(groupEnd < keys.length && groupEnd - groupStart < MAX_ENCODED_WORDS_PER_DOCUMENT 
+						&& prefix.equals(getPrefix(keys[groupEnd]))) {
+					groupEnd++;
+				}
+				
+				//continue the sequence if this group carries on the prefix of a full previous group
+				seq = groupStart > 0 && prefix.equals(getPrefix(keys[groupStart - 1])) ? seq + 1 : 0;
+				
+				List<Integer> ids = new ArrayList<>(groupEnd - groupStart);
+				List<Long> counts = new ArrayList<>(groupEnd - groupStart);
+				for(int index = groupStart; index < groupEnd; index++) {
+					ids.add(wordIds.get(keys[index]));
+					counts.add(wordCounts.get(keys[index]));
+				}
+				
+				jobResultDocuments.add(new Document()
+						.append("jobId", jobId)
+						.append("prefix", prefix)
+						.append("seq", seq)
+						.append("ids", ids)
+						.append("counts", counts));
+				
+				groupStart = groupEnd;
+			}
+			
+			collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).insertMany(jobResultDocuments);
+		}
+		
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
+				new Document("_id", new ObjectId(jobId)), 
+				new Document("$set", 
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	/**
+	 * Return the prefix for the string, using the first two characters. If the string has a length less than two, use the string as is.
+	 * (Characters outside the Basic Multilingual Plane are counted as one character, so a prefix never splits a surrogate pair.)
+	 * @param str The string whose prefix is required.
+	 * @return The prefix
+	 */
+	public static String getPrefix(String str) {
+		if(str.codePointCount(0, str.length()) <= 2) {
+			return str;
+		} else {
+			return str.substring(0, str.offsetByCodePoints(0, 2));
+		}
+	}
+	
+	@Override
+	public void completeAmalgamationJob(String prefix, Map<String, Long> wordCountTotals) {
+		completeAmalgamationJob(prefix, sortedEntries(wordCountTotals));
+	}
+	
+	@Override
+	public void completeAmalgamationJob(String prefix, Iterator<Map.Entry<String, Long>> sortedWordCountTotals) {
+		
+		insertFinalCounts(prefix, sortedWordCountTotals, null);
+		
+		collection(COLLECTION_AMALGAMATION_JOBS).updateOne(
+				new Document("prefix", prefix),
 				new Document("$set",
 						new Document("status", JobStatus.COMPLETE)));
 
 	}
 	
+	@Override
+	public void completeIncrementalAmalgamationJob(String prefix, Iterator<Map.Entry<String, Long>> sortedWordCountTotals, long throughByte) {
+		
+		if(sortedWordCountTotals != null) {
+			//write the merged totals before removing the old ones, so that the prefix always has a complete set of counts
+			insertFinalCounts(prefix, sortedWordCountTotals, throughByte);
+		}
+		
+		collection(COLLECTION_FINAL_COUNTS).deleteMany(new Document()
+				.append("prefix", prefix)
+				.append("throughByte", new Document("$ne", throughByte)));
+		
+		collection(COLLECTION_AMALGAMATION_JOBS).updateOne(
+				new Document("prefix", prefix),
+				new Document("$set",
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	@Override
+	public boolean prepareIncrementalAmalgamationJob(String prefix, long throughByte) {
+		Document filter = new Document()
+				.append("prefix", prefix)
+				.append("throughByte", throughByte);
+		if(collection(COLLECTION_FINAL_COUNTS).count(new Document(filter).append("lastChunk", true)) > 0) {
+			return true;
+		}
+		collection(COLLECTION_FINAL_COUNTS).deleteMany(filter);
+		return false;
+	}
+	
+	/**
+	 * Sort the entries of a map of word counts alphabetically by word.
+	 * @param wordCounts the map to sort.
+	 * @return Iterator over the sorted entries.
+	 */
+	private Iterator<Map.Entry<String, Long>> sortedEntries(Map<String, Long> wordCounts) {
+		List<Map.Entry<String, Long>> entries = new ArrayList<>(wordCounts.entrySet());
+		entries.sort(Map.Entry.comparingByKey());
+		return entries.iterator();
+	}
+	
+	@Override
+	public void completeEncodedAmalgamationJob(String prefix, IdCountTable idCountTotals) {
+		
+		//resolve ids to words - done once per prefix, only when the final output is written
+		Map<Integer, String> words = new HashMap<>(idCountTotals.size() * 2);
+		FindIterable<Document> dictionaryEntries = collection(COLLECTION_DICTIONARY)
+				.find(new Document("prefix", prefix))
+				.projection(new Document("word", 1));
+		for(Document entry: dictionaryEntries) {
+			words.put(entry.getInteger("_id"), entry.getString("word"));
+		}
+		
+		int[] ids = idCountTotals.ids();
+		long[] counts = idCountTotals.counts();
+		Map<String, Long> wordCountTotals = new HashMap<>(ids.length * 2);
+		for(int index = 0; index < ids.length; index++) {
+			String word = words.get(ids[index]);
+			if(word == null) {
+				throw new IllegalStateException("Word id <" + ids[index] + "> is not in the dictionary");
+			}
+			wordCountTotals.put(word, counts[index]);
+		}
+		
+		completeAmalgamationJob(prefix, wordCountTotals);
+	}
+	
+	@Override
+	public void completeSketchTextProcessingJob(String jobId, WordSketch sketch) {
+		Document heavyHitters = new Document();
+		for(Map.Entry<String, Long> entry: sketch.getHeavyHitters().getCounters().entrySet()) {
+			heavyHitters.append(entry.getKey(), entry.getValue());
+		}
+		
+		collection(COLLECTION_SKETCH_RESULTS).insertOne(new Document()
+				.append("jobId", jobId)
+				.append("countMinSketch", new Binary(sketch.getCountMinSketch().toBytes()))
+				.append("hyperLogLog", new Binary(sketch.getHyperLogLog().toBytes()))
+				.append("heavyHitterCapacity", sketch.getHeavyHitters().getCapacity())
+				.append("heavyHitterMaxUnderCount", sketch.getHeavyHitters().getMaxUnderCount())
+				.append("heavyHitters", heavyHitters));
+		
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
+				new Document("_id", new ObjectId(jobId)), 
+				new Document("$set", 
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	@Override
+	public FindIterable<Document> getSketchResults() {
+		return collection(COLLECTION_SKETCH_RESULTS).find();
+	}
+	
+	@Override
+	public void createSketchAmalgamationJob() {
+		collection(COLLECTION_AMALGAMATION_JOBS).insertOne(new Document()
+				.append("prefix", SKETCH_AMALGAMATION_PREFIX)
+				.append("status", JobStatus.UNASSIGNED));
+	}
+	
+	@Override
+	public void completeSketchAmalgamationJob(WordSketch mergedSketch) {
+		CountMinSketch countMinSketch = mergedSketch.getCountMinSketch();
+		HyperLogLog hyperLogLog = mergedSketch.getHyperLogLog();
+		
+		/*
+		 * The true count of each heavy hitter lies between its Misra-Gries counter (never an over count) and its 
+		 * Count-Min estimate (never an under count)
+		 */
+		List<Map.Entry<String, Long>> heavyHitterEntries = new ArrayList<>(mergedSketch.getHeavyHitters().getCounters().entrySet());
+		heavyHitterEntries.sort((entry1, entry2) -> Long.compare(entry2.getValue(), entry1.getValue()));
+		
+		List<Document> heavyHitters = new ArrayList<>();
+		for(Map.Entry<String, Long> entry: heavyHitterEntries) {
+			heavyHitters.add(new Document()
+					.append("word", entry.getKey())
+					.append("lowerBound", entry.getValue())
+					.append("upperBound", mergedSketch.estimateCount(entry.getKey())));
+		}
+		
+		Document resultDoc = new Document()
+				.append("totalWords", countMinSketch.getTotalCount())
+				.append("distinctWords", hyperLogLog.estimate())
+				.append("distinctWordsStandardError", hyperLogLog.getStandardError())
+				.append("countMinEpsilon", countMinSketch.getEpsilon())
+				.append("countMinDelta", countMinSketch.getDelta())
+				.append("countMinMaxOverCount", (long)Math.ceil(countMinSketch.getEpsilon() * countMinSketch.getTotalCount()))
+				.append("heavyHitterMaxUnderCount", mergedSketch.getHeavyHitters().getMaxUnderCount())
+				.append("heavyHitters", heavyHitters)
+				.append("countMinSketch", new Binary(countMinSketch.toBytes()))
+				.append("hyperLogLog", new Binary(hyperLogLog.toBytes()));
+		
+		collection(COLLECTION_APPROXIMATE_COUNTS).insertOne(resultDoc);
+		
+		collection(COLLECTION_AMALGAMATION_JOBS).updateOne(
+				new Document("prefix", SKETCH_AMALGAMATION_PREFIX),
+				new Document("$set",
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	@Override
+	public void completeTargetedTextProcessingJob(String jobId, String termsFingerprint, long[] termCounts) {
+		collection(COLLECTION_TERM_RESULTS).insertOne(new Document()
+				.append("jobId", jobId)
+				.append("termsFingerprint", termsFingerprint)
+				.append("termCount", termCounts.length)
+				.append("counts", new Binary(encodeTermCounts(termCounts))));
+		
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
+				new Document("_id", new ObjectId(jobId)), 
+				new Document("$set", 
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	@Override
+	public void addTargetedJobCounts(String termsFingerprint, long[] termCountTotals) {
+		for(Document doc: collection(COLLECTION_TERM_RESULTS).find()) {
+			if(!termsFingerprint.equals(doc.getString("termsFingerprint")) 
+					|| doc.getInteger("termCount") != termCountTotals.length) {
+				throw new RuntimeException("Results of job <" + doc.getString("jobId") + "> were counted against a different term list");
+			}
+			addTermCounts(((Binary)doc.get("counts")).getData(), termCountTotals);
+		}
+	}
+	
+	@Override
+	public void createTargetedAmalgamationJob() {
+		collection(COLLECTION_AMALGAMATION_JOBS).insertOne(new Document()
+				.append("prefix", TARGETED_AMALGAMATION_PREFIX)
+				.append("status", JobStatus.UNASSIGNED));
+	}
+	
+	@Override
+	public void completeTargetedAmalgamationJob(TermIndex termIndex, long[] termCountTotals) {
+		int seq = 0;
+		WordCountsDocument resultDoc = createTargetedCountsDocument(termIndex, seq);
+		
+		for(int term = 0; term < termCountTotals.length; term++) {
+			if(resultDoc.isFull()) {
+				wordCountsCollection(COLLECTION_TARGETED_COUNTS).insertOne(resultDoc);
+				seq++;
+				resultDoc = createTargetedCountsDocument(termIndex, seq);
+			}
+			resultDoc.add(termIndex.getTerm(term), termCountTotals[term]);
+		}
+		
+		resultDoc.getFields().append("lastChunk", true);
+		wordCountsCollection(COLLECTION_TARGETED_COUNTS).insertOne(resultDoc);
+		
+		collection(COLLECTION_AMALGAMATION_JOBS).updateOne(
+				new Document("prefix", TARGETED_AMALGAMATION_PREFIX),
+				new Document("$set",
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	@Override
+	public void completeAnalysisTextProcessingJob(String jobId, String analysisName, Iterator<Map.Entry<String, byte[]>> results) {
+		insertKeyedResults(COLLECTION_ANALYSIS_RESULTS, new Document("jobId", jobId).append("analysis", analysisName), results);
+		
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
+				new Document("_id", new ObjectId(jobId)), 
+				new Document("$set", 
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	/**
+	 * Store the keyed results of a text processing job, replacing any already stored for the job. The results are
+	 * split by key prefix (see getPrefix()) across as many documents as needed, each holding the prefix, a list of keys 
+	 * and the encoded value of each key, in the same order, one after another in a single binary field. Documents are
+	 * numbered in key order across the whole job.
+	 * @param collectionName the collection in which to store the results.
+	 * @param fields fields identifying the job, copied to every document.
+	 * @param results Iterator of keys and their encoded values, sorted by key.
+	 */
+	private void insertKeyedResults(String collectionName, Document fields, Iterator<Map.Entry<String, byte[]>> results) {
+		collection(collectionName).deleteMany(new Document("jobId", fields.getString("jobId")));
+		
+		int seq = 0;
+		String prefix = null;
+		List<String> keys = new ArrayList<>();
+		ByteArrayOutputStream values = new ByteArrayOutputStream();
+		long documentBytes = 0;
+		while(results.hasNext()) {
+			Map.Entry<String, byte[]> result = results.next();
+			String keyPrefix = getPrefix(result.getKey());
+			if(!keys.isEmpty() && (documentBytes >= MAX_KEYED_RESULT_BYTES || !keyPrefix.equals(prefix))) {
+				insertKeyedResultDocument(collectionName, fields, seq++, prefix, keys, values.toByteArray());
+				keys.clear();
+				values.reset();
+				documentBytes = 0;
+			}
+			
+			prefix = keyPrefix;
+			keys.add(result.getKey());
+			values.write(result.getValue(), 0, result.getValue().length);
+			documentBytes += result.getKey().length() * 3 + 8 + result.getValue().length;
+		}
+		if(!keys.isEmpty()) {
+			insertKeyedResultDocument(collectionName, fields, seq, prefix, keys, values.toByteArray());
+		}
+	}
+	
+	/**
+	 * Store a document of keyed text processing job results.
+	 * @param collectionName the collection in which to store the results.
+	 * @param fields fields identifying the job.
+	 * @param seq the position of the document among those holding the job's results.
+	 * @param prefix the prefix shared by the keys.
+	 * @param keys the keys.
+	 * @param values the encoded values of the keys, one after another.
+	 */
+	private void insertKeyedResultDocument(String collectionName, Document fields, int seq, String prefix, List<String> keys, 
+			byte[] values) {
+		collection(collectionName).insertOne(new Document(fields)
+				.append("seq", seq)
+				.append("prefix", prefix)
+				.append("keys", new ArrayList<>(keys))
+				.append("values", new Binary(values)));
+	}
+	
+	@Override
+	public FindIterable<Document> getAnalysisResultsByPrefix(String prefix) {
+		return collection(COLLECTION_ANALYSIS_RESULTS).find(
+				new Document("prefix", prefix.substring(ANALYSIS_AMALGAMATION_PREFIX.length())));
+	}
+	
+	@Override
+	public void createAnalysisAmalgamationJobs() {
+		List<Document> jobs = new ArrayList<>();
+		for(String prefix: collection(COLLECTION_ANALYSIS_RESULTS).distinct("prefix", String.class)) {
+			jobs.add(new Document()
+					.append("prefix", ANALYSIS_AMALGAMATION_PREFIX + prefix)
+					.append("status", JobStatus.UNASSIGNED));
+		}
+		
+		if(!jobs.isEmpty()) {
+			collection(COLLECTION_AMALGAMATION_JOBS).insertMany(jobs);
+		}
+	}
+	
+	@Override
+	public void completeAnalysisAmalgamationJob(String prefix, String analysisName, Iterator<Map.Entry<String, Object>> results) {
+		String keyPrefix = prefix.substring(ANALYSIS_AMALGAMATION_PREFIX.length());
+		//replace the results of an earlier attempt at the job
+		collection(COLLECTION_ANALYSIS_OUTPUT).deleteMany(new Document("prefix", keyPrefix));
+		
+		List<Document> batch = new ArrayList<>();
+		while(results.hasNext()) {
+			Map.Entry<String, Object> result = results.next();
+			batch.add(new Document()
+					.append("analysis", analysisName)
+					.append("prefix", keyPrefix)
+					.append("key", result.getKey())
+					.append("value", result.getValue()));
+			
+			if(batch.size() == ANALYSIS_OUTPUT_BATCH_SIZE) {
+				collection(COLLECTION_ANALYSIS_OUTPUT).insertMany(batch);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()) {
+			collection(COLLECTION_ANALYSIS_OUTPUT).insertMany(batch);
+		}
+		
+		collection(COLLECTION_AMALGAMATION_JOBS).updateOne(
+				new Document("prefix", prefix),
+				new Document("$set",
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	@Override
+	public void completeIndexTextProcessingJob(String jobId, long firstByte, Iterator<Map.Entry<String, byte[]>> postings) {
+		insertKeyedResults(COLLECTION_INDEX_POSTINGS, new Document("jobId", jobId).append("firstByte", firstByte), postings);
+		
+		collection(COLLECTION_TEXT_PROCESSING_JOBS).updateOne(
+				new Document("_id", new ObjectId(jobId)), 
+				new Document("$set", 
+						new Document("status", JobStatus.COMPLETE)));
+	}
+	
+	@Override
+	public List<String> getIndexPartitions(String prefix) {
+		List<String> jobIds = new ArrayList<>();
+		for(Document doc: collection(COLLECTION_INDEX_POSTINGS).find(
+				new Document("prefix", prefix.substring(INDEX_AMALGAMATION_PREFIX.length())))
+				.projection(new Document("jobId", 1))
+				.sort(new Document("firstByte", 1))) {
+			//the documents of a job are adjacent, as they share its first byte
+			String jobId = doc.getString("jobId");
+			if(jobIds.isEmpty() || !jobIds.get(jobIds.size() - 1).equals(jobId)) {
+				jobIds.add(jobId);
+			}
+		}
+		return jobIds;
+	}
+	
+	@Override
+	public FindIterable<Document> getIndexPostings(String jobId, String prefix) {
+		//postings documents are large, and one is open for every partition while they are merged
+		return collection(COLLECTION_INDEX_POSTINGS).find(new Document("jobId", jobId)
+				.append("prefix", prefix.substring(INDEX_AMALGAMATION_PREFIX.length())))
+				.sort(new Document("seq", 1))
+				.batchSize(1);
+	}
+	
+	@Override
+	public void createIndexAmalgamationJobs() {
+		List<String> prefixes = new ArrayList<>();
+		collection(COLLECTION_INDEX_POSTINGS).distinct("prefix", String.class).into(prefixes);
+		Collections.sort(prefixes);
+		
+		List<Document> jobs = new ArrayList<>();
+		for(int segment = 0; segment < prefixes.size(); segment++) {
+			jobs.add(new Document()
+					.append("prefix", INDEX_AMALGAMATION_PREFIX + prefixes.get(segment))
+					.append("segment", String.format(INDEX_SEGMENT_NAME_FORMAT, segment))
+					.append("status", JobStatus.UNASSIGNED));
+		}
+		
+		if(!jobs.isEmpty()) {
+			collection(COLLECTION_AMALGAMATION_JOBS).insertMany(jobs);
+		}
+	}
+	
+	@Override
+	public String getIndexSegmentName(String prefix) {
+		Document job = collection(COLLECTION_AMALGAMATION_JOBS).find(new Document("prefix", prefix)).first();
+		if(job == null) {
+			throw new RuntimeException("Index amalgamation job <" + prefix + "> does not exist");
+		}
+		return job.getString("segment");
+	}
+	
+	@Override
+	public void completeIndexAmalgamationJob(String prefix, String nodeId, String host, String segmentPath, long termCount) {
+		collection(COLLECTION_AMALGAMATION_JOBS).updateOne(
+				new Document("prefix", prefix),
+				new Document("$set",
+						new Document("status", JobStatus.COMPLETE)
+						.append("node", nodeId)
+						.append("host", host)
+						.append("path", segmentPath)
+						.append("termCount", termCount)));
+	}
+	
+	@Override
+	public List<Document> getIndexSegments() {
+		List<Document> segments = new ArrayList<>();
+		collection(COLLECTION_AMALGAMATION_JOBS).find(new Document("status", JobStatus.COMPLETE)
+				.append("segment", new Document("$exists", true)))
+				.projection(new Document("_id", 0).append("prefix", 1).append("segment", 1).append("node", 1)
+						.append("host", 1).append("path", 1).append("termCount", 1))
+				.sort(new Document("segment", 1))
+				.into(segments);
+		for(Document segment: segments) {
+			//give the prefix of the words in the segment rather than of the job
+			segment.put("prefix", segment.getString("prefix").substring(INDEX_AMALGAMATION_PREFIX.length()));
+		}
+		return segments;
+	}
+	
+	/**
+	 * Create a document for (part of) the final targeted counts.
+	 * @param termIndex the term list.
+	 * @param seq the position of the document among those holding the counts.
+	 * @return the document.
+	 */
+	private WordCountsDocument createTargetedCountsDocument(TermIndex termIndex, int seq) {
+		return new WordCountsDocument(new Document()
+				.append("termsFingerprint", termIndex.getFingerprint())
+				.append("seq", seq));
+	}
+	
+	/**
+	 * Encode a vector of term counts as a sequence of variable length integers (7 bits per byte, least significant 
+	 * first), so that the zero and small counts that make up most of a job's vector take a single byte each.
+	 * @param termCounts the counts.
+	 * @return the encoded counts.
+	 */
+	private static byte[] encodeTermCounts(long[] termCounts) {
+		byte[] encoded = new byte[termCounts.length + 16];
+		int length = 0;
+		for(long count: termCounts) {
+			if(length + 10 > encoded.length) {
+				encoded = Arrays.copyOf(encoded, encoded.length * 2);
+			}
+			while((count & ~0x7FL) != 0) {
+				encoded[length++] = (byte)((count & 0x7F) | 0x80);
+				count >>>= 7;
+			}
+			encoded[length++] = (byte)count;
+		}
+		return Arrays.copyOf(encoded, length);
+	}
+	
+	/**
+	 * Decode a vector of term counts (see encodeTermCounts()) and add it to a vector of totals.
+	 * @param encoded the encoded counts.
+	 * @param termCountTotals the totals, which must be the same length as the encoded vector.
+	 */
+	private static void addTermCounts(byte[] encoded, long[] termCountTotals) {
+		int position = 0;
+		for(int term = 0; term < termCountTotals.length; term++) {
+			long count = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = encoded[position++];
+				count |= (long)(b & 0x7F) << shift;
+				shift += 7;
+			} while(b < 0);
+			termCountTotals[term] += count;
+		}
+	}
+	
+	@Override
+	public Map<String, Integer> getWordIds(Collection<String> words) {
+		Map<String, Integer> ids = new HashMap<>(words.size() * 2);
+		
+		List<String> batch = new ArrayList<>(Math.min(words.size(), DICTIONARY_LOOKUP_BATCH_SIZE));
+		Iterator<String> wordsIterator = words.iterator();
+		while(wordsIterator.hasNext()) {
+			batch.add(wordsIterator.next());
+			if(batch.size() == DICTIONARY_LOOKUP_BATCH_SIZE || !wordsIterator.hasNext()) {
+				FindIterable<Document> entries = collection(COLLECTION_DICTIONARY)
+						.find(new Document("word", new Document("$in", batch)))
+						.projection(new Document("word", 1));
+				for(Document entry: entries) {
+					ids.put(entry.getString("word"), entry.getInteger("_id"));
+				}
+				batch.clear();
+			}
+		}
+		
+		return ids;
+	}
+	
+	@Override
+	public Map<String, Integer> addWordsToDictionary(Collection<String> words) {
+		Map<String, Integer> ids = new HashMap<>(words.size() * 2);
+		if(words.isEmpty()) {
+			return ids;
+		}
+		
+		//reserve a block of ids
+		Document sequence = collection(COLLECTION_SEQUENCES).findOneAndUpdate(
+				new Document("_id", "wordId"), 
+				new Document("$inc", 
+						new Document("next", words.size())),
+				new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+		int nextId = sequence.getInteger("next") - words.size();
+		
+		List<Document> entries = new ArrayList<>(words.size());
+		for(String word: words) {
+			ids.put(word, nextId);
+			entries.add(new Document()
+					.append("_id", nextId)
+					.append("word", word)
+					.append("prefix", getPrefix(word)));
+			nextId++;
+		}
+		
+		try {
+			collection(COLLECTION_DICTIONARY).insertMany(entries, new InsertManyOptions().ordered(false));
+		} catch (MongoBulkWriteException e) {
+			//another node added some of the words first - use the ids it allocated
+			List<String> duplicateWords = new ArrayList<>();
+			for(BulkWriteError error: e.getWriteErrors()) {
+				if(ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+					throw e;
+				}
+				duplicateWords.add(entries.get(error.getIndex()).getString("word"));
+			}
+			ids.putAll(getWordIds(duplicateWords));
+		}
+		
+		return ids;
+	}
+	
 	@Override
 	public boolean allTextProcessingJobsComplete() {
-		FindIterable<Document> result = db.getCollection(COLLECTION_TEXT_PROCESSING_JOBS).find(ne("status", JobStatus.COMPLETE));
+		FindIterable<Document> result = collection(COLLECTION_TEXT_PROCESSING_JOBS).find(ne("status", JobStatus.COMPLETE));
 		return result.first() == null;
 	}
 	
 	@Override
 	public boolean allAmalgamationJobsComplete() {
-		FindIterable<Document> result = db.getCollection(COLLECTION_AMALGAMATION_JOBS).find(ne("status", JobStatus.COMPLETE));
+		FindIterable<Document> result = collection(COLLECTION_AMALGAMATION_JOBS).find(ne("status", JobStatus.COMPLETE));
 		return result.first() == null;
 	}
 	
 	@Override
 	public void createAmalgamationJobs() {
 		List<Document> jobs = new ArrayList<>();
+		Set<String> prefixes = new HashSet<>();
 		
 		Document job = null;
 		
@@ -324,9 +1941,10 @@ public class ChallengeDAOImpl implements ChallengeDAO {
 			//one letter prefixes
 			
 			job = new Document()
-					.append("prefix", c1)
+					.append("prefix", String.valueOf(c1))
 					.append("status", JobStatus.UNASSIGNED);
 			jobs.add(job);
+			prefixes.add(String.valueOf(c1));
 			
 			for(char c2 = 'a'; c2<='z'; c2++) {
 				//two letter prefixes
@@ -335,15 +1953,42 @@ public class ChallengeDAOImpl implements ChallengeDAO {
 						.append("prefix", prefix.toString())
 						.append("status", JobStatus.UNASSIGNED);
 				jobs.add(job);
+				prefixes.add(prefix.toString());
+			}
+		}
+		
+		/*
+		 * Words may also start with a non-ASCII letter or contain digits/underscores in their second character (eg 'a1')
+		 * - add a job for any such prefix found in the job results
+		 */
+		for(String prefix: collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).distinct("prefix", String.class)) {
+			if(prefixes.add(prefix)) {
+				jobs.add(new Document()
+						.append("prefix", prefix)
+						.append("status", JobStatus.UNASSIGNED));
 			}
 		}
 		
-		db.getCollection(COLLECTION_AMALGAMATION_JOBS).insertMany(jobs);
+		collection(COLLECTION_AMALGAMATION_JOBS).insertMany(jobs);
+	}
+	
+	@Override
+	public void createAmalgamationJobsForResultPrefixes() {
+		List<Document> jobs = new ArrayList<>();
+		for(String prefix: collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).distinct("prefix", String.class)) {
+			jobs.add(new Document()
+					.append("prefix", prefix)
+					.append("status", JobStatus.UNASSIGNED));
+		}
+		
+		if(!jobs.isEmpty()) {
+			collection(COLLECTION_AMALGAMATION_JOBS).insertMany(jobs);
+		}
 	}
 	
 	@Override
 	public String getNextUnassignedAmalgamationJob() {
-		Document jobDoc = db.getCollection(COLLECTION_AMALGAMATION_JOBS).findOneAndUpdate(
+		Document jobDoc = collection(COLLECTION_AMALGAMATION_JOBS).findOneAndUpdate(
 				new Document("status", JobStatus.UNASSIGNED), 
 				new Document("$set",
 						new Document("status", JobStatus.PENDING)));
@@ -357,10 +2002,62 @@ public class ChallengeDAOImpl implements ChallengeDAO {
 	
 	@Override
 	public FindIterable<Document> getTextProcessingJobResultsByPrefix(String prefix) {
-		return db.getCollection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).find(
+		return collection(COLLECTION_TEXT_PROCESSING_JOB_RESULTS).find(
 				new Document().append("prefix", prefix));
 	}
 
+	@Override
+	public FindIterable<Document> getFinalCountsByPrefix(String prefix) {
+		return collection(COLLECTION_FINAL_COUNTS).find(
+				new Document().append("prefix", prefix));
+	}
+	
+	@Override
+	public void readTextProcessingJobWordCountsByPrefix(String prefix, ObjLongConsumer<String> wordCounts) {
+		readWordCounts(COLLECTION_TEXT_PROCESSING_JOB_RESULTS, new Document("prefix", prefix), wordCounts);
+	}
+	
+	@Override
+	public void readFinalWordCountsByPrefix(String prefix, ObjLongConsumer<String> wordCounts) {
+		readWordCounts(COLLECTION_FINAL_COUNTS, new Document("prefix", prefix), wordCounts);
+	}
+	
+	/**
+	 * Stream the word counts of result documents as raw BSON, decoding each word and count straight from the bytes
+	 * received rather than building a Document (a map of boxed values) for each one.
+	 * @param collectionName the collection holding the documents.
+	 * @param filter selects the documents.
+	 * @param wordCounts receives each word and count in turn.
+	 */
+	private void readWordCounts(String collectionName, Document filter, ObjLongConsumer<String> wordCounts) {
+		FindIterable<RawBsonDocument> docs = collection(collectionName)
+				.find(filter, RawBsonDocument.class)
+				.projection(WORD_COUNTS_PROJECTION)
+				.batchSize(WORD_COUNT_BATCH_SIZE);
+		
+		for(RawBsonDocument doc: docs) {
+			try (BsonBinaryReader reader = new BsonBinaryReader(doc.getByteBuffer().asNIO())) {
+				reader.readStartDocument();
+				while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+					if(!"wordCounts".equals(reader.readName())) {
+						reader.skipValue();
+						continue;
+					}
+					
+					reader.readStartDocument();
+					while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+						String word = reader.readName();
+						//counts are written as longs, but accept ints in case a document was written by another client
+						long count = reader.getCurrentBsonType() == BsonType.INT32 ? reader.readInt32() : reader.readInt64();
+						wordCounts.accept(word, count);
+					}
+					reader.readEndDocument();
+				}
+				reader.readEndDocument();
+			}
+		}
+	}
+	
 	@Override
 	public void closeConnections() {
 		client.close();
@@ -0,0 +1,101 @@
+package com.jjdevine.challenge.dao;
+
+import java.util.Map;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+/**
+ * Codec that writes a WordCountsDocument directly to the BSON output buffer, one int64 element per word, and reads one
+ * back the same way. The application reads word counts as raw BSON or as Documents, but the codec is registered on the
+ * client, so a collection of WordCountsDocuments can be read as well as written.
+ * @author Jonathan
+ *
+ */
+public class WordCountsCodec implements Codec<WordCountsDocument> {
+
+	@Override
+	public void encode(BsonWriter writer, WordCountsDocument value, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		
+		for(Map.Entry<String, Object> field: value.getFields().entrySet()) {
+			Object fieldValue = field.getValue();
+			if(fieldValue instanceof String) {
+				writer.writeString(field.getKey(), (String)fieldValue);
+			} else if(fieldValue instanceof Integer) {
+				writer.writeInt32(field.getKey(), (Integer)fieldValue);
+			} else if(fieldValue instanceof Long) {
+				writer.writeInt64(field.getKey(), (Long)fieldValue);
+			} else if(fieldValue instanceof Boolean) {
+				writer.writeBoolean(field.getKey(), (Boolean)fieldValue);
+			} else if(fieldValue instanceof ObjectId) {
+				writer.writeObjectId(field.getKey(), (ObjectId)fieldValue);
+			} else {
+				throw new IllegalArgumentException("Unsupported value for field <" + field.getKey() + ">: " + fieldValue);
+			}
+		}
+		
+		writer.writeStartDocument("wordCounts");
+		for(int index = 0; index < value.size(); index++) {
+			writer.writeInt64(value.getWord(index), value.getCount(index));
+		}
+		writer.writeEndDocument();
+		
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public WordCountsDocument decode(BsonReader reader, DecoderContext decoderContext) {
+		Document fields = new Document();
+		WordCountsDocument value = new WordCountsDocument(fields);
+		
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			String name = reader.readName();
+			if("wordCounts".equals(name)) {
+				reader.readStartDocument();
+				while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+					String word = reader.readName();
+					//counts written by other means than this codec may be int32
+					value.add(word, reader.getCurrentBsonType() == BsonType.INT32 ? reader.readInt32() : reader.readInt64());
+				}
+				reader.readEndDocument();
+				continue;
+			}
+			
+			switch(reader.getCurrentBsonType()) {
+			case STRING:
+				fields.append(name, reader.readString());
+				break;
+			case INT32:
+				fields.append(name, reader.readInt32());
+				break;
+			case INT64:
+				fields.append(name, reader.readInt64());
+				break;
+			case BOOLEAN:
+				fields.append(name, reader.readBoolean());
+				break;
+			case OBJECT_ID:
+				fields.append(name, reader.readObjectId());
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported value for field <" + name + ">: " + reader.getCurrentBsonType());
+			}
+		}
+		reader.readEndDocument();
+		
+		return value;
+	}
+
+	@Override
+	public Class<WordCountsDocument> getEncoderClass() {
+		return WordCountsDocument.class;
+	}
+}
@@ -0,0 +1,140 @@
+package com.jjdevine.challenge.dao;
+
+import java.util.Arrays;
+
+import org.bson.Document;
+
+/**
+ * A document of word counts to be written to the persistent store - a few ordinary fields (such as the job id and
+ * prefix) followed by a "wordCounts" sub-document mapping each word to its count. The words and counts are held in
+ * parallel arrays, in the order they are added, and are encoded straight to BSON by WordCountsCodec rather than
+ * being copied into a Document. The encoded size of the word counts is tracked so that a large set of counts can be
+ * split over several documents, each well within the 16MB BSON document limit.
+ * @author Jonathan
+ *
+ */
+public class WordCountsDocument {
+
+	/**
+	 * Initial capacity of the word and count arrays.
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+	
+	/**
+	 * Encoded size of word counts at which a document is full. Well below the BSON limit, leaving room for the other
+	 * fields and keeping the documents streamed by readers to a moderate size.
+	 */
+	private static final int MAX_WORD_COUNT_BYTES = 4 * 1024 * 1024;
+	
+	/**
+	 * Encoded size of each word count in addition to the UTF-8 bytes of the word (type byte, name terminator and
+	 * int64 value).
+	 */
+	private static final int WORD_COUNT_OVERHEAD_BYTES = 10;
+	
+	/**
+	 * Fields written before the word counts. Values must be Strings, Integers, Longs, Booleans or ObjectIds.
+	 */
+	private final Document fields;
+	
+	/**
+	 * The words, in the order they were added.
+	 */
+	private String[] words = new String[INITIAL_CAPACITY];
+	
+	/**
+	 * The count of each word.
+	 */
+	private long[] counts = new long[INITIAL_CAPACITY];
+	
+	/**
+	 * Number of words added.
+	 */
+	private int size = 0;
+	
+	/**
+	 * Encoded size of the word counts added.
+	 */
+	private long wordCountBytes = 0;
+	
+	/**
+	 * Public constructor.
+	 * @param fields fields written before the word counts. Values must be Strings, Integers, Longs, Booleans or ObjectIds.
+	 */
+	public WordCountsDocument(Document fields) {
+		this.fields = fields;
+	}
+	
+	/**
+	 * Add a word and its count. Each word may be added only once.
+	 * @param word the word.
+	 * @param count the count.
+	 */
+	public void add(String word, long count) {
+		if(size == words.length) {
+			words = Arrays.copyOf(words, size * 2);
+			counts = Arrays.copyOf(counts, size * 2);
+		}
+		words[size] = word;
+		counts[size] = count;
+		size++;
+		wordCountBytes += WORD_COUNT_OVERHEAD_BYTES + utf8Length(word);
+	}
+	
+	/**
+	 * @return true if the word counts have reached the maximum size of a document, and further words should be
+	 * written in another document.
+	 */
+	public boolean isFull() {
+		return wordCountBytes >= MAX_WORD_COUNT_BYTES;
+	}
+	
+	/**
+	 * Work out the length of a string encoded as UTF-8, without encoding it.
+	 * @param str the string.
+	 * @return the length in bytes.
+	 */
+	private static int utf8Length(String str) {
+		int length = str.length();
+		for(int index = 0; index < str.length(); index++) {
+			char c = str.charAt(index);
+			if(c >= 0x800) {
+				//three bytes, or four for a surrogate pair (two chars)
+				length += Character.isSurrogate(c) ? 1 : 2;
+			} else if(c >= 0x80) {
+				length++;
+			}
+		}
+		return length;
+	}
+	
+	/**
+	 * @return the fields written before the word counts.
+	 */
+	public Document getFields() {
+		return fields;
+	}
+	
+	/**
+	 * @return the number of words added.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param index the index of a word, in the order added.
+	 * @return the word.
+	 */
+	public String getWord(int index) {
+		return words[index];
+	}
+	
+	/**
+	 * @param index the index of a word, in the order added.
+	 * @return the count of the word.
+	 */
+	public long getCount(int index) {
+		return counts[index];
+	}
+}
@@ -0,0 +1,151 @@
+package com.jjdevine.challenge.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered input from part of an index file, read with positional reads so that any number of inputs can share one
+ * channel. Only the bytes around the current position are held in memory.
+ * @author Jonathan
+ *
+ */
+class IndexInput {
+
+	/**
+	 * Size of the buffer.
+	 */
+	private static final int BUFFER_SIZE = 8 * 1024;
+	
+	/**
+	 * The file being read, or null if the input is over an array.
+	 */
+	private final FileChannel channel;
+	
+	/**
+	 * Bytes read from the file.
+	 */
+	private final ByteBuffer buffer;
+	
+	/**
+	 * File offset of the first byte in the buffer.
+	 */
+	private long bufferStart = 0;
+	
+	/**
+	 * Package private constructor, for input from a file.
+	 * @param channel the file.
+	 */
+	IndexInput(FileChannel channel) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.limit(0);
+	}
+	
+	/**
+	 * Package private constructor, for input from bytes already read.
+	 * @param bytes the bytes.
+	 */
+	IndexInput(byte[] bytes) {
+		channel = null;
+		buffer = ByteBuffer.wrap(bytes);
+	}
+	
+	/**
+	 * Read a block of bytes from a file.
+	 * @param channel the file.
+	 * @param position the file offset of the block.
+	 * @param length the length of the block.
+	 * @return the bytes.
+	 * @throws IOException if the file cannot be read or ends before the block does.
+	 */
+	static byte[] readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while(bytes.hasRemaining()) {
+			if(channel.read(bytes, position + bytes.position()) < 0) {
+				throw new EOFException("Index file ends at byte <" + (position + bytes.position()) + ">");
+			}
+		}
+		return bytes.array();
+	}
+	
+	/**
+	 * Move to a file offset.
+	 * @param position the file offset of the next byte to be read.
+	 */
+	void seek(long position) {
+		if(channel != null && (position < bufferStart || position > bufferStart + buffer.limit())) {
+			bufferStart = position;
+			buffer.limit(0);
+		} else {
+			buffer.position((int)(position - bufferStart));
+		}
+	}
+	
+	/**
+	 * @return true if there are no more bytes to read.
+	 * @throws IOException if the file cannot be read.
+	 */
+	boolean isAtEnd() throws IOException {
+		return !buffer.hasRemaining() && !fill();
+	}
+	
+	/**
+	 * Read a variable length integer (7 bits per byte, least significant first).
+	 * @return the value.
+	 * @throws IOException if the file cannot be read or ends part way through the value.
+	 */
+	long readVarLong() throws IOException {
+		long value = 0;
+		for(int shift = 0; ; shift += 7) {
+			byte b = readByte();
+			value |= (long)(b & 0x7F) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+	}
+	
+	/**
+	 * Read bytes.
+	 * @param length the number of bytes.
+	 * @return the bytes.
+	 * @throws IOException if the file cannot be read or ends before the bytes do.
+	 */
+	byte[] readBytes(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		for(int index = 0; index < length; index++) {
+			bytes[index] = readByte();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Read a byte.
+	 * @return the byte.
+	 * @throws IOException if the file cannot be read or has ended.
+	 */
+	private byte readByte() throws IOException {
+		if(!buffer.hasRemaining() && !fill()) {
+			throw new EOFException("Index file ends at byte <" + (bufferStart + buffer.limit()) + ">");
+		}
+		return buffer.get();
+	}
+	
+	/**
+	 * Refill the buffer from the current position.
+	 * @return false if there are no more bytes to read.
+	 * @throws IOException if the file cannot be read.
+	 */
+	private boolean fill() throws IOException {
+		if(channel == null) {
+			return false;
+		}
+		bufferStart += buffer.position();
+		buffer.clear();
+		int read = channel.read(buffer, bufferStart);
+		buffer.flip();
+		return read > 0;
+	}
+}
@@ -0,0 +1,198 @@
+package com.jjdevine.challenge.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the segments of an inverted index written in index counting mode, one per word prefix, so that a word can be
+ * routed to the segment holding it. The manifest is a text file in the index directory with a line per segment: the
+ * word prefix, the segment name (the segment's directory within the index directory), the host that wrote it, the
+ * path it was written to on that host and its number of words, separated by tabs.
+ * @author Jonathan
+ *
+ */
+public class IndexManifest {
+
+	/**
+	 * Name of the manifest file within the index directory.
+	 */
+	public static final String MANIFEST_FILE_NAME = "manifest.txt";
+
+	/**
+	 * Separator between the fields of a segment's line.
+	 */
+	private static final String FIELD_SEPARATOR = "\t";
+
+	/**
+	 * The segments, in word order.
+	 */
+	private final List<Segment> segments = new ArrayList<>();
+
+	/**
+	 * The segments by word prefix.
+	 */
+	private final Map<String, Segment> segmentsByPrefix = new HashMap<>();
+
+	/**
+	 * Add a segment.
+	 * @param prefix the prefix of the words in the segment.
+	 * @param name the name of the segment's directory within the index directory.
+	 * @param host the host that wrote the segment.
+	 * @param path the path the segment was written to on that host.
+	 * @param termCount the number of words in the segment.
+	 */
+	public void add(String prefix, String name, String host, String path, long termCount) {
+		Segment segment = new Segment(prefix, name, host, path, termCount);
+		if(segmentsByPrefix.put(prefix, segment) != null) {
+			throw new IllegalArgumentException("Prefix <" + prefix + "> already has a segment");
+		}
+		segments.add(segment);
+	}
+
+	/**
+	 * @return the segments, in the order they were added.
+	 */
+	public List<Segment> getSegments() {
+		return Collections.unmodifiableList(segments);
+	}
+
+	/**
+	 * @param prefix a word prefix.
+	 * @return the segment holding the words with the prefix, or null if there are none.
+	 */
+	public Segment getSegment(String prefix) {
+		return segmentsByPrefix.get(prefix);
+	}
+
+	/**
+	 * Write the manifest to an index directory, replacing any already there. It is written to a temporary file first,
+	 * so a reader never sees part of it.
+	 * @param directory the index directory.
+	 * @throws IOException if the manifest cannot be written.
+	 */
+	public void write(Path directory) throws IOException {
+		Path temporaryFile = directory.resolve(MANIFEST_FILE_NAME + ".tmp");
+		try(BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+			for(Segment segment: segments) {
+				writer.write(String.join(FIELD_SEPARATOR, segment.getPrefix(), segment.getName(), segment.getHost(),
+						segment.getPath(), Long.toString(segment.getTermCount())));
+				writer.newLine();
+			}
+		}
+		Files.move(temporaryFile, directory.resolve(MANIFEST_FILE_NAME), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read the manifest of an index directory.
+	 * @param directory the index directory.
+	 * @return the manifest.
+	 * @throws IOException if the manifest cannot be read.
+	 */
+	public static IndexManifest read(Path directory) throws IOException {
+		IndexManifest manifest = new IndexManifest();
+		try(BufferedReader reader = Files.newBufferedReader(directory.resolve(MANIFEST_FILE_NAME), StandardCharsets.UTF_8)) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] fields = line.split(FIELD_SEPARATOR, -1);
+				if(fields.length != 5) {
+					throw new IOException("Invalid index manifest line <" + line + ">");
+				}
+				manifest.add(fields[0], fields[1], fields[2], fields[3], Long.parseLong(fields[4]));
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * A segment of the index.
+	 */
+	public static class Segment {
+
+		/**
+		 * The prefix of the words in the segment.
+		 */
+		private final String prefix;
+
+		/**
+		 * The name of the segment's directory within the index directory.
+		 */
+		private final String name;
+
+		/**
+		 * The host that wrote the segment.
+		 */
+		private final String host;
+
+		/**
+		 * The path the segment was written to on that host.
+		 */
+		private final String path;
+
+		/**
+		 * The number of words in the segment.
+		 */
+		private final long termCount;
+
+		/**
+		 * Constructor.
+		 * @param prefix the prefix of the words in the segment.
+		 * @param name the name of the segment's directory within the index directory.
+		 * @param host the host that wrote the segment.
+		 * @param path the path the segment was written to on that host.
+		 * @param termCount the number of words in the segment.
+		 */
+		Segment(String prefix, String name, String host, String path, long termCount) {
+			this.prefix = prefix;
+			this.name = name;
+			this.host = host;
+			this.path = path;
+			this.termCount = termCount;
+		}
+
+		/**
+		 * @return the prefix of the words in the segment.
+		 */
+		public String getPrefix() {
+			return prefix;
+		}
+
+		/**
+		 * @return the name of the segment's directory within the index directory.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the host that wrote the segment.
+		 */
+		public String getHost() {
+			return host;
+		}
+
+		/**
+		 * @return the path the segment was written to on that host.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the number of words in the segment.
+		 */
+		public long getTermCount() {
+			return termCount;
+		}
+	}
+}
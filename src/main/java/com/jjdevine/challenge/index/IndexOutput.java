@@ -0,0 +1,85 @@
+package com.jjdevine.challenge.index;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Buffered output to an index file, which keeps track of the file offset reached.
+ * @author Jonathan
+ *
+ */
+class IndexOutput implements Closeable {
+
+	/**
+	 * The buffered file.
+	 */
+	private final OutputStream out;
+	
+	/**
+	 * Number of bytes written.
+	 */
+	private long position = 0;
+	
+	/**
+	 * Package private constructor.
+	 * @param path the file to write, which is replaced if it exists.
+	 * @throws IOException if the file cannot be created.
+	 */
+	IndexOutput(Path path) throws IOException {
+		out = new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024);
+	}
+	
+	/**
+	 * @return the file offset of the next byte to be written.
+	 */
+	long getPosition() {
+		return position;
+	}
+	
+	/**
+	 * Write a variable length integer (7 bits per byte, least significant first).
+	 * @param value the value, which must not be negative.
+	 * @throws IOException if the file cannot be written.
+	 */
+	void writeVarLong(long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.write((int)((value & 0x7F) | 0x80));
+			position++;
+			value >>>= 7;
+		}
+		out.write((int)value);
+		position++;
+	}
+	
+	/**
+	 * Write a fixed length integer, most significant byte first.
+	 * @param value the value.
+	 * @param byteCount the number of bytes to write.
+	 * @throws IOException if the file cannot be written.
+	 */
+	void writeFixed(long value, int byteCount) throws IOException {
+		for(int shift = (byteCount - 1) * 8; shift >= 0; shift -= 8) {
+			out.write((int)(value >>> shift));
+		}
+		position += byteCount;
+	}
+	
+	/**
+	 * Write bytes.
+	 * @param bytes the bytes.
+	 * @throws IOException if the file cannot be written.
+	 */
+	void write(byte[] bytes) throws IOException {
+		out.write(bytes);
+		position += bytes.length;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,161 @@
+package com.jjdevine.challenge.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Looks words up in an inverted index written by InvertedIndexWriter. Opening the index loads only the block index of
+ * the terms file; a lookup reads one block of words, and the postings of a word are read as its cursor moves through
+ * them, so the memory used does not grow with the size of the index. A reader may be used by several threads, each
+ * with its own Postings. In index counting mode it reads a single segment; SegmentedIndexReader reads the whole index.
+ * @author Jonathan
+ *
+ */
+public class InvertedIndexReader implements Closeable {
+
+	/**
+	 * The postings file.
+	 */
+	private final FileChannel postingsChannel;
+	
+	/**
+	 * The terms file.
+	 */
+	private final FileChannel termsChannel;
+	
+	/**
+	 * First word of each block of the terms file.
+	 */
+	private final String[] blockFirstTerms;
+	
+	/**
+	 * Offset in the terms file of each block, followed by the offset of the block index (where the last block ends).
+	 */
+	private final long[] blockOffsets;
+	
+	/**
+	 * Number of words in the index.
+	 */
+	private final long termCount;
+	
+	/**
+	 * Private constructor; use open().
+	 */
+	private InvertedIndexReader(FileChannel postingsChannel, FileChannel termsChannel) throws IOException {
+		this.postingsChannel = postingsChannel;
+		this.termsChannel = termsChannel;
+		
+		long termsSize = termsChannel.size();
+		if(termsSize < InvertedIndexWriter.FOOTER_LENGTH) {
+			throw new IOException("Terms file is too short to be an index");
+		}
+		ByteBuffer footer = ByteBuffer.wrap(IndexInput.readFully(termsChannel, 
+				termsSize - InvertedIndexWriter.FOOTER_LENGTH, InvertedIndexWriter.FOOTER_LENGTH));
+		long blockIndexOffset = footer.getLong();
+		int blockCount = footer.getInt();
+		termCount = footer.getLong();
+		if(footer.getInt() != InvertedIndexWriter.MAGIC) {
+			throw new IOException("Terms file is not an index");
+		}
+		
+		IndexInput blockIndex = new IndexInput(IndexInput.readFully(termsChannel, blockIndexOffset, 
+				(int)(termsSize - InvertedIndexWriter.FOOTER_LENGTH - blockIndexOffset)));
+		blockFirstTerms = new String[blockCount];
+		blockOffsets = new long[blockCount + 1];
+		long blockOffset = 0;
+		for(int block = 0; block < blockCount; block++) {
+			blockFirstTerms[block] = new String(blockIndex.readBytes((int)blockIndex.readVarLong()), StandardCharsets.UTF_8);
+			blockOffset += blockIndex.readVarLong();
+			blockOffsets[block] = blockOffset;
+		}
+		blockOffsets[blockCount] = blockIndexOffset;
+	}
+	
+	/**
+	 * Open an index.
+	 * @param directory the directory holding the index files.
+	 * @return the reader.
+	 * @throws IOException if the index cannot be read.
+	 */
+	public static InvertedIndexReader open(Path directory) throws IOException {
+		FileChannel postingsChannel = FileChannel.open(directory.resolve(InvertedIndexWriter.POSTINGS_FILE_NAME), StandardOpenOption.READ);
+		try {
+			FileChannel termsChannel = FileChannel.open(directory.resolve(InvertedIndexWriter.TERMS_FILE_NAME), StandardOpenOption.READ);
+			try {
+				return new InvertedIndexReader(postingsChannel, termsChannel);
+			} catch (IOException | RuntimeException e) {
+				termsChannel.close();
+				throw e;
+			}
+		} catch (IOException | RuntimeException e) {
+			postingsChannel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return the number of words in the index.
+	 */
+	public long getTermCount() {
+		return termCount;
+	}
+	
+	/**
+	 * Look up the postings of a word.
+	 * @param term the word, in lower case.
+	 * @return a cursor over the lines containing the word, or null if the word is not in the index.
+	 * @throws IOException if the index cannot be read.
+	 */
+	public Postings getPostings(String term) throws IOException {
+		//find the last block whose first word is not after the word
+		int low = 0;
+		int high = blockFirstTerms.length - 1;
+		int block = -1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			if(blockFirstTerms[middle].compareTo(term) <= 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if(block < 0) {
+			return null;
+		}
+		
+		IndexInput entries = new IndexInput(IndexInput.readFully(termsChannel, blockOffsets[block], 
+				(int)(blockOffsets[block + 1] - blockOffsets[block])));
+		long termStart = 0;
+		while(!entries.isAtEnd()) {
+			String entryTerm = new String(entries.readBytes((int)entries.readVarLong()), StandardCharsets.UTF_8);
+			int lineCount = (int)entries.readVarLong();
+			long occurrenceCount = entries.readVarLong();
+			termStart += entries.readVarLong();
+			long skipsStart = termStart + entries.readVarLong();
+			int skipCount = (int)entries.readVarLong();
+			
+			int comparison = entryTerm.compareTo(term);
+			if(comparison == 0) {
+				return new Postings(postingsChannel, termStart, skipsStart, lineCount, occurrenceCount, skipCount);
+			} else if(comparison > 0) {
+				break;
+			}
+		}
+		return null;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			postingsChannel.close();
+		} finally {
+			termsChannel.close();
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package com.jjdevine.challenge.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes an inverted index to a directory, one word at a time in word order, without holding more than one block of
+ * the index in memory. The index is made up of two files:
+ * <ul>
+ * <li>The postings file holds the postings of each word: its lines, in blocks of LINES_PER_BLOCK encoded as described
+ * in PostingsBuilder, followed by a skip table giving, for every block after the first, the offset of the last line
+ * of the block before and where the block begins. A reader looking for a line far ahead uses the skip table to jump
+ * straight to the block that may contain it.</li>
+ * <li>The terms file holds the words, in blocks of TERMS_PER_BLOCK, each word with its line and occurrence counts
+ * and the location of its postings and skip table; then an index of the first word and location of every block; and
+ * finally a fixed length footer locating the block index. Only the block index is loaded by a reader, so looking up
+ * a word reads a single block of the terms file.</li>
+ * </ul>
+ * @author Jonathan
+ *
+ */
+public class InvertedIndexWriter implements Closeable {
+
+	/**
+	 * Name of the postings file within the index directory.
+	 */
+	public static final String POSTINGS_FILE_NAME = "postings.dat";
+	
+	/**
+	 * Name of the terms file within the index directory.
+	 */
+	public static final String TERMS_FILE_NAME = "terms.dat";
+	
+	/**
+	 * Number of lines in each block of postings.
+	 */
+	static final int LINES_PER_BLOCK = 128;
+	
+	/**
+	 * Number of words in each block of the terms file.
+	 */
+	static final int TERMS_PER_BLOCK = 64;
+	
+	/**
+	 * Number identifying the terms file format, written at the end of the file.
+	 */
+	static final int MAGIC = 0x50495831;
+	
+	/**
+	 * Length of the terms file footer - the offset of the block index, the number of blocks, the number of words and
+	 * the magic number.
+	 */
+	static final int FOOTER_LENGTH = 8 + 4 + 8 + 4;
+	
+	/**
+	 * The postings file.
+	 */
+	private final IndexOutput postings;
+	
+	/**
+	 * The terms file.
+	 */
+	private final IndexOutput terms;
+	
+	/**
+	 * The word whose postings are being written, or null between words.
+	 */
+	private String term;
+	
+	/**
+	 * The last word written, which the next must follow.
+	 */
+	private String lastTerm;
+	
+	/**
+	 * Offset in the postings file at which the current word's postings begin.
+	 */
+	private long termStart;
+	
+	/**
+	 * Number of lines written for the current word.
+	 */
+	private int lineCount;
+	
+	/**
+	 * Number of occurrences written for the current word.
+	 */
+	private long occurrenceCount;
+	
+	/**
+	 * Offset of the last line written for the current word.
+	 */
+	private long lastLineOffset;
+	
+	/**
+	 * For each block of the current word after the first, the offset of the last line of the block before.
+	 */
+	private long[] skipLineOffsets = new long[16];
+	
+	/**
+	 * For each block of the current word after the first, where the block begins, relative to termStart.
+	 */
+	private long[] skipBlockOffsets = new long[16];
+	
+	/**
+	 * Number of skip table entries for the current word.
+	 */
+	private int skipCount;
+	
+	/**
+	 * First word of each block of the terms file.
+	 */
+	private final List<String> blockFirstTerms = new ArrayList<>();
+	
+	/**
+	 * Offset in the terms file of each block.
+	 */
+	private final List<Long> blockOffsets = new ArrayList<>();
+	
+	/**
+	 * Number of words in the current block of the terms file.
+	 */
+	private int termsInBlock = 0;
+	
+	/**
+	 * Postings offset of the word before in the current block of the terms file.
+	 */
+	private long previousTermStart;
+	
+	/**
+	 * Number of words written.
+	 */
+	private long termCount = 0;
+	
+	/**
+	 * Public constructor.
+	 * @param directory the directory in which the index files are written, replacing any already there.
+	 * @throws IOException if the files cannot be created.
+	 */
+	public InvertedIndexWriter(Path directory) throws IOException {
+		postings = new IndexOutput(directory.resolve(POSTINGS_FILE_NAME));
+		terms = new IndexOutput(directory.resolve(TERMS_FILE_NAME));
+	}
+	
+	/**
+	 * Begin the postings of a word.
+	 * @param term the word, which must follow the last word written.
+	 */
+	public void startTerm(String term) {
+		if(this.term != null) {
+			throw new IllegalStateException("The postings of <" + this.term + "> have not been ended");
+		}
+		if(lastTerm != null && term.compareTo(lastTerm) <= 0) {
+			throw new IllegalArgumentException("<" + term + "> does not follow <" + lastTerm + ">");
+		}
+		this.term = term;
+		termStart = postings.getPosition();
+		lineCount = 0;
+		occurrenceCount = 0;
+		lastLineOffset = 0;
+		skipCount = 0;
+	}
+	
+	/**
+	 * Add a line to the postings of the current word.
+	 * @param lineOffset the byte offset at which the line begins, which must be beyond that of the last line added.
+	 * @param positions the positions of the word among the words of the line, in increasing order.
+	 * @param positionCount the number of positions.
+	 * @throws IOException if the postings file cannot be written.
+	 */
+	public void addLine(long lineOffset, int[] positions, int positionCount) throws IOException {
+		if(lineCount > 0 && lineOffset <= lastLineOffset) {
+			throw new IllegalArgumentException("Line <" + lineOffset + "> of <" + term + "> does not follow line <" 
+					+ lastLineOffset + ">");
+		}
+		
+		if(lineCount > 0 && lineCount % LINES_PER_BLOCK == 0) {
+			if(skipCount == skipLineOffsets.length) {
+				skipLineOffsets = Arrays.copyOf(skipLineOffsets, skipCount * 2);
+				skipBlockOffsets = Arrays.copyOf(skipBlockOffsets, skipCount * 2);
+			}
+			skipLineOffsets[skipCount] = lastLineOffset;
+			skipBlockOffsets[skipCount] = postings.getPosition() - termStart;
+			skipCount++;
+		}
+		
+		postings.writeVarLong(lineOffset - lastLineOffset);
+		postings.writeVarLong(positionCount);
+		int lastPosition = 0;
+		for(int index = 0; index < positionCount; index++) {
+			postings.writeVarLong(positions[index] - lastPosition);
+			lastPosition = positions[index];
+		}
+		
+		lastLineOffset = lineOffset;
+		lineCount++;
+		occurrenceCount += positionCount;
+	}
+	
+	/**
+	 * End the postings of the current word, writing its skip table and its entry in the terms file. A word with no
+	 * lines is left out of the index.
+	 * @throws IOException if the index files cannot be written.
+	 */
+	public void endTerm() throws IOException {
+		if(lineCount > 0) {
+			long skipsStart = postings.getPosition();
+			long previousLineOffset = 0;
+			long previousBlockOffset = 0;
+			for(int skip = 0; skip < skipCount; skip++) {
+				postings.writeVarLong(skipLineOffsets[skip] - previousLineOffset);
+				postings.writeVarLong(skipBlockOffsets[skip] - previousBlockOffset);
+				previousLineOffset = skipLineOffsets[skip];
+				previousBlockOffset = skipBlockOffsets[skip];
+			}
+			
+			if(termsInBlock == TERMS_PER_BLOCK || blockOffsets.isEmpty()) {
+				blockFirstTerms.add(term);
+				blockOffsets.add(terms.getPosition());
+				termsInBlock = 0;
+				previousTermStart = 0;
+			}
+			byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+			terms.writeVarLong(termBytes.length);
+			terms.write(termBytes);
+			terms.writeVarLong(lineCount);
+			terms.writeVarLong(occurrenceCount);
+			terms.writeVarLong(termStart - previousTermStart);
+			terms.writeVarLong(skipsStart - termStart);
+			terms.writeVarLong(skipCount);
+			previousTermStart = termStart;
+			termsInBlock++;
+			termCount++;
+		}
+		
+		lastTerm = term;
+		term = null;
+	}
+	
+	/**
+	 * @return the number of words written.
+	 */
+	public long getTermCount() {
+		return termCount;
+	}
+	
+	/**
+	 * Write the block index and footer of the terms file, and close both files.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			long blockIndexOffset = terms.getPosition();
+			long previousBlockOffset = 0;
+			for(int block = 0; block < blockOffsets.size(); block++) {
+				byte[] termBytes = blockFirstTerms.get(block).getBytes(StandardCharsets.UTF_8);
+				terms.writeVarLong(termBytes.length);
+				terms.write(termBytes);
+				terms.writeVarLong(blockOffsets.get(block) - previousBlockOffset);
+				previousBlockOffset = blockOffsets.get(block);
+			}
+			terms.writeFixed(blockIndexOffset, 8);
+			terms.writeFixed(blockOffsets.size(), 4);
+			terms.writeFixed(termCount, 8);
+			terms.writeFixed(MAGIC, 4);
+		} finally {
+			postings.close();
+			terms.close();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.jjdevine.challenge.index;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Cursor over the postings of a word in an inverted index, read from the postings file as the cursor moves. It starts
+ * before the first line; next() moves to the following line, and advance() moves to the first line at or beyond a
+ * given offset, skipping whole blocks without reading them where it can.
+ * @author Jonathan
+ *
+ */
+public class Postings {
+
+	/**
+	 * The postings file.
+	 */
+	private final FileChannel channel;
+	
+	/**
+	 * Input positioned at the next line to be read.
+	 */
+	private final IndexInput input;
+	
+	/**
+	 * Offset in the postings file at which the word's lines begin.
+	 */
+	private final long dataStart;
+	
+	/**
+	 * Offset in the postings file at which the word's skip table begins.
+	 */
+	private final long skipsStart;
+	
+	/**
+	 * Number of lines in which the word occurs.
+	 */
+	private final int lineCount;
+	
+	/**
+	 * Number of times the word occurs.
+	 */
+	private final long occurrenceCount;
+	
+	/**
+	 * Number of skip table entries.
+	 */
+	private final int skipCount;
+	
+	/**
+	 * For each block after the first, the offset of the last line of the block before, or null until needed.
+	 */
+	private long[] skipLineOffsets;
+	
+	/**
+	 * For each block after the first, where the block begins relative to dataStart, or null until needed.
+	 */
+	private long[] skipBlockOffsets;
+	
+	/**
+	 * Number of lines read, including the current line.
+	 */
+	private int linesRead = 0;
+	
+	/**
+	 * Offset of the current line (0 before the first line).
+	 */
+	private long lineOffset = 0;
+	
+	/**
+	 * Number of times the word occurs in the current line.
+	 */
+	private int frequency = 0;
+	
+	/**
+	 * Positions of the word in the current line.
+	 */
+	private int[] positions = new int[4];
+	
+	/**
+	 * Package private constructor; postings are obtained from InvertedIndexReader.getPostings().
+	 * @param channel the postings file.
+	 * @param dataStart offset at which the word's lines begin.
+	 * @param skipsStart offset at which the word's skip table begins.
+	 * @param lineCount number of lines in which the word occurs.
+	 * @param occurrenceCount number of times the word occurs.
+	 * @param skipCount number of skip table entries.
+	 */
+	Postings(FileChannel channel, long dataStart, long skipsStart, int lineCount, long occurrenceCount, int skipCount) {
+		this.channel = channel;
+		this.dataStart = dataStart;
+		this.skipsStart = skipsStart;
+		this.lineCount = lineCount;
+		this.occurrenceCount = occurrenceCount;
+		this.skipCount = skipCount;
+		input = new IndexInput(channel);
+		input.seek(dataStart);
+	}
+	
+	/**
+	 * @return the number of lines in which the word occurs.
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+	
+	/**
+	 * @return the number of times the word occurs.
+	 */
+	public long getOccurrenceCount() {
+		return occurrenceCount;
+	}
+	
+	/**
+	 * Move to the next line.
+	 * @return false if there are no more lines.
+	 * @throws IOException if the postings file cannot be read.
+	 */
+	public boolean next() throws IOException {
+		if(linesRead == lineCount) {
+			return false;
+		}
+		
+		lineOffset += input.readVarLong();
+		frequency = (int)input.readVarLong();
+		if(frequency > positions.length) {
+			positions = Arrays.copyOf(positions, Math.max(positions.length * 2, frequency));
+		}
+		int position = 0;
+		for(int index = 0; index < frequency; index++) {
+			position += (int)input.readVarLong();
+			positions[index] = position;
+		}
+		linesRead++;
+		return true;
+	}
+	
+	/**
+	 * Move to the first line at or beyond an offset. The cursor does not move back if it is already there.
+	 * @param targetLineOffset the offset.
+	 * @return false if there is no such line.
+	 * @throws IOException if the postings file cannot be read.
+	 */
+	public boolean advance(long targetLineOffset) throws IOException {
+		if(linesRead > 0 && lineOffset >= targetLineOffset) {
+			return true;
+		}
+		
+		if(skipCount > 0) {
+			loadSkipTable();
+			//find the last block that begins after a line before the target
+			int low = 0;
+			int high = skipCount - 1;
+			int skip = -1;
+			while(low <= high) {
+				int middle = (low + high) >>> 1;
+				if(skipLineOffsets[middle] < targetLineOffset) {
+					skip = middle;
+					low = middle + 1;
+				} else {
+					high = middle - 1;
+				}
+			}
+			int blockFirstLine = (skip + 1) * InvertedIndexWriter.LINES_PER_BLOCK;
+			if(skip >= 0 && blockFirstLine > linesRead) {
+				input.seek(dataStart + skipBlockOffsets[skip]);
+				lineOffset = skipLineOffsets[skip];
+				linesRead = blockFirstLine;
+			}
+		}
+		
+		while(next()) {
+			if(lineOffset >= targetLineOffset) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the byte offset at which the current line begins.
+	 */
+	public long getLineOffset() {
+		return lineOffset;
+	}
+	
+	/**
+	 * @return the number of times the word occurs in the current line.
+	 */
+	public int getFrequency() {
+		return frequency;
+	}
+	
+	/**
+	 * @param index the number of an occurrence of the word in the current line.
+	 * @return the position of the occurrence among the words of the line.
+	 */
+	public int getPosition(int index) {
+		if(index >= frequency) {
+			throw new IndexOutOfBoundsException("Occurrence <" + index + "> of <" + frequency + ">");
+		}
+		return positions[index];
+	}
+	
+	/**
+	 * Read the skip table, if it has not been read already.
+	 * @throws IOException if the postings file cannot be read.
+	 */
+	private void loadSkipTable() throws IOException {
+		if(skipLineOffsets != null) {
+			return;
+		}
+		IndexInput skipInput = new IndexInput(channel);
+		skipInput.seek(skipsStart);
+		skipLineOffsets = new long[skipCount];
+		skipBlockOffsets = new long[skipCount];
+		long previousLineOffset = 0;
+		long previousBlockOffset = 0;
+		for(int skip = 0; skip < skipCount; skip++) {
+			previousLineOffset += skipInput.readVarLong();
+			previousBlockOffset += skipInput.readVarLong();
+			skipLineOffsets[skip] = previousLineOffset;
+			skipBlockOffsets[skip] = previousBlockOffset;
+		}
+	}
+}
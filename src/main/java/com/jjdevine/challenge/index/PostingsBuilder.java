@@ -0,0 +1,117 @@
+package com.jjdevine.challenge.index;
+
+import java.util.Arrays;
+
+/**
+ * Builds the postings of one word within one partition of the source file (the byte range of a text processing job).
+ * A posting is a line in which the word occurs, identified by the byte offset at which the line begins, together with
+ * the positions of the word among the words of the line. The postings are encoded as the number of lines followed,
+ * for each line in offset order, by
+ * <ul>
+ * <li>the line offset, as the difference from the previous line's offset (or from 0);</li>
+ * <li>the number of positions;</li>
+ * <li>the positions, the first as it is and the rest as the difference from the position before,</li>
+ * </ul>
+ * each as a variable length integer (7 bits per byte, least significant first). The same line encoding is used in the
+ * blocks of the on-disk index (see InvertedIndexWriter).
+ * @author Jonathan
+ *
+ */
+public class PostingsBuilder {
+
+	/**
+	 * The encoded lines.
+	 */
+	private byte[] bytes = new byte[16];
+	
+	/**
+	 * Number of valid bytes in the encoded lines.
+	 */
+	private int length = 0;
+	
+	/**
+	 * Offset of the last line encoded.
+	 */
+	private long lastLineOffset = 0;
+	
+	/**
+	 * Number of lines encoded.
+	 */
+	private int lineCount = 0;
+	
+	/**
+	 * Positions of the word in the current line.
+	 */
+	private int[] linePositions = new int[4];
+	
+	/**
+	 * Number of positions of the word in the current line.
+	 */
+	private int linePositionCount = 0;
+	
+	/**
+	 * Record an occurrence of the word in the current line.
+	 * @param position the position of the word among the words of the line.
+	 * @return true if this is the first occurrence of the word in the line.
+	 */
+	public boolean addPosition(int position) {
+		if(linePositionCount == linePositions.length) {
+			linePositions = Arrays.copyOf(linePositions, linePositionCount * 2);
+		}
+		linePositions[linePositionCount++] = position;
+		return linePositionCount == 1;
+	}
+	
+	/**
+	 * Encode the occurrences recorded in the current line, if there were any.
+	 * @param lineOffset the byte offset at which the line begins, which must be beyond that of any earlier line.
+	 */
+	public void endLine(long lineOffset) {
+		if(linePositionCount == 0) {
+			return;
+		}
+		
+		writeVarLong(lineOffset - lastLineOffset);
+		writeVarLong(linePositionCount);
+		int lastPosition = 0;
+		for(int index = 0; index < linePositionCount; index++) {
+			writeVarLong(linePositions[index] - lastPosition);
+			lastPosition = linePositions[index];
+		}
+		
+		lastLineOffset = lineOffset;
+		lineCount++;
+		linePositionCount = 0;
+	}
+	
+	/**
+	 * @return the encoded postings, starting with the number of lines.
+	 */
+	public byte[] toByteArray() {
+		byte[] encoded = new byte[length + 5];
+		int encodedLength = 0;
+		long value = lineCount;
+		while((value & ~0x7FL) != 0) {
+			encoded[encodedLength++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		encoded[encodedLength++] = (byte)value;
+		System.arraycopy(bytes, 0, encoded, encodedLength, length);
+		return Arrays.copyOf(encoded, encodedLength + length);
+	}
+	
+	/**
+	 * Append a variable length integer to the encoded lines.
+	 * @param value the value, which must not be negative.
+	 */
+	private void writeVarLong(long value) {
+		if(length + 10 > bytes.length) {
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);
+		}
+		while((value & ~0x7FL) != 0) {
+			bytes[length++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[length++] = (byte)value;
+	}
+}
@@ -0,0 +1,111 @@
+package com.jjdevine.challenge.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jjdevine.challenge.dao.ChallengeDAOImpl;
+
+/**
+ * Looks words up in an inverted index written in index counting mode, made up of one segment per word prefix and a
+ * manifest listing them (see IndexManifest). A word is routed to the segment for its prefix, by the same rule that
+ * partitioned the postings, so a lookup opens only that segment. Segments are opened when first needed and kept open
+ * until the reader is closed. A reader may be used by several threads, each with its own Postings.
+ * @author Jonathan
+ *
+ */
+public class SegmentedIndexReader implements Closeable {
+
+	/**
+	 * The index directory.
+	 */
+	private final Path directory;
+
+	/**
+	 * The manifest listing the segments.
+	 */
+	private final IndexManifest manifest;
+
+	/**
+	 * Readers of the segments opened so far, by segment name.
+	 */
+	private final Map<String, InvertedIndexReader> segmentReaders = new HashMap<>();
+
+	/**
+	 * Private constructor; use open().
+	 */
+	private SegmentedIndexReader(Path directory, IndexManifest manifest) {
+		this.directory = directory;
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Open an index.
+	 * @param directory the index directory, holding the manifest and every segment it lists.
+	 * @return the reader.
+	 * @throws IOException if the manifest cannot be read.
+	 */
+	public static SegmentedIndexReader open(Path directory) throws IOException {
+		return new SegmentedIndexReader(directory, IndexManifest.read(directory));
+	}
+
+	/**
+	 * @return the number of words in the index.
+	 */
+	public long getTermCount() {
+		long termCount = 0;
+		for(IndexManifest.Segment segment: manifest.getSegments()) {
+			termCount += segment.getTermCount();
+		}
+		return termCount;
+	}
+
+	/**
+	 * Look up the postings of a word.
+	 * @param term the word, in lower case.
+	 * @return a cursor over the lines containing the word, or null if the word is not in the index.
+	 * @throws IOException if the index cannot be read.
+	 */
+	public Postings getPostings(String term) throws IOException {
+		IndexManifest.Segment segment = manifest.getSegment(ChallengeDAOImpl.getPrefix(term));
+		if(segment == null) {
+			return null;
+		}
+		return getSegmentReader(segment.getName()).getPostings(term);
+	}
+
+	/**
+	 * Get the reader of a segment, opening it if it is not already open.
+	 * @param name the name of the segment.
+	 * @return the reader.
+	 * @throws IOException if the segment cannot be opened.
+	 */
+	private synchronized InvertedIndexReader getSegmentReader(String name) throws IOException {
+		InvertedIndexReader segmentReader = segmentReaders.get(name);
+		if(segmentReader == null) {
+			segmentReader = InvertedIndexReader.open(directory.resolve(name));
+			segmentReaders.put(name, segmentReader);
+		}
+		return segmentReader;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		IOException failure = null;
+		for(InvertedIndexReader segmentReader: segmentReaders.values()) {
+			try {
+				segmentReader.close();
+			} catch (IOException e) {
+				if(failure == null) {
+					failure = e;
+				}
+			}
+		}
+		segmentReaders.clear();
+		if(failure != null) {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.jjdevine.challenge.job;
+
+/**
+ * Constants class enumerating the ways in which words can be counted.
+ * @author Jonathan
+ *
+ */
+public class CountingMode {
+
+	/**
+	 * private constructor; constants class.
+	 */
+	private CountingMode() {}
+	
+	/**
+	 * Every word is counted exactly.
+	 */
+	public static final String EXACT = "exact";
+	
+	/**
+	 * Words are summarised in bounded memory sketches, giving approximate counts with known error bounds.
+	 */
+	public static final String APPROXIMATE = "approximate";
+	
+	/**
+	 * Only the words of a fixed term list are counted, each job producing a dense vector of counts indexed by term.
+	 */
+	public static final String TARGETED = "targeted";
+	
+	/**
+	 * A user defined analysis (see com.jjdevine.challenge.analysis.Analysis) is run in place of word counting.
+	 */
+	public static final String ANALYSIS = "analysis";
+	
+	/**
+	 * A positional inverted index of the file (the lines in which each word occurs, and its positions within them) is
+	 * built on disk in place of counting words.
+	 */
+	public static final String INDEX = "index";
+}
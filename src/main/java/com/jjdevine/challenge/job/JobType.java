@@ -21,4 +21,58 @@ public class JobType {
 	 * An amalgamation job that merges the results of completed text processing jobs.
 	 */
 	public static final String AMALGAMATION = "AMALGAMATION";
+	
+	/**
+	 * A text processing job that summarises a segment of text in bounded memory sketches rather than counting words exactly.
+	 */
+	public static final String APPROXIMATE_TEXT_PROCESSING = "APPROXIMATE_TEXT_PROCESSING";
+	
+	/**
+	 * An amalgamation job that merges the sketches of completed approximate text processing jobs.
+	 */
+	public static final String SKETCH_AMALGAMATION = "SKETCH_AMALGAMATION";
+	
+	/**
+	 * A text processing job that counts only the words of a fixed term list.
+	 */
+	public static final String TARGETED_TEXT_PROCESSING = "TARGETED_TEXT_PROCESSING";
+	
+	/**
+	 * An amalgamation job that adds together the term count vectors of completed targeted text processing jobs.
+	 */
+	public static final String TARGETED_AMALGAMATION = "TARGETED_AMALGAMATION";
+	
+	/**
+	 * A text processing job that counts the n-grams (runs of consecutive words within a line) of a segment of text,
+	 * producing results keyed by n-gram in the same form as word results.
+	 */
+	public static final String NGRAM_TEXT_PROCESSING = "NGRAM_TEXT_PROCESSING";
+	
+	/**
+	 * A text processing job that runs the map and combine functions of an analysis over a segment of text.
+	 */
+	public static final String ANALYSIS_TEXT_PROCESSING = "ANALYSIS_TEXT_PROCESSING";
+	
+	/**
+	 * An amalgamation job in analysis counting mode, which combines the results of every analysis text processing job
+	 * for the keys with one prefix and reduces each key to its final result.
+	 */
+	public static final String ANALYSIS_AMALGAMATION = "ANALYSIS_AMALGAMATION";
+	
+	/**
+	 * A text processing job that builds the postings of every word in a byte range of the file.
+	 */
+	public static final String INDEX_TEXT_PROCESSING = "INDEX_TEXT_PROCESSING";
+	
+	/**
+	 * An amalgamation job in index counting mode, which merges the postings of the words sharing a prefix from every 
+	 * index text processing job into a segment of the on-disk index.
+	 */
+	public static final String INDEX_AMALGAMATION = "INDEX_AMALGAMATION";
+	
+	/**
+	 * A merge job that combines the results of a group of completed text processing (or lower level merge) jobs, so
+	 * that amalgamation jobs have fewer results to read.
+	 */
+	public static final String MERGE = "MERGE";
 }
@@ -0,0 +1,24 @@
+package com.jjdevine.challenge.job;
+
+/**
+ * Constants class enumerating the ways in which text processing job results can be encoded.
+ * @author Jonathan
+ *
+ */
+public class ResultEncoding {
+
+	/**
+	 * private constructor; constants class.
+	 */
+	private ResultEncoding() {}
+	
+	/**
+	 * Results are stored as documents keyed by the words themselves.
+	 */
+	public static final String WORDS = "words";
+	
+	/**
+	 * Words are mapped to integer ids through a shared dictionary, results are stored as arrays of ids and counts.
+	 */
+	public static final String DICTIONARY = "dictionary";
+}
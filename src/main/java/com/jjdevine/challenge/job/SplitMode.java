@@ -0,0 +1,25 @@
+package com.jjdevine.challenge.job;
+
+/**
+ * Constants class enumerating the ways in which the source file can be split into text processing jobs.
+ * @author Jonathan
+ *
+ */
+public class SplitMode {
+
+	/**
+	 * private constructor; constants class.
+	 */
+	private SplitMode() {}
+	
+	/**
+	 * Jobs cover a fixed number of lines, and are created as the lines of the file are counted.
+	 */
+	public static final String LINES = "lines";
+	
+	/**
+	 * Jobs cover a fixed number of bytes, and are all created up front from the size of the file. Each job processes
+	 * the lines that begin within its range.
+	 */
+	public static final String BYTES = "bytes";
+}
@@ -0,0 +1,137 @@
+package com.jjdevine.challenge.sketch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Count-Min Sketch of word frequencies. Estimates never under count; with probability 1 - delta they over count by at
+ * most epsilon * (total count), where epsilon = e / width and delta = e ^ -depth.
+ * Sketches of the same dimensions are merged by adding their cells.
+ * @author Jonathan
+ *
+ */
+public class CountMinSketch {
+
+	/**
+	 * Number of counters in each row.
+	 */
+	private final int width;
+	
+	/**
+	 * Number of rows (independent hash functions).
+	 */
+	private final int depth;
+	
+	/**
+	 * The counters, row by row.
+	 */
+	private final long[] cells;
+	
+	/**
+	 * Sum of all counts added.
+	 */
+	private long totalCount = 0;
+	
+	/**
+	 * Public constructor.
+	 * @param width number of counters in each row - must be a power of two.
+	 * @param depth number of rows.
+	 */
+	public CountMinSketch(int width, int depth) {
+		if(Integer.bitCount(width) != 1) {
+			throw new IllegalArgumentException("Width <" + width + "> is not a power of two");
+		}
+		this.width = width;
+		this.depth = depth;
+		cells = new long[width * depth];
+	}
+	
+	/**
+	 * Add to the count of an item.
+	 * @param hash 64 bit hash of the item (see Hashing class).
+	 * @param count the number of occurrences to add.
+	 */
+	public void add(long hash, long count) {
+		int hash1 = (int)hash;
+		int hash2 = (int)(hash >>> 32);
+		int mask = width - 1;
+		for(int row = 0; row < depth; row++) {
+			cells[row * width + ((hash1 + row * hash2) & mask)] += count;
+		}
+		totalCount += count;
+	}
+	
+	/**
+	 * Estimate the count of an item.
+	 * @param hash 64 bit hash of the item (see Hashing class).
+	 * @return the estimated count, which is never less than the true count.
+	 */
+	public long estimate(long hash) {
+		int hash1 = (int)hash;
+		int hash2 = (int)(hash >>> 32);
+		int mask = width - 1;
+		long estimate = Long.MAX_VALUE;
+		for(int row = 0; row < depth; row++) {
+			estimate = Math.min(estimate, cells[row * width + ((hash1 + row * hash2) & mask)]);
+		}
+		return estimate;
+	}
+	
+	/**
+	 * Add the counts of another sketch of the same dimensions to this one.
+	 * @param other the sketch to merge.
+	 */
+	public void merge(CountMinSketch other) {
+		if(other.width != width || other.depth != depth) {
+			throw new IllegalArgumentException("Cannot merge sketches of different dimensions");
+		}
+		for(int index = 0; index < cells.length; index++) {
+			cells[index] += other.cells[index];
+		}
+		totalCount += other.totalCount;
+	}
+	
+	/**
+	 * @return the sum of all counts added.
+	 */
+	public long getTotalCount() {
+		return totalCount;
+	}
+	
+	/**
+	 * @return the relative error bound, epsilon.
+	 */
+	public double getEpsilon() {
+		return Math.E / width;
+	}
+	
+	/**
+	 * @return the probability that an estimate exceeds the error bound, delta.
+	 */
+	public double getDelta() {
+		return Math.exp(-depth);
+	}
+	
+	/**
+	 * Serialise the sketch.
+	 * @return the sketch as bytes.
+	 */
+	public byte[] toBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(16 + cells.length * 8);
+		buffer.putInt(width).putInt(depth).putLong(totalCount);
+		buffer.asLongBuffer().put(cells);
+		return buffer.array();
+	}
+	
+	/**
+	 * Deserialise a sketch created by toBytes().
+	 * @param bytes the serialised sketch.
+	 * @return the sketch.
+	 */
+	public static CountMinSketch fromBytes(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		CountMinSketch sketch = new CountMinSketch(buffer.getInt(), buffer.getInt());
+		sketch.totalCount = buffer.getLong();
+		buffer.asLongBuffer().get(sketch.cells);
+		return sketch;
+	}
+}
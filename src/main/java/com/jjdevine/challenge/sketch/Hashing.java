@@ -0,0 +1,44 @@
+package com.jjdevine.challenge.sketch;
+
+/**
+ * Hash functions used by the sketches. These must give the same result on every node, so String.hashCode() (32 bits) 
+ * is not used.
+ * @author Jonathan
+ *
+ */
+public final class Hashing {
+
+	/**
+	 * private constructor; utility class.
+	 */
+	private Hashing() {}
+	
+	/**
+	 * Compute a 64 bit hash of a string (FNV-1a over the characters, followed by the MurmurHash3 finaliser to spread
+	 * the bits).
+	 * @param str the string to hash.
+	 * @return the hash.
+	 */
+	public static long hash64(String str) {
+		long hash = 0xCBF29CE484222325L;
+		for(int index = 0; index < str.length(); index++) {
+			hash ^= str.charAt(index);
+			hash *= 0x100000001B3L;
+		}
+		return mix64(hash);
+	}
+	
+	/**
+	 * MurmurHash3 64 bit finaliser.
+	 * @param value the value to mix.
+	 * @return the mixed value.
+	 */
+	public static long mix64(long value) {
+		value ^= value >>> 33;
+		value *= 0xFF51AFD7ED558CCDL;
+		value ^= value >>> 33;
+		value *= 0xC4CEB9FE1A85EC53L;
+		value ^= value >>> 33;
+		return value;
+	}
+}
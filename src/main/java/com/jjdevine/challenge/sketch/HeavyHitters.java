@@ -0,0 +1,132 @@
+package com.jjdevine.challenge.sketch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Misra-Gries summary of the most frequent words, holding at most a fixed number of counters.
+ * Every word occurring more than (total count) / (capacity + 1) times is guaranteed to be held, and each held count 
+ * under counts the true count by at most the value returned by getMaxUnderCount().
+ * Summaries are merged by adding counters and then trimming back to capacity.
+ * @author Jonathan
+ *
+ */
+public class HeavyHitters {
+
+	/**
+	 * Maximum number of counters held.
+	 */
+	private final int capacity;
+	
+	/**
+	 * The counters.
+	 */
+	private Map<String, Long> counters;
+	
+	/**
+	 * Total amount subtracted from every counter so far - bounds the under count.
+	 */
+	private long maxUnderCount = 0;
+	
+	/**
+	 * Public constructor.
+	 * @param capacity maximum number of counters held.
+	 */
+	public HeavyHitters(int capacity) {
+		this.capacity = capacity;
+		counters = new HashMap<>(capacity * 2);
+	}
+	
+	/**
+	 * Record an occurrence of a word.
+	 * @param word the word.
+	 */
+	public void add(String word) {
+		Long count = counters.get(word);
+		if(count != null) {
+			counters.put(word, count + 1);
+		} else if(counters.size() < capacity) {
+			counters.put(word, 1L);
+		} else {
+			//decrement every counter; paid for by the increments that built them up
+			maxUnderCount++;
+			Iterator<Map.Entry<String, Long>> i = counters.entrySet().iterator();
+			while(i.hasNext()) {
+				Map.Entry<String, Long> entry = i.next();
+				if(entry.getValue() == 1) {
+					i.remove();
+				} else {
+					entry.setValue(entry.getValue() - 1);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Merge another summary into this one.
+	 * @param other the summary to merge.
+	 */
+	public void merge(HeavyHitters other) {
+		for(Map.Entry<String, Long> entry: other.counters.entrySet()) {
+			counters.merge(entry.getKey(), entry.getValue(), Long::sum);
+		}
+		maxUnderCount += other.maxUnderCount;
+		
+		if(counters.size() > capacity) {
+			//subtract the (capacity + 1)th largest count from every counter, dropping those that are no longer positive
+			List<Long> counts = new ArrayList<>(counters.values());
+			Collections.sort(counts, Collections.reverseOrder());
+			long cut = counts.get(capacity);
+			maxUnderCount += cut;
+			
+			Iterator<Map.Entry<String, Long>> i = counters.entrySet().iterator();
+			while(i.hasNext()) {
+				Map.Entry<String, Long> entry = i.next();
+				if(entry.getValue() <= cut) {
+					i.remove();
+				} else {
+					entry.setValue(entry.getValue() - cut);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the counters held (each a lower bound of the word's true count).
+	 */
+	public Map<String, Long> getCounters() {
+		return counters;
+	}
+	
+	/**
+	 * @return the maximum amount by which any held counter under counts its word.
+	 */
+	public long getMaxUnderCount() {
+		return maxUnderCount;
+	}
+	
+	/**
+	 * @return the maximum number of counters held.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Recreate a summary from its parts.
+	 * @param capacity maximum number of counters held.
+	 * @param counters the counters.
+	 * @param maxUnderCount the maximum under count.
+	 * @return the summary.
+	 */
+	public static HeavyHitters fromParts(int capacity, Map<String, Long> counters, long maxUnderCount) {
+		HeavyHitters heavyHitters = new HeavyHitters(capacity);
+		heavyHitters.counters.putAll(counters);
+		heavyHitters.maxUnderCount = maxUnderCount;
+		return heavyHitters;
+	}
+}
@@ -0,0 +1,116 @@
+package com.jjdevine.challenge.sketch;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog estimator of the number of distinct items. Sketches of the same precision are merged by taking the 
+ * maximum of each register.
+ * @author Jonathan
+ *
+ */
+public class HyperLogLog {
+
+	/**
+	 * Number of bits of the hash used to select a register.
+	 */
+	private final int precision;
+	
+	/**
+	 * The registers, each holding the longest run of leading zeros seen (plus one).
+	 */
+	private final byte[] registers;
+	
+	/**
+	 * Public constructor.
+	 * @param precision number of bits of the hash used to select a register (4 - 18).
+	 */
+	public HyperLogLog(int precision) {
+		if(precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("Precision <" + precision + "> is out of range");
+		}
+		this.precision = precision;
+		registers = new byte[1 << precision];
+	}
+	
+	/**
+	 * Add an item.
+	 * @param hash 64 bit hash of the item (see Hashing class).
+	 */
+	public void add(long hash) {
+		int register = (int)(hash >>> (64 - precision));
+		//the remaining bits, with a sentinel so the run of zeros is bounded
+		long remaining = (hash << precision) | (1L << (precision - 1));
+		byte rank = (byte)(Long.numberOfLeadingZeros(remaining) + 1);
+		if(rank > registers[register]) {
+			registers[register] = rank;
+		}
+	}
+	
+	/**
+	 * Merge another sketch of the same precision into this one.
+	 * @param other the sketch to merge.
+	 */
+	public void merge(HyperLogLog other) {
+		if(other.precision != precision) {
+			throw new IllegalArgumentException("Cannot merge sketches of different precision");
+		}
+		for(int index = 0; index < registers.length; index++) {
+			if(other.registers[index] > registers[index]) {
+				registers[index] = other.registers[index];
+			}
+		}
+	}
+	
+	/**
+	 * Estimate the number of distinct items added.
+	 * @return the estimate.
+	 */
+	public long estimate() {
+		int registerCount = registers.length;
+		double sum = 0;
+		int emptyRegisters = 0;
+		for(byte register: registers) {
+			sum += 1.0 / (1L << register);
+			if(register == 0) {
+				emptyRegisters++;
+			}
+		}
+		
+		double alpha = 0.7213 / (1 + 1.079 / registerCount);
+		double estimate = alpha * registerCount * registerCount / sum;
+		
+		if(estimate <= 2.5 * registerCount && emptyRegisters > 0) {
+			//small range correction - linear counting
+			estimate = registerCount * Math.log((double)registerCount / emptyRegisters);
+		}
+		return Math.round(estimate);
+	}
+	
+	/**
+	 * @return the relative standard error of estimates.
+	 */
+	public double getStandardError() {
+		return 1.04 / Math.sqrt(registers.length);
+	}
+	
+	/**
+	 * Serialise the sketch.
+	 * @return the sketch as bytes.
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = Arrays.copyOf(registers, registers.length + 1);
+		bytes[registers.length] = (byte)precision;
+		return bytes;
+	}
+	
+	/**
+	 * Deserialise a sketch created by toBytes().
+	 * @param bytes the serialised sketch.
+	 * @return the sketch.
+	 */
+	public static HyperLogLog fromBytes(byte[] bytes) {
+		HyperLogLog sketch = new HyperLogLog(bytes[bytes.length - 1]);
+		System.arraycopy(bytes, 0, sketch.registers, 0, sketch.registers.length);
+		return sketch;
+	}
+}
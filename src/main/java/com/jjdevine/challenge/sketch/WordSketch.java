@@ -0,0 +1,117 @@
+package com.jjdevine.challenge.sketch;
+
+/**
+ * Bounded memory summary of the words in some text: a Count-Min Sketch of word frequencies, a HyperLogLog of 
+ * distinct words and a Misra-Gries summary of the most frequent words. All three are mergeable, so the sketches of
+ * individual jobs combine into a sketch of the whole text.
+ * @author Jonathan
+ *
+ */
+public class WordSketch {
+
+	/**
+	 * Count-Min Sketch width (epsilon = e / 65536, around 0.004% of the total word count).
+	 */
+	public static final int COUNT_MIN_WIDTH = 1 << 16;
+	
+	/**
+	 * Count-Min Sketch depth (delta = e ^ -5, under 0.7%).
+	 */
+	public static final int COUNT_MIN_DEPTH = 5;
+	
+	/**
+	 * HyperLogLog precision (standard error around 0.8%).
+	 */
+	public static final int HYPERLOGLOG_PRECISION = 14;
+	
+	/**
+	 * Number of heavy hitter counters.
+	 */
+	public static final int HEAVY_HITTER_CAPACITY = 1000;
+	
+	/**
+	 * Word frequencies.
+	 */
+	private final CountMinSketch countMinSketch;
+	
+	/**
+	 * Distinct words.
+	 */
+	private final HyperLogLog hyperLogLog;
+	
+	/**
+	 * Most frequent words.
+	 */
+	private final HeavyHitters heavyHitters;
+	
+	/**
+	 * Public constructor - creates an empty sketch.
+	 */
+	public WordSketch() {
+		this(new CountMinSketch(COUNT_MIN_WIDTH, COUNT_MIN_DEPTH), new HyperLogLog(HYPERLOGLOG_PRECISION), 
+				new HeavyHitters(HEAVY_HITTER_CAPACITY));
+	}
+	
+	/**
+	 * Public constructor - creates a sketch from its parts.
+	 * @param countMinSketch word frequencies.
+	 * @param hyperLogLog distinct words.
+	 * @param heavyHitters most frequent words.
+	 */
+	public WordSketch(CountMinSketch countMinSketch, HyperLogLog hyperLogLog, HeavyHitters heavyHitters) {
+		this.countMinSketch = countMinSketch;
+		this.hyperLogLog = hyperLogLog;
+		this.heavyHitters = heavyHitters;
+	}
+	
+	/**
+	 * Record an occurrence of a word.
+	 * @param word the word.
+	 */
+	public void addWord(String word) {
+		long hash = Hashing.hash64(word);
+		countMinSketch.add(hash, 1);
+		hyperLogLog.add(hash);
+		heavyHitters.add(word);
+	}
+	
+	/**
+	 * Merge another sketch into this one.
+	 * @param other the sketch to merge.
+	 */
+	public void merge(WordSketch other) {
+		countMinSketch.merge(other.countMinSketch);
+		hyperLogLog.merge(other.hyperLogLog);
+		heavyHitters.merge(other.heavyHitters);
+	}
+	
+	/**
+	 * Estimate the number of occurrences of a word.
+	 * @param word the word.
+	 * @return the estimate (never an under count).
+	 */
+	public long estimateCount(String word) {
+		return countMinSketch.estimate(Hashing.hash64(word));
+	}
+	
+	/**
+	 * @return the Count-Min Sketch of word frequencies.
+	 */
+	public CountMinSketch getCountMinSketch() {
+		return countMinSketch;
+	}
+	
+	/**
+	 * @return the HyperLogLog of distinct words.
+	 */
+	public HyperLogLog getHyperLogLog() {
+		return hyperLogLog;
+	}
+	
+	/**
+	 * @return the summary of the most frequent words.
+	 */
+	public HeavyHitters getHeavyHitters() {
+		return heavyHitters;
+	}
+}
@@ -0,0 +1,108 @@
+package com.jjdevine.challenge.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.jjdevine.challenge.analysis.Combiner;
+import com.jjdevine.challenge.analysis.Emitter;
+import com.jjdevine.challenge.analysis.Mapper;
+import com.jjdevine.challenge.analysis.ValueCodec;
+
+/**
+ * Runs the mapper of an analysis over the words of a text processing job, combining the values emitted for each key 
+ * as they arrive so that the job holds, and stores, a single value per distinct key.
+ * @author Jonathan
+ *
+ * @param <V> the type of the intermediate values.
+ */
+public class AnalysisSink<V> implements WordSink, Emitter<V> {
+
+	/**
+	 * The map function.
+	 */
+	private final Mapper<V> mapper;
+	
+	/**
+	 * The combine function.
+	 */
+	private final Combiner<V> combiner;
+	
+	/**
+	 * Combined value of each key emitted.
+	 */
+	private final Map<String, V> values = new HashMap<>();
+	
+	/**
+	 * Public constructor.
+	 * @param mapper the map function.
+	 * @param combiner the combine function.
+	 */
+	public AnalysisSink(Mapper<V> mapper, Combiner<V> combiner) {
+		this.mapper = mapper;
+		this.combiner = combiner;
+	}
+	
+	@Override
+	public void addWord(String word) {
+		mapper.map(word, this);
+	}
+	
+	@Override
+	public void endLine() {
+		mapper.endLine(this);
+	}
+	
+	@Override
+	public void emit(String key, V value) {
+		values.merge(key, value, combiner::combine);
+	}
+	
+	/**
+	 * @return the number of distinct keys emitted.
+	 */
+	public int size() {
+		return values.size();
+	}
+	
+	/**
+	 * Return the combined values in key order, each encoded with a codec as the iterator reaches it.
+	 * @param codec the codec.
+	 * @return Iterator of keys and their encoded values, sorted by key.
+	 */
+	public Iterator<Map.Entry<String, byte[]>> encodedIterator(ValueCodec<V> codec) {
+		List<String> keys = new ArrayList<>(values.keySet());
+		Collections.sort(keys);
+		Iterator<String> keyIterator = keys.iterator();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		return new Iterator<Map.Entry<String, byte[]>>() {
+			
+			@Override
+			public boolean hasNext() {
+				return keyIterator.hasNext();
+			}
+			
+			@Override
+			public Map.Entry<String, byte[]> next() {
+				String key = keyIterator.next();
+				bytes.reset();
+				try {
+					codec.encode(values.get(key), out);
+					out.flush();
+				} catch (IOException e) {
+					throw new RuntimeException("Unable to encode the value of <" + key + ">", e);
+				}
+				return new AbstractMap.SimpleImmutableEntry<>(key, bytes.toByteArray());
+			}
+		};
+	}
+}
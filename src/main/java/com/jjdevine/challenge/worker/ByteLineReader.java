@@ -0,0 +1,257 @@
+package com.jjdevine.challenge.worker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads lines of a file as raw bytes, without decoding them to characters.
+ * Line terminators follow the same rules as BufferedReader ('\n', '\r' or "\r\n") so that line numbers agree
+ * with those used by the rest of the application.
+ * @author Jonathan
+ *
+ */
+public class ByteLineReader implements Closeable {
+
+	/**
+	 * Size of the read buffer.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Channel to the underlying file.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Buffer of bytes read from the channel but not yet consumed.
+	 */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Position of the next unconsumed byte in the buffer.
+	 */
+	private int bufferPosition = 0;
+
+	/**
+	 * Number of valid bytes in the buffer.
+	 */
+	private int bufferLimit = 0;
+
+	/**
+	 * File offset of the first byte in the buffer.
+	 */
+	private long bufferFileOffset = 0;
+
+	/**
+	 * Holds the bytes of the most recently read line (without terminator).
+	 */
+	private byte[] line = new byte[1024];
+
+	/**
+	 * Public constructor.
+	 * @param path The file to read.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public ByteLineReader(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+	}
+
+	/**
+	 * Read the next line into the line buffer (see getLine()).
+	 * @return the length of the line in bytes, or -1 if the end of the file has been reached.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public int readLine() throws IOException {
+		int length = 0;
+		boolean readAnything = false;
+
+		while(true) {
+			if(bufferPosition == bufferLimit && !fill()) {
+				return readAnything ? length : -1;
+			}
+			readAnything = true;
+
+			int start = bufferPosition;
+			while(bufferPosition < bufferLimit) {
+				byte b = buffer[bufferPosition];
+				if(b == '\n' || b == '\r') {
+					length = appendToLine(length, start, bufferPosition);
+					bufferPosition++;
+					if(b == '\r') {
+						skipLineFeed();
+					}
+					return length;
+				}
+				bufferPosition++;
+			}
+			length = appendToLine(length, start, bufferPosition);
+		}
+	}
+
+	/**
+	 * Skip over the next line without copying it.
+	 * @return true if a line was skipped, false if the end of the file has been reached.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public boolean skipLine() throws IOException {
+		boolean readAnything = false;
+
+		while(true) {
+			if(bufferPosition == bufferLimit && !fill()) {
+				return readAnything;
+			}
+			readAnything = true;
+
+			while(bufferPosition < bufferLimit) {
+				byte b = buffer[bufferPosition++];
+				if(b == '\n') {
+					return true;
+				} else if(b == '\r') {
+					skipLineFeed();
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the buffer holding the most recently read line; only the first n bytes are valid, where n is the value
+	 * returned by readLine().
+	 */
+	public byte[] getLine() {
+		return line;
+	}
+
+	/**
+	 * @return the file offset of the next byte to be consumed.
+	 */
+	public long getPosition() {
+		return bufferFileOffset + bufferPosition;
+	}
+
+	/**
+	 * Move the reader to a file offset, discarding anything buffered.
+	 * @param position the file offset of the next byte to be consumed.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public void seek(long position) throws IOException {
+		channel.position(position);
+		bufferFileOffset = position;
+		bufferPosition = 0;
+		bufferLimit = 0;
+	}
+
+	/**
+	 * Move the reader to the start of the first line that begins at or after a file offset. If the offset falls part
+	 * way through a line (or between the '\r' and '\n' of a terminator), the rest of that line is skipped.
+	 * @param position the file offset.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public void seekToLineStart(long position) throws IOException {
+		if(position == 0) {
+			seek(0);
+			return;
+		}
+		
+		//a line begins at position only if the byte before it ends a line
+		seek(position - 1);
+		if(!fill()) {
+			return;
+		}
+		byte previous = buffer[bufferPosition++];
+		if(previous == '\r') {
+			skipLineFeed();
+		} else if(previous != '\n') {
+			skipLine();
+		}
+	}
+	
+	/**
+	 * Find the end of the last complete line of the file - that is, the offset just after its last line terminator.
+	 * Anything after this offset is a line still being written. Does not move the reader.
+	 * @return the offset, or 0 if the file has no line terminators.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public long findEndOfLastCompleteLine() throws IOException {
+		ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long end = channel.size();
+		
+		while(end > 0) {
+			long start = Math.max(0, end - BUFFER_SIZE);
+			byteBuffer.clear();
+			byteBuffer.limit((int)(end - start));
+			while(byteBuffer.hasRemaining()) {
+				if(channel.read(byteBuffer, start + byteBuffer.position()) < 0) {
+					break;
+				}
+			}
+			
+			for(int index = byteBuffer.position() - 1; index >= 0; index--) {
+				byte b = byteBuffer.get(index);
+				if(b == '\n' || b == '\r') {
+					return start + index + 1;
+				}
+			}
+			end = start;
+		}
+		return 0;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Consume a '\n' directly following a '\r', so that "\r\n" counts as a single terminator.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private void skipLineFeed() throws IOException {
+		if((bufferPosition < bufferLimit || fill()) && buffer[bufferPosition] == '\n') {
+			bufferPosition++;
+		}
+	}
+
+	/**
+	 * Append a section of the read buffer to the line buffer, growing it if necessary.
+	 * @param length current length of the line.
+	 * @param from start of the section (inclusive).
+	 * @param to end of the section (exclusive).
+	 * @return the new length of the line.
+	 */
+	private int appendToLine(int length, int from, int to) {
+		int count = to - from;
+		if(length + count > line.length) {
+			line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+		}
+		System.arraycopy(buffer, from, line, length, count);
+		return length + count;
+	}
+
+	/**
+	 * Refill the read buffer from the channel.
+	 * @return true if any bytes were read, false at the end of the file.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private boolean fill() throws IOException {
+		bufferFileOffset += bufferLimit;
+		bufferPosition = 0;
+		bufferLimit = 0;
+
+		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+		int read = 0;
+		while(read == 0) {
+			read = channel.read(byteBuffer);
+		}
+		if(read < 0) {
+			return false;
+		}
+		bufferLimit = read;
+		return true;
+	}
+}
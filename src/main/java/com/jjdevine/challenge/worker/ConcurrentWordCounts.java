@@ -0,0 +1,310 @@
+package com.jjdevine.challenge.worker;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Table of word counts that several threads can count into at once. Words are spread over stripes, each an open
+ * addressing table in which a new word claims a slot by compare-and-set and counts are added atomically, so threads
+ * only block one another while a stripe is being resized. Each counting thread should use its own Counter, which
+ * keeps a small cache of recently seen words and their counts - the most frequent words ("the", "a", "and") are then
+ * counted locally and reach the shared table only when evicted or flushed.
+ * @author Jonathan
+ *
+ */
+public class ConcurrentWordCounts {
+
+	/**
+	 * Number of bits of a word's hash used to choose its stripe.
+	 */
+	private static final int STRIPE_BITS = 6;
+
+	/**
+	 * Number of stripes.
+	 */
+	private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+
+	/**
+	 * Initial number of slots in each stripe (a power of two).
+	 */
+	private static final int INITIAL_STRIPE_CAPACITY = 1024;
+
+	/**
+	 * Number of bits of a word's hash used to choose its slot in a Counter's cache.
+	 */
+	private static final int COUNTER_CACHE_BITS = 10;
+
+	/**
+	 * Number of words cached by each Counter.
+	 */
+	private static final int COUNTER_CACHE_SIZE = 1 << COUNTER_CACHE_BITS;
+
+	/**
+	 * The stripes.
+	 */
+	private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+	/**
+	 * Public constructor.
+	 */
+	public ConcurrentWordCounts() {
+		for(int index = 0; index < STRIPE_COUNT; index++) {
+			stripes[index] = new Stripe();
+		}
+	}
+
+	/**
+	 * Add to the count of a word. May be called by several threads at once.
+	 * @param word the word.
+	 * @param count the number of occurrences to add.
+	 */
+	public void add(String word, long count) {
+		add(word, hash(word), count);
+	}
+
+	/**
+	 * Create a counter for a single thread to count words with.
+	 * @return the counter.
+	 */
+	public Counter newCounter() {
+		return new Counter();
+	}
+
+	/**
+	 * Return the counts in word order. All counters must have been flushed, and no thread may still be counting.
+	 * @return Iterator of words and their counts, sorted by word.
+	 */
+	public Iterator<Map.Entry<String, Long>> sortedIterator() {
+		List<Map.Entry<String, Long>> entries = new ArrayList<>();
+		for(Stripe stripe: stripes) {
+			Table table = stripe.table;
+			for(int slot = 0; slot < table.keys.length(); slot++) {
+				String word = table.keys.get(slot);
+				if(word != null) {
+					entries.add(new AbstractMap.SimpleImmutableEntry<>(word, table.counts.get(slot)));
+				}
+			}
+		}
+		entries.sort(Map.Entry.comparingByKey());
+		return entries.iterator();
+	}
+
+	/**
+	 * Add to the count of a word whose hash is already known.
+	 * @param word the word.
+	 * @param hash the hash of the word (see hash()).
+	 * @param count the number of occurrences to add.
+	 */
+	private void add(String word, int hash, long count) {
+		stripes[hash & (STRIPE_COUNT - 1)].add(word, hash >>> STRIPE_BITS, count);
+	}
+
+	/**
+	 * Hash a word, mixing the bits of its hash code so that both the low bits (which choose the stripe) and the
+	 * higher bits (which choose the slot) are well distributed.
+	 * @param word the word.
+	 * @return the hash.
+	 */
+	private static int hash(String word) {
+		int hash = word.hashCode() * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * The slots of a stripe. Replaced as a whole when the stripe is resized.
+	 */
+	private static class Table {
+
+		/**
+		 * Word held in each slot, or null if the slot is unused.
+		 */
+		private final AtomicReferenceArray<String> keys;
+
+		/**
+		 * Count held in each slot.
+		 */
+		private final AtomicLongArray counts;
+
+		/**
+		 * Number of words at which the table is resized (half its capacity).
+		 */
+		private final int threshold;
+
+		/**
+		 * Constructor.
+		 * @param capacity number of slots (a power of two).
+		 */
+		Table(int capacity) {
+			keys = new AtomicReferenceArray<>(capacity);
+			counts = new AtomicLongArray(capacity);
+			threshold = capacity / 2;
+		}
+	}
+
+	/**
+	 * One stripe of the table. Counting threads share its read lock, and only a resize takes the write lock.
+	 */
+	private static class Stripe {
+
+		/**
+		 * Guards replacement of the table.
+		 */
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		/**
+		 * Number of words held.
+		 */
+		private final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * The slots.
+		 */
+		private volatile Table table = new Table(INITIAL_STRIPE_CAPACITY);
+
+		/**
+		 * Add to the count of a word.
+		 * @param word the word.
+		 * @param hash the bits of the word's hash not used to choose the stripe.
+		 * @param count the number of occurrences to add.
+		 */
+		void add(String word, int hash, long count) {
+			while(true) {
+				Table current;
+				lock.readLock().lock();
+				try {
+					current = table;
+					if(addTo(current, word, hash, count)) {
+						return;
+					}
+				} finally {
+					lock.readLock().unlock();
+				}
+				//the table is too full to take a new word
+				resize(current);
+			}
+		}
+
+		/**
+		 * Add to the count of a word in a table, claiming a slot for it if it is new.
+		 * @param table the table.
+		 * @param word the word.
+		 * @param hash the bits of the word's hash not used to choose the stripe.
+		 * @param count the number of occurrences to add.
+		 * @return false if the word is new and the table is too full to take it.
+		 */
+		private boolean addTo(Table table, String word, int hash, long count) {
+			int mask = table.keys.length() - 1;
+			int slot = hash & mask;
+			while(true) {
+				String key = table.keys.get(slot);
+				if(key == null) {
+					if(size.get() >= table.threshold) {
+						return false;
+					}
+					if(table.keys.compareAndSet(slot, null, word)) {
+						size.incrementAndGet();
+						table.counts.addAndGet(slot, count);
+						return true;
+					}
+					//another thread claimed the slot first - it may have claimed it for the same word
+					key = table.keys.get(slot);
+				}
+				if(key.equals(word)) {
+					table.counts.addAndGet(slot, count);
+					return true;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		/**
+		 * Double the capacity of the stripe, unless another thread has already done so.
+		 * @param full the table found to be full.
+		 */
+		private void resize(Table full) {
+			lock.writeLock().lock();
+			try {
+				if(table != full) {
+					return;
+				}
+				Table resized = new Table(full.keys.length() * 2);
+				int mask = resized.keys.length() - 1;
+				for(int index = 0; index < full.keys.length(); index++) {
+					String word = full.keys.get(index);
+					if(word == null) {
+						continue;
+					}
+					int slot = (hash(word) >>> STRIPE_BITS) & mask;
+					while(resized.keys.get(slot) != null) {
+						slot = (slot + 1) & mask;
+					}
+					resized.keys.set(slot, word);
+					resized.counts.set(slot, full.counts.get(index));
+				}
+				table = resized;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Counts words for a single thread. Recently seen words are counted in a small direct mapped cache, and a word's
+	 * cached count is added to the shared table when another word takes its place or when the counter is flushed.
+	 */
+	public class Counter implements WordSink {
+
+		/**
+		 * Word cached in each slot, or null.
+		 */
+		private final String[] cachedWords = new String[COUNTER_CACHE_SIZE];
+
+		/**
+		 * Hash of the word cached in each slot.
+		 */
+		private final int[] cachedHashes = new int[COUNTER_CACHE_SIZE];
+
+		/**
+		 * Count of the word cached in each slot, not yet added to the shared table.
+		 */
+		private final long[] cachedCounts = new long[COUNTER_CACHE_SIZE];
+
+		@Override
+		public void addWord(String word) {
+			int hash = hash(word);
+			//use the top bits, which are independent of those choosing the stripe
+			int slot = hash >>> (32 - COUNTER_CACHE_BITS);
+			String cachedWord = cachedWords[slot];
+			if(cachedWord != null) {
+				if(cachedHashes[slot] == hash && cachedWord.equals(word)) {
+					cachedCounts[slot]++;
+					return;
+				}
+				add(cachedWord, cachedHashes[slot], cachedCounts[slot]);
+			}
+			cachedWords[slot] = word;
+			cachedHashes[slot] = hash;
+			cachedCounts[slot] = 1;
+		}
+
+		/**
+		 * Add all cached counts to the shared table. Must be called when the thread has finished counting.
+		 */
+		public void flush() {
+			for(int slot = 0; slot < COUNTER_CACHE_SIZE; slot++) {
+				if(cachedWords[slot] != null) {
+					add(cachedWords[slot], cachedHashes[slot], cachedCounts[slot]);
+					cachedWords[slot] = null;
+				}
+			}
+		}
+	}
+}
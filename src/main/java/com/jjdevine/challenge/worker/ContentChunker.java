@@ -0,0 +1,203 @@
+package com.jjdevine.challenge.worker;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Divides a run of lines into chunks for the chunk cache, hashing and buffering each chunk's lines as they are added
+ * so that the lines need only be read once. A chunk ends where a rolling hash over the most recent lines has its top
+ * bits clear, so chunk boundaries depend on the content around them rather than on their position: an edit changes
+ * the chunks it falls in, and the boundaries (and so the hashes) of the chunks either side of it are unchanged.
+ * Chunks are kept between a minimum and a maximum size in bytes.
+ * @author Jonathan
+ *
+ */
+public class ContentChunker {
+
+	/**
+	 * Algorithm used to hash the content of chunks.
+	 */
+	private static final String CHUNK_HASH_ALGORITHM = "SHA-256";
+
+	/**
+	 * Default size below which a chunk is not ended at a content-defined boundary.
+	 */
+	private static final int DEFAULT_MIN_CHUNK_BYTES = 64 * 1024;
+
+	/**
+	 * Default size at which a chunk is ended whatever its content.
+	 */
+	private static final int DEFAULT_MAX_CHUNK_BYTES = 8 * 1024 * 1024;
+
+	/**
+	 * Default number of top bits of the rolling hash that must be clear at a boundary - one line in 8192 on average.
+	 */
+	private static final int DEFAULT_BOUNDARY_BITS = 13;
+
+	/**
+	 * Terminator appended to each line in the buffer and the hash.
+	 */
+	private static final byte LINE_TERMINATOR = '\n';
+
+	/**
+	 * Size below which a chunk is not ended at a content-defined boundary.
+	 */
+	private final int minChunkBytes;
+
+	/**
+	 * Size at which a chunk is ended whatever its content.
+	 */
+	private final int maxChunkBytes;
+
+	/**
+	 * Number of top bits of the rolling hash that must be clear at a boundary.
+	 */
+	private final int boundaryBits;
+
+	/**
+	 * Hashed ahead of the lines of every chunk, for settings that affect the results counted from a chunk.
+	 */
+	private final byte[] seed;
+
+	/**
+	 * Hash of the lines of the current chunk.
+	 */
+	private final MessageDigest digest;
+
+	/**
+	 * The lines of the current chunk, each followed by LINE_TERMINATOR.
+	 */
+	private byte[] chunk = new byte[DEFAULT_MIN_CHUNK_BYTES];
+
+	/**
+	 * Number of bytes of the current chunk.
+	 */
+	private int chunkLength = 0;
+
+	/**
+	 * Rolling hash of the recent lines. Each line shifts it left by one bit, so the top bits depend only on the last
+	 * 64 lines.
+	 */
+	private long rollingHash = 0;
+
+	/**
+	 * The hash of the current chunk once it has been calculated, otherwise null.
+	 */
+	private String chunkHash;
+
+	/**
+	 * Public constructor, using the default chunk sizes.
+	 * @param seed settings that affect the results counted from a chunk, hashed ahead of its lines.
+	 */
+	public ContentChunker(String seed) {
+		this(seed, DEFAULT_MIN_CHUNK_BYTES, DEFAULT_MAX_CHUNK_BYTES, DEFAULT_BOUNDARY_BITS);
+	}
+
+	/**
+	 * Constructor.
+	 * @param seed settings that affect the results counted from a chunk, hashed ahead of its lines.
+	 * @param minChunkBytes size below which a chunk is not ended at a content-defined boundary.
+	 * @param maxChunkBytes size at which a chunk is ended whatever its content.
+	 * @param boundaryBits number of top bits of the rolling hash that must be clear at a boundary.
+	 */
+	ContentChunker(String seed, int minChunkBytes, int maxChunkBytes, int boundaryBits) {
+		this.seed = seed.getBytes(StandardCharsets.UTF_8);
+		this.minChunkBytes = minChunkBytes;
+		this.maxChunkBytes = maxChunkBytes;
+		this.boundaryBits = boundaryBits;
+		try {
+			digest = MessageDigest.getInstance(CHUNK_HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Unable to create chunk hash", e);
+		}
+		digest.update(this.seed);
+	}
+
+	/**
+	 * Add a line to the current chunk.
+	 * @param line buffer holding the line, without its terminator.
+	 * @param length number of valid bytes in the buffer.
+	 * @return true if the line ends the chunk, in which case the chunk should be read and then reset() called.
+	 */
+	public boolean addLine(byte[] line, int length) {
+		if(chunkLength + length + 1 > chunk.length) {
+			chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, chunkLength + length + 1));
+		}
+		System.arraycopy(line, 0, chunk, chunkLength, length);
+		chunkLength += length;
+		chunk[chunkLength++] = LINE_TERMINATOR;
+		digest.update(line, 0, length);
+		digest.update(LINE_TERMINATOR);
+
+		rollingHash = (rollingHash << 1) + hashLine(line, length);
+		if(chunkLength >= maxChunkBytes) {
+			return true;
+		}
+		return chunkLength >= minChunkBytes && (rollingHash >>> (Long.SIZE - boundaryBits)) == 0;
+	}
+
+	/**
+	 * @return true if no lines have been added to the current chunk.
+	 */
+	public boolean isEmpty() {
+		return chunkLength == 0;
+	}
+
+	/**
+	 * @return buffer holding the lines of the current chunk, each followed by a '\n'.
+	 */
+	public byte[] getChunk() {
+		return chunk;
+	}
+
+	/**
+	 * @return number of valid bytes in the chunk buffer.
+	 */
+	public int getChunkLength() {
+		return chunkLength;
+	}
+
+	/**
+	 * @return the hash of the seed and the lines of the current chunk, as a hex string.
+	 */
+	public String getChunkHash() {
+		if(chunkHash == null) {
+			StringBuilder hash = new StringBuilder();
+			for(byte b: digest.digest()) {
+				hash.append(String.format("%02x", b));
+			}
+			chunkHash = hash.toString();
+		}
+		return chunkHash;
+	}
+
+	/**
+	 * Start a new chunk. The rolling hash carries on over the boundary, so that later boundaries still depend only on
+	 * the lines before them.
+	 */
+	public void reset() {
+		chunkLength = 0;
+		chunkHash = null;
+		digest.reset();
+		digest.update(seed);
+	}
+
+	/**
+	 * Hash the bytes of a line (FNV-1a, with the bits then mixed by the SplitMix64 finaliser so that the top bits
+	 * depend on every byte).
+	 * @param line buffer holding the line.
+	 * @param length number of valid bytes in the buffer.
+	 * @return the hash.
+	 */
+	private static long hashLine(byte[] line, int length) {
+		long hash = 0xcbf29ce484222325L;
+		for(int index = 0; index < length; index++) {
+			hash = (hash ^ (line[index] & 0xff)) * 0x100000001b3L;
+		}
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+}
@@ -0,0 +1,125 @@
+package com.jjdevine.challenge.worker;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table of word ids to counts, using primitive arrays to avoid boxing.
+ * @author Jonathan
+ *
+ */
+public class IdCountTable {
+
+	/**
+	 * Marker for an unused slot (ids are never negative).
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * Ids held in each slot.
+	 */
+	private int[] ids;
+
+	/**
+	 * Counts held in each slot.
+	 */
+	private long[] counts;
+
+	/**
+	 * Number of ids held.
+	 */
+	private int size = 0;
+
+	/**
+	 * Public constructor.
+	 */
+	public IdCountTable() {
+		ids = new int[1024];
+		counts = new long[1024];
+		Arrays.fill(ids, EMPTY);
+	}
+
+	/**
+	 * Add to the count of an id.
+	 * @param id the word id.
+	 * @param count the number of occurrences to add.
+	 */
+	public void add(int id, long count) {
+		int slot = findSlot(ids, id);
+		if(ids[slot] == EMPTY) {
+			ids[slot] = id;
+			if(++size > ids.length / 2) {
+				resize();
+				slot = findSlot(ids, id);
+			}
+		}
+		counts[slot] += count;
+	}
+
+	/**
+	 * @return the number of distinct ids held.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copy the ids held into an array.
+	 * @return the ids, in no particular order (but the same order as counts()).
+	 */
+	public int[] ids() {
+		int[] result = new int[size];
+		int index = 0;
+		for(int id: ids) {
+			if(id != EMPTY) {
+				result[index++] = id;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Copy the counts held into an array, in the same order as ids().
+	 * @return the counts.
+	 */
+	public long[] counts() {
+		long[] result = new long[size];
+		int index = 0;
+		for(int slot = 0; slot < ids.length; slot++) {
+			if(ids[slot] != EMPTY) {
+				result[index++] = counts[slot];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Find the slot holding an id, or the empty slot where it should be inserted.
+	 */
+	private static int findSlot(int[] ids, int id) {
+		int mask = ids.length - 1;
+		int slot = (id * 0x9E3779B9) >>> 1 & mask;
+		while(ids[slot] != EMPTY && ids[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Double the capacity of the table.
+	 */
+	private void resize() {
+		int[] oldIds = ids;
+		long[] oldCounts = counts;
+		ids = new int[oldIds.length * 2];
+		counts = new long[oldCounts.length * 2];
+		Arrays.fill(ids, EMPTY);
+
+		for(int slot = 0; slot < oldIds.length; slot++) {
+			if(oldIds[slot] != EMPTY) {
+				int newSlot = findSlot(ids, oldIds[slot]);
+				ids[newSlot] = oldIds[slot];
+				counts[newSlot] = oldCounts[slot];
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.jjdevine.challenge.worker;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import com.jjdevine.challenge.index.InvertedIndexWriter;
+
+/**
+ * Cursor over the stored postings of one partition (index text processing job), word by word in word order, used to
+ * merge the partitions into the on-disk index. Only one result document of the partition is held at a time.
+ * @author Jonathan
+ *
+ */
+public class IndexPartitionCursor {
+
+	/**
+	 * Position of the partition in the file, partitions earlier in the file having lower numbers.
+	 */
+	private final int partitionNumber;
+	
+	/**
+	 * The partition's result documents, in order.
+	 */
+	private final Iterator<Document> resultDocs;
+	
+	/**
+	 * Words of the current result document.
+	 */
+	private List<String> words;
+	
+	/**
+	 * Encoded postings of the words of the current result document, one after another.
+	 */
+	private byte[] postings;
+	
+	/**
+	 * Index in words of the current word.
+	 */
+	private int wordIndex;
+	
+	/**
+	 * Position in postings of the current word's postings.
+	 */
+	private int postingsPosition;
+	
+	/**
+	 * Positions of a word in a line, as they are decoded.
+	 */
+	private int[] positions = new int[16];
+	
+	/**
+	 * Public constructor. The cursor starts at the partition's first word, if it has any.
+	 * @param partitionNumber position of the partition in the file.
+	 * @param resultDocs the partition's result documents, in order.
+	 */
+	public IndexPartitionCursor(int partitionNumber, Iterator<Document> resultDocs) {
+		this.partitionNumber = partitionNumber;
+		this.resultDocs = resultDocs;
+		nextDocument();
+	}
+	
+	/**
+	 * @return the position of the partition in the file.
+	 */
+	public int getPartitionNumber() {
+		return partitionNumber;
+	}
+	
+	/**
+	 * @return the current word, or null if the partition has no more words.
+	 */
+	public String getWord() {
+		return words == null ? null : words.get(wordIndex);
+	}
+	
+	/**
+	 * Add the postings of the current word to the index being written, and move to the next word. As partitions 
+	 * cover successive byte ranges, the postings of a word are complete once those of every partition have been added 
+	 * in partition order.
+	 * @param writer the index, with the current word started.
+	 * @throws IOException if the index cannot be written.
+	 */
+	public void writePostings(InvertedIndexWriter writer) throws IOException {
+		long lineCount = readVarLong();
+		long lineOffset = 0;
+		for(long line = 0; line < lineCount; line++) {
+			lineOffset += readVarLong();
+			int frequency = (int)readVarLong();
+			if(frequency > positions.length) {
+				positions = Arrays.copyOf(positions, Math.max(positions.length * 2, frequency));
+			}
+			int position = 0;
+			for(int index = 0; index < frequency; index++) {
+				position += (int)readVarLong();
+				positions[index] = position;
+			}
+			writer.addLine(lineOffset, positions, frequency);
+		}
+		
+		if(++wordIndex == words.size()) {
+			nextDocument();
+		}
+	}
+	
+	/**
+	 * Move to the first word of the next result document that has any, or to the end of the partition.
+	 */
+	@SuppressWarnings("unchecked")
+	private void nextDocument() {
+		words = null;
+		while(words == null && resultDocs.hasNext()) {
+			Document resultDoc = resultDocs.next();
+			List<String> docWords = (List<String>)resultDoc.get("keys");
+			if(!docWords.isEmpty()) {
+				words = docWords;
+				postings = ((Binary)resultDoc.get("values")).getData();
+				wordIndex = 0;
+				postingsPosition = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Read a variable length integer from the current postings.
+	 * @return the value.
+	 */
+	private long readVarLong() {
+		long value = 0;
+		for(int shift = 0; ; shift += 7) {
+			byte b = postings[postingsPosition++];
+			value |= (long)(b & 0x7F) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+	}
+}
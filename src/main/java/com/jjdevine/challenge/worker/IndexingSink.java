@@ -0,0 +1,96 @@
+package com.jjdevine.challenge.worker;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.jjdevine.challenge.index.PostingsBuilder;
+
+/**
+ * Builds the postings of every word in the byte range of an index text processing job - for each word, the lines in
+ * which it occurs (by the byte offset at which each line begins) and its positions within them.
+ * @author Jonathan
+ *
+ */
+public class IndexingSink implements WordSink {
+
+	/**
+	 * Postings of each word.
+	 */
+	private final Map<String, PostingsBuilder> postings = new HashMap<>();
+	
+	/**
+	 * Postings of the words found in the current line.
+	 */
+	private final List<PostingsBuilder> lineWords = new ArrayList<>();
+	
+	/**
+	 * Byte offset at which the current line begins, or -1 if no line has been started.
+	 */
+	private long lineOffset = -1;
+	
+	/**
+	 * Position of the next word in the current line.
+	 */
+	private int position = 0;
+	
+	@Override
+	public void startLine(long lineOffset) {
+		this.lineOffset = lineOffset;
+		position = 0;
+	}
+	
+	@Override
+	public void addWord(String word) {
+		if(lineOffset < 0) {
+			throw new IllegalStateException("Words can only be indexed when the offset of each line is known");
+		}
+		PostingsBuilder wordPostings = postings.computeIfAbsent(word, key -> new PostingsBuilder());
+		if(wordPostings.addPosition(position++)) {
+			lineWords.add(wordPostings);
+		}
+	}
+	
+	@Override
+	public void endLine() {
+		for(PostingsBuilder wordPostings: lineWords) {
+			wordPostings.endLine(lineOffset);
+		}
+		lineWords.clear();
+	}
+	
+	/**
+	 * @return the number of distinct words found.
+	 */
+	public int size() {
+		return postings.size();
+	}
+	
+	/**
+	 * Return the postings in word order, each encoded as the iterator reaches it.
+	 * @return Iterator of words and their encoded postings, sorted by word.
+	 */
+	public Iterator<Map.Entry<String, byte[]>> sortedIterator() {
+		List<String> words = new ArrayList<>(postings.keySet());
+		Collections.sort(words);
+		Iterator<String> wordIterator = words.iterator();
+		
+		return new Iterator<Map.Entry<String, byte[]>>() {
+			
+			@Override
+			public boolean hasNext() {
+				return wordIterator.hasNext();
+			}
+			
+			@Override
+			public Map.Entry<String, byte[]> next() {
+				String word = wordIterator.next();
+				return new AbstractMap.SimpleImmutableEntry<>(word, postings.get(word).toByteArray());
+			}
+		};
+	}
+}
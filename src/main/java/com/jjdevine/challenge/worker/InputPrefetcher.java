@@ -0,0 +1,85 @@
+package com.jjdevine.challenge.worker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads the first bytes of queued jobs' input ranges in the background, so that they are already in the operating
+ * system's page cache when the worker reaches them and the worker does not stall on disk at the start of each job.
+ * @author Jonathan
+ *
+ */
+public class InputPrefetcher implements AutoCloseable {
+
+	/**
+	 * Number of bytes to prefetch from the start of each job.
+	 */
+	private static final int PREFETCH_BYTES = 8 * 1024 * 1024;
+
+	/**
+	 * Size of the buffer used for prefetching.
+	 */
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * The source file.
+	 */
+	private final Path source;
+
+	/**
+	 * Single background thread on which prefetches run, in the order they were requested.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Public constructor.
+	 * @param source the source file.
+	 * @param name name of the background thread.
+	 */
+	public InputPrefetcher(Path source, String name) {
+		this.source = source;
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Request that the start of an input range be prefetched. Failures are ignored - the worker will simply read the
+	 * data itself.
+	 * @param firstByte the byte offset at which the range begins.
+	 */
+	public void prefetch(long firstByte) {
+		executor.execute(() -> {
+			try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				long position = firstByte;
+				long end = firstByte + PREFETCH_BYTES;
+				while(position < end) {
+					buffer.clear();
+					int read = channel.read(buffer, position);
+					if(read < 0) {
+						break;
+					}
+					position += read;
+				}
+			} catch (IOException e) {
+				//ignore - prefetching is only an optimisation
+			}
+		});
+	}
+
+	/**
+	 * Stop the background thread.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
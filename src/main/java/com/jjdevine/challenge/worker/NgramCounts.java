@@ -0,0 +1,299 @@
+package com.jjdevine.challenge.worker;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the n-grams (runs of n consecutive words within a line) of a job. Each distinct word is interned once and
+ * given an id, and an n-gram is held as the ids of its words together with a rolling hash of the words' hashes, which
+ * is updated as each word enters and leaves the window rather than being recomputed. The n-gram keys ("of the") are
+ * only built as Strings when the sorted counts are read, so the key volume held while counting is a few ints per
+ * n-gram, not a String per n-gram.
+ * @author Jonathan
+ *
+ */
+public class NgramCounts implements WordSink {
+
+	/**
+	 * Base of the polynomial rolling hash.
+	 */
+	private static final long ROLLING_HASH_BASE = 0x100000001b3L;
+
+	/**
+	 * Initial number of slots in the hash table (a power of two).
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Separator between the words of an n-gram key.
+	 */
+	private static final char WORD_SEPARATOR = ' ';
+
+	/**
+	 * Number of words in each n-gram.
+	 */
+	private final int n;
+
+	/**
+	 * ROLLING_HASH_BASE to the power n - 1, the weight of the oldest word in the window.
+	 */
+	private final long oldestWordWeight;
+
+	/**
+	 * Id of each interned word.
+	 */
+	private final Map<String, Integer> wordIds = new HashMap<>();
+
+	/**
+	 * Interned words, indexed by id.
+	 */
+	private String[] words = new String[INITIAL_CAPACITY];
+
+	/**
+	 * Hash of each interned word, indexed by id.
+	 */
+	private long[] wordHashes = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Ids of the last n words of the current line, in a circular buffer.
+	 */
+	private final int[] window;
+
+	/**
+	 * Position in the window of the oldest word.
+	 */
+	private int windowStart = 0;
+
+	/**
+	 * Number of words in the window.
+	 */
+	private int windowSize = 0;
+
+	/**
+	 * Rolling hash of the words in the window.
+	 */
+	private long windowHash = 0;
+
+	/**
+	 * Hash table of entry numbers plus one (0 marks an unused slot).
+	 */
+	private int[] slots = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Rolling hash of each entry.
+	 */
+	private long[] hashes = new long[INITIAL_CAPACITY / 2];
+
+	/**
+	 * Word ids of each entry, n per entry.
+	 */
+	private int[] ngramWords;
+
+	/**
+	 * Count of each entry.
+	 */
+	private long[] counts = new long[INITIAL_CAPACITY / 2];
+
+	/**
+	 * Number of entries.
+	 */
+	private int size = 0;
+
+	/**
+	 * Public constructor.
+	 * @param n number of words in each n-gram.
+	 */
+	public NgramCounts(int n) {
+		this.n = n;
+		window = new int[n];
+		ngramWords = new int[INITIAL_CAPACITY / 2 * n];
+
+		long weight = 1;
+		for(int power = 1; power < n; power++) {
+			weight *= ROLLING_HASH_BASE;
+		}
+		oldestWordWeight = weight;
+	}
+
+	@Override
+	public void addWord(String word) {
+		enterWindow(word);
+		if(windowSize == n) {
+			addWindow(1);
+		}
+	}
+	
+	/**
+	 * Add to the count of an n-gram given by its key, such as one read back from counts stored earlier. It must not be
+	 * called part way through a line.
+	 * @param ngram the n-gram key (n words separated by single spaces).
+	 * @param count the number of occurrences to add.
+	 */
+	public void add(String ngram, long count) {
+		endLine();
+		int wordStart = 0;
+		for(int index = 0; index < n; index++) {
+			int wordEnd = index < n - 1 ? ngram.indexOf(WORD_SEPARATOR, wordStart) : ngram.length();
+			if(wordEnd < 0) {
+				throw new IllegalArgumentException("Not a " + n + "-gram: " + ngram);
+			}
+			enterWindow(ngram.substring(wordStart, wordEnd));
+			wordStart = wordEnd + 1;
+		}
+		addWindow(count);
+		endLine();
+	}
+	
+	/**
+	 * Move a word into the window, pushing out the oldest word if the window is full.
+	 * @param word the word.
+	 */
+	private void enterWindow(String word) {
+		int id = intern(word);
+		if(windowSize == n) {
+			//the oldest word leaves the window
+			windowHash -= wordHashes[window[windowStart]] * oldestWordWeight;
+			window[windowStart] = id;
+			windowStart = (windowStart + 1) % n;
+		} else {
+			window[(windowStart + windowSize) % n] = id;
+			windowSize++;
+		}
+		windowHash = windowHash * ROLLING_HASH_BASE + wordHashes[id];
+	}
+
+	/**
+	 * Empty the window, so that n-grams do not span lines.
+	 */
+	@Override
+	public void endLine() {
+		windowStart = 0;
+		windowSize = 0;
+		windowHash = 0;
+	}
+
+	/**
+	 * @return the number of distinct n-grams counted.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return the counts in key order, building the key of each n-gram from its words.
+	 * @return Iterator of n-gram keys (words separated by single spaces) and their counts, sorted by key.
+	 */
+	public Iterator<Map.Entry<String, Long>> sortedIterator() {
+		List<Map.Entry<String, Long>> entries = new ArrayList<>(size);
+		StringBuilder key = new StringBuilder();
+		for(int entry = 0; entry < size; entry++) {
+			key.setLength(0);
+			for(int index = 0; index < n; index++) {
+				if(index > 0) {
+					key.append(WORD_SEPARATOR);
+				}
+				key.append(words[ngramWords[entry * n + index]]);
+			}
+			entries.add(new AbstractMap.SimpleImmutableEntry<>(key.toString(), counts[entry]));
+		}
+		entries.sort(Map.Entry.comparingByKey());
+		return entries.iterator();
+	}
+
+	/**
+	 * Get the id of a word, interning it if it has not been seen before.
+	 * @param word the word.
+	 * @return the id.
+	 */
+	private int intern(String word) {
+		Integer id = wordIds.get(word);
+		if(id != null) {
+			return id;
+		}
+
+		int newId = wordIds.size();
+		if(newId == words.length) {
+			words = Arrays.copyOf(words, newId * 2);
+			wordHashes = Arrays.copyOf(wordHashes, newId * 2);
+		}
+		words[newId] = word;
+		wordHashes[newId] = mix(word.hashCode());
+		wordIds.put(word, newId);
+		return newId;
+	}
+
+	/**
+	 * Count the n-gram in the window.
+	 * @param count the number of occurrences to add.
+	 */
+	private void addWindow(long count) {
+		int mask = slots.length - 1;
+		int slot = (int)mix(windowHash) & mask;
+		while(slots[slot] != 0) {
+			int entry = slots[slot] - 1;
+			if(hashes[entry] == windowHash && windowMatches(entry)) {
+				counts[entry] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if(size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+			counts = Arrays.copyOf(counts, size * 2);
+			ngramWords = Arrays.copyOf(ngramWords, size * 2 * n);
+		}
+		int entry = size++;
+		hashes[entry] = windowHash;
+		counts[entry] = count;
+		for(int index = 0; index < n; index++) {
+			ngramWords[entry * n + index] = window[(windowStart + index) % n];
+		}
+		slots[slot] = entry + 1;
+
+		if(size > slots.length / 2) {
+			resize();
+		}
+	}
+
+	/**
+	 * @return true if the words of an entry are those in the window.
+	 */
+	private boolean windowMatches(int entry) {
+		for(int index = 0; index < n; index++) {
+			if(ngramWords[entry * n + index] != window[(windowStart + index) % n]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Double the number of slots in the hash table.
+	 */
+	private void resize() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for(int entry = 0; entry < size; entry++) {
+			int slot = (int)mix(hashes[entry]) & mask;
+			while(slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = entry + 1;
+		}
+	}
+
+	/**
+	 * Mix the bits of a 64 bit value (the SplitMix64 finaliser).
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+}
@@ -0,0 +1,335 @@
+package com.jjdevine.challenge.worker;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Table of word counts that keeps no objects per word on the heap. The UTF-8 bytes of each word are appended to slabs
+ * of direct memory taken from a SlabArena, and the table itself is a set of primitive arrays of hashes, slab
+ * locations, lengths and counts, which the garbage collector never has to trace. Closing the table hands all of its
+ * slabs back to the arena at once, so heap use stays flat however large the vocabulary of a job.
+ * @author Jonathan
+ *
+ */
+public class OffHeapWordCounts implements WordCounts {
+
+	/**
+	 * Initial number of slots in the hash table (a power of two).
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Arena from which slabs are taken.
+	 */
+	private final SlabArena arena;
+
+	/**
+	 * Slabs holding the bytes of the words, in the order they were taken.
+	 */
+	private List<ByteBuffer> slabs = new ArrayList<>();
+
+	/**
+	 * The slab to which new words are appended, or null if none has been taken.
+	 */
+	private ByteBuffer currentSlab;
+
+	/**
+	 * Hash table of entry numbers plus one (0 marks an unused slot).
+	 */
+	private int[] slots = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Hash of the word of each entry.
+	 */
+	private int[] hashes = new int[INITIAL_CAPACITY / 2];
+
+	/**
+	 * Location of the word of each entry - the index of its slab in the upper 32 bits and its offset within the slab
+	 * in the lower 32 bits.
+	 */
+	private long[] locations = new long[INITIAL_CAPACITY / 2];
+
+	/**
+	 * Length in bytes of the word of each entry.
+	 */
+	private int[] lengths = new int[INITIAL_CAPACITY / 2];
+
+	/**
+	 * Count of each entry.
+	 */
+	private long[] counts = new long[INITIAL_CAPACITY / 2];
+
+	/**
+	 * Number of entries.
+	 */
+	private int size = 0;
+
+	/**
+	 * Public constructor.
+	 * @param arena arena from which slabs are taken.
+	 */
+	public OffHeapWordCounts(SlabArena arena) {
+		this.arena = arena;
+	}
+
+	@Override
+	public void addWord(String word) {
+		add(word, 1);
+	}
+
+	@Override
+	public void addAsciiWord(byte[] word, int length) {
+		add(word, length, 1);
+	}
+
+	@Override
+	public void add(String word, long count) {
+		byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+		add(bytes, bytes.length, count);
+	}
+
+	@Override
+	public int getRunCount() {
+		return 0;
+	}
+
+	/**
+	 * Return the counts in word order. Words are only decoded to Strings as the iterator reaches them. The table must
+	 * not be closed until the iterator has been read.
+	 */
+	@Override
+	public Iterator<Map.Entry<String, Long>> sortedIterator() {
+		int[] order = new int[size];
+		for(int entry = 0; entry < size; entry++) {
+			order[entry] = entry;
+		}
+		sort(order);
+
+		return new Iterator<Map.Entry<String, Long>>() {
+
+			/**
+			 * Position in the sorted order of the next entry.
+			 */
+			private int position = 0;
+
+			/**
+			 * Scratch buffer into which words are copied to be decoded.
+			 */
+			private byte[] wordBuffer = new byte[64];
+
+			@Override
+			public boolean hasNext() {
+				return position < order.length;
+			}
+
+			@Override
+			public Map.Entry<String, Long> next() {
+				if(position >= order.length) {
+					throw new NoSuchElementException();
+				}
+				int entry = order[position++];
+				int length = lengths[entry];
+				if(length > wordBuffer.length) {
+					wordBuffer = new byte[Math.max(wordBuffer.length * 2, length)];
+				}
+				slabOf(entry).get(offsetOf(entry), wordBuffer, 0, length);
+				return new AbstractMap.SimpleImmutableEntry<>(new String(wordBuffer, 0, length, StandardCharsets.UTF_8),
+						counts[entry]);
+			}
+		};
+	}
+
+	/**
+	 * Hand all slabs back to the arena and release the table.
+	 */
+	@Override
+	public void close() {
+		for(ByteBuffer slab: slabs) {
+			arena.returnSlab(slab);
+		}
+		slabs.clear();
+		currentSlab = null;
+		slots = new int[INITIAL_CAPACITY];
+		hashes = new int[INITIAL_CAPACITY / 2];
+		locations = new long[INITIAL_CAPACITY / 2];
+		lengths = new int[INITIAL_CAPACITY / 2];
+		counts = new long[INITIAL_CAPACITY / 2];
+		size = 0;
+	}
+
+	/**
+	 * Add to the count of a word given as UTF-8 bytes.
+	 * @param word buffer holding the word.
+	 * @param length number of valid bytes in the buffer.
+	 * @param count the number of occurrences to add.
+	 */
+	private void add(byte[] word, int length, long count) {
+		int hash = hash(word, length);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while(slots[slot] != 0) {
+			int entry = slots[slot] - 1;
+			if(hashes[entry] == hash && lengths[entry] == length && matches(entry, word, length)) {
+				counts[entry] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if(size == hashes.length) {
+			int capacity = size * 2;
+			hashes = Arrays.copyOf(hashes, capacity);
+			locations = Arrays.copyOf(locations, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+		}
+		int entry = size++;
+		hashes[entry] = hash;
+		locations[entry] = store(word, length);
+		lengths[entry] = length;
+		counts[entry] = count;
+		slots[slot] = entry + 1;
+
+		if(size > slots.length / 2) {
+			resize();
+		}
+	}
+
+	/**
+	 * Append the bytes of a word to the current slab, taking a new slab if it is full.
+	 * @param word buffer holding the word.
+	 * @param length number of valid bytes in the buffer.
+	 * @return the location of the word.
+	 */
+	private long store(byte[] word, int length) {
+		if(currentSlab == null || currentSlab.remaining() < length) {
+			//a word too long for a slab gets a buffer of its own, which is not returned to the arena
+			currentSlab = length > SlabArena.SLAB_SIZE ? ByteBuffer.allocateDirect(length) : arena.takeSlab();
+			slabs.add(currentSlab);
+		}
+		int offset = currentSlab.position();
+		currentSlab.put(word, 0, length);
+		return ((long)(slabs.size() - 1) << 32) | offset;
+	}
+
+	/**
+	 * @return true if the word of an entry is equal to the given bytes (which must be of the same length).
+	 */
+	private boolean matches(int entry, byte[] word, int length) {
+		ByteBuffer slab = slabOf(entry);
+		int offset = offsetOf(entry);
+		for(int index = 0; index < length; index++) {
+			if(slab.get(offset + index) != word[index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the slab holding the word of an entry.
+	 */
+	private ByteBuffer slabOf(int entry) {
+		return slabs.get((int)(locations[entry] >>> 32));
+	}
+
+	/**
+	 * @return the offset within its slab of the word of an entry.
+	 */
+	private int offsetOf(int entry) {
+		return (int)locations[entry];
+	}
+
+	/**
+	 * Double the number of slots in the hash table.
+	 */
+	private void resize() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for(int entry = 0; entry < size; entry++) {
+			int slot = hashes[entry] & mask;
+			while(slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = entry + 1;
+		}
+	}
+
+	/**
+	 * Sort entry numbers by word, with a bottom up merge sort.
+	 * @param order the entry numbers to sort.
+	 */
+	private void sort(int[] order) {
+		int[] source = order;
+		int[] target = new int[order.length];
+		for(int width = 1; width < order.length; width *= 2) {
+			for(int from = 0; from < order.length; from += 2 * width) {
+				int middle = Math.min(from + width, order.length);
+				int to = Math.min(from + 2 * width, order.length);
+				int left = from;
+				int right = middle;
+				for(int index = from; index < to; index++) {
+					if(left < middle && (right >= to || compare(source[left], source[right]) <= 0)) {
+						target[index] = source[left++];
+					} else {
+						target[index] = source[right++];
+					}
+				}
+			}
+			int[] sorted = target;
+			target = source;
+			source = sorted;
+		}
+		if(source != order) {
+			System.arraycopy(source, 0, order, 0, order.length);
+		}
+	}
+
+	/**
+	 * Compare the words of two entries in the same order as String.compareTo(). UTF-8 byte order is code point order,
+	 * which differs from the UTF-16 order of Strings only in placing U+E000 to U+FFFF (lead bytes 0xEE and 0xEF) before
+	 * the supplementary code points (lead bytes 0xF0 to 0xF4), so those lead bytes are moved above the others.
+	 * @return negative, zero or positive as the first word is less than, equal to or greater than the second.
+	 */
+	private int compare(int first, int second) {
+		ByteBuffer firstSlab = slabOf(first);
+		ByteBuffer secondSlab = slabOf(second);
+		int firstOffset = offsetOf(first);
+		int secondOffset = offsetOf(second);
+		int length = Math.min(lengths[first], lengths[second]);
+		for(int index = 0; index < length; index++) {
+			int firstByte = firstSlab.get(firstOffset + index) & 0xFF;
+			int secondByte = secondSlab.get(secondOffset + index) & 0xFF;
+			if(firstByte != secondByte) {
+				if(firstByte >= 0xEE && secondByte >= 0xEE) {
+					firstByte = firstByte <= 0xEF ? firstByte + 0x10 : firstByte;
+					secondByte = secondByte <= 0xEF ? secondByte + 0x10 : secondByte;
+				}
+				return firstByte - secondByte;
+			}
+		}
+		return lengths[first] - lengths[second];
+	}
+
+	/**
+	 * Hash the bytes of a word.
+	 * @param word buffer holding the word.
+	 * @param length number of valid bytes in the buffer.
+	 * @return the hash.
+	 */
+	private static int hash(byte[] word, int length) {
+		int hash = 0;
+		for(int index = 0; index < length; index++) {
+			hash = 31 * hash + word[index];
+		}
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,131 @@
+package com.jjdevine.challenge.worker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bson.Document;
+
+import com.jjdevine.challenge.AppData;
+import com.jjdevine.challenge.Logger;
+import com.jjdevine.challenge.dao.ChallengeDAO;
+
+/**
+ * Worker shared between all registered runs. It repeatedly asks the run registry which run to serve next, joins that
+ * run as an ordinary worker, and leaves once another run would be chosen ahead of it - so a run that starts while 
+ * others are in progress receives its share of workers as soon as they finish their current jobs, while a worker 
+ * keeps serving (and stays registered with) a run that remains its best choice.
+ * @author Jonathan
+ *
+ */
+public class PoolWorker {
+	
+	/**
+	 * Time to wait to be given a job while serving a run, before leaving to look for another run.
+	 */
+	private static final long MAX_WAIT_FOR_JOB_MILLIS = 10_000;
+	
+	/**
+	 * Time to wait before asking the registry again when no run has work waiting.
+	 */
+	private static final long IDLE_POLL_MILLIS = 1000;
+	
+	/**
+	 * Core application configuration data for this node.
+	 */
+	private AppData appData;
+	
+	/**
+	 * DAO for the run registry, from which DAOs for individual runs are obtained.
+	 */
+	private ChallengeDAO challengeDAO;
+	
+	/**
+	 * Executor on which CPU bound counting is run, or null to count on the worker's own thread.
+	 */
+	private ExecutorService countingExecutor;
+	
+	/**
+	 * Manager of the node's pool of workers, asked between jobs and runs whether this worker should retire, or null.
+	 */
+	private WorkerPoolManager poolManager;
+	
+	/**
+	 * Fork/join pool shared by the workers of the node for counting byte range jobs, or null.
+	 */
+	private ForkJoinPool parallelCountingPool;
+	
+	/**
+	 * Public constructor.
+	 * @param appData core application configuration data for this node.
+	 * @param challengeDAO DAO to access the persistent store.
+	 * @param countingExecutor Executor on which CPU bound counting is run, or null to count on the worker's own thread.
+	 */
+	public PoolWorker(AppData appData, ChallengeDAO challengeDAO, ExecutorService countingExecutor) {
+		this.appData = appData;
+		this.challengeDAO = challengeDAO;
+		this.countingExecutor = countingExecutor;
+	}
+	
+	/**
+	 * Have the worker retire when it is between jobs or runs and its pool has more workers than its manager is aiming
+	 * for.
+	 * @param poolManager the manager of the pool.
+	 */
+	public void retireWhenSurplus(WorkerPoolManager poolManager) {
+		this.poolManager = poolManager;
+	}
+	
+	/**
+	 * Count byte range jobs on a fork/join pool shared with the node's other workers (see 
+	 * WorkerProcess.shareParallelCountingPool()).
+	 * @param parallelCountingPool the pool.
+	 */
+	public void shareParallelCountingPool(ForkJoinPool parallelCountingPool) {
+		this.parallelCountingPool = parallelCountingPool;
+	}
+	
+	/**
+	 * Main processing method - serves runs until the thread is stopped, or until it retires from a shrinking pool.
+	 */
+	public void process() {
+		while(true) {
+			if(poolManager != null && poolManager.tryRetire()) {
+				Logger.log("Retiring as the worker pool is shrinking", "pool");
+				return;
+			}
+			
+			Document run = challengeDAO.joinRun();
+			if(run == null) {
+				try {
+					Thread.sleep(IDLE_POLL_MILLIS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException("Unable to sleep before repolling", e);
+				}
+				continue;
+			}
+			
+			String namespace = run.getString("_id");
+			Logger.log("Joining run <" + namespace + ">", "pool");
+			try {
+				AppData runAppData = WorkerProcess.createRunAppData(appData, (Document)run.get("configuration"));
+				runAppData.setNamespace(namespace);
+				//pooled workers take one job at a time from the controller, so do not claim jobs ahead
+				runAppData.setPrefetchDepth(0);
+				WorkerProcess worker = new WorkerProcess(runAppData, challengeDAO.forNamespace(namespace), countingExecutor);
+				worker.configuredForRun();
+				worker.leaveWhen(() -> challengeDAO.shouldLeaveRun(namespace), MAX_WAIT_FOR_JOB_MILLIS);
+				worker.shareParallelCountingPool(parallelCountingPool);
+				if(poolManager != null) {
+					//the worker may serve the run for many jobs, so check between them whether the pool is shrinking
+					worker.retireWhenSurplus(poolManager);
+				}
+				worker.process();
+				if(worker.hasRetired()) {
+					return;
+				}
+			} finally {
+				challengeDAO.leaveRun(namespace);
+			}
+		}
+	}
+}
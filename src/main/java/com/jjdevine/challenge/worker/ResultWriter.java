@@ -0,0 +1,196 @@
+package com.jjdevine.challenge.worker;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind stage for job results. Writes are queued and performed in order on a dedicated I/O thread, so that a
+ * worker can begin its next job while the results of the previous one are stored. The queue is bounded; when it is
+ * full, submitting a write blocks until there is space, which stops a worker racing ahead of the persistent store.
+ * <p>
+ * If a write fails, its job and the jobs of all writes queued behind it are handed to a failed job handler (to be
+ * returned for processing again), no further writes are accepted, and the worker thread that created the stage is
+ * interrupted so that it stops straight away rather than at its next submit or close.
+ * @author Jonathan
+ *
+ */
+public class ResultWriter implements AutoCloseable {
+
+	/**
+	 * Marker used to stop the I/O thread.
+	 */
+	private static final PendingWrite STOP = new PendingWrite(null, () -> {});
+
+	/**
+	 * Queue of writes not yet started.
+	 */
+	private final BlockingQueue<PendingWrite> queue;
+
+	/**
+	 * The I/O thread.
+	 */
+	private final Thread thread;
+	
+	/**
+	 * The worker thread that created the stage, interrupted when a write fails.
+	 */
+	private final Thread workerThread;
+	
+	/**
+	 * Handler given the id of each job whose results were not stored because of a failed write.
+	 */
+	private final Consumer<String> failedJobHandler;
+
+	/**
+	 * The failure of a write, if any.
+	 */
+	private volatile RuntimeException failure;
+
+	/**
+	 * Public constructor, to be called on the worker thread whose results are written.
+	 * @param queueDepth maximum number of writes waiting to be performed.
+	 * @param name name of the I/O thread.
+	 * @param failedJobHandler handler given the id of each job whose results were not stored because of a failed 
+	 * write.
+	 */
+	public ResultWriter(int queueDepth, String name, Consumer<String> failedJobHandler) {
+		queue = new ArrayBlockingQueue<>(queueDepth);
+		workerThread = Thread.currentThread();
+		this.failedJobHandler = failedJobHandler;
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queue a write, blocking if the queue is full.
+	 * @param jobId the id of the job whose results are written.
+	 * @param write the write to perform. It should mark the job complete once the results are stored.
+	 */
+	public void submit(String jobId, Runnable write) {
+		checkFailure();
+		PendingWrite pendingWrite = new PendingWrite(jobId, write);
+		try {
+			queue.put(pendingWrite);
+		} catch (InterruptedException e) {
+			checkFailure();
+			throw new RuntimeException("Interrupted while queueing result write", e);
+		}
+		
+		if(failure != null && queue.remove(pendingWrite)) {
+			//a write failed while this one was being queued, after the queue was cleared
+			failJob(jobId);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Wait for all queued writes to complete, then stop the I/O thread.
+	 */
+	@Override
+	public void close() {
+		if(failure == null) {
+			try {
+				queue.put(STOP);
+				thread.join();
+			} catch (InterruptedException e) {
+				checkFailure();
+				throw new RuntimeException("Interrupted while waiting for result writes", e);
+			}
+		} else {
+			//the I/O thread has already stopped, and interrupted this thread to report the failure
+			Thread.interrupted();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Rethrow the failure of an earlier write, if there was one.
+	 */
+	public void checkFailure() {
+		if(failure != null) {
+			throw new RuntimeException("Unable to write job results", failure);
+		}
+	}
+	
+	/**
+	 * @return true if a write has failed.
+	 */
+	public boolean hasFailed() {
+		return failure != null;
+	}
+
+	/**
+	 * Main loop of the I/O thread.
+	 */
+	private void run() {
+		while(true) {
+			PendingWrite pendingWrite;
+			try {
+				pendingWrite = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(pendingWrite == STOP) {
+				return;
+			}
+
+			try {
+				pendingWrite.write.run();
+			} catch (RuntimeException e) {
+				failure = e;
+				failJob(pendingWrite.jobId);
+				//the results queued behind the failed write are not stored either
+				PendingWrite queuedWrite;
+				while((queuedWrite = queue.poll()) != null) {
+					if(queuedWrite != STOP) {
+						failJob(queuedWrite.jobId);
+					}
+				}
+				workerThread.interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Hand a job whose results were not stored to the failed job handler.
+	 * @param jobId the id of the job.
+	 */
+	private void failJob(String jobId) {
+		try {
+			failedJobHandler.accept(jobId);
+		} catch (RuntimeException e) {
+			failure.addSuppressed(e);
+		}
+	}
+	
+	/**
+	 * A queued write and the job it stores the results of.
+	 * @author Jonathan
+	 *
+	 */
+	private static class PendingWrite {
+		
+		/**
+		 * The id of the job.
+		 */
+		private final String jobId;
+		
+		/**
+		 * The write to perform.
+		 */
+		private final Runnable write;
+		
+		/**
+		 * Constructor.
+		 * @param jobId the id of the job.
+		 * @param write the write to perform.
+		 */
+		private PendingWrite(String jobId, Runnable write) {
+			this.jobId = jobId;
+			this.write = write;
+		}
+	}
+}
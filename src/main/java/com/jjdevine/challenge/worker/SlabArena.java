@@ -0,0 +1,48 @@
+package com.jjdevine.challenge.worker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of fixed size slabs of direct (off-heap) memory in which word tables store the bytes of their words. Tables
+ * take slabs as they grow and hand them all back when they are closed, so the same memory is reused from job to job
+ * instead of being left for the garbage collector.
+ * @author Jonathan
+ *
+ */
+public class SlabArena {
+
+	/**
+	 * Size of each slab in bytes.
+	 */
+	public static final int SLAB_SIZE = 1024 * 1024;
+
+	/**
+	 * Slabs returned by tables and available for reuse.
+	 */
+	private final Deque<ByteBuffer> freeSlabs = new ArrayDeque<>();
+
+	/**
+	 * Take a slab, reusing a returned one if there is one.
+	 * @return an empty slab of SLAB_SIZE bytes.
+	 */
+	public synchronized ByteBuffer takeSlab() {
+		ByteBuffer slab = freeSlabs.poll();
+		if(slab == null) {
+			return ByteBuffer.allocateDirect(SLAB_SIZE);
+		}
+		slab.clear();
+		return slab;
+	}
+
+	/**
+	 * Return a slab for reuse. Slabs of any other size than SLAB_SIZE are discarded.
+	 * @param slab the slab, which the caller must no longer use.
+	 */
+	public synchronized void returnSlab(ByteBuffer slab) {
+		if(slab.capacity() == SLAB_SIZE) {
+			freeSlabs.push(slab);
+		}
+	}
+}
@@ -0,0 +1,385 @@
+package com.jjdevine.challenge.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Table of word counts with a memory budget. When the estimated size of the table exceeds the budget, its contents
+ * are sorted and spilled to a run file on local disk and the table is emptied. The runs are merged when the sorted
+ * counts are read back, so memory use is bounded regardless of the size of the vocabulary.
+ * @author Jonathan
+ *
+ */
+public class SpillingWordCounts implements WordCounts {
+
+	/**
+	 * Estimated heap used by each entry in addition to the characters of the word (String, Long, HashMap node and
+	 * table slot).
+	 */
+	private static final long ENTRY_OVERHEAD_BYTES = 96;
+
+	/**
+	 * Maximum number of run files merged at once - if there are more, they are first merged into larger runs.
+	 */
+	private static final int MAX_MERGE_FAN_IN = 64;
+
+	/**
+	 * Memory budget in bytes.
+	 */
+	private final long memoryBudget;
+
+	/**
+	 * Directory in which run files are created.
+	 */
+	private final Path spillDirectory;
+
+	/**
+	 * Counts held in memory.
+	 */
+	private Map<String, Long> wordCounts = new HashMap<>();
+
+	/**
+	 * Estimated heap used by the counts held in memory.
+	 */
+	private long estimatedBytes = 0;
+
+	/**
+	 * Run files spilled so far.
+	 */
+	private List<Path> runFiles = new ArrayList<>();
+
+	/**
+	 * Readers over the run files, open while the sorted counts are being read.
+	 */
+	private List<RunReader> runReaders = new ArrayList<>();
+
+	/**
+	 * Public constructor.
+	 * @param memoryBudget memory budget in bytes.
+	 * @param spillDirectory directory in which run files are created.
+	 */
+	public SpillingWordCounts(long memoryBudget, Path spillDirectory) {
+		this.memoryBudget = memoryBudget;
+		this.spillDirectory = spillDirectory;
+	}
+
+	@Override
+	public void addWord(String word) {
+		add(word, 1);
+	}
+
+	/**
+	 * Add to the count of a word.
+	 * @param word the word.
+	 * @param count the number of occurrences to add.
+	 */
+	public void add(String word, long count) {
+		Long existingCount = wordCounts.get(word);
+		if(existingCount != null) {
+			wordCounts.put(word, existingCount + count);
+			return;
+		}
+
+		wordCounts.put(word, count);
+		estimatedBytes += ENTRY_OVERHEAD_BYTES + 2L * word.length();
+		if(estimatedBytes > memoryBudget) {
+			spill();
+		}
+	}
+
+	/**
+	 * @return the number of runs spilled to disk.
+	 */
+	public int getRunCount() {
+		return runFiles.size();
+	}
+
+	/**
+	 * Return the counts in word order, merging any spilled runs. May only be called once.
+	 * @return Iterator of words and their total counts, sorted by word.
+	 */
+	public Iterator<Map.Entry<String, Long>> sortedIterator() {
+		List<Iterator<Map.Entry<String, Long>>> sources = new ArrayList<>();
+		sources.add(sortedEntries(wordCounts).iterator());
+		wordCounts = new HashMap<>();
+
+		try {
+			while(runFiles.size() > MAX_MERGE_FAN_IN) {
+				mergeRuns();
+			}
+			for(Path runFile: runFiles) {
+				RunReader runReader = new RunReader(runFile);
+				runReaders.add(runReader);
+				sources.add(runReader);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to open run file", e);
+		}
+
+		if(sources.size() == 1) {
+			return sources.get(0);
+		}
+		return new MergingIterator(sources);
+	}
+
+	/**
+	 * Delete any run files.
+	 */
+	@Override
+	public void close() throws IOException {
+		for(RunReader runReader: runReaders) {
+			runReader.close();
+		}
+		for(Path runFile: runFiles) {
+			Files.deleteIfExists(runFile);
+		}
+		runReaders.clear();
+		runFiles.clear();
+	}
+
+	/**
+	 * Sort the counts held in memory and write them to a new run file.
+	 */
+	private void spill() {
+		try {
+			runFiles.add(writeRun(sortedEntries(wordCounts).iterator()));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to spill word counts to disk", e);
+		}
+
+		wordCounts = new HashMap<>();
+		estimatedBytes = 0;
+	}
+
+	/**
+	 * Merge the oldest MAX_MERGE_FAN_IN run files into a single new run file.
+	 * @throws IOException if the runs cannot be read or written.
+	 */
+	private void mergeRuns() throws IOException {
+		List<Path> mergedRunFiles = new ArrayList<>(runFiles.subList(0, MAX_MERGE_FAN_IN));
+		List<RunReader> mergedRunReaders = new ArrayList<>();
+		try {
+			List<Iterator<Map.Entry<String, Long>>> sources = new ArrayList<>();
+			for(Path runFile: mergedRunFiles) {
+				RunReader runReader = new RunReader(runFile);
+				mergedRunReaders.add(runReader);
+				sources.add(runReader);
+			}
+			runFiles.add(writeRun(new MergingIterator(sources)));
+		} finally {
+			for(RunReader runReader: mergedRunReaders) {
+				runReader.close();
+			}
+		}
+
+		for(Path runFile: mergedRunFiles) {
+			Files.delete(runFile);
+		}
+		runFiles.subList(0, MAX_MERGE_FAN_IN).clear();
+	}
+
+	/**
+	 * Write sorted word counts to a new run file.
+	 * @param sortedEntries the word counts, sorted by word.
+	 * @return the run file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private Path writeRun(Iterator<Map.Entry<String, Long>> sortedEntries) throws IOException {
+		Path runFile = Files.createTempFile(spillDirectory, "word-counts-", ".run");
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), 64 * 1024))) {
+			while(sortedEntries.hasNext()) {
+				Map.Entry<String, Long> entry = sortedEntries.next();
+				byte[] word = entry.getKey().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(word.length);
+				out.write(word);
+				out.writeLong(entry.getValue());
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(runFile);
+			throw e;
+		}
+		return runFile;
+	}
+
+	/**
+	 * Sort the entries of a map of word counts by word.
+	 * @param wordCounts the map.
+	 * @return the sorted entries.
+	 */
+	private static List<Map.Entry<String, Long>> sortedEntries(Map<String, Long> wordCounts) {
+		List<Map.Entry<String, Long>> entries = new ArrayList<>(wordCounts.entrySet());
+		entries.sort(Map.Entry.comparingByKey());
+		return entries;
+	}
+
+	/**
+	 * Reads the sorted entries of a run file.
+	 */
+	private static class RunReader implements Iterator<Map.Entry<String, Long>>, Closeable {
+
+		/**
+		 * Stream over the run file.
+		 */
+		private final DataInputStream in;
+
+		/**
+		 * The next entry, or null at the end of the run.
+		 */
+		private Map.Entry<String, Long> next;
+
+		/**
+		 * Constructor.
+		 * @param runFile the run file to read.
+		 * @throws IOException if the file cannot be opened.
+		 */
+		RunReader(Path runFile) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), 64 * 1024));
+			advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, Long> next() {
+			if(next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<String, Long> result = next;
+			try {
+				advance();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to read run file", e);
+			}
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/**
+		 * Read the next entry from the file.
+		 */
+		private void advance() throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				next = null;
+				return;
+			}
+			byte[] word = new byte[length];
+			in.readFully(word);
+			next = new AbstractMap.SimpleImmutableEntry<>(new String(word, StandardCharsets.UTF_8), in.readLong());
+		}
+	}
+
+	/**
+	 * Merges several sorted iterators of word counts, adding the counts of words that appear in more than one.
+	 */
+	private static class MergingIterator implements Iterator<Map.Entry<String, Long>> {
+
+		/**
+		 * Sources ordered by their next word.
+		 */
+		private final PriorityQueue<PeekingSource> queue = new PriorityQueue<>();
+
+		/**
+		 * Constructor.
+		 * @param sources the sorted sources to merge.
+		 */
+		MergingIterator(List<Iterator<Map.Entry<String, Long>>> sources) {
+			for(Iterator<Map.Entry<String, Long>> source: sources) {
+				if(source.hasNext()) {
+					queue.add(new PeekingSource(source));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public Map.Entry<String, Long> next() {
+			if(queue.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			String word = queue.peek().head.getKey();
+			long count = 0;
+			while(!queue.isEmpty() && queue.peek().head.getKey().equals(word)) {
+				PeekingSource source = queue.poll();
+				count += source.head.getValue();
+				if(source.advance()) {
+					queue.add(source);
+				}
+			}
+			return new AbstractMap.SimpleImmutableEntry<>(word, count);
+		}
+	}
+
+	/**
+	 * A source iterator together with its current entry.
+	 */
+	private static class PeekingSource implements Comparable<PeekingSource> {
+
+		/**
+		 * The source.
+		 */
+		private final Iterator<Map.Entry<String, Long>> source;
+
+		/**
+		 * The current entry of the source.
+		 */
+		private Map.Entry<String, Long> head;
+
+		/**
+		 * Constructor - the source must not be empty.
+		 * @param source the source.
+		 */
+		PeekingSource(Iterator<Map.Entry<String, Long>> source) {
+			this.source = source;
+			head = source.next();
+		}
+
+		/**
+		 * Move to the next entry of the source.
+		 * @return false if the source is exhausted.
+		 */
+		boolean advance() {
+			if(!source.hasNext()) {
+				return false;
+			}
+			head = source.next();
+			return true;
+		}
+
+		@Override
+		public int compareTo(PeekingSource other) {
+			return head.getKey().compareTo(other.head.getKey());
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package com.jjdevine.challenge.worker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Fixed list of terms compiled into a perfect hash, so that a word can be mapped to the position of the matching term
+ * with a single probe, or found not to be a term. Words are hashed to buckets, and each bucket is given a displacement
+ * (found when the index is built) that sends all of its terms to distinct slots ("hash and displace"); a word that is
+ * not a term lands on some slot, and is rejected by comparing it with the term held there.
+ * Terms are numbered in word order, so a table of counts indexed by term can be written out directly in word order.
+ * @author Jonathan
+ *
+ */
+public class TermIndex {
+
+	/**
+	 * Average number of terms per bucket.
+	 */
+	private static final int TERMS_PER_BUCKET = 4;
+
+	/**
+	 * Ratio of terms to slots.
+	 */
+	private static final double LOAD_FACTOR = 0.9;
+
+	/**
+	 * Number of displacements tried for a bucket before the index is rebuilt with another seed.
+	 */
+	private static final int MAX_DISPLACEMENT = 1 << 16;
+
+	/**
+	 * Marker for a slot that holds no term.
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * UTF-8 bytes of each term, in word order.
+	 */
+	private final byte[][] terms;
+
+	/**
+	 * Seed mixed into the hash of every word.
+	 */
+	private long seed;
+
+	/**
+	 * Displacement of each bucket.
+	 */
+	private int[] displacements;
+
+	/**
+	 * Number of the term held in each slot, or EMPTY.
+	 */
+	private int[] slotTerms;
+
+	/**
+	 * Hash identifying the term list, so that counts made against different term lists are never added together.
+	 */
+	private final String fingerprint;
+
+	/**
+	 * Public constructor.
+	 * @param termList the terms. They are lower cased, and blanks and duplicates are removed.
+	 */
+	public TermIndex(List<String> termList) {
+		TreeSet<String> sortedTerms = new TreeSet<>();
+		for(String term: termList) {
+			String normalised = term.trim().toLowerCase(Locale.ROOT);
+			if(!normalised.isEmpty()) {
+				sortedTerms.add(normalised);
+			}
+		}
+
+		terms = new byte[sortedTerms.size()][];
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Unable to create term list fingerprint", e);
+		}
+		int index = 0;
+		for(String term: sortedTerms) {
+			terms[index++] = term.getBytes(StandardCharsets.UTF_8);
+			digest.update(terms[index - 1]);
+			digest.update((byte)'\n');
+		}
+		StringBuilder hex = new StringBuilder();
+		for(byte b: digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		fingerprint = hex.toString();
+
+		for(seed = 0; !build(); seed++) {
+			//try again with the next seed
+		}
+	}
+
+	/**
+	 * Load a term list from a file holding one term per line.
+	 * @param termListFile the file.
+	 * @return the index.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static TermIndex load(Path termListFile) throws IOException {
+		return new TermIndex(Files.readAllLines(termListFile, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the number of terms.
+	 */
+	public int size() {
+		return terms.length;
+	}
+
+	/**
+	 * @param index the number of a term.
+	 * @return the term.
+	 */
+	public String getTerm(int index) {
+		return new String(terms[index], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the fingerprint of the term list.
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Find a word among the terms.
+	 * @param word the word.
+	 * @return the number of the term, or -1 if the word is not a term.
+	 */
+	public int indexOf(String word) {
+		byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+		return indexOf(bytes, bytes.length);
+	}
+
+	/**
+	 * Find a word, given as UTF-8 bytes, among the terms.
+	 * @param word buffer holding the word.
+	 * @param length number of valid bytes in the buffer.
+	 * @return the number of the term, or -1 if the word is not a term.
+	 */
+	public int indexOf(byte[] word, int length) {
+		if(terms.length == 0) {
+			return -1;
+		}
+		long hash = hash(word, length);
+		int term = slotTerms[slot(hash, displacements[bucket(hash)])];
+		if(term == EMPTY || !Arrays.equals(terms[term], 0, terms[term].length, word, 0, length)) {
+			return -1;
+		}
+		return term;
+	}
+
+	/**
+	 * Try to find a displacement for every bucket with the current seed, largest buckets first.
+	 * @return false if some bucket could not be placed.
+	 */
+	private boolean build() {
+		int bucketCount = Math.max(1, terms.length / TERMS_PER_BUCKET);
+		displacements = new int[bucketCount];
+		slotTerms = new int[Math.max(1, (int)Math.ceil(terms.length / LOAD_FACTOR))];
+		Arrays.fill(slotTerms, EMPTY);
+
+		long[] hashes = new long[terms.length];
+		List<List<Integer>> buckets = new ArrayList<>(bucketCount);
+		for(int bucket = 0; bucket < bucketCount; bucket++) {
+			buckets.add(new ArrayList<>());
+		}
+		for(int term = 0; term < terms.length; term++) {
+			hashes[term] = hash(terms[term], terms[term].length);
+			buckets.get(bucket(hashes[term])).add(term);
+		}
+
+		Integer[] order = new Integer[bucketCount];
+		for(int bucket = 0; bucket < bucketCount; bucket++) {
+			order[bucket] = bucket;
+		}
+		Arrays.sort(order, (bucket1, bucket2) -> buckets.get(bucket2).size() - buckets.get(bucket1).size());
+
+		int[] slots = new int[TERMS_PER_BUCKET * 8];
+		for(int bucket: order) {
+			List<Integer> bucketTerms = buckets.get(bucket);
+			if(bucketTerms.isEmpty()) {
+				break;
+			}
+			if(slots.length < bucketTerms.size()) {
+				slots = new int[bucketTerms.size()];
+			}
+
+			int displacement = 0;
+			while(!fits(bucketTerms, hashes, displacement, slots)) {
+				if(++displacement == MAX_DISPLACEMENT) {
+					return false;
+				}
+			}
+			displacements[bucket] = displacement;
+			for(int index = 0; index < bucketTerms.size(); index++) {
+				slotTerms[slots[index]] = bucketTerms.get(index);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether a displacement sends all of a bucket's terms to distinct empty slots.
+	 * @param bucketTerms the terms of the bucket.
+	 * @param hashes the hash of every term.
+	 * @param displacement the displacement.
+	 * @param slots receives the slot of each term of the bucket.
+	 * @return true if the displacement fits.
+	 */
+	private boolean fits(List<Integer> bucketTerms, long[] hashes, int displacement, int[] slots) {
+		for(int index = 0; index < bucketTerms.size(); index++) {
+			int slot = slot(hashes[bucketTerms.get(index)], displacement);
+			if(slotTerms[slot] != EMPTY) {
+				return false;
+			}
+			for(int previous = 0; previous < index; previous++) {
+				if(slots[previous] == slot) {
+					return false;
+				}
+			}
+			slots[index] = slot;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the bucket of a hash.
+	 */
+	private int bucket(long hash) {
+		return (int)((hash >>> 32) % displacements.length);
+	}
+
+	/**
+	 * @return the slot of a hash under a displacement.
+	 */
+	private int slot(long hash, int displacement) {
+		return (int)((mix(hash + displacement * 0x9E3779B97F4A7C15L) >>> 1) % slotTerms.length);
+	}
+
+	/**
+	 * Hash the bytes of a word with the current seed.
+	 * @param word buffer holding the word.
+	 * @param length number of valid bytes in the buffer.
+	 * @return the hash.
+	 */
+	private long hash(byte[] word, int length) {
+		long hash = 0xcbf29ce484222325L ^ seed;
+		for(int index = 0; index < length; index++) {
+			hash = (hash ^ (word[index] & 0xFF)) * 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Mix the bits of a 64 bit value (the SplitMix64 finaliser).
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+}
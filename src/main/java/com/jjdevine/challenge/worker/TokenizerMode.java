@@ -0,0 +1,24 @@
+package com.jjdevine.challenge.worker;
+
+/**
+ * Constants class enumerating the ways in which a worker can split text into words.
+ * @author Jonathan
+ *
+ */
+public final class TokenizerMode {
+
+	/**
+	 * private constructor; constants class.
+	 */
+	private TokenizerMode() {}
+	
+	/**
+	 * Decode each line to a String and split it on word boundaries. Only words starting with an ASCII letter are counted.
+	 */
+	public static final String STRING = "string";
+	
+	/**
+	 * Tokenize the raw UTF-8 bytes of each line. Words starting with any Unicode letter are counted.
+	 */
+	public static final String UTF8 = "utf8";
+}
@@ -0,0 +1,251 @@
+package com.jjdevine.challenge.worker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Splits lines of UTF-8 encoded bytes into words without decoding the whole line to a String.
+ * A word is a run of letters, digits, combining marks and underscores that begins with a letter (the same rule the
+ * String tokenizer applies to ASCII text, extended to all of Unicode).
+ * Words made up only of ASCII characters are lower cased and converted to keys directly from the byte slice; any
+ * other words are decoded and lower cased with the full Unicode rules.
+ * @author Jonathan
+ *
+ */
+public class Utf8Tokenizer {
+
+	/**
+	 * Byte class of bytes which do not form part of a word.
+	 */
+	private static final byte OTHER = 0;
+
+	/**
+	 * Byte class of ASCII letters.
+	 */
+	private static final byte LETTER = 1;
+
+	/**
+	 * Byte class of ASCII digits and underscore - may appear in a word but not start one.
+	 */
+	private static final byte WORD_PART = 2;
+
+	/**
+	 * Byte class of the lead byte of a multi-byte UTF-8 sequence.
+	 */
+	private static final byte MULTI_BYTE = 3;
+
+	/**
+	 * Class of each possible byte value.
+	 */
+	private static final byte[] BYTE_CLASSES = new byte[256];
+
+	/**
+	 * Bit set of Basic Multilingual Plane code points that are letters.
+	 */
+	private static final long[] BMP_LETTERS = new long[1024];
+
+	/**
+	 * Bit set of Basic Multilingual Plane code points that are letters, digits or combining marks.
+	 */
+	private static final long[] BMP_WORD_PARTS = new long[1024];
+
+	static {
+		for(int b = 0; b < 256; b++) {
+			if((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')) {
+				BYTE_CLASSES[b] = LETTER;
+			} else if((b >= '0' && b <= '9') || b == '_') {
+				BYTE_CLASSES[b] = WORD_PART;
+			} else if(b >= 0xC2 && b <= 0xF4) {
+				BYTE_CLASSES[b] = MULTI_BYTE;
+			} else {
+				BYTE_CLASSES[b] = OTHER;
+			}
+		}
+
+		for(int codePoint = 0; codePoint < 0x10000; codePoint++) {
+			if(Character.isLetter(codePoint)) {
+				BMP_LETTERS[codePoint >>> 6] |= 1L << codePoint;
+			}
+			if(isWordPartSlow(codePoint)) {
+				BMP_WORD_PARTS[codePoint >>> 6] |= 1L << codePoint;
+			}
+		}
+	}
+
+	/**
+	 * Scratch buffer used to build lower case ASCII keys.
+	 */
+	private byte[] keyBuffer = new byte[64];
+
+	/**
+	 * Code point decoded by the last successful call to decode().
+	 */
+	private int decodedCodePoint;
+
+	/**
+	 * Find the words in a line of UTF-8 text.
+	 * @param line buffer containing the line.
+	 * @param length number of valid bytes in the buffer.
+	 * @param wordSink receives the words found.
+	 */
+	public void tokenize(byte[] line, int length, WordSink wordSink) {
+		int position = 0;
+
+		while(position < length) {
+			//find the start of the next word
+			int wordStart = position;
+			int width = wordPartWidth(line, position, length);
+			if(width == 0) {
+				position++;
+				continue;
+			}
+			boolean startsWithLetter = width == 1
+					? BYTE_CLASSES[line[position] & 0xFF] == LETTER
+					: isLetter(decodedCodePoint);
+
+			//consume the rest of the word
+			boolean ascii = width == 1;
+			position += width;
+			while(position < length) {
+				width = wordPartWidth(line, position, length);
+				if(width == 0) {
+					break;
+				}
+				ascii &= width == 1;
+				position += width;
+			}
+
+			if(!startsWithLetter) {
+				continue;
+			}
+
+			if(ascii) {
+				wordSink.addAsciiWord(keyBuffer, asciiKey(line, wordStart, position));
+			} else {
+				wordSink.addWord(unicodeKey(line, wordStart, position));
+			}
+		}
+		wordSink.endLine();
+	}
+
+	/**
+	 * Build a lower case key from a slice of ASCII bytes in the key buffer.
+	 * @param line the line buffer.
+	 * @param from start of the word (inclusive).
+	 * @param to end of the word (exclusive).
+	 * @return the length of the key.
+	 */
+	private int asciiKey(byte[] line, int from, int to) {
+		int length = to - from;
+		if(length > keyBuffer.length) {
+			keyBuffer = Arrays.copyOf(keyBuffer, Math.max(keyBuffer.length * 2, length));
+		}
+		for(int index = 0; index < length; index++) {
+			byte b = line[from + index];
+			keyBuffer[index] = (b >= 'A' && b <= 'Z') ? (byte)(b | 0x20) : b;
+		}
+		return length;
+	}
+
+	/**
+	 * Build a lower case key from a slice of bytes containing non-ASCII characters.
+	 * @param line the line buffer.
+	 * @param from start of the word (inclusive).
+	 * @param to end of the word (exclusive).
+	 * @return the key.
+	 */
+	private String unicodeKey(byte[] line, int from, int to) {
+		return new String(line, from, to - from, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Get the width of the character at a position if it may form part of a word.
+	 * @return the width in bytes of the character, or 0 if it is not part of a word.
+	 */
+	private int wordPartWidth(byte[] line, int position, int length) {
+		byte byteClass = BYTE_CLASSES[line[position] & 0xFF];
+		if(byteClass == LETTER || byteClass == WORD_PART) {
+			return 1;
+		} else if(byteClass != MULTI_BYTE) {
+			return 0;
+		}
+
+		int width = decode(line, position, length);
+		return width > 0 && isWordPart(decodedCodePoint) ? width : 0;
+	}
+
+	/**
+	 * Decode the multi-byte UTF-8 sequence at a position, storing the result in decodedCodePoint.
+	 * @return the width of the sequence in bytes, or 0 if the sequence is malformed.
+	 */
+	private int decode(byte[] line, int position, int length) {
+		int lead = line[position] & 0xFF;
+		int width;
+		int codePoint;
+		if(lead < 0xE0) {
+			width = 2;
+			codePoint = lead & 0x1F;
+		} else if(lead < 0xF0) {
+			width = 3;
+			codePoint = lead & 0x0F;
+		} else {
+			width = 4;
+			codePoint = lead & 0x07;
+		}
+
+		if(position + width > length) {
+			return 0;
+		}
+
+		for(int index = 1; index < width; index++) {
+			int continuation = line[position + index] & 0xFF;
+			if((continuation & 0xC0) != 0x80) {
+				return 0;
+			}
+			codePoint = (codePoint << 6) | (continuation & 0x3F);
+		}
+
+		//reject overlong encodings, surrogates and out of range values
+		if((width == 3 && codePoint < 0x800)
+				|| (width == 4 && (codePoint < 0x10000 || codePoint > 0x10FFFF))
+				|| (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+			return 0;
+		}
+
+		decodedCodePoint = codePoint;
+		return width;
+	}
+
+	/**
+	 * @return true if the code point is a letter.
+	 */
+	private static boolean isLetter(int codePoint) {
+		if(codePoint < 0x10000) {
+			return (BMP_LETTERS[codePoint >>> 6] & (1L << codePoint)) != 0;
+		}
+		return Character.isLetter(codePoint);
+	}
+
+	/**
+	 * @return true if the code point may form part of a word.
+	 */
+	private static boolean isWordPart(int codePoint) {
+		if(codePoint < 0x10000) {
+			return (BMP_WORD_PARTS[codePoint >>> 6] & (1L << codePoint)) != 0;
+		}
+		return isWordPartSlow(codePoint);
+	}
+
+	/**
+	 * Classify a code point without using the lookup tables.
+	 * @return true if the code point is a letter, digit, combining mark or underscore.
+	 */
+	private static boolean isWordPartSlow(int codePoint) {
+		if(codePoint == '_' || Character.isLetterOrDigit(codePoint)) {
+			return true;
+		}
+		int type = Character.getType(codePoint);
+		return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK;
+	}
+}
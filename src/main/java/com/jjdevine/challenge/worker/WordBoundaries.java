@@ -0,0 +1,96 @@
+package com.jjdevine.challenge.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a line at its word boundaries, giving exactly the result of line.split("\\b") on Java 8. Since Java 19 the 
+ * regex \b only treats ASCII letters and digits as word characters (in line with \w), so a word such as "na&iuml;ve" 
+ * would be split into "na", "&iuml;" and "ve". Here, as in Java 8, a word character is a letter, a digit or '_', and 
+ * a non-spacing mark counts as a word character when it follows one (possibly through further marks).
+ * @author Jonathan
+ *
+ */
+public final class WordBoundaries {
+
+	/**
+	 * private constructor; utility class.
+	 */
+	private WordBoundaries() {}
+	
+	/**
+	 * Split a line at its word boundaries. As with String.split(), a boundary at the start of the line does not give
+	 * a leading empty string, and trailing empty strings are dropped.
+	 * @param line the line.
+	 * @return the pieces of the line between word boundaries, alternately words and the text between words.
+	 */
+	public static String[] split(String line) {
+		List<String> pieces = new ArrayList<>();
+		int pieceStart = 0;
+		//as in a regex search, every char index is tested - a boundary never falls inside a surrogate pair
+		for(int index = 1; index <= line.length(); index++) {
+			if(isBoundary(line, index)) {
+				pieces.add(line.substring(pieceStart, index));
+				pieceStart = index;
+			}
+		}
+		if(pieceStart == 0) {
+			return new String[] {line};
+		}
+		if(pieceStart < line.length()) {
+			pieces.add(line.substring(pieceStart));
+		}
+		
+		int size = pieces.size();
+		while(size > 0 && pieces.get(size - 1).isEmpty()) {
+			size--;
+		}
+		return pieces.subList(0, size).toArray(new String[size]);
+	}
+	
+	/**
+	 * Check whether there is a word boundary before a char index of a line (index 0 is never reported).
+	 * @param line the line.
+	 * @param index the index.
+	 * @return true if the characters either side of the index differ in being word characters.
+	 */
+	private static boolean isBoundary(String line, int index) {
+		int before = Character.codePointBefore(line, index);
+		boolean left = isWordCharacter(before) 
+				|| (Character.getType(before) == Character.NON_SPACING_MARK && hasBaseCharacter(line, index - 1));
+		boolean right = false;
+		if(index < line.length()) {
+			int after = Character.codePointAt(line, index);
+			right = isWordCharacter(after) 
+					|| (Character.getType(after) == Character.NON_SPACING_MARK && hasBaseCharacter(line, index));
+		}
+		return left != right;
+	}
+	
+	/**
+	 * @return true if a code point is a word character (a letter, a digit or '_').
+	 */
+	private static boolean isWordCharacter(int codePoint) {
+		return codePoint == '_' || Character.isLetterOrDigit(codePoint);
+	}
+	
+	/**
+	 * Check whether the non-spacing mark at a char index follows a letter or digit, possibly through further 
+	 * non-spacing marks.
+	 * @param line the line.
+	 * @param index the index of the mark.
+	 * @return true if the mark has a letter or digit as its base character.
+	 */
+	private static boolean hasBaseCharacter(String line, int index) {
+		for(int position = index; position >= 0; position--) {
+			int codePoint = Character.codePointAt(line, position);
+			if(Character.isLetterOrDigit(codePoint)) {
+				return true;
+			}
+			if(Character.getType(codePoint) != Character.NON_SPACING_MARK) {
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,32 @@
+package com.jjdevine.challenge.worker;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Table in which a worker counts words before writing them out in word order. Must be closed once the sorted counts
+ * have been read, to release any resources it holds.
+ * @author Jonathan
+ *
+ */
+public interface WordCounts extends WordSink, Closeable {
+
+	/**
+	 * Add to the count of a word.
+	 * @param word the word.
+	 * @param count the number of occurrences to add.
+	 */
+	void add(String word, long count);
+
+	/**
+	 * Return the counts in word order. May only be called once.
+	 * @return Iterator of words and their total counts, sorted by word.
+	 */
+	Iterator<Map.Entry<String, Long>> sortedIterator();
+
+	/**
+	 * @return the number of runs spilled to disk (always 0 for a table that does not spill).
+	 */
+	int getRunCount();
+}
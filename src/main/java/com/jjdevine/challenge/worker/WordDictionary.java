@@ -0,0 +1,85 @@
+package com.jjdevine.challenge.worker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jjdevine.challenge.dao.ChallengeDAO;
+
+/**
+ * Worker side view of the shared word dictionary, which maps each distinct word to a compact integer id.
+ * Ids already seen by this worker are cached locally; the rest are looked up in (or added to) the persistent store
+ * once per job, so each job only sends the dictionary a delta of words it has not met before.
+ * @author Jonathan
+ *
+ */
+public class WordDictionary {
+
+	/**
+	 * Maximum number of ids cached locally before the cache is discarded.
+	 */
+	private static final int MAX_CACHED_WORDS = 2_000_000;
+
+	/**
+	 * DAO to access the persistent store.
+	 */
+	private ChallengeDAO challengeDAO;
+
+	/**
+	 * Locally cached word ids.
+	 */
+	private Map<String, Integer> cachedIds = new HashMap<>();
+
+	/**
+	 * Public constructor.
+	 * @param challengeDAO DAO to access the persistent store.
+	 */
+	public WordDictionary(ChallengeDAO challengeDAO) {
+		this.challengeDAO = challengeDAO;
+	}
+
+	/**
+	 * Get the ids of a set of words, adding any words not yet in the dictionary.
+	 * @param words the words whose ids are required.
+	 * @return Map of each word to its id.
+	 */
+	public Map<String, Integer> getIds(Collection<String> words) {
+		Map<String, Integer> ids = new HashMap<>(words.size() * 2);
+		List<String> unknownWords = new ArrayList<>();
+
+		for(String word: words) {
+			Integer id = cachedIds.get(word);
+			if(id == null) {
+				unknownWords.add(word);
+			} else {
+				ids.put(word, id);
+			}
+		}
+
+		if(!unknownWords.isEmpty()) {
+			//words added to the dictionary by other workers
+			Map<String, Integer> storedIds = challengeDAO.getWordIds(unknownWords);
+
+			//the delta of words that nobody has seen before
+			List<String> newWords = new ArrayList<>();
+			for(String word: unknownWords) {
+				if(!storedIds.containsKey(word)) {
+					newWords.add(word);
+				}
+			}
+			if(!newWords.isEmpty()) {
+				storedIds.putAll(challengeDAO.addWordsToDictionary(newWords));
+			}
+
+			ids.putAll(storedIds);
+			if(cachedIds.size() + storedIds.size() > MAX_CACHED_WORDS) {
+				cachedIds.clear();
+			}
+			cachedIds.putAll(storedIds);
+		}
+
+		return ids;
+	}
+}
@@ -0,0 +1,42 @@
+package com.jjdevine.challenge.worker;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Receives the words found by a tokenizer, already lower cased.
+ * @author Jonathan
+ *
+ */
+public interface WordSink {
+
+	/**
+	 * Record an occurrence of a word.
+	 * @param word the word found.
+	 */
+	void addWord(String word);
+	
+	/**
+	 * Record an occurrence of a word made up only of ASCII characters, given as lower cased bytes. Sinks that can
+	 * count the bytes directly override this to avoid creating a String for each word.
+	 * @param word buffer holding the word, which may be reused once this method returns.
+	 * @param length number of valid bytes in the buffer.
+	 */
+	default void addAsciiWord(byte[] word, int length) {
+		addWord(new String(word, 0, length, StandardCharsets.ISO_8859_1));
+	}
+	
+	/**
+	 * Mark the start of a line. It is only called where the byte offset of the line is known, which is when the file
+	 * is split into jobs by bytes.
+	 * @param lineOffset the byte offset at which the line begins.
+	 */
+	default void startLine(long lineOffset) {
+	}
+	
+	/**
+	 * Mark the end of a line. Sinks that count sequences of words use it so that a sequence never spans lines (and so
+	 * never depends on how the text was split into jobs).
+	 */
+	default void endLine() {
+	}
+}
@@ -0,0 +1,25 @@
+package com.jjdevine.challenge.worker;
+
+/**
+ * Constants class enumerating the ways in which worker processes can be run within a node.
+ * @author Jonathan
+ *
+ */
+public final class WorkerMode {
+
+	/**
+	 * private constructor; constants class.
+	 */
+	private WorkerMode() {}
+	
+	/**
+	 * Each worker process runs on its own platform thread.
+	 */
+	public static final String PLATFORM = "platform";
+	
+	/**
+	 * Each worker process runs on a virtual thread; CPU bound counting is handed to a pool of platform threads sized
+	 * to the number of cores.
+	 */
+	public static final String VIRTUAL = "virtual";
+}
@@ -0,0 +1,320 @@
+package com.jjdevine.challenge.worker;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jjdevine.challenge.AppData;
+import com.jjdevine.challenge.Logger;
+import com.jjdevine.challenge.ProcessStatus;
+import com.jjdevine.challenge.dao.ChallengeDAO;
+
+/**
+ * Runs a node's worker threads, sizing the pool from the processors and memory available and then adjusting the
+ * number of active workers while the node runs. Every few seconds the manager samples CPU utilisation, I/O wait and
+ * the backlog of jobs, and moves its target up or down:
+ * <ul>
+ * <li>down one worker, if there are no jobs waiting beyond those already being worked on - but not below the initial
+ * size while the run is active and has yet to create its jobs (eg while the controller counts lines);</li>
+ * <li>up, if jobs are waiting and either the CPU has spare capacity or workers are stalled on I/O - by half the
+ * distance to one worker per waiting job (at most the maximum), and by at least one worker;</li>
+ * <li>down one worker, if the CPU is saturated with no I/O wait to hide and there are more workers than cores.</li>
+ * </ul>
+ * New workers are started when the target rises. When it falls, surplus workers retire the next time they are between
+ * jobs (see tryRetire()).
+ * @author Jonathan
+ *
+ */
+public class WorkerPoolManager {
+
+	/**
+	 * Memory assumed to be needed by each worker when no memory budget is set.
+	 */
+	private static final long DEFAULT_WORKER_MEMORY_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * Memory assumed to be needed by each worker in addition to its memory budget.
+	 */
+	private static final long WORKER_MEMORY_OVERHEAD_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Maximum number of workers per core, allowing for workers waiting on I/O or the persistent store.
+	 */
+	private static final int MAX_WORKERS_PER_CORE = 2;
+
+	/**
+	 * Time between adjustments of the pool.
+	 */
+	private static final long ADJUST_INTERVAL_MILLIS = 5000;
+
+	/**
+	 * CPU utilisation below which there is capacity for another worker.
+	 */
+	private static final double SPARE_CPU = 0.75;
+
+	/**
+	 * CPU utilisation above which the CPU is treated as saturated.
+	 */
+	private static final double SATURATED_CPU = 0.95;
+
+	/**
+	 * Fraction of CPU time spent waiting on I/O above which workers are treated as stalled on I/O.
+	 */
+	private static final double HIGH_IO_WAIT = 0.10;
+
+	/**
+	 * File from which Linux reports cumulative CPU times.
+	 */
+	private static final Path PROC_STAT = Paths.get("/proc/stat");
+
+	/**
+	 * Core application configuration data.
+	 */
+	private AppData appData;
+
+	/**
+	 * DAO to access the persistent store.
+	 */
+	private ChallengeDAO challengeDAO;
+
+	/**
+	 * Number of processors available.
+	 */
+	private final int cores;
+
+	/**
+	 * Smallest number of workers the pool may shrink to.
+	 */
+	private final int minWorkers = 1;
+
+	/**
+	 * Largest number of workers the pool may grow to.
+	 */
+	private final int maxWorkers;
+
+	/**
+	 * Number of workers the pool starts with.
+	 */
+	private final int initialWorkers;
+
+	/**
+	 * Number of workers the pool is aiming for.
+	 */
+	private volatile int targetWorkers;
+
+	/**
+	 * Number of workers running and not retiring.
+	 */
+	private final AtomicInteger activeWorkers = new AtomicInteger();
+
+	/**
+	 * Threads of workers that have agreed to retire.
+	 */
+	private final Set<Thread> retiringWorkers = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Set once a worker has finished of its own accord, after which no more workers are started.
+	 */
+	private volatile boolean finished = false;
+
+	/**
+	 * Cumulative CPU times (total, idle and I/O wait) at the last sample, or null if not yet sampled.
+	 */
+	private long[] lastCpuTimes;
+
+	/**
+	 * Public constructor.
+	 * @param appData Core application configuration data.
+	 * @param challengeDAO DAO to access the persistent store.
+	 */
+	public WorkerPoolManager(AppData appData, ChallengeDAO challengeDAO) {
+		this.appData = appData;
+		this.challengeDAO = challengeDAO;
+
+		cores = Runtime.getRuntime().availableProcessors();
+		int coresPerWorker = Math.max(1, appData.getCountThreads());
+		long memoryPerWorker = appData.getMemoryBudget() > 0
+				? appData.getMemoryBudget() + WORKER_MEMORY_OVERHEAD_BYTES : DEFAULT_WORKER_MEMORY_BYTES;
+		int memoryWorkers = (int)Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / memoryPerWorker);
+
+		maxWorkers = Math.max(minWorkers, Math.min(cores * MAX_WORKERS_PER_CORE / coresPerWorker, memoryWorkers));
+		initialWorkers = Math.max(minWorkers, Math.min(cores / coresPerWorker, maxWorkers));
+		targetWorkers = initialWorkers;
+	}
+
+	/**
+	 * Run workers until they have all finished, keeping the number running in line with the target.
+	 * @param worker the work done by each worker thread.
+	 */
+	public void run(Runnable worker) {
+		Logger.log("Starting " + targetWorkers + " worker threads (at most " + maxWorkers + ") on " + cores + " cores.", "n/a");
+		sampleCpuTimes();
+
+		List<Thread> threads = new ArrayList<>();
+		startWorkers(worker, threads);
+
+		while(activeWorkers.get() > 0 || !retiringWorkers.isEmpty()) {
+			try {
+				Thread.sleep(ADJUST_INTERVAL_MILLIS);
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Unable to sleep before adjusting worker pool", e);
+			}
+
+			if(!finished) {
+				adjustTarget();
+				startWorkers(worker, threads);
+			}
+			threads.removeIf(thread -> !thread.isAlive());
+		}
+
+		for(Thread thread: threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Error joining thread", e);
+			}
+		}
+	}
+
+	/**
+	 * Called by a worker between jobs to ask whether it should retire because the pool has more workers than its
+	 * target. If this returns true the worker must either stop or, if it cannot stop after all, call cancelRetire().
+	 * @return true if the worker should retire.
+	 */
+	public boolean tryRetire() {
+		while(true) {
+			int active = activeWorkers.get();
+			if(active <= targetWorkers) {
+				return false;
+			}
+			if(activeWorkers.compareAndSet(active, active - 1)) {
+				retiringWorkers.add(Thread.currentThread());
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Called by a worker that agreed to retire but has been given a job in the meantime.
+	 */
+	public void cancelRetire() {
+		retiringWorkers.remove(Thread.currentThread());
+		activeWorkers.incrementAndGet();
+	}
+
+	/**
+	 * Start workers until the number active reaches the target.
+	 * @param worker the work done by each worker thread.
+	 * @param threads the threads started so far, to which new threads are added.
+	 */
+	private void startWorkers(Runnable worker, List<Thread> threads) {
+		while(!finished && activeWorkers.get() < targetWorkers) {
+			activeWorkers.incrementAndGet();
+			Thread thread = new Thread(() -> {
+				try {
+					worker.run();
+				} finally {
+					if(!retiringWorkers.remove(Thread.currentThread())) {
+						activeWorkers.decrementAndGet();
+						finished = true;
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Move the target up or down according to the current load and backlog.
+	 */
+	private void adjustTarget() {
+		double[] load = sampleCpuTimes();
+		double cpu = load[0];
+		double ioWait = load[1];
+		long backlog = appData.isPooled()
+				? challengeDAO.countRunDemand() : challengeDAO.countOutstandingJobs() - challengeDAO.countWorkers();
+
+		int target = targetWorkers;
+		if(backlog <= 0) {
+			if(target > initialWorkers || !awaitingFirstJobs()) {
+				target--;
+			}
+		} else if(cpu < SPARE_CPU || ioWait > HIGH_IO_WAIT) {
+			int goal = (int)Math.min(backlog, maxWorkers);
+			target += Math.max(1, (goal - target) / 2);
+		} else if(cpu > SATURATED_CPU && target > cores) {
+			target--;
+		}
+		target = Math.max(minWorkers, Math.min(target, maxWorkers));
+
+		if(target != targetWorkers) {
+			Logger.log(String.format("Resizing worker pool from %d to %d (cpu %.2f, i/o wait %.2f, backlog %d)",
+					targetWorkers, target, cpu, ioWait, backlog), "n/a");
+			targetWorkers = target;
+		}
+	}
+
+	/**
+	 * Check whether the run is active but has not yet created any jobs, so the lack of a backlog says nothing about the
+	 * work to come. Pooled workers serve whichever runs have work, so are never held back for one run.
+	 * @return true if the run has yet to create its jobs.
+	 */
+	private boolean awaitingFirstJobs() {
+		return !appData.isPooled() && ProcessStatus.ACTIVE.equals(challengeDAO.queryProcessStatus()) 
+				&& !challengeDAO.hasTextProcessingJobs();
+	}
+
+	/**
+	 * Measure CPU utilisation and I/O wait since the last sample. On Linux both are read from /proc/stat, elsewhere
+	 * the JVM's measure of system CPU load is used and I/O wait is reported as 0.
+	 * @return the fraction of CPU time busy and the fraction spent waiting on I/O.
+	 */
+	private double[] sampleCpuTimes() {
+		long[] cpuTimes = readCpuTimes();
+		if(cpuTimes == null) {
+			java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+			double cpu = bean instanceof com.sun.management.OperatingSystemMXBean
+					? ((com.sun.management.OperatingSystemMXBean)bean).getCpuLoad() : -1;
+			return new double[] {cpu < 0 ? 0 : cpu, 0};
+		}
+
+		long[] previous = lastCpuTimes;
+		lastCpuTimes = cpuTimes;
+		if(previous == null || cpuTimes[0] <= previous[0]) {
+			return new double[] {0, 0};
+		}
+		double total = cpuTimes[0] - previous[0];
+		double idle = cpuTimes[1] - previous[1];
+		double ioWait = cpuTimes[2] - previous[2];
+		return new double[] {(total - idle - ioWait) / total, ioWait / total};
+	}
+
+	/**
+	 * Read the cumulative CPU times of all processors from /proc/stat.
+	 * @return the total, idle and I/O wait times, or null if they are not available.
+	 */
+	private long[] readCpuTimes() {
+		if(!Files.isReadable(PROC_STAT)) {
+			return null;
+		}
+		try {
+			//cpu user nice system idle iowait irq softirq steal ...
+			String[] fields = Files.readAllLines(PROC_STAT).get(0).trim().split("\\s+");
+			long total = 0;
+			for(int index = 1; index < fields.length && index <= 8; index++) {
+				total += Long.parseLong(fields[index]);
+			}
+			return new long[] {total, Long.parseLong(fields[4]), Long.parseLong(fields[5])};
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -1,23 +1,61 @@
 package com.jjdevine.challenge.worker;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.function.ObjLongConsumer;
 
 import org.bson.Document;
+import org.bson.types.Binary;
 
 import com.jjdevine.challenge.AppData;
 import com.jjdevine.challenge.Logger;
 import com.jjdevine.challenge.ProcessStatus;
+import com.jjdevine.challenge.RunMode;
+import com.jjdevine.challenge.analysis.Analysis;
+import com.jjdevine.challenge.analysis.AnalysisRegistry;
+import com.jjdevine.challenge.analysis.Combiner;
+import com.jjdevine.challenge.analysis.Reducer;
+import com.jjdevine.challenge.analysis.ValueCodec;
 import com.jjdevine.challenge.dao.ChallengeDAO;
+import com.jjdevine.challenge.index.InvertedIndexWriter;
+import com.jjdevine.challenge.job.CountingMode;
 import com.jjdevine.challenge.job.JobType;
+import com.jjdevine.challenge.job.ResultEncoding;
+import com.jjdevine.challenge.sketch.CountMinSketch;
+import com.jjdevine.challenge.sketch.HeavyHitters;
+import com.jjdevine.challenge.sketch.HyperLogLog;
+import com.jjdevine.challenge.sketch.WordSketch;
 import com.mongodb.client.FindIterable;
 
 /**
@@ -27,6 +65,16 @@ import com.mongodb.client.FindIterable;
  */
 public class WorkerProcess {
 	
+	/**
+	 * Size of byte range below which a job counted on the parallel counting pool is not split any further.
+	 */
+	private static final long MIN_SUB_RANGE_BYTES = 1024 * 1024;
+	
+	/**
+	 * Number of jobs a worker started without a prefetch depth claims ahead when its run has workers claim their jobs.
+	 */
+	private static final int DEFAULT_CLAIM_DEPTH = 1;
+	
 	/**
 	 * Core application configuration data.
 	 */
@@ -42,6 +90,98 @@ public class WorkerProcess {
 	 */
 	private BufferedReader reader;
 	
+	/**
+	 * Reader used instead of the BufferedReader when tokenizing raw UTF-8 bytes, re-used in the same way.
+	 */
+	private ByteLineReader byteReader;
+	
+	/**
+	 * Tokenizer used when tokenizing raw UTF-8 bytes.
+	 */
+	private Utf8Tokenizer utf8Tokenizer = new Utf8Tokenizer();
+	
+	/**
+	 * Shared word dictionary, used when results are dictionary encoded.
+	 */
+	private WordDictionary wordDictionary;
+	
+	/**
+	 * Term list counted in targeted counting mode, loaded when first needed.
+	 */
+	private TermIndex termIndex;
+	
+	/**
+	 * Analysis run in analysis counting mode, found when first needed.
+	 */
+	private Analysis<?> analysis;
+	
+	/**
+	 * Executor on which CPU bound counting is run, or null to count on the worker's own thread.
+	 */
+	private ExecutorService countingExecutor;
+	
+	/**
+	 * Write-behind stage for text processing job results, or null if results are written synchronously.
+	 */
+	private ResultWriter resultWriter;
+	
+	/**
+	 * Fork/join pool shared by the workers of the node, counting sub-ranges of byte range jobs into a shared table, or
+	 * null if each job is counted on one thread.
+	 */
+	private ForkJoinPool parallelCountingPool;
+	
+	/**
+	 * Slabs of off-heap memory shared by the word count tables of successive jobs.
+	 */
+	private final SlabArena slabArena = new SlabArena();
+	
+	/**
+	 * Local queue of claimed text processing jobs, or null if jobs are assigned by the controller one at a time.
+	 */
+	private Deque<Document> jobQueue;
+	
+	/**
+	 * The id of the text processing job the worker is counting, or null.
+	 */
+	private String textProcessingJobInProgress;
+	
+	/**
+	 * Prefetches the input of queued jobs.
+	 */
+	private InputPrefetcher inputPrefetcher;
+	
+	/**
+	 * True while the worker is working through its job queue (and so has marked itself as working).
+	 */
+	private boolean workingFromQueue = false;
+	
+	/**
+	 * Condition, checked between jobs, on which the worker leaves, or null to keep working until the process finishes.
+	 */
+	private BooleanSupplier leaveCondition;
+	
+	/**
+	 * Time the worker waits to be given a job before leaving, when it has a leave condition.
+	 */
+	private long maxWaitMillis;
+	
+	/**
+	 * True if the worker was created with the configuration of the run it serves, false if it adopts the configuration
+	 * recorded in the run's process document when it starts.
+	 */
+	private boolean configuredForRun = false;
+	
+	/**
+	 * Manager of the pool this worker belongs to, asked between jobs whether the worker should retire, or null.
+	 */
+	private WorkerPoolManager poolManager;
+	
+	/**
+	 * True once the worker has retired from a shrinking pool.
+	 */
+	private boolean retired = false;
+	
 	/**
 	 * The nodeId of this worker.
 	 * (Not currently required as instance variable however may be useful for future development)
@@ -61,12 +201,76 @@ public class WorkerProcess {
 	public WorkerProcess(AppData appData, ChallengeDAO challengeDAO) {
 		this.appData = appData;
 		this.challengeDAO = challengeDAO;
+		wordDictionary = new WordDictionary(challengeDAO);
+	}
+	
+	/**
+	 * Public Constructor.
+	 * @param appData Core applciation config data.
+	 * @param challengeDAO DAO to access the persistent store.
+	 * @param countingExecutor Executor on which CPU bound counting is run (eg when the worker itself runs on a
+	 * virtual thread).
+	 */
+	public WorkerProcess(AppData appData, ChallengeDAO challengeDAO, ExecutorService countingExecutor) {
+		this(appData, challengeDAO);
+		this.countingExecutor = countingExecutor;
+	}
+	
+	/**
+	 * Have the worker leave, rather than waiting for the process to finish, once a condition checked after each job
+	 * holds or it has waited too long to be given a job. Used by pooled workers to move between runs.
+	 * @param leaveCondition the condition.
+	 * @param maxWaitMillis the time to wait to be given a job.
+	 */
+	public void leaveWhen(BooleanSupplier leaveCondition, long maxWaitMillis) {
+		this.leaveCondition = leaveCondition;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+	
+	/**
+	 * Mark the worker as created with the configuration of the run it serves (see createRunAppData()), so that it does
+	 * not adopt the configuration recorded in the run's process document. Used by pooled workers.
+	 */
+	void configuredForRun() {
+		configuredForRun = true;
+	}
+	
+	/**
+	 * Have the worker retire when it is between jobs and its pool has more workers than its manager is aiming for.
+	 * @param poolManager the manager of the pool.
+	 */
+	public void retireWhenSurplus(WorkerPoolManager poolManager) {
+		this.poolManager = poolManager;
+	}
+	
+	/**
+	 * @return true if the worker stopped because it retired from a shrinking pool (see retireWhenSurplus()).
+	 */
+	public boolean hasRetired() {
+		return retired;
+	}
+	
+	/**
+	 * Count byte range jobs on a fork/join pool shared with the node's other workers. Each job is split into
+	 * sub-ranges, so threads that have finished their own work steal the remaining sub-ranges of other jobs.
+	 * @param parallelCountingPool the pool.
+	 */
+	public void shareParallelCountingPool(ForkJoinPool parallelCountingPool) {
+		this.parallelCountingPool = parallelCountingPool;
 	}
 	
 	/**
 	 * Main processing method for worker nodes.
 	 */
 	public void process() {
+		if(!configuredForRun) {
+			Document process = challengeDAO.getProcess();
+			if(process != null && ProcessStatus.ACTIVE.equals(process.getString("status"))) {
+				//serve the run as its controller configured it, whatever this node was started with
+				appData = adoptRunConfiguration(process);
+			}
+		}
+		
 		/*
 		 * register as new node
 		 */
@@ -77,14 +281,69 @@ public class WorkerProcess {
 		Logger.log("New worker node - <" + nodeId + ">", nodeId);
 		Logger.log(appData, nodeId);
 		
+		if(appData.getWriteQueueDepth() > 0) {
+			resultWriter = new ResultWriter(appData.getWriteQueueDepth(), "result-writer-" + nodeId, 
+					challengeDAO::failTextProcessingJob);
+		}
+		
+		if(appData.getPrefetchDepth() > 0) {
+			jobQueue = new ArrayDeque<>();
+			inputPrefetcher = new InputPrefetcher(Paths.get(appData.getSourceLocation()), "input-prefetcher-" + nodeId);
+		}
+		
 		/*
 		 * Wait for jobs 
 		 */
 		
 		boolean processFinished = !ProcessStatus.ACTIVE.equals(challengeDAO.queryProcessStatus());
+		int jobsProcessed = 0;
+		int jobsProcessedAtLeaveCheck = 0;
+		long waitingSince = System.currentTimeMillis();
 		
 		try {
 			while(!processFinished) {
+				if(resultWriter != null) {
+					//stop as soon as results could not be stored
+					resultWriter.checkFailure();
+				}
+				
+				if(leaveCondition != null) {
+					boolean leave = System.currentTimeMillis() - waitingSince > maxWaitMillis;
+					if(!leave && jobsProcessed > jobsProcessedAtLeaveCheck) {
+						//between jobs
+						jobsProcessedAtLeaveCheck = jobsProcessed;
+						leave = leaveCondition.getAsBoolean();
+					}
+					if(leave && challengeDAO.deregisterIdleWorker(nodeId)) {
+						//if deregistering failed, a job has just been assigned - process it before trying again
+						Logger.log("Leaving after processing <" + jobsProcessed + "> jobs", nodeId);
+						break;
+					}
+				}
+				
+				if(poolManager != null && (jobQueue == null || (jobQueue.isEmpty() && !workingFromQueue)) 
+						&& poolManager.tryRetire()) {
+					if(challengeDAO.deregisterIdleWorker(nodeId)) {
+						Logger.log("Retiring as the worker pool is shrinking", nodeId);
+						retired = true;
+						break;
+					}
+					//a job has just been assigned - process it and stay in the pool
+					poolManager.cancelRetire();
+				}
+				
+				if(jobQueue != null) {
+					try {
+						if(processQueuedJob()) {
+							//go straight on to the next job
+							processFinished = !ProcessStatus.ACTIVE.equals(challengeDAO.queryProcessStatus());
+							continue;
+						}
+					} catch (IOException e) {
+						throw new RuntimeException("Unable to process job", e);
+					}
+				}
+				
 				Document workerDocument = challengeDAO.getWorker(nodeId);
 				String workerStatus = workerDocument.getString("status");
 				
@@ -99,9 +358,29 @@ public class WorkerProcess {
 					String jobType = workerDocument.getString("jobType");
 					try {
 						if(JobType.TEXT_PROCESSING.equals(jobType)) {
-							processTextProcessingJob(jobId);
+							processTextProcessingJob(startTextProcessingJob(jobId));
 						} else if(JobType.AMALGAMATION.equals(jobType)){
 							processAmalgamationJob(jobId);
+						} else if(JobType.APPROXIMATE_TEXT_PROCESSING.equals(jobType)) {
+							processApproximateTextProcessingJob(startTextProcessingJob(jobId));
+						} else if(JobType.SKETCH_AMALGAMATION.equals(jobType)) {
+							processSketchAmalgamationJob();
+						} else if(JobType.TARGETED_TEXT_PROCESSING.equals(jobType)) {
+							processTargetedTextProcessingJob(startTextProcessingJob(jobId));
+						} else if(JobType.TARGETED_AMALGAMATION.equals(jobType)) {
+							processTargetedAmalgamationJob();
+						} else if(JobType.ANALYSIS_TEXT_PROCESSING.equals(jobType)) {
+							processAnalysisTextProcessingJob(startTextProcessingJob(jobId), getAnalysis());
+						} else if(JobType.ANALYSIS_AMALGAMATION.equals(jobType)) {
+							processAnalysisAmalgamationJob(jobId, getAnalysis());
+						} else if(JobType.INDEX_TEXT_PROCESSING.equals(jobType)) {
+							processIndexTextProcessingJob(startTextProcessingJob(jobId));
+						} else if(JobType.INDEX_AMALGAMATION.equals(jobType)) {
+							processIndexAmalgamationJob(jobId);
+						} else if(JobType.NGRAM_TEXT_PROCESSING.equals(jobType)) {
+							processNgramTextProcessingJob(startTextProcessingJob(jobId));
+						} else if(JobType.MERGE.equals(jobType)) {
+							processMergeJob(jobId);
 						} else {
 							throw new RuntimeException("Unrecognised job type <" + jobType + ">");
 						}
@@ -109,7 +388,10 @@ public class WorkerProcess {
 					} catch (IOException e) {
 						throw new RuntimeException("Unable to process job", e);
 					}
+					textProcessingJobInProgress = null;
 					challengeDAO.updateWorkerStatus(nodeId, WorkerStatus.IDLE);
+					jobsProcessed++;
+					waitingSince = System.currentTimeMillis();
 					break;
 				case WorkerStatus.TIMED_OUT:
 					//re-register to accept new jobs:
@@ -121,17 +403,40 @@ public class WorkerProcess {
 				try {
 					Thread.sleep(1000); //sleep before repolling
 				} catch (InterruptedException e) {
+					if(resultWriter != null) {
+						//interrupted because results could not be stored
+						resultWriter.checkFailure();
+					}
 					throw new RuntimeException("Unable to sleep before repolling", e);
 				}
 				
 				processFinished = !ProcessStatus.ACTIVE.equals(challengeDAO.queryProcessStatus());
 			}
 		} finally {
+			if(resultWriter != null && resultWriter.hasFailed()) {
+				try {
+					failUnfinishedJobs();
+				} catch (RuntimeException e) {
+					//report the failed write rather than this
+					Logger.log("Unable to return unfinished jobs: " + e, nodeId);
+				}
+			}
+			if(inputPrefetcher != null) {
+				inputPrefetcher.close();
+			}
+			if(resultWriter != null) {
+				Logger.log("Waiting for result writes to complete", nodeId);
+				resultWriter.close();
+			}
 			try {
 				if(reader != null) {
 					Logger.log("Closing Reader", nodeId);
 					reader.close();
 				}
+				if(byteReader != null) {
+					Logger.log("Closing Reader", nodeId);
+					byteReader.close();
+				}
 			} catch(IOException ex) {
 				throw new RuntimeException("Could not close reader.", ex);
 			}
@@ -140,19 +445,703 @@ public class WorkerProcess {
 		Logger.log("Process complete, exiting", nodeId);
 	}
 	
+	/**
+	 * Create the configuration with which to serve a run - the run's own settings for anything that affects its
+	 * results or the way jobs are handed out, and this node's settings for local resources.
+	 * @param nodeAppData the configuration this node was started with.
+	 * @param runConfiguration the configuration recorded by the run's controller.
+	 * @return the configuration.
+	 */
+	static AppData createRunAppData(AppData nodeAppData, Document runConfiguration) {
+		AppData runAppData = new AppData();
+		runAppData.setNamespace(nodeAppData.getNamespace());
+		runAppData.setMongoHost(nodeAppData.getMongoHost());
+		runAppData.setSourceLocation(runConfiguration.getString("source"));
+		runAppData.setTokenizerMode(runConfiguration.getString("tokenizerMode"));
+		runAppData.setResultEncoding(runConfiguration.getString("resultEncoding"));
+		runAppData.setCountingMode(runConfiguration.getString("countingMode"));
+		runAppData.setTermListLocation(runConfiguration.getString("terms"));
+		runAppData.setNgramSize(runConfiguration.getInteger("ngramSize", 0));
+		runAppData.setAnalysisName(runConfiguration.getString("analysis"));
+		runAppData.setIndexDirectory(runConfiguration.getString("indexDir"));
+		runAppData.setSplitMode(runConfiguration.getString("splitMode"));
+		runAppData.setRunMode(runConfiguration.getString("runMode"));
+		
+		runAppData.setMemoryBudget(nodeAppData.getMemoryBudget());
+		runAppData.setSpillDirectory(nodeAppData.getSpillDirectory());
+		runAppData.setOffHeapCounts(nodeAppData.isOffHeapCounts());
+		runAppData.setWriteQueueDepth(nodeAppData.getWriteQueueDepth());
+		runAppData.setChunkCacheSize(nodeAppData.getChunkCacheSize());
+		runAppData.setCountThreads(nodeAppData.getCountThreads());
+		
+		//workers must claim their own jobs exactly when the controller has stopped assigning them
+		if(!runConfiguration.getBoolean("claimJobs", false)) {
+			runAppData.setPrefetchDepth(0);
+		} else if(nodeAppData.getPrefetchDepth() > 0) {
+			runAppData.setPrefetchDepth(nodeAppData.getPrefetchDepth());
+		} else {
+			runAppData.setPrefetchDepth(DEFAULT_CLAIM_DEPTH);
+		}
+		return runAppData;
+	}
+	
+	/**
+	 * Adopt the configuration recorded in the process document of the active run. The worker refuses to start if the
+	 * run has no recorded configuration, or if its source file cannot be read from this node.
+	 * @param process the process document of the run (see ChallengeDAO.getProcess()).
+	 * @return the configuration with which to serve the run.
+	 */
+	private AppData adoptRunConfiguration(Document process) {
+		Document runConfiguration = (Document)process.get("configuration");
+		if(runConfiguration == null) {
+			throw new RuntimeException("Run <" + process.getString("runId") + "> has no recorded configuration");
+		}
+		
+		AppData runAppData = createRunAppData(appData, runConfiguration);
+		if(!Files.isReadable(Paths.get(runAppData.getSourceLocation()))) {
+			throw new RuntimeException("Unable to read source file <" + runAppData.getSourceLocation() 
+					+ "> of run <" + process.getString("runId") + "> from this node");
+		}
+		return runAppData;
+	}
+	
+	/**
+	 * Take the next job from the local job queue and process it, first topping up the queue with newly claimed jobs
+	 * so that their descriptions and input are prefetched while this job runs.
+	 * @return true if a job was processed, false if there were no jobs to claim or the worker has been assigned a job.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private boolean processQueuedJob() throws IOException {
+		if(!workingFromQueue) {
+			if(!challengeDAO.startWorkingIfAvailable(nodeId)) {
+				//the controller has assigned this worker a job (such as a merge job) - process that before claiming more
+				return false;
+			}
+			workingFromQueue = true;
+		}
+		
+		if(jobQueue.isEmpty()) {
+			topUpJobQueue();
+		}
+		
+		Document job = jobQueue.poll();
+		if(job == null) {
+			if(workingFromQueue) {
+				//let the controller know this worker is available for other jobs
+				challengeDAO.updateWorkerStatus(nodeId, WorkerStatus.IDLE);
+				workingFromQueue = false;
+			}
+			return false;
+		}
+		
+		topUpJobQueue();
+		
+		textProcessingJobInProgress = job.get("_id").toString();
+		if(CountingMode.APPROXIMATE.equals(appData.getCountingMode())) {
+			processApproximateTextProcessingJob(job);
+		} else if(CountingMode.TARGETED.equals(appData.getCountingMode())) {
+			processTargetedTextProcessingJob(job);
+		} else if(CountingMode.ANALYSIS.equals(appData.getCountingMode())) {
+			processAnalysisTextProcessingJob(job, getAnalysis());
+		} else if(CountingMode.INDEX.equals(appData.getCountingMode())) {
+			processIndexTextProcessingJob(job);
+		} else if(appData.getNgramSize() > 0) {
+			processNgramTextProcessingJob(job);
+		} else {
+			processTextProcessingJob(job);
+		}
+		textProcessingJobInProgress = null;
+		return true;
+	}
+	
+	/**
+	 * Load a text processing job assigned to the worker, recording that the worker is counting it.
+	 * @param jobId the id of the job.
+	 * @return the job.
+	 */
+	private Document startTextProcessingJob(String jobId) {
+		textProcessingJobInProgress = jobId;
+		return challengeDAO.getTextProcessingJob(jobId);
+	}
+	
+	/**
+	 * Return the text processing jobs the worker holds but has not finished - the job being counted and any claimed
+	 * jobs still queued - once it has stopped because results could not be stored, so that they are processed again.
+	 */
+	private void failUnfinishedJobs() {
+		if(textProcessingJobInProgress != null) {
+			challengeDAO.failTextProcessingJob(textProcessingJobInProgress);
+			textProcessingJobInProgress = null;
+		}
+		if(jobQueue != null) {
+			for(Document job: jobQueue) {
+				challengeDAO.failTextProcessingJob(job.get("_id").toString());
+			}
+			jobQueue.clear();
+		}
+	}
+	
+	/**
+	 * Claim text processing jobs until the local job queue is full or there are no more jobs to claim.
+	 */
+	private void topUpJobQueue() {
+		while(jobQueue.size() < appData.getPrefetchDepth()) {
+			Document job = challengeDAO.claimNextTextProcessingJob(nodeId);
+			if(job == null) {
+				return;
+			}
+			jobQueue.add(job);
+			
+			long firstByte = getFirstByte(job);
+			if(firstByte >= 0) {
+				inputPrefetcher.prefetch(firstByte);
+			}
+		}
+	}
+	
 	/**
 	 * Process a text processing job.
+	 * @param job the job.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void processTextProcessingJob(Document job) throws IOException {
+		String jobId = job.get("_id").toString();
+		
+		Logger.log("Beginning text processing job <" + jobId + "> " + describeRange(job), nodeId);
+		
+		if(ResultEncoding.DICTIONARY.equals(appData.getResultEncoding())) {
+			Map<String, Long> wordCounts = new HashMap<>();
+			readWords(job, word -> wordCounts.merge(word, 1L, Long::sum));
+			writeResults(jobId, () -> {
+				challengeDAO.completeEncodedTextProcessingJob(jobId, wordCounts, wordDictionary.getIds(wordCounts.keySet()));
+				Logger.log("Completed text processing job <" + jobId + ">", nodeId);
+			});
+		} else {
+			boolean chunkCached = useChunkCache(job);
+			if(parallelCountingPool != null && job.containsKey("lastByte") && !chunkCached) {
+				ConcurrentWordCounts wordCounts = countInParallel(job.getLong("firstByte"), job.getLong("lastByte"));
+				writeResults(jobId, () -> {
+					challengeDAO.completeTextProcessingJob(jobId, wordCounts.sortedIterator());
+					Logger.log("Completed text processing job <" + jobId + ">", nodeId);
+				});
+				return;
+			}
+			
+			WordCounts wordCounts = createWordCounts();
+			try {
+				if(chunkCached) {
+					countInChunks(job, wordCounts::add);
+				} else {
+					readWords(job, wordCounts);
+				}
+			} catch (IOException | RuntimeException e) {
+				closeWordCounts(wordCounts);
+				throw e;
+			}
+			writeResults(jobId, () -> {
+				try {
+					if(wordCounts.getRunCount() > 0) {
+						Logger.log("Merging <" + wordCounts.getRunCount() + "> spilled runs for job <" + jobId + ">", nodeId);
+					}
+					challengeDAO.completeTextProcessingJob(jobId, wordCounts.sortedIterator());
+					Logger.log("Completed text processing job <" + jobId + ">", nodeId);
+				} finally {
+					closeWordCounts(wordCounts);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Process an n-gram text processing job. Its results are stored, cached and amalgamated exactly as word results are,
+	 * keyed by n-gram.
+	 * @param job the job.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void processNgramTextProcessingJob(Document job) throws IOException {
+		String jobId = job.get("_id").toString();
+		
+		Logger.log("Beginning " + appData.getNgramSize() + "-gram text processing job <" + jobId + "> " + describeRange(job), nodeId);
+		
+		NgramCounts ngramCounts = new NgramCounts(appData.getNgramSize());
+		if(useChunkCache(job)) {
+			countInChunks(job, ngramCounts::add);
+		} else {
+			readWords(job, ngramCounts);
+		}
+		writeResults(jobId, () -> {
+			challengeDAO.completeTextProcessingJob(jobId, ngramCounts.sortedIterator());
+			Logger.log("Completed text processing job <" + jobId + "> (" + ngramCounts.size() + " distinct n-grams)", nodeId);
+		});
+	}
+	
+	/**
+	 * @param job a text processing job.
+	 * @return true if the job is to be counted through the chunk cache, which needs the byte offset of its lines.
+	 */
+	private boolean useChunkCache(Document job) {
+		return appData.getChunkCacheSize() > 0 && getFirstByte(job) >= 0;
+	}
+	
+	/**
+	 * Count the words covered by a text processing job chunk by chunk, reusing the counts cached for any chunk whose
+	 * content has been counted before and caching the counts of the rest. The lines are read once, each being hashed
+	 * and buffered by a ContentChunker, and a chunk is only tokenized if its hash is not in the cache. As the chunks
+	 * have content-defined boundaries, an edit to the file only changes the hashes of the chunks it touches (and of
+	 * the chunks at the ends of jobs whose ranges it moves).
+	 * @param job the job.
+	 * @param jobCounts receives the counts of each chunk in turn, so may be given the same key more than once.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void countInChunks(Document job, ObjLongConsumer<String> jobCounts) throws IOException {
+		if(countingExecutor != null) {
+			//hand the counting to the counting executor, leaving this thread free to block until it is done
+			Future<?> counting = countingExecutor.submit(() -> {
+				countInChunksDirect(job, jobCounts);
+				return null;
+			});
+			awaitCounting(counting);
+		} else {
+			countInChunksDirect(job, jobCounts);
+		}
+	}
+	
+	/**
+	 * Count the words covered by a text processing job chunk by chunk on the current thread (see countInChunks).
+	 * @param job the job.
+	 * @param jobCounts receives the counts of each chunk in turn.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void countInChunksDirect(Document job, ObjLongConsumer<String> jobCounts) throws IOException {
+		String jobId = job.get("_id").toString();
+		ContentChunker chunker = new ContentChunker(appData.getTokenizerMode() 
+				+ (appData.getNgramSize() > 0 ? "ngram" + appData.getNgramSize() : ""));
+		int chunks = 0;
+		int cachedChunks = 0;
+		
+		//use a separate reader so that the position of the job readers is not disturbed
+		try(ByteLineReader chunkReader = new ByteLineReader(Paths.get(appData.getSourceLocation()))) {
+			boolean byteRange = job.containsKey("lastByte");
+			long linesRemaining = byteRange ? Long.MAX_VALUE : job.getLong("lastLine") - job.getLong("firstLine") + 1;
+			long lastByte = byteRange ? job.getLong("lastByte") : Long.MAX_VALUE;
+			
+			if(byteRange) {
+				chunkReader.seekToLineStart(job.getLong("firstByte"));
+			} else {
+				chunkReader.seek(job.getLong("firstByte"));
+			}
+			
+			while(linesRemaining > 0 && chunkReader.getPosition() < lastByte) {
+				int length = chunkReader.readLine();
+				if(length < 0) {
+					break;
+				}
+				linesRemaining--;
+				
+				if(chunker.addLine(chunkReader.getLine(), length)) {
+					chunks++;
+					cachedChunks += countChunk(chunker, jobCounts) ? 1 : 0;
+				}
+			}
+		}
+		
+		if(!chunker.isEmpty()) {
+			chunks++;
+			cachedChunks += countChunk(chunker, jobCounts) ? 1 : 0;
+		}
+		Logger.log("Counted job <" + jobId + "> in <" + chunks + "> chunks, <" + cachedChunks + "> from the chunk cache", nodeId);
+	}
+	
+	/**
+	 * Count the chunk a chunker has completed, taking the counts from the chunk cache if they are there and otherwise
+	 * tokenizing the chunk and caching its counts, then start the chunker's next chunk.
+	 * @param chunker the chunker.
+	 * @param jobCounts receives the counts of the chunk.
+	 * @return true if the counts were taken from the cache.
+	 */
+	private boolean countChunk(ContentChunker chunker, ObjLongConsumer<String> jobCounts) {
+		String chunkHash = chunker.getChunkHash();
+		Map<String, Long> chunkCounts = challengeDAO.getCachedChunkCounts(chunkHash);
+		boolean cached = chunkCounts != null;
+		
+		if(!cached) {
+			chunkCounts = tokenizeChunk(chunker.getChunk(), chunker.getChunkLength());
+			challengeDAO.cacheChunkCounts(chunkHash, chunkCounts.entrySet().iterator(), appData.getChunkCacheSize());
+		}
+		
+		for(Map.Entry<String, Long> count: chunkCounts.entrySet()) {
+			jobCounts.accept(count.getKey(), count.getValue());
+		}
+		chunker.reset();
+		return cached;
+	}
+	
+	/**
+	 * Count the words (or n-grams, if configured) of a chunk of lines, using the configured tokenizer.
+	 * @param chunk buffer holding the lines, each followed by a '\n'.
+	 * @param chunkLength number of valid bytes in the buffer.
+	 * @return the counts.
+	 */
+	private Map<String, Long> tokenizeChunk(byte[] chunk, int chunkLength) {
+		Map<String, Long> chunkCounts = new HashMap<>();
+		NgramCounts ngramCounts = appData.getNgramSize() > 0 ? new NgramCounts(appData.getNgramSize()) : null;
+		WordSink wordSink = ngramCounts != null ? ngramCounts : word -> chunkCounts.merge(word, 1L, Long::sum);
+		boolean utf8 = TokenizerMode.UTF8.equals(appData.getTokenizerMode());
+		
+		byte[] line = new byte[0];
+		int lineStart = 0;
+		for(int index = 0; index < chunkLength; index++) {
+			if(chunk[index] != '\n') {
+				continue;
+			}
+			int length = index - lineStart;
+			if(utf8) {
+				if(line.length < length) {
+					line = new byte[Math.max(length, line.length * 2)];
+				}
+				System.arraycopy(chunk, lineStart, line, 0, length);
+				utf8Tokenizer.tokenize(line, length, wordSink);
+			} else {
+				updateWordCounts(wordSink, WordBoundaries.split(new String(chunk, lineStart, length, StandardCharsets.UTF_8)));
+			}
+			lineStart = index + 1;
+		}
+		
+		if(ngramCounts != null) {
+			ngramCounts.sortedIterator().forEachRemaining(count -> chunkCounts.put(count.getKey(), count.getValue()));
+		}
+		return chunkCounts;
+	}
+	
+	/**
+	 * Write the results of a text processing job, either immediately or via the write-behind stage if there is one.
+	 * The write must mark the job complete only once the results are stored.
 	 * @param jobId the id of the job.
+	 * @param write the write to perform.
+	 */
+	private void writeResults(String jobId, Runnable write) {
+		if(resultWriter != null) {
+			resultWriter.submit(jobId, write);
+		} else {
+			write.run();
+		}
+	}
+	
+	/**
+	 * Release the resources (spilled runs) held by a word count table.
+	 * @param wordCounts the table to close.
+	 */
+	private void closeWordCounts(WordCounts wordCounts) {
+		try {
+			wordCounts.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to remove spilled word counts", e);
+		}
+	}
+	
+	/**
+	 * Create a word count table - an off-heap table if configured, otherwise one that respects the configured memory
+	 * budget.
+	 * @return the table.
+	 */
+	private WordCounts createWordCounts() {
+		if(appData.isOffHeapCounts()) {
+			return new OffHeapWordCounts(slabArena);
+		}
+		long memoryBudget = appData.getMemoryBudget() > 0 ? appData.getMemoryBudget() : Long.MAX_VALUE;
+		return new SpillingWordCounts(memoryBudget, Paths.get(appData.getSpillDirectory()));
+	}
+
+	/**
+	 * Process an approximate text processing job, summarising the words in a sketch instead of counting them exactly.
+	 * @param job the job.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void processApproximateTextProcessingJob(Document job) throws IOException {
+		WordSketch sketch = new WordSketch();
+		String jobId = job.get("_id").toString();
+		
+		Logger.log("Beginning approximate text processing job <" + jobId + "> " + describeRange(job), nodeId);
+		
+		readWords(job, sketch::addWord);
+		
+		writeResults(jobId, () -> {
+			challengeDAO.completeSketchTextProcessingJob(jobId, sketch);
+			Logger.log("Completed approximate text processing job <" + jobId + ">", nodeId);
+		});
+	}
+	
+	/**
+	 * Process a targeted text processing job, counting only the words of the term list into a vector indexed by term.
+	 * ASCII words are looked up directly from the tokenizer's bytes, without creating a String.
+	 * @param job the job.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void processTargetedTextProcessingJob(Document job) throws IOException {
+		TermIndex terms = getTermIndex();
+		long[] termCounts = new long[terms.size()];
+		String jobId = job.get("_id").toString();
+		
+		Logger.log("Beginning targeted text processing job <" + jobId + "> " + describeRange(job), nodeId);
+		
+		readWords(job, new WordSink() {
+			
+			@Override
+			public void addWord(String word) {
+				int term = terms.indexOf(word);
+				if(term >= 0) {
+					termCounts[term]++;
+				}
+			}
+			
+			@Override
+			public void addAsciiWord(byte[] word, int length) {
+				int term = terms.indexOf(word, length);
+				if(term >= 0) {
+					termCounts[term]++;
+				}
+			}
+		});
+		
+		writeResults(jobId, () -> {
+			challengeDAO.completeTargetedTextProcessingJob(jobId, terms.getFingerprint(), termCounts);
+			Logger.log("Completed targeted text processing job <" + jobId + ">", nodeId);
+		});
+	}
+	
+	/**
+	 * Get the term list counted in targeted counting mode, loading it the first time it is needed.
+	 * @return the term list.
+	 * @throws IOException if the term list cannot be read.
+	 */
+	private TermIndex getTermIndex() throws IOException {
+		if(termIndex == null) {
+			termIndex = TermIndex.load(Paths.get(appData.getTermListLocation()));
+			Logger.log("Loaded <" + termIndex.size() + "> terms", nodeId);
+		}
+		return termIndex;
+	}
+	
+	/**
+	 * Process an analysis text processing job, running the analysis's mapper over the job's words and storing one 
+	 * combined value per key.
+	 * @param job the job.
+	 * @param analysis the analysis.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private <V> void processAnalysisTextProcessingJob(Document job, Analysis<V> analysis) throws IOException {
+		String jobId = job.get("_id").toString();
+		
+		Logger.log("Beginning <" + analysis.getName() + "> analysis text processing job <" + jobId + "> " + describeRange(job), nodeId);
+		
+		AnalysisSink<V> analysisSink = new AnalysisSink<>(analysis.createMapper(), analysis.getCombiner());
+		readWords(job, analysisSink);
+		writeResults(jobId, () -> {
+			challengeDAO.completeAnalysisTextProcessingJob(jobId, analysis.getName(), 
+					analysisSink.encodedIterator(analysis.getValueCodec()));
+			Logger.log("Completed analysis text processing job <" + jobId + "> (" + analysisSink.size() + " distinct keys)", nodeId);
+		});
+	}
+	
+	/**
+	 * Process an index text processing job, building the postings of every word in the job's byte range.
+	 * @param job the job.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void processIndexTextProcessingJob(Document job) throws IOException {
+		String jobId = job.get("_id").toString();
+		if(!job.containsKey("lastByte")) {
+			throw new RuntimeException("Index text processing job <" + jobId + "> does not cover a byte range");
+		}
+		
+		Logger.log("Beginning index text processing job <" + jobId + "> " + describeRange(job), nodeId);
+		
+		IndexingSink indexingSink = new IndexingSink();
+		readWords(job, indexingSink);
+		writeResults(jobId, () -> {
+			challengeDAO.completeIndexTextProcessingJob(jobId, job.getLong("firstByte"), indexingSink.sortedIterator());
+			Logger.log("Completed index text processing job <" + jobId + "> (" + indexingSink.size() + " distinct words)", nodeId);
+		});
+	}
+	
+	/**
+	 * Get the analysis run in analysis counting mode, finding it the first time it is needed.
+	 * @return the analysis.
+	 */
+	private Analysis<?> getAnalysis() {
+		if(analysis == null) {
+			analysis = AnalysisRegistry.get(appData.getAnalysisName());
+		}
+		return analysis;
+	}
+	
+	/**
+	 * Get the byte offset at which a text processing job's first line begins.
+	 * @param job the job.
+	 * @return the byte offset, or -1 if it is not known.
+	 */
+	private long getFirstByte(Document job) {
+		Long firstByte = job.getLong("firstByte");
+		return firstByte != null ? firstByte : -1;
+	}
+	
+	/**
+	 * Describe the part of the file covered by a text processing job, for logging.
+	 * @param job the job.
+	 * @return the description.
+	 */
+	private String describeRange(Document job) {
+		if(job.containsKey("lastByte")) {
+			return "starting at byte <" + job.getLong("firstByte") + "> ending before byte <" + job.getLong("lastByte") + ">";
+		}
+		return "starting at line <" + job.getLong("firstLine") + "> ending at line <" + job.getLong("lastLine") + ">";
+	}
+	
+	/**
+	 * Read the words covered by a text processing job, using the configured tokenizer.
+	 * @param job the job.
+	 * @param wordSink receives the words found.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void readWords(Document job, WordSink wordSink) throws IOException {
+		if(countingExecutor != null) {
+			//hand the counting to the counting executor, leaving this thread free to block until it is done
+			Future<?> counting = countingExecutor.submit(() -> {
+				readWordsDirect(job, wordSink);
+				return null;
+			});
+			awaitCounting(counting);
+		} else {
+			readWordsDirect(job, wordSink);
+		}
+	}
+	
+	/**
+	 * Wait for counting on another thread to complete.
+	 * @param counting the counting task.
+	 * @throws IOException if a problem was encountered processing the file.
+	 */
+	private void awaitCounting(Future<?> counting) throws IOException {
+		try {
+			counting.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while waiting for counting to complete", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new RuntimeException("Unable to count words", e.getCause());
+		}
+	}
+	
+	/**
+	 * Count the words in the lines that begin within a byte range on the parallel counting pool, into a shared table.
+	 * @param firstByte the start of the range.
+	 * @param lastByte the end of the range (exclusive).
+	 * @return the counts.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private ConcurrentWordCounts countInParallel(long firstByte, long lastByte) throws IOException {
+		ConcurrentWordCounts wordCounts = new ConcurrentWordCounts();
+		try {
+			parallelCountingPool.invoke(new SubRangeCount(wordCounts, firstByte, lastByte));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return wordCounts;
+	}
+	
+	/**
+	 * Counts the words in the lines that begin within a byte range into a shared table. A range of more than twice
+	 * MIN_SUB_RANGE_BYTES is split in two and both halves are forked, so an idle thread of the pool can steal the
+	 * half its owner has not yet reached. Each range actually counted uses its own reader, tokenizer and counter.
+	 */
+	private class SubRangeCount extends RecursiveAction {
+		
+		/**
+		 * Serialization version.
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The shared table. Tasks are never serialized (RecursiveAction is only Serializable by inheritance), so the 
+		 * table is not part of the serialized form.
+		 */
+		private final transient ConcurrentWordCounts wordCounts;
+		
+		/**
+		 * The start of the range.
+		 */
+		private final long firstByte;
+		
+		/**
+		 * The end of the range (exclusive).
+		 */
+		private final long lastByte;
+		
+		/**
+		 * Constructor.
+		 * @param wordCounts the shared table.
+		 * @param firstByte the start of the range.
+		 * @param lastByte the end of the range (exclusive).
+		 */
+		SubRangeCount(ConcurrentWordCounts wordCounts, long firstByte, long lastByte) {
+			this.wordCounts = wordCounts;
+			this.firstByte = firstByte;
+			this.lastByte = lastByte;
+		}
+		
+		@Override
+		protected void compute() {
+			if(lastByte - firstByte > 2 * MIN_SUB_RANGE_BYTES) {
+				long middleByte = firstByte + (lastByte - firstByte) / 2;
+				invokeAll(new SubRangeCount(wordCounts, firstByte, middleByte), 
+						new SubRangeCount(wordCounts, middleByte, lastByte));
+				return;
+			}
+			
+			ConcurrentWordCounts.Counter counter = wordCounts.newCounter();
+			try (ByteLineReader rangeReader = new ByteLineReader(Paths.get(appData.getSourceLocation()))) {
+				readWordsInByteRange(rangeReader, new Utf8Tokenizer(), firstByte, lastByte, counter);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			counter.flush();
+		}
+	}
+	
+	/**
+	 * Read the words covered by a text processing job on the current thread, using the configured tokenizer.
+	 * @param job the job.
+	 * @param wordSink receives the words found.
 	 * @throws IOException if a problem is encountered processing the file.
 	 */
-	private void processTextProcessingJob(String jobId) throws IOException {
-		Map<String, Long> wordCounts = new HashMap<>();
-		Document job = challengeDAO.getTextProcessingJob(jobId);
+	private void readWordsDirect(Document job, WordSink wordSink) throws IOException {
+		if(job.containsKey("lastByte")) {
+			readWordsInByteRange(job.getLong("firstByte"), job.getLong("lastByte"), wordSink);
+			return;
+		}
+		
 		long firstLine = job.getLong("firstLine");
 		long lastLine = job.getLong("lastLine");
+		long firstByte = getFirstByte(job);
 		
-		Logger.log("Beginning text processing job <" + jobId + "> starting at line <" + firstLine + "> ending at line <" + lastLine + ">", nodeId);
-		
+		if(TokenizerMode.UTF8.equals(appData.getTokenizerMode())) {
+			readWordsUtf8(firstLine, lastLine, firstByte, wordSink);
+		} else {
+			readWordsString(firstLine, lastLine, firstByte, wordSink);
+		}
+	}
+
+	/**
+	 * Read the words in a range of lines, decoding each line to a String.
+	 * @param firstLine the first line to process.
+	 * @param lastLine the last line to process (inclusive).
+	 * @param firstByte the byte offset at which firstLine begins, or -1 if not known.
+	 * @param wordSink receives the words found.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void readWordsString(long firstLine, long lastLine, long firstByte, WordSink wordSink) throws IOException {
 		if(reader == null) {
 			//first job, need to set up reader
 			try {
@@ -163,42 +1152,126 @@ public class WorkerProcess {
 			} 
 		}
 		
+		if(firstByte >= 0 && currentLineNumber != firstLine) {
+			//jump straight to the job rather than reading through the lines in between
+			reader.close();
+			FileChannel channel = FileChannel.open(Paths.get(appData.getSourceLocation()), StandardOpenOption.READ);
+			channel.position(firstByte);
+			reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+			currentLineNumber = firstLine;
+		}
+		
 		advanceToLine(firstLine);
 
 		String[] words = null;
 		while(currentLineNumber <= lastLine) {
 			//don't bother with error checking? as this will slow down processing - runtime error here would indicate programming bug elsewhere.
-			words = reader.readLine().split("\\b");
+			words = WordBoundaries.split(reader.readLine());
 			
 			currentLineNumber++;
-			updateWordCounts(wordCounts, words);
+			updateWordCounts(wordSink, words);
 		}
+	}
+	
+	/**
+	 * Read the words in a range of lines, tokenizing the raw UTF-8 bytes of each line.
+	 * @param firstLine the first line to process.
+	 * @param lastLine the last line to process (inclusive).
+	 * @param firstByte the byte offset at which firstLine begins, or -1 if not known.
+	 * @param wordSink receives the words found.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void readWordsUtf8(long firstLine, long lastLine, long firstByte, WordSink wordSink) throws IOException {
+		if(byteReader == null) {
+			//first job, need to set up reader
+			Logger.log("Opening Reader", nodeId);
+			byteReader = new ByteLineReader(Paths.get(appData.getSourceLocation()));
+		}
+		
+		if(firstByte >= 0 && currentLineNumber != firstLine) {
+			//jump straight to the job rather than reading through the lines in between
+			byteReader.seek(firstByte);
+			currentLineNumber = firstLine;
+		}
+		
+		while(currentLineNumber < firstLine) {
+			byteReader.skipLine();
+			currentLineNumber++;
+		}
+		
+		while(currentLineNumber <= lastLine) {
+			int length = byteReader.readLine();
+			
+			currentLineNumber++;
+			utf8Tokenizer.tokenize(byteReader.getLine(), length, wordSink);
+		}
+	}
 
-		challengeDAO.completeTextProcessingJob(jobId, wordCounts);
-		Logger.log("Completed text processing job <" + jobId + ">", nodeId);
+	/**
+	 * Read the words in the lines that begin within a byte range, using the configured tokenizer. The last line is
+	 * read to its end even if that lies beyond the range, and the partial line at the start of the range is skipped,
+	 * so that every line is processed by exactly one job.
+	 * @param firstByte the start of the range.
+	 * @param lastByte the end of the range (exclusive).
+	 * @param wordSink receives the words found.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void readWordsInByteRange(long firstByte, long lastByte, WordSink wordSink) throws IOException {
+		if(byteReader == null) {
+			//first job, need to set up reader
+			Logger.log("Opening Reader", nodeId);
+			byteReader = new ByteLineReader(Paths.get(appData.getSourceLocation()));
+		}
+		
+		readWordsInByteRange(byteReader, utf8Tokenizer, firstByte, lastByte, wordSink);
+	}
+	
+	/**
+	 * Read the words in the lines that begin within a byte range using a given reader and tokenizer (see 
+	 * readWordsInByteRange(long, long, WordSink)).
+	 * @param lineReader the reader.
+	 * @param tokenizer the tokenizer used if the UTF-8 tokenizer is configured.
+	 * @param firstByte the start of the range.
+	 * @param lastByte the end of the range (exclusive).
+	 * @param wordSink receives the words found.
+	 * @throws IOException if a problem is encountered processing the file.
+	 */
+	private void readWordsInByteRange(ByteLineReader lineReader, Utf8Tokenizer tokenizer, long firstByte, long lastByte, 
+			WordSink wordSink) throws IOException {
+		boolean utf8 = TokenizerMode.UTF8.equals(appData.getTokenizerMode());
+		
+		lineReader.seekToLineStart(firstByte);
+		while(lineReader.getPosition() < lastByte) {
+			long lineOffset = lineReader.getPosition();
+			int length = lineReader.readLine();
+			if(length < 0) {
+				break;
+			}
+			
+			wordSink.startLine(lineOffset);
+			if(utf8) {
+				tokenizer.tokenize(lineReader.getLine(), length, wordSink);
+			} else {
+				updateWordCounts(wordSink, WordBoundaries.split(new String(lineReader.getLine(), 0, length, StandardCharsets.UTF_8)));
+			}
+		}
 	}
 
 	/**
-	 * Update the word counts based on newly read works.
-	 * @param wordCounts Map of words to number of occurances.
+	 * Pass newly read words to a word sink.
+	 * @param wordSink receives the words.
 	 * @param words an array of newly read words to process.
 	 */
-	private void updateWordCounts(Map<String, Long> wordCounts, String[] words) {
+	private void updateWordCounts(WordSink wordSink, String[] words) {
 		for(String word: words) {
 			if(word.length() == 0
 					|| !isLetter(word.charAt(0))) {
 				continue;
 			}
 			
-			word = word.toLowerCase(); //all words to be treated as lower case
-			
-			if(wordCounts.keySet().contains(word)) {
-				wordCounts.put(word, wordCounts.get(word)+1);
-			} else {
-				wordCounts.put(word, 1L);
-			}
-			
+			wordSink.addWord(word.toLowerCase()); //all words to be treated as lower case
 		}
+		wordSink.endLine();
 	}
 
 	/**
@@ -290,36 +1363,220 @@ public class WorkerProcess {
 	private void processAmalgamationJob(String jobId) {
 		Logger.log("Processing amalgamation for <" + jobId + ">", nodeId);
 		
-		FindIterable<Document> docsToAmalgamate = challengeDAO.getTextProcessingJobResultsByPrefix(jobId);
+		if(ResultEncoding.DICTIONARY.equals(appData.getResultEncoding())) {
+			processEncodedAmalgamationJob(jobId, challengeDAO.getTextProcessingJobResultsByPrefix(jobId));
+			return;
+		} else if(RunMode.INCREMENTAL.equals(appData.getRunMode())) {
+			processIncrementalAmalgamationJob(jobId);
+			return;
+		}
+		
+		try (WordCounts wordCountTotals = createWordCounts()) {
+			challengeDAO.readTextProcessingJobWordCountsByPrefix(jobId, wordCountTotals::add);
+			
+			challengeDAO.completeAmalgamationJob(jobId, wordCountTotals.sortedIterator());
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to remove spilled word counts", e);
+		}
+	}
+	
+	/**
+	 * Process an amalgamation job of an incremental run, adding the counts of the new lines to the existing final
+	 * counts for the prefix.
+	 * @param prefix the prefix of the job.
+	 */
+	private void processIncrementalAmalgamationJob(String prefix) {
+		Document runState = challengeDAO.getRunState(appData.getSourceLocation());
+		long targetBytes = runState.getLong("targetBytes");
+		
+		if(challengeDAO.prepareIncrementalAmalgamationJob(prefix, targetBytes)) {
+			//an earlier attempt at this run has already merged this prefix
+			challengeDAO.completeIncrementalAmalgamationJob(prefix, null, targetBytes);
+			return;
+		}
 		
-		Iterator<Document> i = docsToAmalgamate.iterator();
-		Map<String, Long> wordCountTotals = new HashMap<>();
+		try (WordCounts wordCountTotals = createWordCounts()) {
+			challengeDAO.readFinalWordCountsByPrefix(prefix, wordCountTotals::add);
+			challengeDAO.readTextProcessingJobWordCountsByPrefix(prefix, wordCountTotals::add);
+			
+			challengeDAO.completeIncrementalAmalgamationJob(prefix, wordCountTotals.sortedIterator(), targetBytes);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to remove spilled word counts", e);
+		}
+	}
+	
+	/**
+	 * Process a merge job, combining the results of a group of jobs into a single set of results.
+	 * @param mergeJobId the id of the job.
+	 */
+	private void processMergeJob(String mergeJobId) {
+		@SuppressWarnings("unchecked")
+		List<String> inputs = (List<String>)challengeDAO.getMergeJob(mergeJobId).get("inputs");
+		Logger.log("Merging the results of <" + inputs.size() + "> jobs for merge job <" + mergeJobId + ">", nodeId);
+		
+		try (WordCounts wordCountTotals = createWordCounts()) {
+			challengeDAO.readJobWordCounts(inputs, wordCountTotals::add);
+			
+			challengeDAO.completeMergeJob(mergeJobId, wordCountTotals.sortedIterator());
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to remove spilled word counts", e);
+		}
+	}
+	
+	/**
+	 * Process an amalgamation job whose text processing results are dictionary encoded, merging counts by word id.
+	 * @param prefix the prefix of the job.
+	 * @param docsToAmalgamate the text processing job results for the prefix.
+	 */
+	private void processEncodedAmalgamationJob(String prefix, FindIterable<Document> docsToAmalgamate) {
+		IdCountTable idCountTotals = new IdCountTable();
 		
-		while(i.hasNext()) {
-			Document nextDoc = i.next();
-			Document wordCounts = (Document)nextDoc.get("wordCounts");
+		for(Document nextDoc: docsToAmalgamate) {
+			@SuppressWarnings("unchecked")
+			List<Integer> ids = (List<Integer>)nextDoc.get("ids");
+			@SuppressWarnings("unchecked")
+			List<Long> counts = (List<Long>)nextDoc.get("counts");
 			
-			//iterate over words, updating or 
-			Set<String> keys = wordCounts.keySet();
-			for(String word: keys) {
-				updateWordTotals(wordCountTotals, word, wordCounts.getLong(word));
+			for(int index = 0; index < ids.size(); index++) {
+				idCountTotals.add(ids.get(index), counts.get(index));
 			}
 		}
 		
-		challengeDAO.completeAmalgamationJob(jobId, wordCountTotals);
+		challengeDAO.completeEncodedAmalgamationJob(prefix, idCountTotals);
 	}
 	
 	/**
-	 * Update a map of word counts based on the newly provided word and number of instances found.
-	 * @param wordCountTotals Map to update.
-	 * @param word the word newly identified.
-	 * @param wordCount The number of occurrences of the word.
+	 * Process the sketch amalgamation job, merging the sketches of all approximate text processing jobs.
 	 */
-	private void updateWordTotals(Map<String, Long> wordCountTotals, String word, long wordCount) {
-		if(wordCountTotals.keySet().contains(word)) {
-			wordCountTotals.put(word, wordCountTotals.get(word)+wordCount);
-		} else {
-			wordCountTotals.put(word, wordCount);
+	private void processSketchAmalgamationJob() {
+		Logger.log("Processing sketch amalgamation", nodeId);
+		
+		WordSketch mergedSketch = new WordSketch();
+		for(Document nextDoc: challengeDAO.getSketchResults()) {
+			Document heavyHitterCounters = (Document)nextDoc.get("heavyHitters");
+			Map<String, Long> counters = new HashMap<>();
+			for(String word: heavyHitterCounters.keySet()) {
+				counters.put(word, heavyHitterCounters.getLong(word));
+			}
+			
+			mergedSketch.merge(new WordSketch(
+					CountMinSketch.fromBytes(((Binary)nextDoc.get("countMinSketch")).getData()),
+					HyperLogLog.fromBytes(((Binary)nextDoc.get("hyperLogLog")).getData()),
+					HeavyHitters.fromParts(nextDoc.getInteger("heavyHitterCapacity"), counters, 
+							nextDoc.getLong("heavyHitterMaxUnderCount"))));
+		}
+		
+		challengeDAO.completeSketchAmalgamationJob(mergedSketch);
+	}
+	
+	/**
+	 * Process the targeted amalgamation job, adding together the term count vectors of all targeted text processing
+	 * jobs.
+	 * @throws IOException if the term list cannot be read.
+	 */
+	private void processTargetedAmalgamationJob() throws IOException {
+		Logger.log("Processing targeted amalgamation", nodeId);
+		
+		TermIndex terms = getTermIndex();
+		long[] termCountTotals = new long[terms.size()];
+		challengeDAO.addTargetedJobCounts(terms.getFingerprint(), termCountTotals);
+		
+		challengeDAO.completeTargetedAmalgamationJob(terms, termCountTotals);
+	}
+	
+	/**
+	 * Process an analysis amalgamation job, combining the values of each key of its partition from every analysis text 
+	 * processing job and then reducing each key to its final result.
+	 * @param prefix the prefix of the job, identifying the partition of keys it amalgamates.
+	 * @param analysis the analysis.
+	 * @throws IOException if the stored results cannot be decoded.
+	 */
+	@SuppressWarnings("unchecked")
+	private <V> void processAnalysisAmalgamationJob(String prefix, Analysis<V> analysis) throws IOException {
+		Logger.log("Processing <" + analysis.getName() + "> analysis amalgamation job <" + prefix + ">", nodeId);
+		
+		Combiner<V> combiner = analysis.getCombiner();
+		ValueCodec<V> codec = analysis.getValueCodec();
+		Map<String, V> combinedValues = new TreeMap<>();
+		for(Document nextDoc: challengeDAO.getAnalysisResultsByPrefix(prefix)) {
+			if(!analysis.getName().equals(nextDoc.getString("analysis"))) {
+				throw new RuntimeException("Results of job <" + nextDoc.getString("jobId") + "> are from analysis <" 
+						+ nextDoc.getString("analysis") + ">");
+			}
+			DataInputStream values = new DataInputStream(new ByteArrayInputStream(((Binary)nextDoc.get("values")).getData()));
+			for(String key: (List<String>)nextDoc.get("keys")) {
+				combinedValues.merge(key, codec.decode(values), combiner::combine);
+			}
+		}
+		
+		Reducer<V> reducer = analysis.getReducer();
+		Iterator<Map.Entry<String, V>> combinedIterator = combinedValues.entrySet().iterator();
+		challengeDAO.completeAnalysisAmalgamationJob(prefix, analysis.getName(), new Iterator<Map.Entry<String, Object>>() {
+			
+			@Override
+			public boolean hasNext() {
+				return combinedIterator.hasNext();
+			}
+			
+			@Override
+			public Map.Entry<String, Object> next() {
+				Map.Entry<String, V> combined = combinedIterator.next();
+				return new AbstractMap.SimpleImmutableEntry<>(combined.getKey(), 
+						reducer.reduce(combined.getKey(), combined.getValue()));
+			}
+		});
+	}
+	
+	/**
+	 * Process an index amalgamation job, merging the postings of the words sharing a prefix from every index text 
+	 * processing job into a segment of the on-disk index. The partitions are read side by side in word order, and the
+	 * postings of each word are written partition by partition, so only one result document per partition is held in
+	 * memory.
+	 * @param prefix the prefix of the job, identifying the words it merges.
+	 * @throws IOException if the index cannot be written.
+	 */
+	private void processIndexAmalgamationJob(String prefix) throws IOException {
+		Logger.log("Processing index amalgamation job <" + prefix + ">", nodeId);
+		
+		PriorityQueue<IndexPartitionCursor> cursors = new PriorityQueue<>(Comparator.comparing(IndexPartitionCursor::getWord)
+				.thenComparingInt(IndexPartitionCursor::getPartitionNumber));
+		List<String> partitionJobIds = challengeDAO.getIndexPartitions(prefix);
+		for(int partition = 0; partition < partitionJobIds.size(); partition++) {
+			IndexPartitionCursor cursor = new IndexPartitionCursor(partition, 
+					challengeDAO.getIndexPostings(partitionJobIds.get(partition), prefix).iterator());
+			if(cursor.getWord() != null) {
+				cursors.add(cursor);
+			}
+		}
+		
+		Path segmentDirectory = Paths.get(appData.getIndexDirectory()).resolve(challengeDAO.getIndexSegmentName(prefix))
+				.toAbsolutePath();
+		Files.createDirectories(segmentDirectory);
+		long wordCount;
+		try(InvertedIndexWriter writer = new InvertedIndexWriter(segmentDirectory)) {
+			while(!cursors.isEmpty()) {
+				String word = cursors.peek().getWord();
+				writer.startTerm(word);
+				while(!cursors.isEmpty() && word.equals(cursors.peek().getWord())) {
+					IndexPartitionCursor cursor = cursors.poll();
+					cursor.writePostings(writer);
+					if(cursor.getWord() != null) {
+						cursors.add(cursor);
+					}
+				}
+				writer.endTerm();
+			}
+			wordCount = writer.getTermCount();
+		}
+		
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			throw new RuntimeException("Unable to find the name of this host to record where the index segment is", e);
 		}
+		challengeDAO.completeIndexAmalgamationJob(prefix, nodeId, host, segmentDirectory.toString(), wordCount);
+		Logger.log("Wrote index segment of <" + wordCount + "> words from <" + partitionJobIds.size() + "> partitions to <" 
+				+ segmentDirectory + ">", nodeId);
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.jjdevine.challenge.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for SegmentedIndexReader, reading back segments written by InvertedIndexWriter.
+ * @author Jonathan
+ *
+ */
+public class SegmentedIndexReaderTest {
+
+	/**
+	 * Number of lines containing "apple" - enough for several blocks of postings, so a skip table.
+	 */
+	private static final int APPLE_LINES = 3 * InvertedIndexWriter.LINES_PER_BLOCK + 10;
+
+	/**
+	 * Temporary index directory.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Words are routed to the segment for their prefix, and their postings read back as written, including when
+	 * advance() skips whole blocks.
+	 * @throws IOException if the index cannot be written or read.
+	 */
+	@Test
+	public void wordsAreReadFromTheirSegment() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try(InvertedIndexWriter writer = new InvertedIndexWriter(Files.createDirectory(directory.resolve("segment-00000")))) {
+			writer.startTerm("apple");
+			for(int line = 0; line < APPLE_LINES; line++) {
+				writer.addLine(line * 10L, new int[] {line % 3, line % 3 + 2}, 2);
+			}
+			writer.endTerm();
+			writer.startTerm("apricot");
+			writer.addLine(5, new int[] {0}, 1);
+			writer.endTerm();
+		}
+		try(InvertedIndexWriter writer = new InvertedIndexWriter(Files.createDirectory(directory.resolve("segment-00001")))) {
+			writer.startTerm("banana");
+			writer.addLine(15, new int[] {4}, 1);
+			writer.addLine(25, new int[] {1}, 1);
+			writer.endTerm();
+		}
+		IndexManifest manifest = new IndexManifest();
+		manifest.add("ap", "segment-00000", "host1", "/index/segment-00000", 2);
+		manifest.add("ba", "segment-00001", "host2", "/index/segment-00001", 1);
+		manifest.write(directory);
+
+		try(SegmentedIndexReader reader = SegmentedIndexReader.open(directory)) {
+			assertEquals(3, reader.getTermCount());
+
+			Postings apple = reader.getPostings("apple");
+			assertEquals(APPLE_LINES, apple.getLineCount());
+			assertEquals(2L * APPLE_LINES, apple.getOccurrenceCount());
+			assertTrue(apple.next());
+			assertEquals(0, apple.getLineOffset());
+			assertTrue(apple.advance(3005));
+			assertEquals(3010, apple.getLineOffset());
+			assertEquals(2, apple.getFrequency());
+			assertEquals(1, apple.getPosition(0));
+			assertEquals(3, apple.getPosition(1));
+			assertTrue(apple.next());
+			assertEquals(3020, apple.getLineOffset());
+			assertTrue(apple.advance((APPLE_LINES - 1) * 10L));
+			assertEquals((APPLE_LINES - 1) * 10L, apple.getLineOffset());
+			assertFalse(apple.advance(APPLE_LINES * 10L));
+
+			Postings banana = reader.getPostings("banana");
+			assertTrue(banana.advance(20));
+			assertEquals(25, banana.getLineOffset());
+			assertEquals(1, banana.getPosition(0));
+
+			assertEquals(1, reader.getPostings("apricot").getLineCount());
+			assertNull(reader.getPostings("apse"));
+			assertNull(reader.getPostings("cherry"));
+		}
+
+		IndexManifest readManifest = IndexManifest.read(directory);
+		assertEquals("host2", readManifest.getSegment("ba").getHost());
+		assertEquals("/index/segment-00001", readManifest.getSegment("ba").getPath());
+	}
+}
@@ -0,0 +1,100 @@
+package com.jjdevine.challenge.worker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+/**
+ * Tests for ConcurrentWordCounts.
+ * @author Jonathan
+ *
+ */
+public class ConcurrentWordCountsTest {
+
+	/**
+	 * Number of counting threads.
+	 */
+	private static final int THREADS = 8;
+	
+	/**
+	 * Number of words counted by each thread.
+	 */
+	private static final int WORDS_PER_THREAD = 200_000;
+	
+	/**
+	 * Number of distinct words, enough for every stripe to be resized several times.
+	 */
+	private static final int VOCABULARY = 150_000;
+	
+	/**
+	 * Several threads counting overlapping words, through Counters and directly, while stripes are resized, must give
+	 * the same counts (in word order) as counting the same words into a HashMap on one thread.
+	 */
+	@Test
+	public void concurrentCountsMatchSingleThreadedCounts() throws Exception {
+		List<String[]> threadWords = new ArrayList<>();
+		Map<String, Long> expected = new HashMap<>();
+		Random random = new Random(42);
+		for(int thread = 0; thread < THREADS; thread++) {
+			String[] words = new String[WORDS_PER_THREAD];
+			for(int index = 0; index < WORDS_PER_THREAD; index++) {
+				//a skewed mix of frequent words (kept in the Counter cache) and rare ones (which grow the stripes)
+				int wordNumber = random.nextInt(4) == 0 ? random.nextInt(20) : random.nextInt(VOCABULARY);
+				words[index] = "w" + wordNumber;
+				expected.merge(words[index], 1L, Long::sum);
+			}
+			threadWords.add(words);
+		}
+		
+		ConcurrentWordCounts wordCounts = new ConcurrentWordCounts();
+		CyclicBarrier start = new CyclicBarrier(THREADS);
+		List<Throwable> failures = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for(int thread = 0; thread < THREADS; thread++) {
+			String[] words = threadWords.get(thread);
+			boolean useCounter = thread % 2 == 0;
+			Thread counting = new Thread(() -> {
+				try {
+					start.await();
+					if(useCounter) {
+						ConcurrentWordCounts.Counter counter = wordCounts.newCounter();
+						for(String word: words) {
+							counter.addWord(word);
+						}
+						counter.flush();
+					} else {
+						for(String word: words) {
+							wordCounts.add(word, 1);
+						}
+					}
+				} catch (Throwable e) {
+					synchronized(failures) {
+						failures.add(e);
+					}
+				}
+			});
+			threads.add(counting);
+			counting.start();
+		}
+		for(Thread counting: threads) {
+			counting.join();
+		}
+		assertEquals("counting threads failed", new ArrayList<Throwable>(), failures);
+		
+		List<Map.Entry<String, Long>> expectedEntries = new ArrayList<>(expected.entrySet());
+		expectedEntries.sort(Map.Entry.comparingByKey());
+		List<Map.Entry<String, Long>> actualEntries = new ArrayList<>();
+		for(Iterator<Map.Entry<String, Long>> iterator = wordCounts.sortedIterator(); iterator.hasNext(); ) {
+			actualEntries.add(iterator.next());
+		}
+		assertEquals(expectedEntries, actualEntries);
+	}
+}
@@ -0,0 +1,105 @@
+package com.jjdevine.challenge.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for ContentChunker.
+ * @author Jonathan
+ *
+ */
+public class ContentChunkerTest {
+
+	/**
+	 * Inserting a line only changes the chunks around it - the chunks before and after it keep their hashes.
+	 */
+	@Test
+	public void insertionOnlyChangesNearbyChunks() {
+		List<String> lines = randomLines(20000);
+		List<String> chunkHashes = chunkHashes(lines);
+
+		lines.add(10000, "an inserted line");
+		List<String> editedChunkHashes = chunkHashes(lines);
+
+		assertTrue("expected many chunks, got " + chunkHashes.size(), chunkHashes.size() > 100);
+		Set<String> changed = new HashSet<>(editedChunkHashes);
+		changed.removeAll(chunkHashes);
+		assertTrue("expected only the chunks around the insertion to change, got " + changed.size(), changed.size() <= 2);
+		assertEquals(chunkHashes.get(0), editedChunkHashes.get(0));
+		assertEquals(chunkHashes.get(chunkHashes.size() - 1), editedChunkHashes.get(editedChunkHashes.size() - 1));
+	}
+
+	/**
+	 * A chunk is ended once it reaches the maximum size, whatever its content, and the seed changes the hash.
+	 */
+	@Test
+	public void chunkEndsAtMaximumSize() {
+		ContentChunker chunker = new ContentChunker("words", 0, 100, 64);
+		byte[] line = "nine byte".getBytes(StandardCharsets.UTF_8);
+		for(int index = 0; index < 9; index++) {
+			assertFalse(chunker.addLine(line, line.length));
+		}
+		assertTrue(chunker.addLine(line, line.length));
+		assertEquals(100, chunker.getChunkLength());
+
+		String hash = chunker.getChunkHash();
+		chunker.reset();
+		assertTrue(chunker.isEmpty());
+
+		ContentChunker otherSeed = new ContentChunker("ngram2", 0, 100, 64);
+		for(int index = 0; index < 10; index++) {
+			otherSeed.addLine(line, line.length);
+		}
+		assertFalse(hash.equals(otherSeed.getChunkHash()));
+	}
+
+	/**
+	 * Generate lines of random words.
+	 * @param count number of lines.
+	 * @return the lines.
+	 */
+	private List<String> randomLines(int count) {
+		Random random = new Random(42);
+		List<String> lines = new ArrayList<>();
+		for(int index = 0; index < count; index++) {
+			StringBuilder line = new StringBuilder();
+			int words = 1 + random.nextInt(12);
+			for(int word = 0; word < words; word++) {
+				line.append(word > 0 ? " " : "").append(Long.toString(random.nextInt(100000), 36));
+			}
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	/**
+	 * Divide lines into chunks of at least 1KB, ending on average every 64 lines.
+	 * @param lines the lines.
+	 * @return the hash of each chunk, in order.
+	 */
+	private List<String> chunkHashes(List<String> lines) {
+		ContentChunker chunker = new ContentChunker("words", 1024, 1024 * 1024, 6);
+		List<String> chunkHashes = new ArrayList<>();
+		for(String line: lines) {
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			if(chunker.addLine(bytes, bytes.length)) {
+				chunkHashes.add(chunker.getChunkHash());
+				chunker.reset();
+			}
+		}
+		if(!chunker.isEmpty()) {
+			chunkHashes.add(chunker.getChunkHash());
+		}
+		return chunkHashes;
+	}
+}
@@ -0,0 +1,81 @@
+package com.jjdevine.challenge.worker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Tests for OffHeapWordCounts.
+ * @author Jonathan
+ *
+ */
+public class OffHeapWordCountsTest {
+
+	/**
+	 * Words are compared by their UTF-8 bytes but must come out in String.compareTo() order, which differs from code 
+	 * point order for the BMP characters above the surrogates (U+E000 to U+FFFF, such as the private use area) and the
+	 * supplementary characters.
+	 */
+	@Test
+	public void sortedOrderMatchesStringOrder() {
+		String[] words = {
+				"a", "ab", "abc", "b", "z",
+				"\u00e9", "\u07ff", "\u0800", "\ud7ff",
+				"\ue000", "\uf8ff", "\ufb01", "\uffef", "\uffff",
+				"\ud800\udc00", "\ud83d\ude00", "\udbff\udfff",
+				"a\ue000", "a\ud83d\ude00", "a\uffff", "a\ud800\udc00",
+				"a\uf8ff", "\ud83d\ude00a"
+		};
+		assertSameOrderAndCounts(words);
+	}
+	
+	/**
+	 * Random words built from ASCII, BMP, private use and supplementary characters come out in String order.
+	 */
+	@Test
+	public void randomWordsSortInStringOrder() {
+		Random random = new Random(7);
+		int[][] ranges = {{'a', 'z'}, {0x00e0, 0x00ff}, {0x0800, 0xd7ff}, {0xe000, 0xf8ff}, {0xf900, 0xfffd}, 
+				{0x10000, 0x10ffff}};
+		String[] words = new String[20_000];
+		for(int index = 0; index < words.length; index++) {
+			StringBuilder word = new StringBuilder();
+			int length = 1 + random.nextInt(4);
+			for(int character = 0; character < length; character++) {
+				int[] range = ranges[random.nextInt(ranges.length)];
+				word.appendCodePoint(range[0] + random.nextInt(range[1] - range[0] + 1));
+			}
+			words[index] = word.toString();
+		}
+		assertSameOrderAndCounts(words);
+	}
+	
+	/**
+	 * Count words into an OffHeapWordCounts and a TreeMap, and check that they give the same entries in the same 
+	 * order.
+	 * @param words the words, each counted according to its position.
+	 */
+	private void assertSameOrderAndCounts(String[] words) {
+		TreeMap<String, Long> expected = new TreeMap<>();
+		try(OffHeapWordCounts wordCounts = new OffHeapWordCounts(new SlabArena())) {
+			for(int index = 0; index < words.length; index++) {
+				long count = index % 3 + 1;
+				wordCounts.add(words[index], count);
+				expected.merge(words[index], count, Long::sum);
+			}
+			
+			List<Map.Entry<String, Long>> actual = new ArrayList<>();
+			for(Iterator<Map.Entry<String, Long>> iterator = wordCounts.sortedIterator(); iterator.hasNext(); ) {
+				actual.add(iterator.next());
+			}
+			assertEquals(new ArrayList<>(expected.entrySet()), actual);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.jjdevine.challenge.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for WordBoundaries; the expected pieces are those given by String.split("\\b") on Java 8.
+ * @author Jonathan
+ *
+ */
+public class WordBoundariesTest {
+
+	/**
+	 * Accented letters are word characters, so they do not split a word.
+	 */
+	@Test
+	public void nonAsciiLettersStayInTheirWord() {
+		assertArrayEquals(new String[] {"na\u00efve", " ", "caf\u00e9"}, WordBoundaries.split("na\u00efve caf\u00e9"));
+		assertArrayEquals(new String[] {"\u4e2d\u6587", ", ", "\u0645\u0631\u062d\u0628\u0627"}, 
+				WordBoundaries.split("\u4e2d\u6587, \u0645\u0631\u062d\u0628\u0627"));
+		assertArrayEquals(new String[] {"\ud835\udc00\ud835\udc01", " ", "x"}, 
+				WordBoundaries.split("\ud835\udc00\ud835\udc01 x"));
+	}
+	
+	/**
+	 * A non-spacing mark belongs to the word of the letter it follows, but is not a word character on its own.
+	 */
+	@Test
+	public void nonSpacingMarksFollowTheirBaseCharacter() {
+		assertArrayEquals(new String[] {"cafe\u0301", " ", "x"}, WordBoundaries.split("cafe\u0301 x"));
+		assertArrayEquals(new String[] {" \u0301", "a"}, WordBoundaries.split(" \u0301a"));
+	}
+	
+	/**
+	 * Leading boundaries give no empty piece, trailing empty pieces are dropped and a line without boundaries is 
+	 * returned whole.
+	 */
+	@Test
+	public void matchesStringSplitEdgeCases() {
+		assertArrayEquals(new String[] {"the", " ", "cat_s", "'", "s", "."}, WordBoundaries.split("the cat_s's."));
+		assertArrayEquals(new String[] {"word"}, WordBoundaries.split("word"));
+		assertArrayEquals(new String[] {" - "}, WordBoundaries.split(" - "));
+		assertArrayEquals(new String[] {""}, WordBoundaries.split(""));
+	}
+}